@@ -0,0 +1,56 @@
+/*
+ * Copyright 2015 Martin Bella
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.orange_box.storebox;
+
+/**
+ * Objects which invocations of methods without any StoreBox annotations get
+ * forwarded to, such as a {@code SharedPreferences} and its
+ * {@code SharedPreferences.Editor} on Android.
+ */
+final class ForwardingTargets {
+    
+    private final Object preferences;
+    private final Object editor;
+    private final Class<?> editorType;
+    
+    /**
+     * @param preferences - object to forward to first
+     * @param editor - object to forward to if {@code preferences} doesn't
+     * have a matching method, which also gets returned by methods chaining
+     * through {@code editorType}
+     * @param editorType - interface which methods can declare as their
+     * return type to chain calls through the editor
+     */
+    ForwardingTargets(Object preferences, Object editor, Class<?> editorType) {
+        this.preferences = preferences;
+        this.editor = editor;
+        this.editorType = editorType;
+    }
+    
+    public Object getPreferences() {
+        return preferences;
+    }
+    
+    public Object getEditor() {
+        return editor;
+    }
+    
+    public Class<?> getEditorType() {
+        return editorType;
+    }
+}
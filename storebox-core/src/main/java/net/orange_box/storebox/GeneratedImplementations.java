@@ -0,0 +1,172 @@
+/*
+ * Copyright 2015 Martin Bella
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.orange_box.storebox;
+
+import net.orange_box.storebox.backends.StoreBackend;
+import net.orange_box.storebox.enums.SaveMode;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Looks up implementations generated at compile-time by the
+ * {@code storebox-processor} module, which are named after the interface
+ * they implement with {@link #SUFFIX} appended to the name.
+ * <p>
+ * Lookups are cached, including for interfaces which don't have a generated
+ * implementation, so only the first lookup for an interface will go through
+ * the class loader.
+ */
+final class GeneratedImplementations {
+    
+    static final String SUFFIX = "_StoreBox";
+    
+    /**
+     * Name of the field generated implementations keep their backend in.
+     */
+    private static final String BACKEND_FIELD = "backend";
+    /**
+     * Name of the field generated implementations keep their resolver in.
+     */
+    private static final String RESOLVER_FIELD = "resolver";
+    
+    /**
+     * Marks interfaces without a generated implementation, as the map can't
+     * hold nulls.
+     */
+    private static final Constructor<?> NONE;
+    static {
+        try {
+            NONE = Object.class.getConstructor();
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    private static final ConcurrentMap<Class<?>, Constructor<?>> CONSTRUCTORS =
+            new ConcurrentHashMap<>();
+    
+    /**
+     * @return new instance of the generated implementation for {@code cls},
+     * or {@code null} if an implementation was not generated
+     */
+    static <T> T newInstance(
+            Class<T> cls,
+            StoreBackend backend,
+            ValueResolver resolver,
+            SaveMode saveMode) {
+        
+        final Constructor<?> constructor = getConstructor(cls);
+        if (constructor == NONE) {
+            return null;
+        }
+        
+        try {
+            return cls.cast(
+                    constructor.newInstance(backend, resolver, saveMode));
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            
+            throw new RuntimeException(e.getCause());
+        } catch (InstantiationException | IllegalAccessException e) {
+            throw new RuntimeException(String.format(
+                    Locale.ENGLISH,
+                    "Failed to instantiate generated implementation for %1$s",
+                    cls.getName()),
+                    e);
+        }
+    }
+    
+    /**
+     * @return backend used by {@code instance}, or {@code null} if it isn't
+     * a generated implementation
+     */
+    static StoreBackend getBackend(Object instance) {
+        final Object backend = getField(instance, BACKEND_FIELD);
+        return (backend instanceof StoreBackend)
+                ? (StoreBackend) backend
+                : null;
+    }
+    
+    /**
+     * @return resolver used by {@code instance}, or {@code null} if it isn't
+     * a generated implementation
+     */
+    static ValueResolver getResolver(Object instance) {
+        final Object resolver = getField(instance, RESOLVER_FIELD);
+        return (resolver instanceof ValueResolver)
+                ? (ValueResolver) resolver
+                : null;
+    }
+    
+    private static Object getField(Object instance, String name) {
+        if (!instance.getClass().getName().endsWith(SUFFIX)) {
+            return null;
+        }
+        
+        try {
+            final Field field = instance.getClass().getDeclaredField(name);
+            field.setAccessible(true);
+            
+            return field.get(instance);
+        } catch (NoSuchFieldException | IllegalAccessException e) {
+            return null;
+        }
+    }
+    
+    private static Constructor<?> getConstructor(Class<?> cls) {
+        Constructor<?> constructor = CONSTRUCTORS.get(cls);
+        if (constructor == null) {
+            constructor = findConstructor(cls);
+            CONSTRUCTORS.put(cls, constructor);
+        }
+        
+        return constructor;
+    }
+    
+    private static Constructor<?> findConstructor(Class<?> cls) {
+        final Class<?> generated;
+        try {
+            generated = Class.forName(
+                    cls.getName() + SUFFIX, true, cls.getClassLoader());
+        } catch (ClassNotFoundException e) {
+            return NONE;
+        }
+        
+        if (!cls.isAssignableFrom(generated)) {
+            return NONE;
+        }
+        
+        try {
+            final Constructor<?> constructor = generated.getDeclaredConstructor(
+                    StoreBackend.class, ValueResolver.class, SaveMode.class);
+            constructor.setAccessible(true);
+            
+            return constructor;
+        } catch (NoSuchMethodException e) {
+            return NONE;
+        }
+    }
+    
+    private GeneratedImplementations() {}
+}
@@ -0,0 +1,394 @@
+/*
+ * Copyright 2015 Martin Bella
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.orange_box.storebox;
+
+import net.orange_box.storebox.adapters.StoreBoxTypeAdapter;
+import net.orange_box.storebox.adapters.StoreType;
+import net.orange_box.storebox.annotations.method.ClearMethod;
+import net.orange_box.storebox.annotations.method.DefaultValue;
+import net.orange_box.storebox.annotations.method.KeyByResource;
+import net.orange_box.storebox.annotations.method.KeyByString;
+import net.orange_box.storebox.annotations.method.RegisterChangeListenerMethod;
+import net.orange_box.storebox.annotations.method.RemoveMethod;
+import net.orange_box.storebox.annotations.method.TypeAdapter;
+import net.orange_box.storebox.annotations.method.UnregisterChangeListenerMethod;
+import net.orange_box.storebox.annotations.option.SaveOption;
+import net.orange_box.storebox.backends.SlottedStoreBackend;
+import net.orange_box.storebox.backends.StoreBackend;
+import net.orange_box.storebox.enums.SaveMode;
+import net.orange_box.storebox.utils.MethodUtils;
+import net.orange_box.storebox.utils.TypeUtils;
+
+import java.lang.reflect.Method;
+
+/**
+ * Immutable description of how an invocation of an interface method should be
+ * carried out.
+ * <p>
+ * Everything which can be worked out from the method's annotations and
+ * signature, such as the key, the type adapter, or the save mode, is resolved
+ * once when the plan is created so that subsequent invocations don't need to
+ * go through reflection again.
+ */
+final class MethodPlan {
+
+    private static final Method OBJECT_EQUALS =
+            MethodUtils.getObjectMethod("equals", Object.class);
+    private static final Method OBJECT_HASHCODE =
+            MethodUtils.getObjectMethod("hashCode");
+    private static final Method OBJECT_TOSTRING =
+            MethodUtils.getObjectMethod("toString");
+
+    enum Kind {
+        GET,
+        SET,
+        REMOVE,
+        REMOVE_BY_ARGUMENT,
+        CLEAR,
+        CHANGE_LISTENER,
+        OBJECT_EQUALS,
+        OBJECT_HASHCODE,
+        OBJECT_TOSTRING,
+        FORWARD
+    }
+
+    enum Chaining {
+        NONE,
+        PROXY,
+        EDITOR
+    }
+    
+    enum Target {
+        NONE,
+        PREFERENCES,
+        EDITOR
+    }
+
+    private final Kind kind;
+    private final Class<?> type;
+    @SuppressWarnings("rawtypes")
+    private final StoreBoxTypeAdapter adapter;
+    private final String key;
+    private final Object defaultValue;
+    private final SaveMode saveMode;
+    private final Chaining chaining;
+    private final Target target;
+    private final Method targetMethod;
+    private final int slot;
+
+    private MethodPlan(
+            Kind kind,
+            Class<?> type,
+            @SuppressWarnings("rawtypes") StoreBoxTypeAdapter adapter,
+            String key,
+            Object defaultValue,
+            SaveMode saveMode,
+            Chaining chaining,
+            Target target,
+            Method targetMethod) {
+
+        this(kind, type, adapter, key, defaultValue, saveMode, chaining,
+                target, targetMethod, SlottedStoreBackend.NO_SLOT);
+    }
+
+    private MethodPlan(
+            Kind kind,
+            Class<?> type,
+            @SuppressWarnings("rawtypes") StoreBoxTypeAdapter adapter,
+            String key,
+            Object defaultValue,
+            SaveMode saveMode,
+            Chaining chaining,
+            Target target,
+            Method targetMethod,
+            int slot) {
+
+        this.kind = kind;
+        this.type = type;
+        this.adapter = adapter;
+        this.key = key;
+        this.defaultValue = defaultValue;
+        this.saveMode = saveMode;
+        this.chaining = chaining;
+        this.target = target;
+        this.targetMethod = targetMethod;
+        this.slot = slot;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * @return boxed value type for get plans, {@code null} otherwise
+     */
+    public Class<?> getType() {
+        return type;
+    }
+
+    /**
+     * @return adapter for get and set plans, {@code null} otherwise
+     */
+    @SuppressWarnings("rawtypes")
+    public StoreBoxTypeAdapter getAdapter() {
+        return adapter;
+    }
+
+    /**
+     * @return key for plans which use a key declared through an annotation,
+     * {@code null} otherwise
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * @return default from a {@link DefaultValue} annotation already adapted
+     * for the preferences, or {@code null} if one wasn't declared
+     */
+    public Object getDefaultValue() {
+        return defaultValue;
+    }
+
+    public SaveMode getSaveMode() {
+        return saveMode;
+    }
+
+    public Chaining getChaining() {
+        return chaining;
+    }
+    
+    /**
+     * @return what a forward plan should be invoked on, or {@link Target#NONE}
+     * if neither the preferences nor the editor have a matching method
+     */
+    public Target getTarget() {
+        return target;
+    }
+    
+    /**
+     * @return method to invoke on the target for forward plans, {@code null}
+     * otherwise
+     */
+    public Method getTargetMethod() {
+        return targetMethod;
+    }
+    
+    /**
+     * @return slot of the key for get plans using a
+     * {@link SlottedStoreBackend} which has one, otherwise
+     * {@link SlottedStoreBackend#NO_SLOT}
+     */
+    public int getSlot() {
+        return slot;
+    }
+
+    static MethodPlan create(
+            Method method,
+            StoreBackend backend,
+            ValueResolver resolver,
+            SaveMode defaultSaveMode,
+            ForwardingTargets forwarding) {
+
+        /*
+         * Find the key for the preference from the method's annotation, or
+         * whether it's a remove method, else the method will have to be
+         * forwarded to the SharedPreferences or Editor implementations.
+         */
+        final String key;
+        final Kind kind;
+        if (method.isAnnotationPresent(KeyByString.class)) {
+            key = method.getAnnotation(KeyByString.class).value();
+            kind = getKindForKeyedMethod(method, forwarding);
+        } else if (method.isAnnotationPresent(KeyByResource.class)) {
+            key = resolver.getString(
+                    method.getAnnotation(KeyByResource.class).value());
+            kind = getKindForKeyedMethod(method, forwarding);
+        } else if (method.isAnnotationPresent(RemoveMethod.class)) {
+            key = null;
+            kind = Kind.REMOVE_BY_ARGUMENT;
+        } else if (method.isAnnotationPresent(ClearMethod.class)) {
+            key = null;
+            kind = Kind.CLEAR;
+        } else if (method.equals(OBJECT_EQUALS)) {
+            return withoutKey(Kind.OBJECT_EQUALS);
+        } else if (method.equals(OBJECT_HASHCODE)) {
+            return withoutKey(Kind.OBJECT_HASHCODE);
+        } else if (method.equals(OBJECT_TOSTRING)) {
+            return withoutKey(Kind.OBJECT_TOSTRING);
+        } else {
+            return forward(method, forwarding);
+        }
+
+        if (kind == Kind.CHANGE_LISTENER) {
+            return new MethodPlan(
+                    kind, null, null, key, null, null, Chaining.NONE,
+                    Target.NONE, null);
+        }
+
+        if (kind == Kind.GET) {
+            /*
+             * We wrap any primitive types to their boxed equivalents as this
+             * makes further operations a bit nicer.
+             */
+            final Class<?> type =
+                    TypeUtils.wrapToBoxedType(method.getReturnType());
+            @SuppressWarnings("rawtypes")
+            final StoreBoxTypeAdapter adapter = TypeUtils.getTypeAdapter(
+                    type,
+                    method.getAnnotation(TypeAdapter.class));
+
+            // streamed blobs get saved once the stream is closed
+            return new MethodPlan(
+                    kind,
+                    type,
+                    adapter,
+                    key,
+                    getDefaultValue(method, type, adapter, resolver),
+                    (adapter.getStoreType() == StoreType.BLOB)
+                            ? getSaveMode(method, defaultSaveMode)
+                            : null,
+                    Chaining.NONE,
+                    Target.NONE,
+                    null,
+                    SlottedStoreBackend.getSlot(
+                            backend, key, adapter.getStoreType()));
+        }
+
+        @SuppressWarnings("rawtypes")
+        final StoreBoxTypeAdapter adapter;
+        if (kind == Kind.SET) {
+            /*
+             * Argument types are boxed for us, so we only need to check one
+             * variant and we also need to find out what type to store the
+             * value under.
+             */
+            adapter = TypeUtils.getTypeAdapter(
+                    MethodUtils.getValueParameterType(method),
+                    method.getAnnotation(TypeAdapter.class));
+        } else {
+            adapter = null;
+        }
+
+        final SaveMode saveMode = getSaveMode(method, defaultSaveMode);
+
+        // allow chaining if appropriate
+        final Class<?> returnType = method.getReturnType();
+        final Chaining chaining;
+        if (returnType == method.getDeclaringClass()) {
+            chaining = Chaining.PROXY;
+        } else if (returnType == forwarding.getEditorType()) {
+            chaining = Chaining.EDITOR;
+        } else {
+            chaining = Chaining.NONE;
+        }
+
+        return new MethodPlan(
+                kind, null, adapter, key, null, saveMode, chaining,
+                Target.NONE, null);
+    }
+
+    private static MethodPlan withoutKey(Kind kind) {
+        return new MethodPlan(
+                kind, null, null, null, null, null, Chaining.NONE,
+                Target.NONE, null);
+    }
+    
+    /**
+     * Resolves where the method can be forwarded to up-front, so that
+     * invocations don't have to look the method up again or rely on
+     * exceptions when it's missing. Failing to find a target is remembered
+     * too, and only reported once the method gets invoked.
+     */
+    private static MethodPlan forward(
+            Method method,
+            ForwardingTargets forwarding) {
+        
+        final Target target;
+        Method targetMethod = MethodUtils.findMatchingMethod(
+                forwarding.getPreferences().getClass(), method);
+        if (targetMethod != null) {
+            target = Target.PREFERENCES;
+        } else {
+            targetMethod = MethodUtils.findMatchingMethod(
+                    forwarding.getEditor().getClass(), method);
+            target = (targetMethod != null) ? Target.EDITOR : Target.NONE;
+        }
+        
+        return new MethodPlan(
+                Kind.FORWARD, null, null, null, null, null, Chaining.NONE,
+                target, targetMethod);
+    }
+
+    /**
+     * Find out based on the method return type whether it's a get or set
+     * operation. We could provide a further annotation for get/set methods,
+     * but we can infer this reasonably easily.
+     */
+    private static Kind getKindForKeyedMethod(
+            Method method,
+            ForwardingTargets forwarding) {
+        
+        if (method.isAnnotationPresent(RemoveMethod.class)) {
+            return Kind.REMOVE;
+        } else if (MethodUtils.areAnyAnnotationsPresent(
+                method,
+                RegisterChangeListenerMethod.class,
+                UnregisterChangeListenerMethod.class)) {
+
+            return Kind.CHANGE_LISTENER;
+        }
+
+        final Class<?> returnType = method.getReturnType();
+        if (returnType == Void.TYPE
+                || returnType == method.getDeclaringClass()
+                || returnType == forwarding.getEditorType()) {
+
+            return Kind.SET;
+        } else {
+            return Kind.GET;
+        }
+    }
+
+    private static SaveMode getSaveMode(
+            Method method,
+            SaveMode defaultSaveMode) {
+
+        // method-level strategy > class-level strategy
+        if (method.isAnnotationPresent(SaveOption.class)) {
+            return method.getAnnotation(SaveOption.class).value();
+        } else {
+            return defaultSaveMode;
+        }
+    }
+
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    private static Object getDefaultValue(
+            Method method,
+            Class<?> type,
+            StoreBoxTypeAdapter adapter,
+            ValueResolver resolver) {
+
+        if (!method.isAnnotationPresent(DefaultValue.class)) {
+            return null;
+        }
+
+        return adapter.adaptForPreferences(resolver.getValue(
+                method.getAnnotation(DefaultValue.class).value(),
+                type));
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright 2015 Martin Bella
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.orange_box.storebox;
+
+import net.orange_box.storebox.backends.Crc32c;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Interfaces, preference files and keys which were accessed while a
+ * {@link StartupProfiler} was recording, which can be persisted and used for
+ * prefetching them during the next start of the process.
+ * <p>
+ * The persisted format holds each interface name, file name and key once,
+ * followed by a CRC32C checksum so that a damaged profile gets rejected
+ * instead of prefetching the wrong values.
+ */
+public final class StartupProfile {
+    
+    private static final int MAGIC = 0x53425350; // SBSP
+    private static final int VERSION = 1;
+    private static final String TEMP_SUFFIX = ".tmp";
+    
+    private final Map<String, String> files;
+    private final Map<String, Set<String>> keys;
+    
+    /**
+     * @param files - file names by interface name, of which the values may be
+     * {@code null} when the file isn't known
+     * @param keys - keys by interface name
+     */
+    public StartupProfile(
+            Map<String, String> files,
+            Map<String, ? extends Set<String>> keys) {
+        
+        final Map<String, String> copiedFiles = new LinkedHashMap<>();
+        final Map<String, Set<String>> copiedKeys = new LinkedHashMap<>();
+        for (final String name : files.keySet()) {
+            copiedFiles.put(name, files.get(name));
+            copiedKeys.put(name, Collections.<String>emptySet());
+        }
+        for (final Map.Entry<String, ? extends Set<String>> entry
+                : keys.entrySet()) {
+            
+            if (!copiedFiles.containsKey(entry.getKey())) {
+                copiedFiles.put(entry.getKey(), null);
+            }
+            copiedKeys.put(
+                    entry.getKey(),
+                    Collections.unmodifiableSet(
+                            new LinkedHashSet<>(entry.getValue())));
+        }
+        
+        this.files = Collections.unmodifiableMap(copiedFiles);
+        this.keys = Collections.unmodifiableMap(copiedKeys);
+    }
+    
+    /**
+     * @return names of the interfaces in the order in which they were first
+     * accessed
+     */
+    public Set<String> getInterfaces() {
+        return files.keySet();
+    }
+    
+    /**
+     * @return name of the preferences file used by the interface, or
+     * {@code null} if it isn't known
+     */
+    public String getFile(String name) {
+        return files.get(name);
+    }
+    
+    /**
+     * @return keys of the interface which were read
+     */
+    public Set<String> getKeys(String name) {
+        final Set<String> result = keys.get(name);
+        return (result == null) ? Collections.<String>emptySet() : result;
+    }
+    
+    public boolean contains(String name, String key) {
+        return getKeys(name).contains(key);
+    }
+    
+    /**
+     * @return number of keys across all of the interfaces
+     */
+    public int size() {
+        int size = 0;
+        for (final Set<String> values : keys.values()) {
+            size += values.size();
+        }
+        return size;
+    }
+    
+    /**
+     * Writes the profile into a temporary file which then gets renamed, so
+     * that a partially written profile never gets read.
+     */
+    public void write(File file) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream data = new DataOutputStream(bytes);
+        data.writeInt(MAGIC);
+        data.writeByte(VERSION);
+        data.writeInt(files.size());
+        for (final Map.Entry<String, String> entry : files.entrySet()) {
+            data.writeUTF(entry.getKey());
+            data.writeUTF((entry.getValue() == null) ? "" : entry.getValue());
+            
+            final Set<String> values = keys.get(entry.getKey());
+            data.writeInt(values.size());
+            for (final String key : values) {
+                data.writeUTF(key);
+            }
+        }
+        
+        final Crc32c crc = new Crc32c();
+        crc.update(bytes.toByteArray(), 0, bytes.size());
+        data.writeInt((int) crc.getValue());
+        data.close();
+        
+        final File temp = new File(file.getPath() + TEMP_SUFFIX);
+        final FileOutputStream stream = new FileOutputStream(temp);
+        try {
+            bytes.writeTo(stream);
+            stream.getFD().sync();
+        } finally {
+            stream.close();
+        }
+        
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException(
+                    "Failed to rename " + temp + " to " + file);
+        }
+    }
+    
+    /**
+     * @throws IOException if the file can't be read or if it doesn't hold a
+     * valid profile
+     */
+    public static StartupProfile read(File file) throws IOException {
+        final byte[] bytes = new byte[(int) file.length()];
+        final DataInputStream stream =
+                new DataInputStream(new FileInputStream(file));
+        try {
+            stream.readFully(bytes);
+        } finally {
+            stream.close();
+        }
+        
+        if (bytes.length < 4) {
+            throw new IOException("Truncated profile " + file);
+        }
+        final Crc32c crc = new Crc32c();
+        crc.update(bytes, 0, bytes.length - 4);
+        final DataInputStream data = new DataInputStream(
+                new ByteArrayInputStream(bytes, 0, bytes.length - 4));
+        if (ByteBuffer.wrap(bytes, bytes.length - 4, 4).getInt()
+                != (int) crc.getValue()
+                || data.readInt() != MAGIC
+                || data.readByte() != VERSION) {
+            
+            throw new IOException("Invalid profile " + file);
+        }
+        
+        final Map<String, String> files = new LinkedHashMap<>();
+        final Map<String, Set<String>> keys = new LinkedHashMap<>();
+        final int count = data.readInt();
+        for (int i = 0; i < count; i++) {
+            final String name = data.readUTF();
+            final String fileName = data.readUTF();
+            files.put(name, fileName.isEmpty() ? null : fileName);
+            
+            final int size = data.readInt();
+            final Set<String> values = new LinkedHashSet<>();
+            for (int j = 0; j < size; j++) {
+                values.add(data.readUTF());
+            }
+            keys.put(name, values);
+        }
+        
+        return new StartupProfile(files, keys);
+    }
+}
@@ -0,0 +1,409 @@
+/*
+ * Copyright 2015 Martin Bella
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.orange_box.storebox;
+
+import net.orange_box.storebox.adapters.StoreBoxTypeAdapter;
+import net.orange_box.storebox.adapters.StoreType;
+import net.orange_box.storebox.annotations.method.TypeAdapter;
+import net.orange_box.storebox.backends.StoreBackend;
+import net.orange_box.storebox.enums.SaveMode;
+import net.orange_box.storebox.utils.PreferenceUtils;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Records which interfaces, preference files and keys get accessed during the
+ * first moments of a process, so that they can be prefetched in the
+ * background the next time it starts.
+ * <p>
+ * Recording is opt-in and only covers instances which were created after it
+ * was started. While it isn't recording reading values only costs a volatile
+ * read.
+ * <p>
+ * Values of keys read through a custom {@link TypeAdapter} can also be
+ * decoded ahead of time. Each of those is handed out once, to the first read
+ * of the same stored value, so that callers never share a mutable object, and
+ * the ones which didn't get used are dropped once recording finishes.
+ */
+public final class StartupProfiler {
+    
+    /**
+     * Receives the profile once recording has finished, on a background
+     * thread.
+     */
+    public interface Callback {
+        
+        void onRecorded(StartupProfile profile);
+    }
+    
+    private static final ScheduledExecutorService EXECUTOR =
+            Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    final Thread thread =
+                            new Thread(runnable, "StoreBox startup profiler");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+    
+    private static final Object LOCK = new Object();
+    
+    /**
+     * Interfaces of the instances created while recording, as several
+     * instances can share the same backend.
+     */
+    private static final Map<Object, Class<?>> INSTANCES =
+            Collections.synchronizedMap(new WeakHashMap<Object, Class<?>>());
+    private static final ConcurrentMap<String, Recorded> RECORDED =
+            new ConcurrentHashMap<>();
+    private static final ConcurrentMap<Class<?>, ConcurrentMap<Object, Object>>
+            DECODED = new ConcurrentHashMap<>();
+    
+    private static final AtomicInteger READS = new AtomicInteger();
+    private static final AtomicInteger PREDICTED = new AtomicInteger();
+    private static final AtomicInteger PREFETCHED = new AtomicInteger();
+    private static final AtomicInteger PREFETCH_HITS = new AtomicInteger();
+    
+    private static volatile boolean recording;
+    private static volatile long deadline;
+    private static volatile StartupProfile previous;
+    
+    private static Callback callback;
+    private static ScheduledFuture<?> timeout;
+    
+    /**
+     * Starts recording, stopping any earlier recording first.
+     * 
+     * @param previous - profile recorded during the previous start, which
+     * the hit rate gets measured against, or {@code null} if there's none
+     * @param windowMillis - for how long to record for
+     * @param callback - receives the recorded profile
+     */
+    public static void start(
+            StartupProfile previous,
+            long windowMillis,
+            Callback callback) {
+        
+        if (windowMillis <= 0) {
+            throw new IllegalArgumentException(String.format(
+                    Locale.ENGLISH,
+                    "Window of %1$d ms needs to be positive",
+                    windowMillis));
+        }
+        
+        stop();
+        synchronized (LOCK) {
+            RECORDED.clear();
+            READS.set(0);
+            PREDICTED.set(0);
+            PREFETCHED.set(0);
+            PREFETCH_HITS.set(0);
+            
+            StartupProfiler.previous = previous;
+            StartupProfiler.callback = callback;
+            deadline = System.nanoTime()
+                    + TimeUnit.MILLISECONDS.toNanos(windowMillis);
+            timeout = EXECUTOR.schedule(
+                    new Runnable() {
+                        @Override
+                        public void run() {
+                            stop();
+                        }
+                    },
+                    windowMillis,
+                    TimeUnit.MILLISECONDS);
+            recording = true;
+        }
+    }
+    
+    /**
+     * Stops recording before the window has passed, which also drops any
+     * values which were decoded ahead of time but haven't been used.
+     * 
+     * @return the recorded profile, or {@code null} if it wasn't recording
+     */
+    public static StartupProfile stop() {
+        final Callback target;
+        final StartupProfile profile;
+        synchronized (LOCK) {
+            if (!recording) {
+                return null;
+            }
+            
+            recording = false;
+            timeout.cancel(false);
+            timeout = null;
+            INSTANCES.clear();
+            DECODED.clear();
+            
+            final List<Map.Entry<String, Recorded>> entries =
+                    new ArrayList<>(RECORDED.entrySet());
+            Collections.sort(
+                    entries,
+                    new Comparator<Map.Entry<String, Recorded>>() {
+                        @Override
+                        public int compare(
+                                Map.Entry<String, Recorded> lhs,
+                                Map.Entry<String, Recorded> rhs) {
+                            
+                            final long diff =
+                                    lhs.getValue().first
+                                            - rhs.getValue().first;
+                            return (diff < 0) ? -1 : (diff > 0 ? 1 : 0);
+                        }
+                    });
+            
+            final Map<String, String> files = new LinkedHashMap<>();
+            final Map<String, Set<String>> keys = new LinkedHashMap<>();
+            for (final Map.Entry<String, Recorded> entry : entries) {
+                files.put(entry.getKey(), entry.getValue().file);
+                keys.put(entry.getKey(), entry.getValue().keys);
+            }
+            profile = new StartupProfile(files, keys);
+            
+            target = callback;
+            callback = null;
+        }
+        
+        if (target != null) {
+            target.onRecorded(profile);
+        }
+        return profile;
+    }
+    
+    public static boolean isRecording() {
+        return recording;
+    }
+    
+    /**
+     * @return number of distinct keys which were read while recording
+     */
+    public static int getReadCount() {
+        return READS.get();
+    }
+    
+    /**
+     * @return number of distinct keys which were read while recording and
+     * which the previous profile predicted
+     */
+    public static int getPredictedCount() {
+        return PREDICTED.get();
+    }
+    
+    /**
+     * @return fraction of the distinct keys read while recording which the
+     * previous profile predicted, or {@code 0} if no keys have been read
+     */
+    public static float getHitRate() {
+        final int reads = READS.get();
+        return (reads == 0) ? 0f : PREDICTED.get() / (float) reads;
+    }
+    
+    /**
+     * @return number of values which were decoded ahead of time
+     */
+    public static int getPrefetchedCount() {
+        return PREFETCHED.get();
+    }
+    
+    /**
+     * @return number of values decoded ahead of time which then got used
+     */
+    public static int getPrefetchHitCount() {
+        return PREFETCH_HITS.get();
+    }
+    
+    /**
+     * Called by instances whenever they read a key, this shouldn't need to
+     * be called directly.
+     */
+    public static void onRead(Object instance, String key) {
+        if (!recording || System.nanoTime() - deadline > 0) {
+            return;
+        }
+        
+        final Class<?> cls = INSTANCES.get(instance);
+        if (cls != null && record(cls.getName()).keys.add(key)) {
+            READS.incrementAndGet();
+            
+            final StartupProfile last = previous;
+            if (last != null && last.contains(cls.getName(), key)) {
+                PREDICTED.incrementAndGet();
+            }
+        }
+    }
+    
+    /**
+     * Called by instances for taking a value decoded ahead of time, this
+     * shouldn't need to be called directly.
+     * 
+     * @param value - value which is stored in the preferences
+     * @return {@code value} adapted by an adapter of the same class as
+     * {@code adapter}, or {@code null} if it wasn't decoded ahead of time
+     */
+    public static Object takeDecoded(
+            StoreBoxTypeAdapter<?, ?> adapter,
+            Object value) {
+        
+        if (value == null || DECODED.isEmpty()) {
+            return null;
+        }
+        
+        final Map<Object, Object> values = DECODED.get(adapter.getClass());
+        if (values == null) {
+            return null;
+        }
+        
+        final Object decoded = values.remove(value);
+        if (decoded != null) {
+            PREFETCH_HITS.incrementAndGet();
+        }
+        return decoded;
+    }
+    
+    static void onCreated(Class<?> cls, Object instance) {
+        if (recording) {
+            INSTANCES.put(instance, cls);
+            record(cls.getName());
+        }
+    }
+    
+    static void onOpened(Class<?> cls, String file) {
+        if (recording && file != null) {
+            record(cls.getName()).file = file;
+        }
+    }
+    
+    /**
+     * Decodes the values of {@code keys} which {@code cls} reads through a
+     * custom {@link TypeAdapter}, so that reading them while recording
+     * doesn't have to.
+     */
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    static void prefetch(
+            Class<?> cls,
+            StoreBackend backend,
+            ValueResolver resolver,
+            Set<String> keys) {
+        
+        final ForwardingTargets forwarding = new ForwardingTargets(
+                backend, backend.edit(), StoreBackend.Editor.class);
+        for (final Method method : cls.getMethods()) {
+            if (!recording) {
+                return;
+            } else if (!method.isAnnotationPresent(TypeAdapter.class)
+                    || method.getParameterTypes().length > 0) {
+                
+                continue;
+            }
+            
+            final MethodPlan plan;
+            try {
+                plan = MethodPlan.create(
+                        method, backend, resolver, SaveMode.APPLY, forwarding);
+            } catch (RuntimeException e) {
+                // left for the instance to report when the method gets called
+                continue;
+            }
+            final StoreBoxTypeAdapter adapter = plan.getAdapter();
+            if (plan.getKind() != MethodPlan.Kind.GET
+                    || adapter.getStoreType() == StoreType.BLOB
+                    || !keys.contains(plan.getKey())
+                    || !backend.contains(plan.getKey())) {
+                
+                continue;
+            }
+            
+            final Object value = PreferenceUtils.getValue(
+                    backend,
+                    plan.getKey(),
+                    adapter.getStoreType(),
+                    adapter.getDefaultValue());
+            if (value == null) {
+                continue;
+            }
+            
+            final Object decoded;
+            try {
+                decoded = adapter.adaptFromPreferences(value);
+            } catch (RuntimeException e) {
+                // left for the read to decode, and to fail, on its own thread
+                continue;
+            }
+            if (decoded != null) {
+                ConcurrentMap<Object, Object> values =
+                        DECODED.get(adapter.getClass());
+                if (values == null) {
+                    final ConcurrentMap<Object, Object> created =
+                            new ConcurrentHashMap<>();
+                    values = DECODED.putIfAbsent(adapter.getClass(), created);
+                    if (values == null) {
+                        values = created;
+                    }
+                }
+                
+                if (values.putIfAbsent(value, decoded) == null) {
+                    PREFETCHED.incrementAndGet();
+                }
+            }
+        }
+    }
+    
+    private static Recorded record(String name) {
+        Recorded recorded = RECORDED.get(name);
+        if (recorded == null) {
+            final Recorded created = new Recorded(System.nanoTime());
+            recorded = RECORDED.putIfAbsent(name, created);
+            if (recorded == null) {
+                recorded = created;
+            }
+        }
+        return recorded;
+    }
+    
+    private StartupProfiler() {}
+    
+    private static final class Recorded {
+        
+        final long first;
+        final Set<String> keys = Collections.newSetFromMap(
+                new ConcurrentHashMap<String, Boolean>());
+        volatile String file;
+        
+        Recorded(long first) {
+            this.first = first;
+        }
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2015 Martin Bella
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.orange_box.storebox;
+
+import net.orange_box.storebox.annotations.option.SaveOption;
+import net.orange_box.storebox.backends.ReadOnlyStoreBackend;
+import net.orange_box.storebox.backends.StoreBackend;
+import net.orange_box.storebox.enums.SaveMode;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+
+/**
+ * Creates instances of interfaces on top of any {@link StoreBackend}, without
+ * depending on the Android APIs. On Android {@code StoreBox} should be used
+ * instead.
+ * <p>
+ * Methods without any StoreBox annotations get forwarded to the backend or to
+ * its editor, and methods returning a {@link StoreBackend.Editor} can be used
+ * for chaining calls.
+ */
+public final class StoreBoxFactory {
+    
+    /**
+     * @param cls - the interface class which should be instantiated
+     * @param backend - the backend which values should be stored in
+     * @return new instance of class {@code cls} using {@code backend}
+     */
+    public static <T> T create(Class<T> cls, StoreBackend backend) {
+        return create(cls, backend, ValueResolver.NONE);
+    }
+    
+    /**
+     * @param cls - the interface class which should be instantiated
+     * @param backend - the backend which values should be stored in
+     * @param resolver - used for resolving keys and defaults declared through
+     * identifiers
+     * @return new instance of class {@code cls} using {@code backend}
+     */
+    public static <T> T create(
+            Class<T> cls,
+            StoreBackend backend,
+            ValueResolver resolver) {
+        
+        if (cls == null) {
+            throw new IllegalArgumentException("Class cannot be null");
+        } else if (!cls.isInterface()) {
+            throw new IllegalArgumentException(
+                    "Class needs to be an interface");
+        }
+        
+        final SaveMode saveMode;
+        if (cls.isAnnotationPresent(SaveOption.class)) {
+            saveMode = cls.getAnnotation(SaveOption.class).value();
+        } else {
+            saveMode = SaveMode.APPLY;
+        }
+        
+        final StoreBackend.Editor editor = backend.edit();
+        return create(
+                cls,
+                backend,
+                editor,
+                resolver,
+                saveMode,
+                new ForwardingTargets(
+                        backend, editor, StoreBackend.Editor.class));
+    }
+    
+    /**
+     * @param instance - instance created by StoreBox
+     * @return backend which {@code instance} stores its values in, which can
+     * be used for inspecting the backend, for example for its statistics
+     * @throws IllegalArgumentException if {@code instance} wasn't created by
+     * StoreBox
+     */
+    public static StoreBackend getBackend(Object instance) {
+        if (instance != null && Proxy.isProxyClass(instance.getClass())) {
+            final InvocationHandler handler =
+                    Proxy.getInvocationHandler(instance);
+            if (handler instanceof StoreBoxInvocationHandler) {
+                return ((StoreBoxInvocationHandler) handler).getBackend();
+            }
+        } else if (instance != null) {
+            final StoreBackend backend =
+                    GeneratedImplementations.getBackend(instance);
+            if (backend != null) {
+                return backend;
+            }
+        }
+        
+        throw new IllegalArgumentException(
+                "Instance wasn't created by StoreBox");
+    }
+    
+    /**
+     * Takes a snapshot of the values of {@code instance}, so that several
+     * values can be read consistently while changes are being saved on other
+     * threads, without blocking them.
+     * <p>
+     * Taking a snapshot of a
+     * {@link net.orange_box.storebox.backends.VersionedStoreBackend}, such as
+     * the ones keeping their values in memory, doesn't copy any values.
+     * 
+     * @param instance - instance created by StoreBox
+     * @return read-only instance of the same interface, holding the values
+     * of {@code instance} as they are now, which throws an
+     * {@link UnsupportedOperationException} when trying to change them
+     * @throws IllegalArgumentException if {@code instance} wasn't created by
+     * StoreBox
+     */
+    public static <T> T snapshot(T instance) {
+        final StoreBackend snapshot =
+                ReadOnlyStoreBackend.snapshot(getBackend(instance));
+        final StoreBackend.Editor editor = snapshot.edit();
+        
+        return snapshot(
+                instance,
+                snapshot,
+                editor,
+                new ForwardingTargets(
+                        snapshot, editor, StoreBackend.Editor.class));
+    }
+    
+    /**
+     * @return new instance of the interface implemented by {@code instance},
+     * using {@code snapshot} with the same resolver
+     */
+    @SuppressWarnings("unchecked")
+    static <T> T snapshot(
+            T instance,
+            StoreBackend snapshot,
+            StoreBackend.Editor editor,
+            ForwardingTargets forwarding) {
+        
+        final ValueResolver resolver;
+        if (Proxy.isProxyClass(instance.getClass())) {
+            resolver = ((StoreBoxInvocationHandler)
+                    Proxy.getInvocationHandler(instance)).getResolver();
+        } else {
+            resolver = GeneratedImplementations.getResolver(instance);
+        }
+        
+        return create(
+                (Class<T>) instance.getClass().getInterfaces()[0],
+                snapshot,
+                editor,
+                resolver,
+                SaveMode.APPLY,
+                forwarding);
+    }
+    
+    /**
+     * If an implementation for {@code cls} has been generated by the
+     * {@code storebox-processor} annotation processor then an instance of
+     * it will be returned, otherwise a dynamic proxy will be created.
+     */
+    @SuppressWarnings("unchecked")
+    static <T> T create(
+            Class<T> cls,
+            StoreBackend backend,
+            StoreBackend.Editor editor,
+            ValueResolver resolver,
+            SaveMode saveMode,
+            ForwardingTargets forwarding) {
+        
+        T instance = GeneratedImplementations.newInstance(
+                cls, backend, resolver, saveMode);
+        if (instance == null) {
+            instance = (T) Proxy.newProxyInstance(
+                    cls.getClassLoader(),
+                    new Class[]{cls},
+                    new StoreBoxInvocationHandler(
+                            backend,
+                            editor,
+                            resolver,
+                            saveMode,
+                            forwarding));
+        }
+        
+        StartupProfiler.onCreated(cls, instance);
+        return instance;
+    }
+    
+    private StoreBoxFactory() {}
+}
@@ -0,0 +1,299 @@
+/*
+ * Copyright 2015 Martin Bella
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.orange_box.storebox;
+
+import net.orange_box.storebox.adapters.StoreBoxTypeAdapter;
+import net.orange_box.storebox.adapters.StoreType;
+import net.orange_box.storebox.annotations.method.KeyByResource;
+import net.orange_box.storebox.annotations.method.KeyByString;
+import net.orange_box.storebox.backends.SlottedStoreBackend;
+import net.orange_box.storebox.backends.SpillingStoreBackend;
+import net.orange_box.storebox.backends.StoreBackend;
+import net.orange_box.storebox.enums.SaveMode;
+import net.orange_box.storebox.handlers.ChangeListenerMethodHandler;
+import net.orange_box.storebox.handlers.MethodHandler;
+import net.orange_box.storebox.utils.MethodUtils;
+import net.orange_box.storebox.utils.PreferenceUtils;
+import net.orange_box.storebox.utils.TypeUtils;
+
+import java.io.OutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * This is where the magic happens...
+ */
+class StoreBoxInvocationHandler implements InvocationHandler {
+
+    private final StoreBackend backend;
+    private final StoreBackend.Editor editor;
+    private final ValueResolver resolver;
+    
+    private final SaveMode saveMode;
+    private final ForwardingTargets forwarding;
+    
+    private final MethodHandler mChangesHandler;
+    
+    private final ConcurrentMap<Method, MethodPlan> plans;
+    
+    private int hashCode;
+    
+    /**
+     * @param editor - editor of {@code backend} which changes will be made
+     * through, which should share its changes with the editor in
+     * {@code forwarding}
+     */
+    public StoreBoxInvocationHandler(
+            StoreBackend backend,
+            StoreBackend.Editor editor,
+            ValueResolver resolver,
+            SaveMode saveMode,
+            ForwardingTargets forwarding) {
+        
+        this.backend = backend;
+        this.editor = editor;
+        this.resolver = resolver;
+        
+        this.saveMode = saveMode;
+        this.forwarding = forwarding;
+        
+        mChangesHandler = new ChangeListenerMethodHandler(backend);
+        
+        plans = new ConcurrentHashMap<>();
+    }
+    
+    public StoreBackend getBackend() {
+        return backend;
+    }
+    
+    public ValueResolver getResolver() {
+        return resolver;
+    }
+    
+    @Override
+    public Object invoke(
+            Object proxy, Method method, Object... args) throws Throwable {
+        
+        final MethodPlan plan = getPlan(method);
+        
+        switch (plan.getKind()) {
+            case GET:
+                return get(proxy, plan, args);
+            
+            case SET:
+                set(plan, args);
+                break;
+            
+            case REMOVE:
+                editor.remove(plan.getKey());
+                break;
+            
+            case REMOVE_BY_ARGUMENT:
+                editor.remove(MethodUtils.getKeyForRemove(resolver, args));
+                break;
+            
+            case CLEAR:
+                editor.clear();
+                break;
+            
+            case CHANGE_LISTENER:
+                return mChangesHandler.handleInvocation(
+                        plan.getKey(), proxy, method, args);
+            
+            case OBJECT_EQUALS:
+                return internalEquals(proxy, args[0]);
+            
+            case OBJECT_HASHCODE:
+                return internalHashCode();
+            
+            case OBJECT_TOSTRING:
+                return toString();
+            
+            case FORWARD:
+            default:
+                return forward(plan, method, args);
+        }
+        
+        PreferenceUtils.saveChanges(editor, plan.getSaveMode());
+        
+        switch (plan.getChaining()) {
+            case PROXY:
+                return proxy;
+            
+            case EDITOR:
+                return forwarding.getEditor();
+            
+            case NONE:
+            default:
+                return null;
+        }
+    }
+    
+    private MethodPlan getPlan(Method method) {
+        MethodPlan plan = plans.get(method);
+        if (plan == null) {
+            plan = MethodPlan.create(
+                    method, backend, resolver, saveMode, forwarding);
+            
+            final MethodPlan existing = plans.putIfAbsent(method, plan);
+            if (existing != null) {
+                plan = existing;
+            }
+        }
+        
+        return plan;
+    }
+    
+    @SuppressWarnings("unchecked")
+    private Object get(Object proxy, MethodPlan plan, Object... args) {
+        StartupProfiler.onRead(proxy, plan.getKey());
+        
+        final StoreBoxTypeAdapter adapter = plan.getAdapter();
+        if (adapter.getStoreType() == StoreType.BLOB) {
+            return getBlob(plan);
+        }
+        
+        // parameter default > method-level default
+        final Object defValue;
+        if (args != null && args.length > 0 && args[0] != null) {
+            TypeUtils.checkDefaultValueType(plan.getType(), args[0]);
+            
+            defValue = adapter.adaptForPreferences(args[0]);
+        } else if (plan.getDefaultValue() != null) {
+            defValue = plan.getDefaultValue();
+        } else {
+            defValue = adapter.getDefaultValue();
+        }
+        
+        if (plan.getSlot() != SlottedStoreBackend.NO_SLOT) {
+            return adapter.adaptFromPreferences(
+                    ((SlottedStoreBackend) backend).getSlotValue(
+                            plan.getSlot(), defValue));
+        } else {
+            return PreferenceUtils.getAdaptedValue(
+                    backend,
+                    plan.getKey(),
+                    adapter,
+                    defValue);
+        }
+    }
+    
+    @SuppressWarnings("unchecked")
+    private void set(MethodPlan plan, Object... args) {
+        final StoreBoxTypeAdapter adapter = plan.getAdapter();
+        if (adapter.getStoreType() == StoreType.BLOB) {
+            PreferenceUtils.putBlob(
+                    getBlobs(),
+                    editor,
+                    plan.getKey(),
+                    MethodUtils.getValueArg(args));
+            return;
+        }
+        
+        final Object value = adapter.adaptForPreferences(
+                MethodUtils.getValueArg(args));
+        
+        PreferenceUtils.putValue(
+                editor, plan.getKey(), adapter.getStoreType(), value);
+    }
+    
+    private Object getBlob(MethodPlan plan) {
+        if (plan.getType() != OutputStream.class) {
+            return PreferenceUtils.getBlob(
+                    getBlobs(), plan.getKey(), plan.getType());
+        }
+        
+        // the blob gets saved once the caller closes the stream
+        final String key = plan.getKey();
+        final SaveMode mode = plan.getSaveMode();
+        return getBlobs().newBlob(new SpillingStoreBackend.BlobCallback() {
+            @Override
+            public void onBlobWritten(String reference) {
+                editor.putString(key, reference);
+                PreferenceUtils.saveChanges(editor, mode);
+            }
+        });
+    }
+    
+    private SpillingStoreBackend getBlobs() {
+        if (backend instanceof SpillingStoreBackend) {
+            return (SpillingStoreBackend) backend;
+        }
+        
+        throw new UnsupportedOperationException(String.format(
+                Locale.ENGLISH,
+                "Type %1$s needs values to be stored by a %2$s",
+                StoreType.BLOB.name(),
+                SpillingStoreBackend.class.getSimpleName()));
+    }
+    
+    private Object forward(
+            MethodPlan plan, Method method, Object... args) throws Throwable {
+        
+        switch (plan.getTarget()) {
+            case PREFERENCES:
+                return plan.getTargetMethod().invoke(
+                        forwarding.getPreferences(), args);
+            
+            case EDITOR:
+                return plan.getTargetMethod().invoke(
+                        forwarding.getEditor(), args);
+            
+            case NONE:
+            default:
+                // NOP
+        }
+        
+        // fail fast, rather than ignoring the method invocation
+        throw new UnsupportedOperationException(String.format(
+                Locale.ENGLISH,
+                "Failed to invoke %1$s method, " +
+                        "perhaps the %2$s or %3$s annotation is missing?",
+                method.getName(),
+                KeyByString.class.getSimpleName(),
+                KeyByResource.class.getSimpleName()));
+    }
+    
+    private boolean internalEquals(Object us, Object other) {
+        if (other == null) {
+            return false;
+        }
+        if (other.getClass() != us.getClass()) {
+            return false;
+        }
+
+        final InvocationHandler otherHandler =
+                Proxy.getInvocationHandler(other);
+        return  (otherHandler instanceof StoreBoxInvocationHandler)
+                && (us == other);
+
+    }
+    
+    private int internalHashCode() {
+        if (hashCode == 0) {
+            hashCode = Arrays.hashCode(new Object[] {
+                    backend, editor, resolver, saveMode});
+        }
+        
+        return hashCode;
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2015 Martin Bella
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.orange_box.storebox;
+
+/**
+ * Resolves values referenced by identifiers in annotations, such as
+ * {@link net.orange_box.storebox.annotations.method.KeyByResource} and
+ * {@link net.orange_box.storebox.annotations.method.DefaultValue}, which on
+ * Android are resource identifiers.
+ */
+public interface ValueResolver {
+    
+    /**
+     * Used when no values can be resolved.
+     */
+    ValueResolver NONE = new ValueResolver() {
+        @Override
+        public String getString(int id) {
+            throw new UnsupportedOperationException(
+                    "Values can't be resolved without a resolver");
+        }
+        
+        @Override
+        public Object getValue(int id, Class<?> type) {
+            throw new UnsupportedOperationException(
+                    "Values can't be resolved without a resolver");
+        }
+    };
+    
+    String getString(int id);
+    
+    /**
+     * @param id - identifier of the value
+     * @param type - boxed type of the value which should be returned
+     * @return value of {@code id} converted to {@code type}
+     * @throws UnsupportedOperationException if the value can't be converted
+     * to {@code type}
+     */
+    Object getValue(int id, Class<?> type);
+}
@@ -23,5 +23,6 @@ public enum StoreType {
     INTEGER,
     LONG,
     STRING,
-    STRING_SET
+    STRING_SET,
+    BLOB
 }
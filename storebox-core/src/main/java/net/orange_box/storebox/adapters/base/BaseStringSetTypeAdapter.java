@@ -16,8 +16,6 @@
 
 package net.orange_box.storebox.adapters.base;
 
-import android.annotation.TargetApi;
-import android.os.Build;
 import android.support.annotation.Nullable;
 
 import net.orange_box.storebox.adapters.StoreBoxTypeAdapter;
@@ -29,10 +27,12 @@ import java.util.Set;
  * A {@link StoreBoxTypeAdapter} which should be extended in order to provide
  * an adapter implementation for storing {@link T} as a {@link Set} of
  * {@link String}s.
+ * <p>
+ * Storing sets in {@code SharedPreferences} is only supported on API level 11
+ * and newer.
  * 
  * @param <T> type which needs to be adapted
  */
-@TargetApi(Build.VERSION_CODES.HONEYCOMB)
 public abstract class BaseStringSetTypeAdapter<T> implements
         StoreBoxTypeAdapter<T, Set<String>> {
     
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2015 Martin Bella
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.orange_box.storebox.adapters.standard;
+
+import net.orange_box.storebox.adapters.StoreBoxTypeAdapter;
+import net.orange_box.storebox.adapters.StoreType;
+
+/**
+ * Adapter for the {@link java.io.InputStream}, {@link java.io.OutputStream},
+ * {@link java.nio.channels.ReadableByteChannel}, and
+ * {@link java.nio.ByteBuffer} types whose values get streamed to and from
+ * the preferences, so they're passed through unchanged.
+ */
+public class BlobTypeAdapter implements StoreBoxTypeAdapter<Object, Object> {
+
+    @Override
+    public StoreType getStoreType() {
+        return StoreType.BLOB;
+    }
+
+    @Override
+    public Object getDefaultValue() {
+        return null;
+    }
+
+    @Override
+    public Object adaptForPreferences(Object value) {
+        return value;
+    }
+
+    @Override
+    public Object adaptFromPreferences(Object value) {
+        return value;
+    }
+}
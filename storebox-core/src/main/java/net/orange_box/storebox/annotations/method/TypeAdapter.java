@@ -31,10 +31,22 @@ import java.lang.annotation.Target;
  * Type adapters for {@link java.util.Date}, {@link Enum}, and
  * {@link android.net.Uri} are already supported and as such there is no need
  * to provide a type adapter for them.
+ * <p>
+ * A single instance of the adapter class gets created and shared between all
+ * methods which declare it, unless one has been registered beforehand through
+ * {@link net.orange_box.storebox.StoreBox#registerTypeAdapter(StoreBoxTypeAdapter)}.
+ * Adapters which hold state that mustn't be shared should set
+ * {@link #shared()} to {@code false}.
  */
 @Retention(RetentionPolicy.RUNTIME)
 @Target(ElementType.METHOD)
 public @interface TypeAdapter {
 
     Class<? extends StoreBoxTypeAdapter> value();
+    
+    /**
+     * @return whether the adapter instance can be shared with other methods,
+     * else a new instance will be created for this method
+     */
+    boolean shared() default true;
 }
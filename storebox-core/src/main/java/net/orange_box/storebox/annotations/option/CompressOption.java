@@ -0,0 +1,39 @@
+/*
+ * Copyright 2015 Martin Bella
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.orange_box.storebox.annotations.option;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Annotation which should be used to compress String and String set values
+ * whose UTF-8 encoding is longer than {@link #threshold()} bytes.
+ * <p>
+ * When used on an interface all of its values may get compressed, whereas
+ * when used on a get or set method only the value of its key may be, in
+ * which case the threshold set for the method takes precedence.
+ * 
+ * @see net.orange_box.storebox.backends.CompressingStoreBackend
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.TYPE, ElementType.METHOD})
+public @interface CompressOption {
+    
+    int threshold() default 1024;
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2015 Martin Bella
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.orange_box.storebox.annotations.option;
+
+import net.orange_box.storebox.enums.FlushPolicy;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Annotation which should be used to define what {@link FlushPolicy} will be
+ * applied for syncing changes to disk.
+ * <p>
+ * Only supported by the file-based engines and by preferences using a
+ * {@link JournalOption}. As the backends of the same preferences get shared,
+ * the policy applies to all interfaces using them.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface DurabilityOption {
+    
+    FlushPolicy value();
+    
+    /**
+     * How long changes are grouped for before being synced by a
+     * {@link FlushPolicy#GROUPED} flush cycle, in milliseconds.
+     */
+    long groupMillis() default 50;
+}
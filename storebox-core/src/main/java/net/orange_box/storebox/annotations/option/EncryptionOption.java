@@ -0,0 +1,43 @@
+/*
+ * Copyright 2015 Martin Bella
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.orange_box.storebox.annotations.option;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Annotation which should be used to encrypt the values of the preferences,
+ * using a key obtained for {@link #alias()}.
+ * <p>
+ * Unless a different provider is set through the builder, the key gets
+ * generated and kept by a
+ * {@link net.orange_box.storebox.backends.SoftwareKeyProvider}.
+ * 
+ * @see net.orange_box.storebox.backends.EncryptedStoreBackend
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface EncryptionOption {
+    
+    /**
+     * Name identifying the key, which defaults to the name of the
+     * preferences.
+     */
+    String alias() default "";
+}
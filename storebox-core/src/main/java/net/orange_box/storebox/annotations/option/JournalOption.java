@@ -0,0 +1,46 @@
+/*
+ * Copyright 2015 Martin Bella
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.orange_box.storebox.annotations.option;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Annotation which should be used to save changes to
+ * {@link android.content.SharedPreferences} by appending the changed values
+ * to a journal, which gets folded into the preferences on a background
+ * thread once it has grown past the threshold.
+ * <p>
+ * Only supported with the
+ * {@link net.orange_box.storebox.enums.StoreEngine#SHARED_PREFERENCES}
+ * engine, and without
+ * {@link net.orange_box.storebox.enums.PreferencesMode#MODE_MULTI_PROCESS}.
+ * Changes saved through the journal will not be seen by code reading the
+ * preferences directly until they've been folded in.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface JournalOption {
+    
+    /**
+     * Size of the journal in bytes after which it gets folded into the
+     * preferences.
+     */
+    int threshold() default 64 * 1024;
+}
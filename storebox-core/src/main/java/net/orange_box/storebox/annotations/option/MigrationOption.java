@@ -0,0 +1,52 @@
+/*
+ * Copyright 2015 Martin Bella
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.orange_box.storebox.annotations.option;
+
+import net.orange_box.storebox.enums.StoreEngine;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Annotation which should be used when preferences move over to a different
+ * {@link StoreEngine}, so that the values stored with the previous engine
+ * get migrated on a background thread while the preferences remain usable.
+ * <p>
+ * Values are read from the previous engine until all of them have been
+ * copied, with changes being saved to both engines in the meantime. The
+ * migration resumes where it left off if the process gets killed before it
+ * completes. Not supported with the
+ * {@link StoreEngine#SHARED_PREFERENCES} engine as the target.
+ * 
+ * @see net.orange_box.storebox.backends.MigratingStoreBackend
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface MigrationOption {
+    
+    /**
+     * Engine which the values were stored with previously.
+     */
+    StoreEngine from();
+    
+    /**
+     * Number of values copied at a time.
+     */
+    int batchSize() default 256;
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2015 Martin Bella
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.orange_box.storebox.annotations.option;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Annotation which should be used to keep the values of keys in a separate
+ * file, named after the preferences and the shard, which gets loaded only
+ * when one of its keys is first used and which gets written independently
+ * of the other shards.
+ * <p>
+ * Annotation can be used at interface and method-level, however any
+ * method-level annotations will take precedence over interface-level
+ * annotations. Sharding is only supported for
+ * {@link net.orange_box.storebox.annotations.type.FilePreferences}.
+ * 
+ * @see ShardOption
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.TYPE, ElementType.METHOD})
+public @interface Shard {
+    
+    String value();
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2015 Martin Bella
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.orange_box.storebox.annotations.option;
+
+import net.orange_box.storebox.enums.EvictionPolicy;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Annotation which should be used to define how many values are kept in
+ * memory by preferences using the
+ * {@link net.orange_box.storebox.enums.StoreEngine#TIERED} engine.
+ * <p>
+ * Values get evicted once either of the budgets is exceeded, and are read
+ * from disk again when they're next retrieved.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface TierOption {
+    
+    int maxEntries() default 1024;
+    
+    /**
+     * Estimated size of the values kept in memory, in bytes.
+     */
+    long maxBytes() default 256 * 1024;
+    
+    EvictionPolicy policy() default EvictionPolicy.W_TINY_LFU;
+}
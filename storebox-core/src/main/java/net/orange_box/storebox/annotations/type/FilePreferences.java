@@ -17,6 +17,7 @@
 package net.orange_box.storebox.annotations.type;
 
 import net.orange_box.storebox.enums.PreferencesMode;
+import net.orange_box.storebox.enums.StoreEngine;
 
 import java.lang.annotation.ElementType;
 import java.lang.annotation.Retention;
@@ -29,6 +30,10 @@ import java.lang.annotation.Target;
  * <p>
  * When this annotation is used a file name needs to be specified using
  * {@link #value()}.
+ * <p>
+ * The values will be stored using {@code SharedPreferences}, unless a
+ * different engine is specified using {@link #engine()}. Other engines only
+ * support {@link PreferencesMode#MODE_PRIVATE}.
  *
  * @see net.orange_box.storebox.enums.PreferencesType#FILE
  * @see android.content.Context#getSharedPreferences(String, int)
@@ -40,4 +45,6 @@ public @interface FilePreferences {
     String value();
     
     PreferencesMode mode() default PreferencesMode.MODE_PRIVATE;
+    
+    StoreEngine engine() default StoreEngine.SHARED_PREFERENCES;
 }
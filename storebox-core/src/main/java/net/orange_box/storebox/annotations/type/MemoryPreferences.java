@@ -0,0 +1,44 @@
+/*
+ * Copyright 2015 Martin Bella
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.orange_box.storebox.annotations.type;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Annotation which should be used at interface-level to define that the
+ * values should only be kept in memory, such as for state which doesn't
+ * need to outlive the process.
+ * <p>
+ * Instances opened with the same name through {@link #value()} share their
+ * values within the process, whereas each instance opened without a name
+ * gets values of its own.
+ * <p>
+ * Options which need to store values in files, such as a different
+ * {@link net.orange_box.storebox.enums.StoreEngine} or encryption, can't be
+ * used together with this annotation.
+ *
+ * @see net.orange_box.storebox.enums.PreferencesType#MEMORY
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface MemoryPreferences {
+    
+    String value() default "";
+}
@@ -0,0 +1,1050 @@
+/*
+ * Copyright 2015 Martin Bella
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.orange_box.storebox.backends;
+
+import android.support.annotation.Nullable;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * {@link StoreBackend} keeping its values on disk in a B+tree made up of
+ * fixed-size pages, so that opening it only reads the header and getting a
+ * value only reads the pages along the path to its key.
+ * <p>
+ * Pages are kept in a bounded cache, which writes modified pages back when
+ * they get evicted or when the changes are synced. Values which are too
+ * large to be kept in a leaf are stored in a chain of overflow pages, and
+ * pages which are no longer used are kept in a free list for reuse.
+ * <p>
+ * Removing values doesn't merge pages back together, as stores which get
+ * large tend to stay large.
+ * <p>
+ * Pages get written in place, so before a page which was part of the last
+ * synced tree gets overwritten its original contents are appended to a
+ * rollback journal next to the file, which gets synced first. Syncing the
+ * changes writes the pages and the header, and then empties the journal, so
+ * if the process dies in between the tree gets rolled back to how it was
+ * after the last sync when it's opened again. Each page also ends with a
+ * CRC32C checksum, so that damage done to the file some other way gets
+ * reported when the page is read rather than returning the wrong values.
+ */
+public class BTreeStoreBackend extends BaseStoreBackend implements Closeable {
+    
+    public static final int DEFAULT_CACHE_PAGES = 64;
+    
+    static final byte[] MAGIC = {'S', 'B', 'B', 'T'};
+    static final byte VERSION = 2;
+    static final int PAGE_SIZE = 4096;
+    
+    private static final String JOURNAL_SUFFIX = ".rollback";
+    private static final byte[] JOURNAL_MAGIC = {'S', 'B', 'R', 'J'};
+    /**
+     * Magic, number of pages of the synced tree and a checksum of both.
+     */
+    private static final int JOURNAL_HEADER_SIZE = 12;
+    /**
+     * Page number, original contents of the page and a checksum of both.
+     */
+    private static final int JOURNAL_RECORD_SIZE = 4 + PAGE_SIZE + 4;
+    
+    /**
+     * Pages end with a checksum, which leaves the rest for their contents.
+     */
+    private static final int PAGE_CAPACITY = PAGE_SIZE - 4;
+    
+    /**
+     * Page 0 holds the header, so it can't be referenced otherwise.
+     */
+    private static final int NO_PAGE = 0;
+    
+    private static final byte PAGE_LEAF = 1;
+    private static final byte PAGE_INTERNAL = 2;
+    private static final byte PAGE_OVERFLOW = 3;
+    private static final byte PAGE_FREE = 4;
+    
+    private static final byte VALUE_INLINE = 0;
+    private static final byte VALUE_OVERFLOW = 1;
+    
+    /**
+     * Type, number of keys and the next leaf.
+     */
+    private static final int NODE_HEADER_SIZE = 7;
+    /**
+     * Type and the next overflow page.
+     */
+    private static final int OVERFLOW_HEADER_SIZE = 5;
+    
+    /**
+     * Entries are limited to a fraction of a page, so that a node which
+     * overflows can always be split into two nodes which fit.
+     */
+    private static final int MAX_KEY_SIZE = PAGE_SIZE / 8;
+    private static final int MAX_INLINE_VALUE_SIZE = PAGE_SIZE / 8;
+    
+    private final File file;
+    private final File journalFile;
+    private final int cachePages;
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private final RandomAccessFile journalRaf;
+    private final FileChannel journal;
+    private final LinkedHashMap<Integer, Node> cache;
+    private final ByteBuffer pageBuffer;
+    private final ByteBuffer journalBuffer;
+    /**
+     * Pages of the synced tree whose original contents are in the journal.
+     */
+    private final BitSet journaled = new BitSet();
+    
+    private int root;
+    private int pageCount;
+    private int freeHead;
+    private int size;
+    
+    /**
+     * Number of pages of the tree as of the last sync, beyond which pages
+     * don't need to be journaled as they get cut off when rolling back.
+     */
+    private int syncedPageCount;
+    /**
+     * Length of the journal, which is empty when there's nothing to roll
+     * back.
+     */
+    private long journalLength;
+    private boolean journalSynced = true;
+    /**
+     * Whether the file should be truncated to {@link #pageCount} once the
+     * changes have been synced, after the values were cleared.
+     */
+    private boolean truncate;
+    
+    public BTreeStoreBackend(File file) throws IOException {
+        this(file, DEFAULT_CACHE_PAGES);
+    }
+    
+    /**
+     * @param file - the tree file, which will be created if it doesn't exist
+     * @param cachePages - maximum number of pages kept in memory
+     * @throws IOException if the file couldn't be opened, or it isn't a tree
+     */
+    public BTreeStoreBackend(File file, int cachePages) throws IOException {
+        this.file = file;
+        this.cachePages = Math.max(cachePages, 8);
+        
+        final File parent = file.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Failed to create directory " + parent);
+        }
+        
+        journalFile = new File(file.getPath() + JOURNAL_SUFFIX);
+        raf = new RandomAccessFile(file, "rw");
+        channel = raf.getChannel();
+        try {
+            journalRaf = new RandomAccessFile(journalFile, "rw");
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+        journal = journalRaf.getChannel();
+        cache = new LinkedHashMap<>(16, 0.75F, true);
+        pageBuffer = ByteBuffer.allocate(PAGE_SIZE);
+        journalBuffer = ByteBuffer.allocate(JOURNAL_RECORD_SIZE);
+        
+        try {
+            rollback();
+            
+            if (channel.size() == 0) {
+                initialise();
+            } else {
+                readHeader();
+            }
+        } catch (IOException e) {
+            journalRaf.close();
+            raf.close();
+            throw e;
+        }
+    }
+    
+    public File getFile() {
+        return file;
+    }
+    
+    @Override
+    public boolean contains(String key) {
+        return getValue(key) != null;
+    }
+    
+    @Override
+    public synchronized Map<String, ?> getAll() {
+        try {
+            final Map<String, Object> result =
+                    new HashMap<>(Math.max(16, size * 4 / 3 + 1));
+            
+            Node node = load(root);
+            while (!node.leaf) {
+                node = load(node.children.get(0));
+            }
+            while (true) {
+                for (int i = 0; i < node.keys.size(); i++) {
+                    result.put(node.keys.get(i), resolve(node.values.get(i)));
+                }
+                
+                if (node.next == NO_PAGE) {
+                    break;
+                }
+                node = load(node.next);
+                
+                trimCache();
+            }
+            
+            return Collections.unmodifiableMap(result);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read " + file, e);
+        } finally {
+            trimCache();
+        }
+    }
+    
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel.isOpen()) {
+            try {
+                commit();
+            } finally {
+                journalRaf.close();
+                raf.close();
+            }
+            
+            journalFile.delete();
+        }
+    }
+    
+    @Nullable
+    @Override
+    protected synchronized Object getValue(String key) {
+        try {
+            final Node leaf = findLeaf(key);
+            final int index = Collections.binarySearch(leaf.keys, key);
+            
+            return (index >= 0) ? resolve(leaf.values.get(index)) : null;
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read " + file, e);
+        } finally {
+            trimCache();
+        }
+    }
+    
+    @Override
+    protected void writeChanges(
+            boolean clear,
+            Map<String, Object> changes) {
+        
+        try {
+            if (clear) {
+                clearPages();
+            }
+            for (final Map.Entry<String, Object> entry : changes.entrySet()) {
+                if (entry.getValue() == null) {
+                    remove(entry.getKey());
+                } else {
+                    put(entry.getKey(), entry.getValue());
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to write " + file, e);
+        } finally {
+            trimCache();
+        }
+    }
+    
+    @Override
+    protected synchronized boolean sync() {
+        try {
+            commit();
+            
+            return true;
+        } catch (IOException e) {
+            // the journal is kept, so the tree can still be rolled back
+            return false;
+        }
+    }
+    
+    private void initialise() throws IOException {
+        pageCount = 1;
+        freeHead = NO_PAGE;
+        
+        final Node node = allocateNode(true);
+        root = node.page;
+        
+        commit();
+    }
+    
+    private void readHeader() throws IOException {
+        final ByteBuffer buffer = readPage(0);
+        for (final byte b : MAGIC) {
+            if (buffer.get() != b) {
+                throw new IOException(file + " is not a StoreBox tree");
+            }
+        }
+        
+        final byte version = buffer.get();
+        if (version != VERSION) {
+            throw new IOException(String.format(
+                    Locale.ENGLISH,
+                    "%1$s has unsupported version %2$d",
+                    file,
+                    version));
+        }
+        buffer.position(8);
+        
+        final int pageSize = buffer.getInt();
+        if (pageSize != PAGE_SIZE) {
+            throw new IOException(String.format(
+                    Locale.ENGLISH,
+                    "%1$s has unsupported page size %2$d",
+                    file,
+                    pageSize));
+        }
+        
+        root = buffer.getInt();
+        pageCount = buffer.getInt();
+        freeHead = buffer.getInt();
+        size = buffer.getInt();
+        if (root <= NO_PAGE || root >= pageCount
+                || freeHead < NO_PAGE || freeHead >= pageCount
+                || size < 0) {
+            
+            throw new IOException("Header of " + file + " is corrupt");
+        }
+        
+        syncedPageCount = pageCount;
+    }
+    
+    private void writeHeader() throws IOException {
+        final ByteBuffer buffer = clearPageBuffer();
+        buffer.put(MAGIC);
+        buffer.put(VERSION);
+        buffer.position(8);
+        buffer.putInt(PAGE_SIZE);
+        buffer.putInt(root);
+        buffer.putInt(pageCount);
+        buffer.putInt(freeHead);
+        buffer.putInt(size);
+        
+        writePage(0, buffer);
+    }
+    
+    /**
+     * Writes out all modified pages and the header, and then empties the
+     * journal once they're on disk, which is when the changes can no longer
+     * be rolled back.
+     */
+    private void commit() throws IOException {
+        // journaled up-front so that the journal only needs to be synced once
+        for (final Node node : cache.values()) {
+            if (node.dirty) {
+                journal(node.page);
+            }
+        }
+        journal(0);
+        
+        for (final Node node : cache.values()) {
+            if (node.dirty) {
+                writeNode(node);
+            }
+        }
+        writeHeader();
+        channel.force(false);
+        
+        if (journalLength > 0) {
+            journal.truncate(0);
+            journal.force(false);
+            journalLength = 0;
+        }
+        journaled.clear();
+        syncedPageCount = pageCount;
+        
+        if (truncate) {
+            channel.truncate((long) pageCount * PAGE_SIZE);
+            truncate = false;
+        }
+    }
+    
+    /**
+     * Restores the pages in the journal left behind by changes which weren't
+     * synced completely, if there is one.
+     */
+    private void rollback() throws IOException {
+        final long length = journal.size();
+        if (length == 0) {
+            return;
+        }
+        
+        final ByteBuffer buffer = journalBuffer;
+        buffer.clear();
+        buffer.limit(JOURNAL_HEADER_SIZE);
+        if (readFully(journal, buffer, 0) && isValidJournalHeader(buffer)) {
+            final int pages = buffer.getInt(4);
+            
+            long position = JOURNAL_HEADER_SIZE;
+            while (position + JOURNAL_RECORD_SIZE <= length) {
+                buffer.clear();
+                if (!readFully(journal, buffer, position)
+                        || Crc32c.compute(buffer, 0, JOURNAL_RECORD_SIZE - 4)
+                                != buffer.getInt(JOURNAL_RECORD_SIZE - 4)) {
+                    
+                    // records are synced before their pages get overwritten
+                    break;
+                }
+                
+                final int page = buffer.getInt(0);
+                buffer.position(4);
+                buffer.limit(4 + PAGE_SIZE);
+                writeFully(channel, buffer, (long) page * PAGE_SIZE);
+                
+                position += JOURNAL_RECORD_SIZE;
+            }
+            
+            channel.truncate((long) pages * PAGE_SIZE);
+            channel.force(false);
+        }
+        // otherwise it never got synced, so no pages were overwritten
+        
+        journal.truncate(0);
+        journal.force(false);
+    }
+    
+    /**
+     * Appends the contents of {@code page} as of the last sync to the
+     * journal, unless they're already in it or the page didn't exist yet.
+     */
+    private void journal(int page) throws IOException {
+        if (page >= syncedPageCount || journaled.get(page)) {
+            return;
+        }
+        
+        final ByteBuffer buffer = journalBuffer;
+        if (journalLength == 0) {
+            buffer.clear();
+            buffer.put(JOURNAL_MAGIC);
+            buffer.putInt(syncedPageCount);
+            buffer.putInt(Crc32c.compute(buffer, 0, 8));
+            buffer.flip();
+            writeFully(journal, buffer, 0);
+            journalLength = JOURNAL_HEADER_SIZE;
+        }
+        
+        buffer.clear();
+        buffer.putInt(page);
+        buffer.limit(4 + PAGE_SIZE);
+        if (!readFully(channel, buffer, (long) page * PAGE_SIZE)) {
+            throw new IOException(String.format(
+                    Locale.ENGLISH,
+                    "Page %1$d of %2$s is cut",
+                    page,
+                    file));
+        }
+        buffer.limit(JOURNAL_RECORD_SIZE);
+        buffer.putInt(
+                JOURNAL_RECORD_SIZE - 4,
+                Crc32c.compute(buffer, 0, JOURNAL_RECORD_SIZE - 4));
+        buffer.clear();
+        writeFully(journal, buffer, journalLength);
+        
+        journalLength += JOURNAL_RECORD_SIZE;
+        journaled.set(page);
+        journalSynced = false;
+    }
+    
+    private Node findLeaf(String key) throws IOException {
+        Node node = load(root);
+        while (!node.leaf) {
+            node = load(node.children.get(getChildIndex(node, key)));
+        }
+        
+        return node;
+    }
+    
+    private void put(String key, Object value) throws IOException {
+        if (ValueCodec.getSize(key) > MAX_KEY_SIZE) {
+            throw new IllegalArgumentException(String.format(
+                    Locale.ENGLISH,
+                    "Key %1$s is too long",
+                    key));
+        }
+        
+        final Split split = insert(load(root), key, value);
+        if (split != null) {
+            final Node node = allocateNode(false);
+            node.keys.add(split.key);
+            node.children.add(root);
+            node.children.add(split.page);
+            
+            root = node.page;
+        }
+    }
+    
+    /**
+     * @return the split if {@code node} had to be split, which needs to be
+     * added to its parent
+     */
+    @Nullable
+    private Split insert(Node node, String key, Object value)
+            throws IOException {
+        
+        if (node.leaf) {
+            // free first so that the pages can be reused straight away
+            final int index = Collections.binarySearch(node.keys, key);
+            if (index >= 0) {
+                free(node.values.get(index));
+            }
+            
+            final Object stored = store(value);
+            if (index >= 0) {
+                node.values.set(index, stored);
+            } else {
+                node.keys.add(-index - 1, key);
+                node.values.add(-index - 1, stored);
+                size++;
+            }
+            node.dirty = true;
+            
+            return (getEncodedSize(node) > PAGE_CAPACITY)
+                    ? splitLeaf(node)
+                    : null;
+        } else {
+            final int index = getChildIndex(node, key);
+            final Split split =
+                    insert(load(node.children.get(index)), key, value);
+            if (split == null) {
+                return null;
+            }
+            
+            node.keys.add(index, split.key);
+            node.children.add(index + 1, split.page);
+            node.dirty = true;
+            
+            return (getEncodedSize(node) > PAGE_CAPACITY)
+                    ? splitInternal(node)
+                    : null;
+        }
+    }
+    
+    private void remove(String key) throws IOException {
+        final Node leaf = findLeaf(key);
+        final int index = Collections.binarySearch(leaf.keys, key);
+        if (index >= 0) {
+            leaf.keys.remove(index);
+            free(leaf.values.remove(index));
+            leaf.dirty = true;
+            size--;
+        }
+    }
+    
+    private void clearPages() throws IOException {
+        cache.clear();
+        
+        pageCount = 1;
+        freeHead = NO_PAGE;
+        size = 0;
+        root = allocateNode(true).page;
+        
+        // pages of the synced tree can only be cut off once it's replaced
+        truncate = true;
+    }
+    
+    private Split splitLeaf(Node node) throws IOException {
+        final int half = getEncodedSize(node) / 2;
+        
+        int at = 0;
+        int used = NODE_HEADER_SIZE;
+        while (used < half) {
+            used += getEntrySize(node.keys.get(at), node.values.get(at));
+            at++;
+        }
+        
+        final Node right = allocateNode(true);
+        moveTail(node.keys, right.keys, at);
+        moveTail(node.values, right.values, at);
+        right.next = node.next;
+        node.next = right.page;
+        
+        return new Split(right.keys.get(0), right.page);
+    }
+    
+    private Split splitInternal(Node node) throws IOException {
+        final int half = getEncodedSize(node) / 2;
+        
+        int at = 0;
+        int used = NODE_HEADER_SIZE + 4;
+        while (used < half) {
+            used += ValueCodec.getSize(node.keys.get(at)) + 4;
+            at++;
+        }
+        at = Math.min(at, node.keys.size() - 1);
+        
+        final Node right = allocateNode(false);
+        final String key = node.keys.get(at);
+        moveTail(node.keys, right.keys, at + 1);
+        node.keys.remove(at);
+        moveTail(node.children, right.children, at + 1);
+        
+        return new Split(key, right.page);
+    }
+    
+    private Node allocateNode(boolean leaf) throws IOException {
+        final Node node = new Node(allocatePage(), leaf);
+        node.dirty = true;
+        cache.put(node.page, node);
+        
+        return node;
+    }
+    
+    private Node load(int page) throws IOException {
+        Node node = cache.get(page);
+        if (node == null) {
+            node = readNode(page);
+            cache.put(page, node);
+        }
+        
+        return node;
+    }
+    
+    /**
+     * Evicts the least recently used pages above the size of the cache,
+     * which needs to be done between operations so that nodes which are
+     * being modified can't get evicted.
+     */
+    private void trimCache() {
+        if (cache.size() <= cachePages) {
+            return;
+        }
+        
+        final List<Node> evicted = new ArrayList<>(cache.size() - cachePages);
+        final Iterator<Node> iterator = cache.values().iterator();
+        while (evicted.size() < cache.size() - cachePages) {
+            evicted.add(iterator.next());
+        }
+        
+        try {
+            // journaled up-front so that the journal only needs to be synced
+            // once
+            for (final Node node : evicted) {
+                if (node.dirty) {
+                    journal(node.page);
+                }
+            }
+        } catch (IOException e) {
+            // keep them around until the next sync
+            return;
+        }
+        
+        for (final Node node : evicted) {
+            if (node.dirty) {
+                try {
+                    writeNode(node);
+                } catch (IOException e) {
+                    // keep it around until the next sync
+                    continue;
+                }
+            }
+            
+            cache.remove(node.page);
+        }
+    }
+    
+    private Node readNode(int page) throws IOException {
+        final ByteBuffer buffer = readPage(page);
+        
+        try {
+            final byte type = buffer.get();
+            if (type != PAGE_LEAF && type != PAGE_INTERNAL) {
+                throw new IOException(String.format(
+                        Locale.ENGLISH,
+                        "Page %1$d of %2$s isn't a node",
+                        page,
+                        file));
+            }
+            
+            final Node node = new Node(page, type == PAGE_LEAF);
+            final int count = buffer.getShort() & 0xFFFF;
+            node.next = buffer.getInt();
+            
+            if (node.leaf) {
+                for (int i = 0; i < count; i++) {
+                    node.keys.add(ValueCodec.readString(buffer));
+                    if (buffer.get() == VALUE_OVERFLOW) {
+                        node.values.add(
+                                new Overflow(buffer.getInt(), buffer.getInt()));
+                    } else {
+                        node.values.add(ValueCodec.read(buffer));
+                    }
+                }
+            } else {
+                node.children.add(buffer.getInt());
+                for (int i = 0; i < count; i++) {
+                    node.keys.add(ValueCodec.readString(buffer));
+                    node.children.add(buffer.getInt());
+                }
+            }
+            
+            return node;
+        } catch (IllegalArgumentException | BufferUnderflowException e) {
+            throw new IOException(String.format(
+                    Locale.ENGLISH,
+                    "Page %1$d of %2$s is corrupt",
+                    page,
+                    file),
+                    e);
+        }
+    }
+    
+    private void writeNode(Node node) throws IOException {
+        final ByteBuffer buffer = clearPageBuffer();
+        buffer.put(node.leaf ? PAGE_LEAF : PAGE_INTERNAL);
+        buffer.putShort((short) node.keys.size());
+        buffer.putInt(node.next);
+        
+        if (node.leaf) {
+            for (int i = 0; i < node.keys.size(); i++) {
+                ValueCodec.writeString(buffer, node.keys.get(i));
+                
+                final Object value = node.values.get(i);
+                if (value instanceof Overflow) {
+                    buffer.put(VALUE_OVERFLOW);
+                    buffer.putInt(((Overflow) value).page);
+                    buffer.putInt(((Overflow) value).length);
+                } else {
+                    buffer.put(VALUE_INLINE);
+                    ValueCodec.write(buffer, value);
+                }
+            }
+        } else {
+            buffer.putInt(node.children.get(0));
+            for (int i = 0; i < node.keys.size(); i++) {
+                ValueCodec.writeString(buffer, node.keys.get(i));
+                buffer.putInt(node.children.get(i + 1));
+            }
+        }
+        
+        writePage(node.page, buffer);
+        node.dirty = false;
+    }
+    
+    /**
+     * @return {@code value} itself if it's small enough to be kept in a
+     * leaf, or where it got stored in overflow pages otherwise
+     */
+    private Object store(Object value) throws IOException {
+        final int length = ValueCodec.getSize(value);
+        if (length <= MAX_INLINE_VALUE_SIZE) {
+            return value;
+        }
+        
+        final ByteBuffer data = ByteBuffer.allocate(length);
+        ValueCodec.write(data, value);
+        data.flip();
+        
+        final int capacity = PAGE_CAPACITY - OVERFLOW_HEADER_SIZE;
+        final int[] pages = new int[(length + capacity - 1) / capacity];
+        for (int i = 0; i < pages.length; i++) {
+            pages[i] = allocatePage();
+            // pages reused from the free list were part of the synced tree
+            journal(pages[i]);
+        }
+        for (int i = 0; i < pages.length; i++) {
+            final ByteBuffer buffer = clearPageBuffer();
+            buffer.put(PAGE_OVERFLOW);
+            buffer.putInt((i + 1 < pages.length) ? pages[i + 1] : NO_PAGE);
+            
+            final ByteBuffer chunk = data.duplicate();
+            chunk.limit(Math.min(data.position() + capacity, data.limit()));
+            buffer.put(chunk);
+            data.position(chunk.limit());
+            
+            writePage(pages[i], buffer);
+        }
+        
+        return new Overflow(pages[0], length);
+    }
+    
+    /**
+     * @return the value itself, or the value read from overflow pages
+     */
+    private Object resolve(Object value) throws IOException {
+        if (!(value instanceof Overflow)) {
+            return value;
+        }
+        
+        final Overflow overflow = (Overflow) value;
+        final ByteBuffer data = ByteBuffer.allocate(overflow.length);
+        int page = overflow.page;
+        while (data.hasRemaining()) {
+            if (page == NO_PAGE) {
+                throw new IOException("Overflow chain in " + file + " is cut");
+            }
+            
+            final ByteBuffer buffer = readPage(page);
+            buffer.get();
+            page = buffer.getInt();
+            
+            buffer.limit(Math.min(buffer.limit(),
+                    buffer.position() + data.remaining()));
+            data.put(buffer);
+        }
+        data.flip();
+        
+        try {
+            return ValueCodec.read(data);
+        } catch (IllegalArgumentException | BufferUnderflowException e) {
+            throw new IOException("Overflow value in " + file + " is corrupt", e);
+        }
+    }
+    
+    /**
+     * Returns the overflow pages of {@code value} to the free list, if it
+     * has any.
+     */
+    private void free(Object value) throws IOException {
+        if (!(value instanceof Overflow)) {
+            return;
+        }
+        
+        final List<Integer> pages = new ArrayList<>();
+        int page = ((Overflow) value).page;
+        while (page != NO_PAGE) {
+            final ByteBuffer buffer = readPage(page);
+            buffer.get();
+            
+            pages.add(page);
+            journal(page);
+            page = buffer.getInt();
+        }
+        
+        for (final int freed : pages) {
+            final ByteBuffer buffer = clearPageBuffer();
+            buffer.put(PAGE_FREE);
+            buffer.putInt(freeHead);
+            writePage(freed, buffer);
+            
+            freeHead = freed;
+        }
+    }
+    
+    private int allocatePage() throws IOException {
+        if (freeHead == NO_PAGE) {
+            return pageCount++;
+        }
+        
+        final int page = freeHead;
+        final ByteBuffer buffer = readPage(page);
+        buffer.get();
+        freeHead = buffer.getInt();
+        
+        return page;
+    }
+    
+    /**
+     * @return contents of {@code page}, without its checksum
+     * @throws IOException if the page couldn't be read, or it's corrupt
+     */
+    private ByteBuffer readPage(int page) throws IOException {
+        final ByteBuffer buffer = clearPageBuffer();
+        if (!readFully(channel, buffer, (long) page * PAGE_SIZE)
+                || Crc32c.compute(buffer, 0, PAGE_CAPACITY)
+                        != buffer.getInt(PAGE_CAPACITY)) {
+            
+            throw new IOException(String.format(
+                    Locale.ENGLISH,
+                    "Page %1$d of %2$s is corrupt",
+                    page,
+                    file));
+        }
+        buffer.clear();
+        buffer.limit(PAGE_CAPACITY);
+        
+        return buffer;
+    }
+    
+    /**
+     * Writes {@code buffer} into {@code page} along with its checksum, after
+     * making sure that the page's contents as of the last sync have reached
+     * the journal.
+     */
+    private void writePage(int page, ByteBuffer buffer) throws IOException {
+        journal(page);
+        if (!journalSynced) {
+            journal.force(false);
+            journalSynced = true;
+        }
+        
+        buffer.clear();
+        buffer.putInt(PAGE_CAPACITY, Crc32c.compute(buffer, 0, PAGE_CAPACITY));
+        writeFully(channel, buffer, (long) page * PAGE_SIZE);
+    }
+    
+    private ByteBuffer clearPageBuffer() {
+        pageBuffer.clear();
+        for (int i = 0; i < PAGE_SIZE; i += 8) {
+            pageBuffer.putLong(i, 0L);
+        }
+        
+        return pageBuffer;
+    }
+    
+    /**
+     * Reads into the remainder of {@code buffer}, which gets counted from
+     * {@code position}.
+     * 
+     * @return whether the whole remainder could be read
+     */
+    private static boolean readFully(
+            FileChannel channel,
+            ByteBuffer buffer,
+            long position) throws IOException {
+        
+        final int start = buffer.position();
+        while (buffer.hasRemaining()) {
+            if (channel.read(
+                    buffer, position + buffer.position() - start) < 0) {
+                
+                return false;
+            }
+        }
+        
+        return true;
+    }
+    
+    private static void writeFully(
+            FileChannel channel,
+            ByteBuffer buffer,
+            long position) throws IOException {
+        
+        final int start = buffer.position();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position() - start);
+        }
+    }
+    
+    private static boolean isValidJournalHeader(ByteBuffer buffer) {
+        for (int i = 0; i < JOURNAL_MAGIC.length; i++) {
+            if (buffer.get(i) != JOURNAL_MAGIC[i]) {
+                return false;
+            }
+        }
+        
+        return Crc32c.compute(buffer, 0, 8) == buffer.getInt(8);
+    }
+    
+    private static int getChildIndex(Node node, String key) {
+        final int index = Collections.binarySearch(node.keys, key);
+        return (index >= 0) ? index + 1 : -index - 1;
+    }
+    
+    private static int getEncodedSize(Node node) {
+        int result = NODE_HEADER_SIZE;
+        if (node.leaf) {
+            for (int i = 0; i < node.keys.size(); i++) {
+                result += getEntrySize(node.keys.get(i), node.values.get(i));
+            }
+        } else {
+            result += 4;
+            for (final String key : node.keys) {
+                result += ValueCodec.getSize(key) + 4;
+            }
+        }
+        
+        return result;
+    }
+    
+    private static int getEntrySize(String key, Object value) {
+        return ValueCodec.getSize(key) + 1 + ((value instanceof Overflow)
+                ? 8
+                : ValueCodec.getSize(value));
+    }
+    
+    private static <E> void moveTail(List<E> from, List<E> to, int index) {
+        final List<E> tail = from.subList(index, from.size());
+        to.addAll(tail);
+        tail.clear();
+    }
+    
+    private static final class Node {
+        
+        final int page;
+        final boolean leaf;
+        final List<String> keys = new ArrayList<>();
+        /**
+         * Values of a leaf, either inline or as {@link Overflow}.
+         */
+        final List<Object> values;
+        /**
+         * Pages of the children of an internal node, one more than there are
+         * keys.
+         */
+        final List<Integer> children;
+        
+        int next = NO_PAGE;
+        boolean dirty;
+        
+        Node(int page, boolean leaf) {
+            this.page = page;
+            this.leaf = leaf;
+            
+            values = leaf ? new ArrayList<>() : null;
+            children = leaf ? null : new ArrayList<Integer>();
+        }
+    }
+    
+    private static final class Overflow {
+        
+        final int page;
+        final int length;
+        
+        Overflow(int page, int length) {
+            this.page = page;
+            this.length = length;
+        }
+    }
+    
+    private static final class Split {
+        
+        final String key;
+        final int page;
+        
+        Split(String key, int page) {
+            this.key = key;
+            this.page = page;
+        }
+    }
+}
@@ -0,0 +1,352 @@
+/*
+ * Copyright 2015 Martin Bella
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.orange_box.storebox.backends;
+
+import android.support.annotation.Nullable;
+
+import net.orange_box.storebox.enums.FlushPolicy;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Base class for {@link StoreBackend} implementations, which takes care of
+ * batching changes in the editor and notifying listeners.
+ * <p>
+ * Subclasses read values through {@link #getValue(String)}, and write them
+ * in two steps. {@link #writeChanges(boolean, Map)} needs to make the
+ * changes visible to readers straight away, whereas {@link #sync()} makes
+ * them durable. Committing does both on the calling thread, whereas applying
+ * leaves syncing to a background thread, unless a different
+ * {@link FlushPolicy} has been set.
+ * <p>
+ * Listeners are held onto weakly and are notified on the thread which saved
+ * the changes.
+ */
+public abstract class BaseStoreBackend implements StoreBackend {
+    
+    private static final ExecutorService BACKGROUND =
+            Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    final Thread thread =
+                            new Thread(runnable, "StoreBox background");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+    
+    private final Map<Listener, Boolean> listeners = new WeakHashMap<>();
+    private final AtomicBoolean syncPending = new AtomicBoolean();
+    
+    private volatile FlushPolicy flushPolicy = FlushPolicy.PER_WRITE;
+    private volatile long groupMillis;
+    
+    /**
+     * @return value stored for {@code key}, or {@code null} if there isn't
+     * one
+     */
+    @Nullable
+    protected abstract Object getValue(String key);
+    
+    /**
+     * Makes the changes visible to readers. Called from one thread at a time
+     * for each backend.
+     * 
+     * @param clear - whether all values should be removed before the changes
+     * get applied
+     * @param changes - new values by their keys, with {@code null} for values
+     * which should be removed
+     */
+    protected abstract void writeChanges(
+            boolean clear,
+            Map<String, Object> changes);
+    
+    /**
+     * Makes the changes written so far durable.
+     * 
+     * @return whether the changes were saved successfully
+     */
+    protected abstract boolean sync();
+    
+    @Override
+    public boolean getBoolean(String key, boolean defValue) {
+        final Object value = getValue(key);
+        return (value == null) ? defValue : (Boolean) value;
+    }
+    
+    @Override
+    public float getFloat(String key, float defValue) {
+        final Object value = getValue(key);
+        return (value == null) ? defValue : (Float) value;
+    }
+    
+    @Override
+    public int getInt(String key, int defValue) {
+        final Object value = getValue(key);
+        return (value == null) ? defValue : (Integer) value;
+    }
+    
+    @Override
+    public long getLong(String key, long defValue) {
+        final Object value = getValue(key);
+        return (value == null) ? defValue : (Long) value;
+    }
+    
+    @Nullable
+    @Override
+    public String getString(String key, @Nullable String defValue) {
+        final Object value = getValue(key);
+        return (value == null) ? defValue : (String) value;
+    }
+    
+    @Nullable
+    @Override
+    @SuppressWarnings("unchecked")
+    public Set<String> getStringSet(
+            String key,
+            @Nullable Set<String> defValues) {
+        
+        final Object value = getValue(key);
+        return (value == null) ? defValues : (Set<String>) value;
+    }
+    
+    @Override
+    public Editor edit() {
+        return new BaseEditor();
+    }
+    
+    @Override
+    public void registerListener(Listener listener) {
+        synchronized (listeners) {
+            listeners.put(listener, Boolean.TRUE);
+        }
+    }
+    
+    @Override
+    public void unregisterListener(Listener listener) {
+        synchronized (listeners) {
+            listeners.remove(listener);
+        }
+    }
+    
+    /**
+     * @param policy - when changes should be synced from now on
+     * @param groupMillis - how long changes are grouped for by a
+     * {@link FlushPolicy#GROUPED} policy, in milliseconds
+     */
+    public void setFlushPolicy(FlushPolicy policy, long groupMillis) {
+        if (groupMillis < 0) {
+            throw new IllegalArgumentException(String.format(
+                    Locale.ENGLISH,
+                    "Group interval of %1$d ms is invalid",
+                    groupMillis));
+        }
+        
+        this.groupMillis = groupMillis;
+        this.flushPolicy = policy;
+    }
+    
+    public FlushPolicy getFlushPolicy() {
+        return flushPolicy;
+    }
+    
+    /**
+     * Syncs the changes on a background thread, coalescing requests made
+     * while a sync is already pending.
+     */
+    protected void syncLater() {
+        if (syncPending.compareAndSet(false, true)) {
+            runInBackground(new Runnable() {
+                @Override
+                public void run() {
+                    syncPending.set(false);
+                    sync();
+                }
+            });
+        }
+    }
+    
+    /**
+     * Runs {@code task} on the thread shared by all backends for background
+     * work, such as syncing or compacting.
+     */
+    protected static void runInBackground(Runnable task) {
+        BACKGROUND.execute(task);
+    }
+    
+    /**
+     * Notifies the listeners of changes which weren't saved through an
+     * editor of this backend, such as ones made by another process.
+     */
+    protected void notifyListeners(Set<String> keys) {
+        final List<Listener> copy;
+        synchronized (listeners) {
+            if (listeners.isEmpty()) {
+                return;
+            }
+            
+            copy = new ArrayList<>(listeners.keySet());
+        }
+        
+        for (final String key : keys) {
+            for (final Listener listener : copy) {
+                listener.onValueChanged(this, key);
+            }
+        }
+    }
+    
+    private class BaseEditor implements Editor {
+        
+        private Map<String, Object> changes = new HashMap<>();
+        private boolean clear;
+        
+        @Override
+        public Editor putBoolean(String key, boolean value) {
+            return put(key, value);
+        }
+        
+        @Override
+        public Editor putFloat(String key, float value) {
+            return put(key, value);
+        }
+        
+        @Override
+        public Editor putInt(String key, int value) {
+            return put(key, value);
+        }
+        
+        @Override
+        public Editor putLong(String key, long value) {
+            return put(key, value);
+        }
+        
+        @Override
+        public Editor putString(String key, @Nullable String value) {
+            return put(key, value);
+        }
+        
+        @Override
+        public Editor putStringSet(String key, @Nullable Set<String> values) {
+            return put(key, ValueCodec.copy(values));
+        }
+        
+        @Override
+        public Editor remove(String key) {
+            return put(key, null);
+        }
+        
+        @Override
+        public synchronized Editor clear() {
+            clear = true;
+            return this;
+        }
+        
+        @Override
+        public boolean commit() {
+            if (!saveChanges()) {
+                return true;
+            }
+            
+            switch (flushPolicy) {
+                case GROUPED:
+                    if (FlushScheduler.isFlushThread()) {
+                        // can't wait for a cycle from within one
+                        return sync();
+                    }
+                    
+                    return FlushScheduler
+                            .schedule(BaseStoreBackend.this, groupMillis)
+                            .await(BaseStoreBackend.this);
+                
+                case BARRIER:
+                    FlushScheduler.defer(BaseStoreBackend.this);
+                    return true;
+                
+                case PER_WRITE:
+                default:
+                    return sync();
+            }
+        }
+        
+        @Override
+        public void apply() {
+            if (!saveChanges()) {
+                return;
+            }
+            
+            switch (flushPolicy) {
+                case GROUPED:
+                    FlushScheduler.schedule(BaseStoreBackend.this, groupMillis);
+                    break;
+                
+                case BARRIER:
+                    FlushScheduler.defer(BaseStoreBackend.this);
+                    break;
+                
+                case PER_WRITE:
+                default:
+                    syncLater();
+            }
+        }
+        
+        private synchronized Editor put(String key, @Nullable Object value) {
+            changes.put(key, value);
+            return this;
+        }
+        
+        /**
+         * @return whether there were any changes to save
+         */
+        private boolean saveChanges() {
+            final boolean clear;
+            final Map<String, Object> changes;
+            synchronized (this) {
+                if (!this.clear && this.changes.isEmpty()) {
+                    return false;
+                }
+                
+                clear = this.clear;
+                changes = this.changes;
+                
+                this.clear = false;
+                this.changes = new HashMap<>();
+            }
+            
+            synchronized (BaseStoreBackend.this) {
+                writeChanges(clear, Collections.unmodifiableMap(changes));
+            }
+            
+            if (!changes.isEmpty()) {
+                notifyListeners(changes.keySet());
+            }
+            
+            return true;
+        }
+    }
+}
@@ -0,0 +1,528 @@
+/*
+ * Copyright 2015 Martin Bella
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.orange_box.storebox.backends;
+
+import net.orange_box.storebox.ValueResolver;
+import net.orange_box.storebox.annotations.method.KeyByResource;
+import net.orange_box.storebox.annotations.method.KeyByString;
+import net.orange_box.storebox.annotations.option.CompressOption;
+
+import android.support.annotation.Nullable;
+
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Method;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * {@link StoreBackend} which compresses String values, and the items of
+ * String set values, whose UTF-8 encoding is longer than a threshold before
+ * storing them in the backend it decorates.
+ * <p>
+ * Compressed values are stored as a prefix followed by the Deflate output in
+ * Base64, so they can be told apart from values stored as they are. Values
+ * which don't get any shorter by being compressed are stored as they are.
+ * <p>
+ * The native state of {@link Deflater}s and {@link Inflater}s is pooled
+ * between all backends, so compressing values doesn't need to allocate it
+ * each time.
+ */
+public class CompressingStoreBackend implements VersionedStoreBackend {
+    
+    static final String COMPRESSED_PREFIX = "@storebox-deflate:";
+    
+    private static final int POOL_SIZE = 4;
+    
+    private static final BlockingQueue<Deflater> DEFLATERS =
+            new ArrayBlockingQueue<>(POOL_SIZE);
+    private static final BlockingQueue<Inflater> INFLATERS =
+            new ArrayBlockingQueue<>(POOL_SIZE);
+    
+    private final StoreBackend backend;
+    private final int threshold;
+    private final Map<String, Integer> thresholds;
+    
+    private final Map<Listener, CompressingListener> listeners;
+    
+    /**
+     * @param backend - backend which the values should be stored in
+     * @param threshold - number of bytes above which a value gets
+     * compressed
+     */
+    public CompressingStoreBackend(StoreBackend backend, int threshold) {
+        this(backend, threshold, Collections.<String, Integer>emptyMap());
+    }
+    
+    /**
+     * @param backend - backend which the values should be stored in
+     * @param threshold - number of bytes above which a value gets
+     * compressed, or a negative number if only the values of the keys in
+     * {@code thresholds} should be
+     * @param thresholds - thresholds for specific keys, which take
+     * precedence over {@code threshold}
+     */
+    public CompressingStoreBackend(
+            StoreBackend backend,
+            int threshold,
+            Map<String, Integer> thresholds) {
+        
+        this.backend = backend;
+        this.threshold = threshold;
+        this.thresholds = new HashMap<>(thresholds);
+        
+        listeners = new WeakHashMap<>();
+    }
+    
+    /**
+     * @return whether {@code cls}, or any of its methods, have been
+     * annotated with {@link CompressOption}
+     */
+    public static boolean isCompressing(Class<?> cls) {
+        if (cls.isAnnotationPresent(CompressOption.class)) {
+            return true;
+        }
+        
+        for (final Method method : cls.getMethods()) {
+            if (method.isAnnotationPresent(CompressOption.class)) {
+                return true;
+            }
+        }
+        
+        return false;
+    }
+    
+    /**
+     * @param cls - interface whose method annotations decide which keys get
+     * compressed
+     * @param resolver - resolver for keys declared through
+     * {@link KeyByResource}
+     * @param backend - backend which the values should be stored in
+     * @param threshold - threshold for the keys of methods which haven't
+     * been annotated, or a negative number if they shouldn't be compressed
+     * @return backend compressing the values of {@code cls}
+     */
+    public static CompressingStoreBackend of(
+            Class<?> cls,
+            ValueResolver resolver,
+            StoreBackend backend,
+            int threshold) {
+        
+        final Map<String, Integer> thresholds = new HashMap<>();
+        for (final Method method : cls.getMethods()) {
+            if (!method.isAnnotationPresent(CompressOption.class)) {
+                continue;
+            }
+            
+            final String key;
+            if (method.isAnnotationPresent(KeyByString.class)) {
+                key = method.getAnnotation(KeyByString.class).value();
+            } else if (method.isAnnotationPresent(KeyByResource.class)) {
+                key = resolver.getString(
+                        method.getAnnotation(KeyByResource.class).value());
+            } else {
+                continue;
+            }
+            
+            final int value =
+                    method.getAnnotation(CompressOption.class).threshold();
+            final Integer existing = thresholds.put(key, value);
+            if (existing != null && existing != value) {
+                throw new IllegalArgumentException(String.format(
+                        Locale.ENGLISH,
+                        "Key %1$s cannot have both threshold %2$d and %3$d",
+                        key,
+                        existing,
+                        value));
+            }
+        }
+        
+        return new CompressingStoreBackend(backend, threshold, thresholds);
+    }
+    
+    public StoreBackend getBackend() {
+        return backend;
+    }
+    
+    @Override
+    public StoreBackend snapshot() {
+        return new CompressingStoreBackend(
+                ReadOnlyStoreBackend.snapshot(backend), threshold, thresholds);
+    }
+    
+    /**
+     * @return number of bytes above which the value of {@code key} gets
+     * compressed, or a negative number if it doesn't
+     */
+    public int getThreshold(String key) {
+        final Integer result = thresholds.get(key);
+        return (result == null) ? threshold : result;
+    }
+    
+    /**
+     * @return whether the value of {@code key} is stored compressed
+     */
+    public boolean isCompressed(String key) {
+        try {
+            final String value = backend.getString(key, null);
+            return value != null && value.startsWith(COMPRESSED_PREFIX);
+        } catch (ClassCastException e) {
+            // NOP, not a String
+            return false;
+        }
+    }
+    
+    @Override
+    public boolean contains(String key) {
+        return backend.contains(key);
+    }
+    
+    @Override
+    public Map<String, ?> getAll() {
+        final Map<String, Object> values = new HashMap<>(backend.getAll());
+        for (final Map.Entry<String, Object> entry : values.entrySet()) {
+            if (entry.getValue() instanceof String) {
+                entry.setValue(decompress(
+                        entry.getKey(), (String) entry.getValue()));
+            } else if (entry.getValue() instanceof Set) {
+                @SuppressWarnings("unchecked")
+                final Set<String> set = (Set<String>) entry.getValue();
+                entry.setValue(decompress(entry.getKey(), set));
+            }
+        }
+        
+        return values;
+    }
+    
+    @Override
+    public boolean getBoolean(String key, boolean defValue) {
+        return backend.getBoolean(key, defValue);
+    }
+    
+    @Override
+    public float getFloat(String key, float defValue) {
+        return backend.getFloat(key, defValue);
+    }
+    
+    @Override
+    public int getInt(String key, int defValue) {
+        return backend.getInt(key, defValue);
+    }
+    
+    @Override
+    public long getLong(String key, long defValue) {
+        return backend.getLong(key, defValue);
+    }
+    
+    @Nullable
+    @Override
+    public String getString(String key, @Nullable String defValue) {
+        final String value = backend.getString(key, null);
+        return (value == null) ? defValue : decompress(key, value);
+    }
+    
+    @Nullable
+    @Override
+    public Set<String> getStringSet(
+            String key,
+            @Nullable Set<String> defValues) {
+        
+        final Set<String> values = backend.getStringSet(key, null);
+        return (values == null) ? defValues : decompress(key, values);
+    }
+    
+    @Override
+    public Editor edit() {
+        return new CompressingEditor(backend.edit());
+    }
+    
+    @Override
+    public void registerListener(Listener listener) {
+        final CompressingListener adapter;
+        synchronized (listeners) {
+            if (listeners.containsKey(listener)) {
+                return;
+            }
+            
+            adapter = new CompressingListener(this, listener);
+            listeners.put(listener, adapter);
+        }
+        
+        backend.registerListener(adapter);
+    }
+    
+    @Override
+    public void unregisterListener(Listener listener) {
+        final CompressingListener adapter;
+        synchronized (listeners) {
+            adapter = listeners.remove(listener);
+        }
+        
+        if (adapter != null) {
+            backend.unregisterListener(adapter);
+        }
+    }
+    
+    /**
+     * @return value to store for {@code value}, which is compressed if it's
+     * long enough and compresses well
+     */
+    @Nullable
+    private String compress(String key, @Nullable String value) {
+        if (value == null
+                // blob references need to be stored as they are
+                || value.startsWith(SpillingStoreBackend.BLOB_PREFIX)) {
+            
+            return value;
+        }
+        
+        // values which look compressed get compressed regardless
+        final boolean escape = value.startsWith(COMPRESSED_PREFIX);
+        if (!escape) {
+            final int limit = getThreshold(key);
+            if (limit < 0 || ValueCodec.getSize(value) - 4 <= limit) {
+                return value;
+            }
+        }
+        
+        final byte[] bytes = value.getBytes(ValueCodec.UTF_8);
+        final Deflater deflater = obtainDeflater();
+        final String result;
+        try {
+            deflater.setInput(bytes);
+            deflater.finish();
+            
+            // the uncompressed size comes first
+            byte[] buffer = new byte[4 + bytes.length / 2 + 64];
+            int length = 4;
+            while (!deflater.finished()) {
+                if (length == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                }
+                length += deflater.deflate(
+                        buffer, length, buffer.length - length);
+            }
+            ByteBuffer.wrap(buffer).putInt(bytes.length);
+            
+            result = COMPRESSED_PREFIX + ValueCodec.toBase64(buffer, length);
+        } finally {
+            recycle(deflater);
+        }
+        
+        return (escape || result.length() < value.length()) ? result : value;
+    }
+    
+    private Set<String> compress(String key, Set<String> values) {
+        final Set<String> result = new HashSet<>(values.size());
+        for (final String value : values) {
+            result.add(compress(key, value));
+        }
+        
+        return result;
+    }
+    
+    private String decompress(String key, String value) {
+        if (!value.startsWith(COMPRESSED_PREFIX)) {
+            return value;
+        }
+        
+        final Inflater inflater = obtainInflater();
+        try {
+            final byte[] data = ValueCodec.fromBase64(
+                    value.substring(COMPRESSED_PREFIX.length()));
+            final int size = ByteBuffer.wrap(data).getInt();
+            if (size < 0) {
+                throw new DataFormatException("Invalid size " + size);
+            }
+            
+            inflater.setInput(data, 4, data.length - 4);
+            final byte[] bytes = new byte[size];
+            int length = 0;
+            while (length < size) {
+                final int count =
+                        inflater.inflate(bytes, length, size - length);
+                if (count == 0
+                        && (inflater.finished() || inflater.needsInput())) {
+                    
+                    throw new DataFormatException("Unexpected end of data");
+                }
+                length += count;
+            }
+            
+            return new String(bytes, ValueCodec.UTF_8);
+        } catch (DataFormatException | IllegalArgumentException
+                | BufferUnderflowException e) {
+            
+            throw new RuntimeException(String.format(
+                    Locale.ENGLISH,
+                    "Failed to decompress value of %1$s",
+                    key), e);
+        } finally {
+            recycle(inflater);
+        }
+    }
+    
+    private Set<String> decompress(String key, Set<String> values) {
+        Set<String> result = null;
+        for (final String value : values) {
+            if (value.startsWith(COMPRESSED_PREFIX)) {
+                result = new HashSet<>(values.size());
+                break;
+            }
+        }
+        if (result == null) {
+            return values;
+        }
+        
+        for (final String value : values) {
+            result.add(decompress(key, value));
+        }
+        
+        return Collections.unmodifiableSet(result);
+    }
+    
+    private static Deflater obtainDeflater() {
+        final Deflater deflater = DEFLATERS.poll();
+        return (deflater == null) ? new Deflater() : deflater;
+    }
+    
+    private static void recycle(Deflater deflater) {
+        deflater.reset();
+        if (!DEFLATERS.offer(deflater)) {
+            deflater.end();
+        }
+    }
+    
+    private static Inflater obtainInflater() {
+        final Inflater inflater = INFLATERS.poll();
+        return (inflater == null) ? new Inflater() : inflater;
+    }
+    
+    private static void recycle(Inflater inflater) {
+        inflater.reset();
+        if (!INFLATERS.offer(inflater)) {
+            inflater.end();
+        }
+    }
+    
+    private final class CompressingEditor implements Editor {
+        
+        private final Editor editor;
+        
+        public CompressingEditor(Editor editor) {
+            this.editor = editor;
+        }
+        
+        @Override
+        public Editor putBoolean(String key, boolean value) {
+            editor.putBoolean(key, value);
+            return this;
+        }
+        
+        @Override
+        public Editor putFloat(String key, float value) {
+            editor.putFloat(key, value);
+            return this;
+        }
+        
+        @Override
+        public Editor putInt(String key, int value) {
+            editor.putInt(key, value);
+            return this;
+        }
+        
+        @Override
+        public Editor putLong(String key, long value) {
+            editor.putLong(key, value);
+            return this;
+        }
+        
+        @Override
+        public Editor putString(String key, @Nullable String value) {
+            editor.putString(key, compress(key, value));
+            return this;
+        }
+        
+        @Override
+        public Editor putStringSet(String key, @Nullable Set<String> values) {
+            editor.putStringSet(
+                    key,
+                    (values == null) ? null : compress(key, values));
+            return this;
+        }
+        
+        @Override
+        public Editor remove(String key) {
+            editor.remove(key);
+            return this;
+        }
+        
+        @Override
+        public Editor clear() {
+            editor.clear();
+            return this;
+        }
+        
+        @Override
+        public boolean commit() {
+            return editor.commit();
+        }
+        
+        @Override
+        public void apply() {
+            editor.apply();
+        }
+    }
+    
+    /**
+     * Forwards the changes of the decorated backend as changes of the
+     * compressing backend, while only holding onto the listener weakly.
+     */
+    private static final class CompressingListener implements Listener {
+        
+        private final CompressingStoreBackend backend;
+        private final WeakReference<Listener> listener;
+        
+        public CompressingListener(
+                CompressingStoreBackend backend,
+                Listener listener) {
+            
+            this.backend = backend;
+            this.listener = new WeakReference<>(listener);
+        }
+        
+        @Override
+        public void onValueChanged(StoreBackend source, String key) {
+            final Listener target = listener.get();
+            if (target != null) {
+                target.onValueChanged(backend, key);
+            }
+        }
+    }
+}
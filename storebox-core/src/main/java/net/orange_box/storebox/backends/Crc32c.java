@@ -0,0 +1,138 @@
+/*
+ * Copyright 2015 Martin Bella
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.orange_box.storebox.backends;
+
+import java.nio.ByteBuffer;
+import java.util.zip.Checksum;
+
+/**
+ * {@link Checksum} computing CRC-32C, which uses the Castagnoli polynomial
+ * and detects more of the errors seen in storage than CRC-32 does.
+ * <p>
+ * {@code java.util.zip.CRC32C} only exists from Java 9 onwards and isn't
+ * available on Android, so this processes eight bytes at a time using
+ * lookup tables instead. Instances aren't thread-safe.
+ */
+public final class Crc32c implements Checksum {
+    
+    private static final int POLYNOMIAL = 0x82F63B78;
+    
+    private static final int[][] TABLES = new int[8][256];
+    static {
+        for (int i = 0; i < 256; i++) {
+            int crc = i;
+            for (int bit = 0; bit < 8; bit++) {
+                crc = (crc & 1) != 0 ? (crc >>> 1) ^ POLYNOMIAL : crc >>> 1;
+            }
+            TABLES[0][i] = crc;
+        }
+        for (int i = 0; i < 256; i++) {
+            int crc = TABLES[0][i];
+            for (int table = 1; table < 8; table++) {
+                crc = (crc >>> 8) ^ TABLES[0][crc & 0xFF];
+                TABLES[table][i] = crc;
+            }
+        }
+    }
+    
+    private static final int SCRATCH_SIZE = 4096;
+    
+    private int crc = 0xFFFFFFFF;
+    private byte[] scratch;
+    
+    /**
+     * @return CRC-32C of {@code length} bytes of {@code buffer} starting at
+     * {@code offset}, without changing its position
+     */
+    public static int compute(ByteBuffer buffer, int offset, int length) {
+        final Crc32c crc = new Crc32c();
+        crc.update(buffer, offset, length);
+        
+        return (int) crc.getValue();
+    }
+    
+    @Override
+    public void update(int b) {
+        crc = (crc >>> 8) ^ TABLES[0][(crc ^ b) & 0xFF];
+    }
+    
+    @Override
+    public void update(byte[] b, int off, int len) {
+        int crc = this.crc;
+        final int[] t0 = TABLES[0], t1 = TABLES[1], t2 = TABLES[2],
+                t3 = TABLES[3], t4 = TABLES[4], t5 = TABLES[5],
+                t6 = TABLES[6], t7 = TABLES[7];
+        
+        final int end = off + len;
+        while (end - off >= 8) {
+            final int low = crc
+                    ^ ((b[off] & 0xFF)
+                    | (b[off + 1] & 0xFF) << 8
+                    | (b[off + 2] & 0xFF) << 16
+                    | (b[off + 3] & 0xFF) << 24);
+            crc = t7[low & 0xFF]
+                    ^ t6[(low >>> 8) & 0xFF]
+                    ^ t5[(low >>> 16) & 0xFF]
+                    ^ t4[low >>> 24]
+                    ^ t3[b[off + 4] & 0xFF]
+                    ^ t2[b[off + 5] & 0xFF]
+                    ^ t1[b[off + 6] & 0xFF]
+                    ^ t0[b[off + 7] & 0xFF];
+            off += 8;
+        }
+        while (off < end) {
+            crc = (crc >>> 8) ^ t0[(crc ^ b[off++]) & 0xFF];
+        }
+        
+        this.crc = crc;
+    }
+    
+    /**
+     * Updates the checksum with {@code length} bytes of {@code buffer}
+     * starting at {@code offset}, without changing its position. Direct
+     * buffers, such as mapped files, get copied over in chunks.
+     */
+    public void update(ByteBuffer buffer, int offset, int length) {
+        if (buffer.hasArray()) {
+            update(buffer.array(), buffer.arrayOffset() + offset, length);
+            return;
+        }
+        
+        if (scratch == null) {
+            scratch = new byte[SCRATCH_SIZE];
+        }
+        
+        final ByteBuffer source = buffer.duplicate();
+        source.position(offset);
+        while (length > 0) {
+            final int chunk = Math.min(length, SCRATCH_SIZE);
+            source.get(scratch, 0, chunk);
+            update(scratch, 0, chunk);
+            length -= chunk;
+        }
+    }
+    
+    @Override
+    public long getValue() {
+        return ~crc & 0xFFFFFFFFL;
+    }
+    
+    @Override
+    public void reset() {
+        crc = 0xFFFFFFFF;
+    }
+}
@@ -0,0 +1,564 @@
+/*
+ * Copyright 2015 Martin Bella
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.orange_box.storebox.backends;
+
+import android.support.annotation.Nullable;
+
+import java.lang.ref.WeakReference;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+
+/**
+ * {@link StoreBackend} which encrypts the values stored in the backend it
+ * decorates using AES-GCM, with the key of each value being authenticated
+ * together with it so that values can't be swapped between keys.
+ * <p>
+ * The key gets obtained from a {@link KeyProvider} the first time it's
+ * needed, and a cipher is kept for each thread, so that only initialising
+ * it remains to be done for each value. Values get decrypted when they're
+ * first retrieved, with the result being kept in memory for as long as the
+ * stored value doesn't change.
+ * <p>
+ * Values saved before the preferences were encrypted are read as they are,
+ * and get encrypted once they're next saved.
+ * <p>
+ * Requires a security provider supporting AES-GCM, which is the case on
+ * Android from API level 19.
+ */
+public class EncryptedStoreBackend implements VersionedStoreBackend {
+    
+    static final String ENCRYPTED_PREFIX = "@storebox-enc:";
+    
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final byte VERSION = 1;
+    private static final int IV_SIZE = 12;
+    private static final int TAG_BITS = 128;
+    
+    private static final SecureRandom RANDOM = new SecureRandom();
+    /**
+     * Returned for values which aren't stored as Strings, and therefore
+     * weren't encrypted.
+     */
+    private static final Object UNENCRYPTED = new Object();
+    
+    private final StoreBackend backend;
+    private final KeyProvider provider;
+    private final String alias;
+    
+    private final ThreadLocal<Cipher> ciphers;
+    private final ConcurrentMap<String, Decrypted> cache;
+    private final Map<Listener, EncryptedListener> listeners;
+    
+    private volatile SecretKey key;
+    
+    /**
+     * Interface definition for providing the keys which values get encrypted
+     * with.
+     */
+    public interface KeyProvider {
+        
+        /**
+         * Called once for each backend, the first time a value needs to be
+         * encrypted or decrypted.
+         * 
+         * @param alias - name identifying the preferences
+         * @return AES key for the preferences, which needs to be the same
+         * every time for the same {@code alias}
+         */
+        SecretKey getKey(String alias) throws GeneralSecurityException;
+    }
+    
+    /**
+     * @param backend - backend which the encrypted values should be stored
+     * in
+     * @param provider - provider of the key for the values
+     * @param alias - name identifying the preferences to {@code provider}
+     */
+    public EncryptedStoreBackend(
+            StoreBackend backend,
+            KeyProvider provider,
+            String alias) {
+        
+        this.backend = backend;
+        this.provider = provider;
+        this.alias = alias;
+        
+        ciphers = new ThreadLocal<Cipher>() {
+            @Override
+            protected Cipher initialValue() {
+                try {
+                    return Cipher.getInstance(TRANSFORMATION);
+                } catch (GeneralSecurityException e) {
+                    throw new UnsupportedOperationException(String.format(
+                            Locale.ENGLISH,
+                            "%1$s is not supported",
+                            TRANSFORMATION), e);
+                }
+            }
+        };
+        cache = new ConcurrentHashMap<>();
+        listeners = new WeakHashMap<>();
+    }
+    
+    /**
+     * Shares the key and decrypted values of {@code parent}, as cached
+     * values get checked against the stored ones before being used.
+     */
+    private EncryptedStoreBackend(
+            EncryptedStoreBackend parent,
+            StoreBackend backend) {
+        
+        this.backend = backend;
+        this.provider = parent.provider;
+        this.alias = parent.alias;
+        
+        ciphers = parent.ciphers;
+        cache = parent.cache;
+        listeners = new WeakHashMap<>();
+        key = parent.key;
+    }
+    
+    public StoreBackend getBackend() {
+        return backend;
+    }
+    
+    public String getAlias() {
+        return alias;
+    }
+    
+    /**
+     * Values of the snapshot get decrypted once they are read, as with this
+     * backend, reusing the key and any values decrypted so far.
+     */
+    @Override
+    public StoreBackend snapshot() {
+        return new EncryptedStoreBackend(
+                this, ReadOnlyStoreBackend.snapshot(backend));
+    }
+    
+    /**
+     * @return whether the value of {@code key} is stored encrypted
+     */
+    public boolean isEncrypted(String key) {
+        try {
+            final String value = backend.getString(key, null);
+            return value != null && value.startsWith(ENCRYPTED_PREFIX);
+        } catch (ClassCastException e) {
+            // NOP, not a String
+            return false;
+        }
+    }
+    
+    @Override
+    public boolean contains(String key) {
+        return backend.contains(key);
+    }
+    
+    @Override
+    public Map<String, ?> getAll() {
+        final Map<String, Object> values = new HashMap<>(backend.getAll());
+        for (final Map.Entry<String, Object> entry : values.entrySet()) {
+            entry.setValue(decrypt(entry.getKey(), entry.getValue()));
+        }
+        
+        return values;
+    }
+    
+    @Override
+    public boolean getBoolean(String key, boolean defValue) {
+        final Object value = getValue(key);
+        if (value == UNENCRYPTED) {
+            return backend.getBoolean(key, defValue);
+        }
+        
+        return (value == null) ? defValue : (Boolean) value;
+    }
+    
+    @Override
+    public float getFloat(String key, float defValue) {
+        final Object value = getValue(key);
+        if (value == UNENCRYPTED) {
+            return backend.getFloat(key, defValue);
+        }
+        
+        return (value == null) ? defValue : (Float) value;
+    }
+    
+    @Override
+    public int getInt(String key, int defValue) {
+        final Object value = getValue(key);
+        if (value == UNENCRYPTED) {
+            return backend.getInt(key, defValue);
+        }
+        
+        return (value == null) ? defValue : (Integer) value;
+    }
+    
+    @Override
+    public long getLong(String key, long defValue) {
+        final Object value = getValue(key);
+        if (value == UNENCRYPTED) {
+            return backend.getLong(key, defValue);
+        }
+        
+        return (value == null) ? defValue : (Long) value;
+    }
+    
+    @Nullable
+    @Override
+    public String getString(String key, @Nullable String defValue) {
+        final Object value = getValue(key);
+        if (value == UNENCRYPTED) {
+            return backend.getString(key, defValue);
+        }
+        
+        return (value == null) ? defValue : (String) value;
+    }
+    
+    @Nullable
+    @Override
+    @SuppressWarnings("unchecked")
+    public Set<String> getStringSet(
+            String key,
+            @Nullable Set<String> defValues) {
+        
+        final Object value = getValue(key);
+        if (value == UNENCRYPTED) {
+            return backend.getStringSet(key, defValues);
+        }
+        
+        return (value == null) ? defValues : (Set<String>) value;
+    }
+    
+    @Override
+    public Editor edit() {
+        return new EncryptedEditor(backend.edit());
+    }
+    
+    @Override
+    public void registerListener(Listener listener) {
+        final EncryptedListener adapter;
+        synchronized (listeners) {
+            if (listeners.containsKey(listener)) {
+                return;
+            }
+            
+            adapter = new EncryptedListener(this, listener);
+            listeners.put(listener, adapter);
+        }
+        
+        backend.registerListener(adapter);
+    }
+    
+    @Override
+    public void unregisterListener(Listener listener) {
+        final EncryptedListener adapter;
+        synchronized (listeners) {
+            adapter = listeners.remove(listener);
+        }
+        
+        if (adapter != null) {
+            backend.unregisterListener(adapter);
+        }
+    }
+    
+    /**
+     * @return decrypted value of {@code key}, {@code null} if there isn't
+     * one, or {@link #UNENCRYPTED} if it needs to be read from the decorated
+     * backend as it is
+     */
+    @Nullable
+    private Object getValue(String key) {
+        final String raw;
+        try {
+            raw = backend.getString(key, null);
+        } catch (ClassCastException e) {
+            // saved before the preferences were encrypted
+            return UNENCRYPTED;
+        }
+        
+        return (raw == null) ? null : decrypt(key, raw);
+    }
+    
+    /**
+     * @return decrypted {@code raw} value, which only gets decrypted if it's
+     * different from the one decrypted last for {@code key}
+     */
+    private Object decrypt(String key, Object raw) {
+        if (!(raw instanceof String)
+                || !((String) raw).startsWith(ENCRYPTED_PREFIX)) {
+            
+            return raw;
+        }
+        
+        final Decrypted cached = cache.get(key);
+        if (cached != null && cached.raw.equals(raw)) {
+            return cached.value;
+        }
+        
+        final Object value;
+        try {
+            value = decipher(key, (String) raw);
+        } catch (GeneralSecurityException | IllegalArgumentException
+                | BufferUnderflowException e) {
+            
+            throw new RuntimeException(String.format(
+                    Locale.ENGLISH,
+                    "Failed to decrypt value of %1$s",
+                    key), e);
+        }
+        cache.put(key, new Decrypted((String) raw, value));
+        
+        return value;
+    }
+    
+    private Object decipher(String key, String raw)
+            throws GeneralSecurityException {
+        
+        final byte[] bytes =
+                ValueCodec.fromBase64(raw.substring(ENCRYPTED_PREFIX.length()));
+        if (bytes.length < 1 + IV_SIZE || bytes[0] != VERSION) {
+            throw new IllegalArgumentException("Unknown format");
+        }
+        
+        final Cipher cipher = ciphers.get();
+        cipher.init(
+                Cipher.DECRYPT_MODE,
+                getKey(),
+                new GCMParameterSpec(TAG_BITS, bytes, 1, IV_SIZE));
+        cipher.updateAAD(key.getBytes(ValueCodec.UTF_8));
+        
+        return ValueCodec.read(ByteBuffer.wrap(cipher.doFinal(
+                bytes, 1 + IV_SIZE, bytes.length - 1 - IV_SIZE)));
+    }
+    
+    private String encipher(String key, Object value) {
+        final ByteBuffer plain = ByteBuffer.allocate(ValueCodec.getSize(value));
+        ValueCodec.write(plain, value);
+        
+        final byte[] iv = new byte[IV_SIZE];
+        RANDOM.nextBytes(iv);
+        
+        try {
+            final Cipher cipher = ciphers.get();
+            cipher.init(
+                    Cipher.ENCRYPT_MODE,
+                    getKey(),
+                    new GCMParameterSpec(TAG_BITS, iv));
+            cipher.updateAAD(key.getBytes(ValueCodec.UTF_8));
+            
+            final byte[] bytes = new byte[
+                    1 + IV_SIZE + cipher.getOutputSize(plain.capacity())];
+            bytes[0] = VERSION;
+            System.arraycopy(iv, 0, bytes, 1, IV_SIZE);
+            final int length = cipher.doFinal(
+                    plain.array(), 0, plain.capacity(),
+                    bytes, 1 + IV_SIZE);
+            
+            return ENCRYPTED_PREFIX
+                    + ValueCodec.toBase64(bytes, 1 + IV_SIZE + length);
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException(String.format(
+                    Locale.ENGLISH,
+                    "Failed to encrypt value of %1$s",
+                    key), e);
+        }
+    }
+    
+    private SecretKey getKey() throws GeneralSecurityException {
+        SecretKey result = key;
+        if (result == null) {
+            synchronized (this) {
+                result = key;
+                if (result == null) {
+                    result = provider.getKey(alias);
+                    if (result == null) {
+                        throw new GeneralSecurityException(
+                                "No key provided for " + alias);
+                    }
+                    key = result;
+                }
+            }
+        }
+        
+        return result;
+    }
+    
+    private static final class Decrypted {
+        
+        final String raw;
+        final Object value;
+        
+        public Decrypted(String raw, Object value) {
+            this.raw = raw;
+            this.value = value;
+        }
+    }
+    
+    private final class EncryptedEditor implements Editor {
+        
+        private final Editor editor;
+        
+        /**
+         * Decrypted forms of the encrypted changes, so that they don't need
+         * to be decrypted again once saved.
+         */
+        private final Map<String, Decrypted> changes = new HashMap<>();
+        private boolean clear;
+        
+        public EncryptedEditor(Editor editor) {
+            this.editor = editor;
+        }
+        
+        @Override
+        public Editor putBoolean(String key, boolean value) {
+            return put(key, value);
+        }
+        
+        @Override
+        public Editor putFloat(String key, float value) {
+            return put(key, value);
+        }
+        
+        @Override
+        public Editor putInt(String key, int value) {
+            return put(key, value);
+        }
+        
+        @Override
+        public Editor putLong(String key, long value) {
+            return put(key, value);
+        }
+        
+        @Override
+        public Editor putString(String key, @Nullable String value) {
+            return put(key, value);
+        }
+        
+        @Override
+        public Editor putStringSet(String key, @Nullable Set<String> values) {
+            return put(key, ValueCodec.copy(values));
+        }
+        
+        @Override
+        public synchronized Editor remove(String key) {
+            changes.remove(key);
+            editor.remove(key);
+            return this;
+        }
+        
+        @Override
+        public synchronized Editor clear() {
+            clear = true;
+            editor.clear();
+            return this;
+        }
+        
+        @Override
+        public boolean commit() {
+            final Map<String, Decrypted> saved = takeChanges();
+            final boolean result = editor.commit();
+            if (result) {
+                cache.putAll(saved);
+            }
+            
+            return result;
+        }
+        
+        @Override
+        public void apply() {
+            final Map<String, Decrypted> saved = takeChanges();
+            editor.apply();
+            cache.putAll(saved);
+        }
+        
+        private Editor put(String key, @Nullable Object value) {
+            if (value == null) {
+                return remove(key);
+            }
+            
+            // encrypted outside of the lock, as other threads share the editor
+            final String raw = encipher(key, value);
+            synchronized (this) {
+                changes.put(key, new Decrypted(raw, value));
+                editor.putString(key, raw);
+            }
+            return this;
+        }
+        
+        /**
+         * @return decrypted forms of the changes made until now, which all
+         * get saved by the next commit
+         */
+        private synchronized Map<String, Decrypted> takeChanges() {
+            if (clear) {
+                cache.clear();
+            }
+            
+            /*
+             * Changes made by other threads before the editor saves get
+             * saved too, while the cache only gets their decrypted forms
+             * later. Cached values are checked against the saved ones
+             * before being used, so they can't go stale.
+             */
+            final Map<String, Decrypted> result = new HashMap<>(changes);
+            changes.clear();
+            clear = false;
+            
+            return result;
+        }
+    }
+    
+    /**
+     * Forwards the changes of the decorated backend as changes of the
+     * encrypted backend, while only holding onto the listener weakly.
+     */
+    private static final class EncryptedListener implements Listener {
+        
+        private final EncryptedStoreBackend backend;
+        private final WeakReference<Listener> listener;
+        
+        public EncryptedListener(
+                EncryptedStoreBackend backend,
+                Listener listener) {
+            
+            this.backend = backend;
+            this.listener = new WeakReference<>(listener);
+        }
+        
+        @Override
+        public void onValueChanged(StoreBackend source, String key) {
+            final Listener target = listener.get();
+            if (target != null) {
+                target.onValueChanged(backend, key);
+            }
+        }
+    }
+}
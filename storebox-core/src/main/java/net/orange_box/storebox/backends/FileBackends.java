@@ -0,0 +1,329 @@
+/*
+ * Copyright 2015 Martin Bella
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.orange_box.storebox.backends;
+
+import net.orange_box.storebox.annotations.option.TierOption;
+import net.orange_box.storebox.enums.StoreEngine;
+
+import android.support.annotation.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Opens the file-based {@link StoreBackend}s for the {@link StoreEngine}s.
+ * <p>
+ * Backends are cached by their file so that all instances created for the
+ * same preferences share their values and listeners, in the same way as
+ * {@link android.content.SharedPreferences} are shared by the framework.
+ */
+public final class FileBackends {
+    
+    private static final ConcurrentMap<File, StoreBackend> BACKENDS =
+            new ConcurrentHashMap<>();
+    
+    /**
+     * @param engine - engine which should be used for storing the values
+     * @param directory - directory in which the file should be kept
+     * @param name - name of the preferences, used for naming the file
+     * @return backend for the preferences, which is shared between all
+     * callers asking for the same preferences
+     */
+    public static StoreBackend open(
+            StoreEngine engine,
+            File directory,
+            String name) {
+        
+        return open(engine, directory, name, null);
+    }
+    
+    /**
+     * @param engine - engine which should be used for storing the values
+     * @param directory - directory in which the file should be kept
+     * @param name - name of the preferences, used for naming the file
+     * @param legacyFile - XML file of {@link android.content.SharedPreferences}
+     * whose values should be imported if the engine's file doesn't exist yet
+     * @return backend for the preferences, which is shared between all
+     * callers asking for the same preferences
+     */
+    public static StoreBackend open(
+            StoreEngine engine,
+            File directory,
+            String name,
+            @Nullable File legacyFile) {
+        
+        return open(engine, directory, name, legacyFile, null);
+    }
+    
+    /**
+     * @param engine - engine which should be used for storing the values
+     * @param directory - directory in which the file should be kept
+     * @param name - name of the preferences, used for naming the file
+     * @param legacyFile - XML file of {@link android.content.SharedPreferences}
+     * whose values should be imported if the engine's file doesn't exist yet
+     * @param cls - interface the preferences are opened for, which decides
+     * the layout of {@link StoreEngine#SLOTTED} preferences when they get
+     * opened for the first time
+     * @return backend for the preferences, which is shared between all
+     * callers asking for the same preferences
+     */
+    public static StoreBackend open(
+            StoreEngine engine,
+            File directory,
+            String name,
+            @Nullable File legacyFile,
+            @Nullable Class<?> cls) {
+        
+        final File file = getFile(engine, directory, name);
+        
+        StoreBackend backend = BACKENDS.get(file);
+        if (backend == null) {
+            synchronized (BACKENDS) {
+                backend = BACKENDS.get(file);
+                if (backend == null) {
+                    final boolean exists = file.exists();
+                    
+                    backend = create(engine, file, cls);
+                    if (!exists && legacyFile != null && legacyFile.exists()) {
+                        importValues(backend, legacyFile);
+                    }
+                    BACKENDS.put(file, backend);
+                }
+            }
+        }
+        
+        return backend;
+    }
+    
+    /**
+     * @param primary - backend which the journal should be folded into
+     * @param file - the journal file
+     * @param compactionThreshold - size of the journal in bytes after which
+     * it gets folded into {@code primary}
+     * @return backend journaling the changes to {@code primary}, which is
+     * shared between all callers asking for the same journal
+     */
+    public static StoreBackend journal(
+            StoreBackend primary,
+            File file,
+            int compactionThreshold) {
+        
+        StoreBackend backend = BACKENDS.get(file);
+        if (backend == null) {
+            synchronized (BACKENDS) {
+                backend = BACKENDS.get(file);
+                if (backend == null) {
+                    try {
+                        backend = new JournaledStoreBackend(
+                                primary, file, compactionThreshold);
+                    } catch (IOException e) {
+                        throw new RuntimeException(String.format(
+                                Locale.ENGLISH,
+                                "Failed to open %1$s",
+                                file),
+                                e);
+                    }
+                    BACKENDS.put(file, backend);
+                }
+            }
+        }
+        
+        return backend;
+    }
+    
+    /**
+     * @param source - backend whose values should be migrated
+     * @param target - backend which the values should be migrated into
+     * @param checkpoint - file keeping track of the progress
+     * @param batchSize - number of values copied at a time
+     * @return backend migrating the values of {@code source} into
+     * {@code target}, which is shared between all callers asking for the
+     * same checkpoint
+     */
+    public static StoreBackend migrate(
+            StoreBackend source,
+            StoreBackend target,
+            File checkpoint,
+            int batchSize) {
+        
+        StoreBackend backend = BACKENDS.get(checkpoint);
+        if (backend == null) {
+            synchronized (BACKENDS) {
+                backend = BACKENDS.get(checkpoint);
+                if (backend == null) {
+                    try {
+                        backend = new MigratingStoreBackend(
+                                source, target, checkpoint, batchSize);
+                    } catch (IOException e) {
+                        throw new RuntimeException(String.format(
+                                Locale.ENGLISH,
+                                "Failed to open %1$s",
+                                checkpoint),
+                                e);
+                    }
+                    BACKENDS.put(checkpoint, backend);
+                }
+            }
+        }
+        
+        return backend;
+    }
+    
+    private static File getFile(
+            StoreEngine engine,
+            File directory,
+            String name) {
+        
+        switch (engine) {
+            case LOG:
+                return new File(directory, name + ".log");
+            
+            case SNAPSHOT:
+                return new File(directory, name + ".snapshot");
+            
+            case BTREE:
+                return new File(directory, name + ".btree");
+            
+            case SLOTTED:
+                return new File(directory, name + ".slots");
+            
+            case MULTI_PROCESS:
+                return new File(directory, name + ".shared");
+            
+            case TIERED:
+                return new File(directory, name + ".tiered");
+            
+            default:
+                throw new IllegalArgumentException(String.format(
+                        Locale.ENGLISH,
+                        "%1$s is not a file-based engine",
+                        engine));
+        }
+    }
+    
+    private static StoreBackend create(
+            StoreEngine engine,
+            File file,
+            @Nullable Class<?> cls) {
+        
+        try {
+            switch (engine) {
+                case LOG:
+                    return new LogStoreBackend(file);
+                
+                case SNAPSHOT:
+                    return new SnapshotStoreBackend(file);
+                
+                case BTREE:
+                    return new BTreeStoreBackend(file);
+                
+                case SLOTTED:
+                    return new SlottedStoreBackend(
+                            file,
+                            (cls == null)
+                                    ? SlotLayout.EMPTY
+                                    : SlotLayout.of(cls));
+                
+                case MULTI_PROCESS:
+                    return new MultiProcessStoreBackend(file);
+                
+                case TIERED:
+                    return (cls != null
+                            && cls.isAnnotationPresent(TierOption.class))
+                            ? new TieredStoreBackend(
+                                    file, cls.getAnnotation(TierOption.class))
+                            : new TieredStoreBackend(file);
+                
+                default:
+                    throw new IllegalArgumentException(String.format(
+                            Locale.ENGLISH,
+                            "%1$s is not a file-based engine",
+                            engine));
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(String.format(
+                    Locale.ENGLISH,
+                    "Failed to open %1$s",
+                    file),
+                    e);
+        }
+    }
+    
+    /**
+     * Copies the values from the XML file into the backend, leaving the XML
+     * file in place.
+     */
+    private static void importValues(StoreBackend backend, File legacyFile) {
+        final Map<String, Object> values;
+        try {
+            values = SharedPreferencesXml.read(legacyFile);
+        } catch (IOException e) {
+            throw new RuntimeException(String.format(
+                    Locale.ENGLISH,
+                    "Failed to import %1$s",
+                    legacyFile),
+                    e);
+        }
+        
+        final StoreBackend.Editor editor = backend.edit();
+        for (final Map.Entry<String, Object> entry : values.entrySet()) {
+            putValue(editor, entry.getKey(), entry.getValue());
+        }
+        editor.commit();
+    }
+    
+    @SuppressWarnings("unchecked")
+    static void putValue(
+            StoreBackend.Editor editor,
+            String key,
+            Object value) {
+        
+        switch (ValueCodec.getType(value)) {
+            case ValueCodec.TYPE_BOOLEAN:
+                editor.putBoolean(key, (Boolean) value);
+                break;
+            
+            case ValueCodec.TYPE_FLOAT:
+                editor.putFloat(key, (Float) value);
+                break;
+            
+            case ValueCodec.TYPE_INTEGER:
+                editor.putInt(key, (Integer) value);
+                break;
+            
+            case ValueCodec.TYPE_LONG:
+                editor.putLong(key, (Long) value);
+                break;
+            
+            case ValueCodec.TYPE_STRING:
+                editor.putString(key, (String) value);
+                break;
+            
+            case ValueCodec.TYPE_STRING_SET:
+            default:
+                editor.putStringSet(key, (Set<String>) value);
+        }
+    }
+    
+    private FileBackends() {}
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright 2015 Martin Bella
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.orange_box.storebox.backends;
+
+import net.orange_box.storebox.enums.FlushPolicy;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Syncs the changes of backends using the {@link FlushPolicy#GROUPED} and
+ * {@link FlushPolicy#BARRIER} policies in flush cycles shared by all
+ * backends, so that saving to several files in quick succession results in
+ * a single sync of each file rather than one for each save.
+ * <p>
+ * Grouped cycles run on a background thread, which is also where callbacks
+ * get invoked, so callbacks shouldn't wait for another cycle to complete.
+ */
+public final class FlushScheduler {
+    
+    /**
+     * Interface definition for a callback to be invoked once a flush cycle
+     * has completed.
+     */
+    public interface Callback {
+        
+        /**
+         * @param success - whether all of the backends in the cycle synced
+         * their changes successfully
+         */
+        void onFlushed(boolean success);
+    }
+    
+    private static volatile Thread flushThread;
+    
+    private static final ScheduledExecutorService EXECUTOR =
+            Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    final Thread thread =
+                            new Thread(runnable, "StoreBox flush");
+                    thread.setDaemon(true);
+                    flushThread = thread;
+                    return thread;
+                }
+            });
+    
+    private static final Object LOCK = new Object();
+    /**
+     * Makes sure cycles complete in the order they were started in.
+     */
+    private static final Object CYCLE_LOCK = new Object();
+    
+    private static Cycle pending = new Cycle();
+    private static boolean scheduled;
+    /**
+     * Cycle being run while holding {@link #CYCLE_LOCK}, if any.
+     */
+    private static Cycle running;
+    
+    /**
+     * Syncs the changes of all backends which haven't been synced yet on
+     * the calling thread.
+     * 
+     * @return whether all of the changes were synced successfully
+     */
+    public static boolean barrier() {
+        return flush();
+    }
+    
+    /**
+     * Invokes {@code callback} once all of the changes saved so far have
+     * been synced, or straight away if there aren't any waiting to be nor
+     * any being synced.
+     */
+    public static void whenFlushed(Callback callback) {
+        synchronized (LOCK) {
+            if (!pending.backends.isEmpty()) {
+                pending.callbacks.add(callback);
+                return;
+            } else if (running != null) {
+                running.callbacks.add(callback);
+                return;
+            }
+        }
+        
+        callback.onFlushed(true);
+    }
+    
+    /**
+     * Adds {@code backend} to the next grouped cycle, which gets scheduled
+     * to run after {@code groupMillis} if it hasn't been already.
+     * 
+     * @return cycle which the backend will be synced in
+     */
+    static Cycle schedule(BaseStoreBackend backend, long groupMillis) {
+        synchronized (LOCK) {
+            pending.backends.add(backend);
+            
+            if (!scheduled) {
+                scheduled = true;
+                EXECUTOR.schedule(
+                        new Runnable() {
+                            @Override
+                            public void run() {
+                                flush();
+                            }
+                        },
+                        groupMillis,
+                        TimeUnit.MILLISECONDS);
+            }
+            
+            return pending;
+        }
+    }
+    
+    /**
+     * Adds {@code backend} to the next cycle, without scheduling it.
+     */
+    static void defer(BaseStoreBackend backend) {
+        synchronized (LOCK) {
+            pending.backends.add(backend);
+        }
+    }
+    
+    /**
+     * @return whether the calling thread is the one running grouped cycles,
+     * which can't wait for a cycle to complete
+     */
+    static boolean isFlushThread() {
+        return Thread.currentThread() == flushThread;
+    }
+    
+    private static boolean flush() {
+        synchronized (CYCLE_LOCK) {
+            final Cycle cycle;
+            synchronized (LOCK) {
+                cycle = pending;
+                pending = new Cycle();
+                scheduled = false;
+                running = cycle;
+            }
+            
+            final boolean success = cycle.run();
+            // no more callbacks get added once the cycle isn't running
+            synchronized (LOCK) {
+                running = null;
+            }
+            for (final Callback callback : cycle.callbacks) {
+                callback.onFlushed(success);
+            }
+            
+            return success;
+        }
+    }
+    
+    private FlushScheduler() {}
+    
+    static final class Cycle {
+        
+        final Set<BaseStoreBackend> backends = Collections.newSetFromMap(
+                new IdentityHashMap<BaseStoreBackend, Boolean>());
+        final List<Callback> callbacks = new ArrayList<>();
+        
+        private final Set<BaseStoreBackend> failed = Collections.newSetFromMap(
+                new IdentityHashMap<BaseStoreBackend, Boolean>());
+        private final CountDownLatch done = new CountDownLatch(1);
+        
+        /**
+         * Waits for the cycle to complete.
+         * 
+         * @return whether {@code backend} synced its changes successfully
+         */
+        boolean await(BaseStoreBackend backend) {
+            try {
+                done.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            
+            return !failed.contains(backend);
+        }
+        
+        private boolean run() {
+            // nothing gets added once the cycle has been taken off pending
+            for (final BaseStoreBackend backend : backends) {
+                if (!backend.sync()) {
+                    failed.add(backend);
+                }
+            }
+            done.countDown();
+            
+            return failed.isEmpty();
+        }
+    }
+}
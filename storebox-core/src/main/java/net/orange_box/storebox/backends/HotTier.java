@@ -0,0 +1,389 @@
+/*
+ * Copyright 2015 Martin Bella
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.orange_box.storebox.backends;
+
+import net.orange_box.storebox.enums.EvictionPolicy;
+
+import android.support.annotation.Nullable;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Bounded cache of decoded values, used as the in-memory tier of a
+ * {@link TieredStoreBackend}. Isn't thread-safe.
+ * <p>
+ * With {@link EvictionPolicy#W_TINY_LFU} new values enter a small window
+ * kept in LRU order, and once they leave it they compete for the rest of
+ * the budget with the least recently used value of the probation segment,
+ * based on how often each has been retrieved recently. Values retrieved
+ * again while in probation move into the protected segment. How often keys
+ * have been retrieved is estimated by a count-min sketch of 4-bit counters,
+ * which get halved periodically so that old popularity fades.
+ */
+final class HotTier {
+    
+    /**
+     * Rough number of bytes taken up on the heap by each entry, besides the
+     * characters of its key and value.
+     */
+    private static final int ENTRY_OVERHEAD = 64;
+    private static final int WINDOW_PERCENT = 1;
+    private static final int PROTECTED_PERCENT = 80;
+    
+    private final EvictionPolicy policy;
+    private final int maxEntries;
+    private final long maxBytes;
+    private final int windowEntries;
+    private final long windowBytes;
+    private final int protectedEntries;
+    private final long protectedBytes;
+    
+    /**
+     * Holds all the values with {@link EvictionPolicy#LRU}.
+     */
+    private final Segment window = new Segment();
+    private final Segment probation = new Segment();
+    private final Segment protectedSegment = new Segment();
+    @Nullable
+    private final FrequencySketch sketch;
+    
+    private long hits;
+    private long misses;
+    private long evictions;
+    
+    /**
+     * @param policy - policy deciding which values get evicted
+     * @param maxEntries - maximum number of values kept
+     * @param maxBytes - maximum estimated size of the values kept
+     */
+    public HotTier(EvictionPolicy policy, int maxEntries, long maxBytes) {
+        this.policy = policy;
+        this.maxEntries = Math.max(maxEntries, 1);
+        this.maxBytes = Math.max(maxBytes, 1);
+        
+        windowEntries = Math.max(1, this.maxEntries * WINDOW_PERCENT / 100);
+        windowBytes = Math.max(1, this.maxBytes * WINDOW_PERCENT / 100);
+        protectedEntries =
+                (this.maxEntries - windowEntries) * PROTECTED_PERCENT / 100;
+        protectedBytes =
+                (this.maxBytes - windowBytes) * PROTECTED_PERCENT / 100;
+        
+        sketch = (policy == EvictionPolicy.W_TINY_LFU)
+                ? new FrequencySketch((int) Math.min(
+                        this.maxEntries, this.maxBytes / ENTRY_OVERHEAD))
+                : null;
+    }
+    
+    /**
+     * @return value kept for {@code key}, or null if it isn't in memory
+     */
+    @Nullable
+    public Object get(String key) {
+        if (sketch != null) {
+            sketch.increment(key);
+        }
+        
+        Entry entry = window.touch(key);
+        if (entry == null) {
+            entry = protectedSegment.touch(key);
+        }
+        if (entry == null) {
+            entry = probation.remove(key);
+            if (entry != null) {
+                protectedSegment.add(key, entry);
+                demote();
+            }
+        }
+        
+        if (entry == null) {
+            misses++;
+            return null;
+        } else {
+            hits++;
+            return entry.value;
+        }
+    }
+    
+    public void put(String key, Object value) {
+        remove(key);
+        
+        window.add(key, new Entry(value, weigh(key, value)));
+        evict();
+    }
+    
+    public void remove(String key) {
+        if (window.remove(key) == null
+                && probation.remove(key) == null) {
+            
+            protectedSegment.remove(key);
+        }
+    }
+    
+    public void clear() {
+        window.clear();
+        probation.clear();
+        protectedSegment.clear();
+    }
+    
+    public int size() {
+        return window.entries.size()
+                + probation.entries.size()
+                + protectedSegment.entries.size();
+    }
+    
+    /**
+     * @return estimated size of the values kept, in bytes
+     */
+    public long getBytes() {
+        return window.bytes + probation.bytes + protectedSegment.bytes;
+    }
+    
+    public long getHitCount() {
+        return hits;
+    }
+    
+    public long getMissCount() {
+        return misses;
+    }
+    
+    public long getEvictionCount() {
+        return evictions;
+    }
+    
+    private boolean isOverBudget() {
+        return size() > maxEntries || getBytes() > maxBytes;
+    }
+    
+    private void evict() {
+        if (policy == EvictionPolicy.LRU) {
+            while (isOverBudget()) {
+                window.removeEldest();
+                evictions++;
+            }
+            return;
+        }
+        
+        // values leaving the window compete with the probation's eldest
+        while (window.entries.size() > windowEntries
+                || window.bytes > windowBytes) {
+            
+            final String candidate = window.eldestKey();
+            probation.add(candidate, window.remove(candidate));
+            
+            while (isOverBudget()) {
+                final String victim = probation.eldestKey();
+                if (victim.equals(candidate)) {
+                    // nothing left to compete with
+                    break;
+                }
+                
+                if (sketch.frequency(candidate) > sketch.frequency(victim)) {
+                    probation.remove(victim);
+                } else {
+                    probation.remove(candidate);
+                }
+                evictions++;
+                
+                if (!probation.entries.containsKey(candidate)) {
+                    break;
+                }
+            }
+        }
+        
+        // the protected segment and window may have grown in the meantime
+        while (isOverBudget()) {
+            if (!probation.entries.isEmpty()) {
+                probation.removeEldest();
+            } else if (!protectedSegment.entries.isEmpty()) {
+                protectedSegment.removeEldest();
+            } else {
+                window.removeEldest();
+            }
+            evictions++;
+        }
+    }
+    
+    /**
+     * Moves the least recently used values of the protected segment back
+     * into probation once it's over its share of the budget.
+     */
+    private void demote() {
+        while (protectedSegment.entries.size() > 1
+                && (protectedSegment.entries.size() > protectedEntries
+                        || protectedSegment.bytes > protectedBytes)) {
+            
+            final String key = protectedSegment.eldestKey();
+            probation.add(key, protectedSegment.remove(key));
+        }
+    }
+    
+    private static long weigh(String key, Object value) {
+        long weight = ENTRY_OVERHEAD + 2L * key.length();
+        if (value instanceof String) {
+            weight += 2L * ((String) value).length();
+        } else if (value instanceof Set) {
+            for (final Object item : (Set<?>) value) {
+                weight += ENTRY_OVERHEAD + 2L * ((String) item).length();
+            }
+        }
+        
+        return weight;
+    }
+    
+    private static final class Entry {
+        
+        final Object value;
+        final long weight;
+        
+        public Entry(Object value, long weight) {
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+    
+    /**
+     * Values kept in order from the least to the most recently used.
+     */
+    private static final class Segment {
+        
+        final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>();
+        long bytes;
+        
+        @Nullable
+        public Entry touch(String key) {
+            final Entry entry = entries.remove(key);
+            if (entry != null) {
+                entries.put(key, entry);
+            }
+            
+            return entry;
+        }
+        
+        public void add(String key, Entry entry) {
+            entries.put(key, entry);
+            bytes += entry.weight;
+        }
+        
+        @Nullable
+        public Entry remove(String key) {
+            final Entry entry = entries.remove(key);
+            if (entry != null) {
+                bytes -= entry.weight;
+            }
+            
+            return entry;
+        }
+        
+        public String eldestKey() {
+            return entries.keySet().iterator().next();
+        }
+        
+        public void removeEldest() {
+            final Iterator<Map.Entry<String, Entry>> iterator =
+                    entries.entrySet().iterator();
+            bytes -= iterator.next().getValue().weight;
+            iterator.remove();
+        }
+        
+        public void clear() {
+            entries.clear();
+            bytes = 0;
+        }
+    }
+    
+    /**
+     * Count-min sketch with 4 rows of counters saturating at 15.
+     */
+    private static final class FrequencySketch {
+        
+        private static final int DEPTH = 4;
+        private static final int MAX_COUNT = 15;
+        private static final int[] SEEDS = {
+                0x97cb3127, 0xb3c3b4a5, 0xe6546b64, 0x85ebca6b};
+        
+        private final byte[] counters;
+        private final int width;
+        private final int sampleSize;
+        
+        private int additions;
+        
+        public FrequencySketch(int expectedEntries) {
+            int size = 16;
+            while (size < expectedEntries && size < (1 << 20)) {
+                size <<= 1;
+            }
+            
+            width = size;
+            counters = new byte[DEPTH * width];
+            sampleSize = 10 * width;
+        }
+        
+        public void increment(String key) {
+            final int hash = spread(key.hashCode());
+            
+            boolean added = false;
+            for (int i = 0; i < DEPTH; i++) {
+                final int index = indexOf(hash, i);
+                if (counters[index] < MAX_COUNT) {
+                    counters[index]++;
+                    added = true;
+                }
+            }
+            
+            if (added && ++additions >= sampleSize) {
+                age();
+            }
+        }
+        
+        public int frequency(String key) {
+            final int hash = spread(key.hashCode());
+            
+            int result = MAX_COUNT;
+            for (int i = 0; i < DEPTH; i++) {
+                result = Math.min(result, counters[indexOf(hash, i)]);
+            }
+            
+            return result;
+        }
+        
+        private int indexOf(int hash, int row) {
+            int h = (hash ^ SEEDS[row]) * SEEDS[row];
+            h ^= h >>> 16;
+            
+            return row * width + (h & (width - 1));
+        }
+        
+        /**
+         * Halves all counters, so that keys which are no longer retrieved
+         * lose their popularity over time.
+         */
+        private void age() {
+            for (int i = 0; i < counters.length; i++) {
+                counters[i] >>= 1;
+            }
+            additions /= 2;
+        }
+        
+        private static int spread(int hash) {
+            final int h = hash * 0x9e3779b9;
+            return h ^ (h >>> 16);
+        }
+    }
+}
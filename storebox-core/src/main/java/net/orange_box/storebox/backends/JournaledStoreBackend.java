@@ -0,0 +1,603 @@
+/*
+ * Copyright 2015 Martin Bella
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.orange_box.storebox.backends;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * {@link StoreBackend} which keeps the values of another backend in memory
+ * and saves changes by appending only the changed values to a journal, so
+ * that saving doesn't need to rewrite the whole of the other backend, such
+ * as the XML file of {@link android.content.SharedPreferences}.
+ * <p>
+ * The journal starts with a header made up of a magic number and a version,
+ * which is followed by batches. Each batch starts with its length and a
+ * {@link Crc32c} of its records, which are put, remove, and clear records in
+ * the same format as the ones of {@link LogStoreBackend} without their own
+ * checksums. When the backend gets opened the batches are replayed over the
+ * values of the other backend, and the first batch which didn't get written
+ * completely or whose checksum doesn't match gets dropped along with
+ * anything after it. Journals of the previous version, which have no
+ * checksums, get folded and rewritten when opened.
+ * <p>
+ * Once the journal grows past its threshold the changed values get folded
+ * into the other backend on a background thread, after which the batches
+ * which have been folded get dropped from the journal. Replaying batches
+ * which have already been folded results in the same values, so a crash
+ * while folding doesn't lose any changes.
+ */
+public class JournaledStoreBackend extends MapStoreBackend
+        implements Closeable {
+    
+    public static final int DEFAULT_COMPACTION_THRESHOLD = 64 * 1024;
+    
+    static final byte[] MAGIC = {'S', 'B', 'J', 'N'};
+    static final byte VERSION = 2;
+    static final int HEADER_SIZE = 8;
+    
+    /**
+     * Version without checksums, which can still be opened.
+     */
+    private static final byte VERSION_UNCHECKED = 1;
+    
+    private static final int BATCH_HEADER_SIZE = 8;
+    
+    private static final byte OP_PUT = 1;
+    private static final byte OP_REMOVE = 2;
+    private static final byte OP_CLEAR = 3;
+    
+    private final StoreBackend primary;
+    private final File file;
+    private final int compactionThreshold;
+    private final Object compactionLock = new Object();
+    
+    private RandomAccessFile raf;
+    private FileChannel channel;
+    private boolean closed;
+    
+    /**
+     * Keys changed since the values were last folded into the primary
+     * backend, and whether it needs to be cleared.
+     */
+    private final Set<String> unfolded = new HashSet<>();
+    private boolean unfoldedClear;
+    
+    private long size;
+    private long nextCompactionSize;
+    private boolean compacting;
+    
+    private int compactions;
+    private long lastCompactionMillis;
+    
+    private boolean recovered;
+    private long replayMillis;
+    
+    public JournaledStoreBackend(StoreBackend primary, File file)
+            throws IOException {
+        
+        this(primary, file, DEFAULT_COMPACTION_THRESHOLD);
+    }
+    
+    /**
+     * @param primary - backend which the values get loaded from and folded
+     * into
+     * @param file - the journal file, which will be created if it doesn't
+     * exist
+     * @param compactionThreshold - size of the journal in bytes after which
+     * it gets folded into {@code primary}
+     * @throws IOException if the journal couldn't be opened, or it isn't a
+     * journal
+     */
+    public JournaledStoreBackend(
+            StoreBackend primary,
+            File file,
+            int compactionThreshold) throws IOException {
+        
+        this.primary = primary;
+        this.file = file;
+        this.compactionThreshold = compactionThreshold;
+        
+        nextCompactionSize = compactionThreshold;
+        
+        final File parent = file.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Failed to create directory " + parent);
+        }
+        
+        for (final Map.Entry<String, ?> entry : primary.getAll().entrySet()) {
+            loadValue(entry.getKey(), entry.getValue());
+        }
+        
+        final boolean checked = replay();
+        open();
+        
+        if (!checked) {
+            // rewrite the journal with checksums
+            compact();
+        } else if (!unfolded.isEmpty() || unfoldedClear) {
+            // changes left over from the last time get folded in straight away
+            scheduleCompaction();
+        }
+    }
+    
+    public StoreBackend getPrimary() {
+        return primary;
+    }
+    
+    public File getFile() {
+        return file;
+    }
+    
+    /**
+     * @return whether a batch at the end of the journal didn't get written
+     * completely, or didn't match its checksum, and got dropped when the
+     * journal was opened
+     */
+    public boolean isRecovered() {
+        return recovered;
+    }
+    
+    /**
+     * @return time in milliseconds which it took to replay the journal when
+     * it was opened
+     */
+    public long getReplayMillis() {
+        return replayMillis;
+    }
+    
+    /**
+     * @return size of the journal in bytes
+     */
+    public synchronized long getJournalSize() {
+        return size;
+    }
+    
+    /**
+     * @return number of times the journal has been folded into the primary
+     * backend since it was opened
+     */
+    public synchronized int getCompactionCount() {
+        return compactions;
+    }
+    
+    /**
+     * @return how long folding the journal into the primary backend took the
+     * last time, in milliseconds
+     */
+    public synchronized long getLastCompactionMillis() {
+        return lastCompactionMillis;
+    }
+    
+    /**
+     * Folds the journal into the primary backend on the calling thread,
+     * which normally happens on a background thread once the journal has
+     * grown past its threshold. Does nothing once the journal has been
+     * closed.
+     * 
+     * @throws IOException if the changes couldn't be saved by the primary
+     * backend, or the journal couldn't be rewritten, in which case the
+     * journal remains in use as-is
+     */
+    public void compact() throws IOException {
+        synchronized (compactionLock) {
+            compactLocked();
+        }
+    }
+    
+    /**
+     * Closes the journal, after which changes don't get appended to it and
+     * it doesn't get compacted anymore, including by a compaction which
+     * has already been scheduled.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        closed = true;
+        closeFiles();
+    }
+    
+    @Override
+    protected void persistChanges(
+            boolean clear,
+            Map<String, Object> changes) {
+        
+        if (closed) {
+            // nothing to append to, which syncing reports by failing
+            return;
+        }
+        
+        int length = clear ? 1 : 0;
+        for (final Map.Entry<String, Object> entry : changes.entrySet()) {
+            length += getRecordSize(entry.getKey(), entry.getValue());
+        }
+        
+        final ByteBuffer batch =
+                ByteBuffer.allocate(BATCH_HEADER_SIZE + length);
+        batch.position(BATCH_HEADER_SIZE);
+        if (clear) {
+            batch.put(OP_CLEAR);
+            
+            unfolded.clear();
+            unfoldedClear = true;
+        }
+        for (final Map.Entry<String, Object> entry : changes.entrySet()) {
+            if (entry.getValue() == null) {
+                batch.put(OP_REMOVE);
+                ValueCodec.writeString(batch, entry.getKey());
+            } else {
+                batch.put(OP_PUT);
+                ValueCodec.writeString(batch, entry.getKey());
+                ValueCodec.write(batch, entry.getValue());
+            }
+            
+            unfolded.add(entry.getKey());
+        }
+        batch.putInt(0, length);
+        batch.putInt(4, Crc32c.compute(batch, BATCH_HEADER_SIZE, length));
+        batch.flip();
+        
+        try {
+            while (batch.hasRemaining()) {
+                channel.write(batch, size + batch.position());
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to append to " + file, e);
+        }
+        size += batch.limit();
+        
+        if (!compacting && size >= nextCompactionSize) {
+            scheduleCompaction();
+        }
+    }
+    
+    @Override
+    protected boolean sync() {
+        final FileChannel channel;
+        synchronized (this) {
+            channel = this.channel;
+        }
+        
+        if (channel == null) {
+            return false;
+        }
+        
+        try {
+            channel.force(false);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+    
+    private void scheduleCompaction() {
+        compacting = true;
+        runInBackground(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    compact();
+                } catch (IOException e) {
+                    // try again once the journal has grown some more
+                    synchronized (JournaledStoreBackend.this) {
+                        nextCompactionSize = size * 2;
+                    }
+                }
+            }
+        });
+    }
+    
+    private void compactLocked() throws IOException {
+        final long start = System.nanoTime();
+        
+        final Map<String, Object> changes = new HashMap<>();
+        final boolean clear;
+        final long foldedSize;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            
+            for (final String key : unfolded) {
+                changes.put(key, getValue(key));
+            }
+            clear = unfoldedClear;
+            foldedSize = size;
+            
+            unfolded.clear();
+            unfoldedClear = false;
+            compacting = true;
+        }
+        
+        boolean folded = false;
+        try {
+            final StoreBackend.Editor editor = primary.edit();
+            if (clear) {
+                editor.clear();
+            }
+            for (final Map.Entry<String, Object> entry : changes.entrySet()) {
+                if (entry.getValue() == null) {
+                    editor.remove(entry.getKey());
+                } else {
+                    FileBackends.putValue(
+                            editor, entry.getKey(), entry.getValue());
+                }
+            }
+            if (!editor.commit()) {
+                throw new IOException(
+                        "Failed to fold " + file + " into its backend");
+            }
+            
+            synchronized (this) {
+                /*
+                 * If it got closed in the meantime the journal gets left
+                 * as-is, and replaying it later only repeats what has
+                 * been folded.
+                 */
+                if (!closed) {
+                    dropFolded(foldedSize);
+                }
+                
+                compactions++;
+                lastCompactionMillis = (System.nanoTime() - start) / 1000000;
+                nextCompactionSize = compactionThreshold;
+            }
+            folded = true;
+        } finally {
+            synchronized (this) {
+                if (!folded) {
+                    // fold these again next time, along with any newer ones
+                    unfolded.addAll(changes.keySet());
+                    unfoldedClear |= clear;
+                }
+                compacting = false;
+            }
+        }
+    }
+    
+    /**
+     * Rewrites the journal with only the batches appended after
+     * {@code foldedSize}.
+     */
+    private void dropFolded(long foldedSize) throws IOException {
+        final File temp = new File(file.getPath() + ".tmp");
+        final RandomAccessFile tempRaf = new RandomAccessFile(temp, "rw");
+        try {
+            final FileChannel tempChannel = tempRaf.getChannel();
+            tempRaf.setLength(0);
+            
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.put(MAGIC);
+            header.put(VERSION);
+            header.clear();
+            while (header.hasRemaining()) {
+                tempChannel.write(header);
+            }
+            
+            long position = foldedSize;
+            while (position < size) {
+                position += channel.transferTo(
+                        position, size - position, tempChannel);
+            }
+            tempChannel.force(true);
+            final long length = tempChannel.size();
+            tempRaf.close();
+            
+            if (!temp.renameTo(file)) {
+                throw new IOException(
+                        "Failed to replace " + file + " with " + temp);
+            }
+            
+            closeFiles();
+            open();
+            size = length;
+        } finally {
+            tempRaf.close();
+            
+            if (temp.exists()) {
+                temp.delete();
+            }
+        }
+    }
+    
+    private void closeFiles() throws IOException {
+        if (channel != null) {
+            channel.force(false);
+            channel.close();
+            channel = null;
+        }
+        if (raf != null) {
+            raf.close();
+            raf = null;
+        }
+    }
+    
+    private void open() throws IOException {
+        raf = new RandomAccessFile(file, "rw");
+        channel = raf.getChannel();
+        
+        if (channel.size() == 0) {
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.put(MAGIC);
+            header.put(VERSION);
+            header.clear();
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+            size = HEADER_SIZE;
+        }
+    }
+    
+    /**
+     * @return whether the journal has checksums, or otherwise needs to be
+     * rewritten
+     */
+    private boolean replay() throws IOException {
+        if (!file.exists()) {
+            return true;
+        }
+        
+        final long started = System.nanoTime();
+        
+        final ByteBuffer buffer;
+        final FileInputStream stream = new FileInputStream(file);
+        try {
+            final FileChannel channel = stream.getChannel();
+            final long length = channel.size();
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException(file + " is too large");
+            } else if (length == 0) {
+                return true;
+            }
+            
+            buffer = ByteBuffer.allocate((int) length);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    throw new IOException("Unexpected end of " + file);
+                }
+            }
+            buffer.flip();
+        } finally {
+            stream.close();
+        }
+        
+        final byte[] magic = new byte[MAGIC.length];
+        try {
+            buffer.get(magic);
+        } catch (BufferUnderflowException e) {
+            throw new IOException(file + " is not a StoreBox journal");
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (magic[i] != MAGIC[i]) {
+                throw new IOException(file + " is not a StoreBox journal");
+            }
+        }
+        
+        final byte version = buffer.get();
+        if (version != VERSION && version != VERSION_UNCHECKED) {
+            throw new IOException(String.format(
+                    Locale.ENGLISH,
+                    "%1$s has unsupported version %2$d",
+                    file,
+                    version));
+        }
+        
+        final boolean checked = (version == VERSION);
+        final int batchHeaderSize = checked ? BATCH_HEADER_SIZE : 4;
+        
+        buffer.position(HEADER_SIZE);
+        while (buffer.remaining() >= batchHeaderSize) {
+            final int start = buffer.position();
+            final int length = buffer.getInt();
+            final int checksum = checked ? buffer.getInt() : 0;
+            if (length < 0
+                    || length > buffer.remaining()
+                    || (checked && checksum != Crc32c.compute(
+                            buffer, buffer.position(), length))) {
+                
+                // torn batch
+                buffer.position(start);
+                break;
+            }
+            
+            final ByteBuffer batch = buffer.slice();
+            batch.limit(length);
+            try {
+                replayBatch(batch);
+            } catch (IllegalArgumentException | BufferUnderflowException e) {
+                throw new IOException(String.format(
+                        Locale.ENGLISH,
+                        "%1$s has a corrupt batch at %2$d",
+                        file,
+                        start),
+                        e);
+            }
+            buffer.position(start + batchHeaderSize + length);
+        }
+        
+        size = buffer.position();
+        if (size < file.length()) {
+            // drop the torn batch, so new ones get appended after it
+            final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                raf.setLength(size);
+            } finally {
+                raf.close();
+            }
+            recovered = true;
+        }
+        replayMillis = (System.nanoTime() - started) / 1000000;
+        
+        return checked;
+    }
+    
+    private void replayBatch(ByteBuffer batch) {
+        while (batch.hasRemaining()) {
+            final byte op = batch.get();
+            switch (op) {
+                case OP_PUT: {
+                    final String key = ValueCodec.readString(batch);
+                    loadValue(key, ValueCodec.read(batch));
+                    unfolded.add(key);
+                    break;
+                }
+                
+                case OP_REMOVE: {
+                    final String key = ValueCodec.readString(batch);
+                    loadValue(key, null);
+                    unfolded.add(key);
+                    break;
+                }
+                
+                case OP_CLEAR:
+                    clearValues();
+                    unfolded.clear();
+                    unfoldedClear = true;
+                    break;
+                
+                default:
+                    throw new IllegalArgumentException(String.format(
+                            Locale.ENGLISH,
+                            "Unknown operation %1$d",
+                            op));
+            }
+        }
+    }
+    
+    /**
+     * @return size of a put record for a value, or of a remove record if
+     * {@code value} is {@code null}
+     */
+    private static int getRecordSize(String key, Object value) {
+        final int size = 1 + ValueCodec.getSize(key);
+        if (value == null) {
+            return size;
+        } else {
+            return size + ValueCodec.getSize(value);
+        }
+    }
+}
@@ -0,0 +1,556 @@
+/*
+ * Copyright 2015 Martin Bella
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.orange_box.storebox.backends;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * {@link StoreBackend} which keeps its values in memory and persists changes
+ * by appending them to a memory-mapped log file, so that saving only needs
+ * to write the values which have changed.
+ * <p>
+ * The file starts with a header made up of a magic number and a version,
+ * which is followed by records. Each record starts with an operation byte,
+ * is followed by its arguments, and ends with a {@link Crc32c} of the
+ * operation and arguments:
+ * <ul>
+ * <li>put - key and value encoded by {@link ValueCodec}</li>
+ * <li>remove - key</li>
+ * <li>clear - nothing</li>
+ * </ul>
+ * A zero operation byte marks the end of the records. When the backend gets
+ * opened the records are replayed, and the first record which didn't get
+ * written completely or whose checksum doesn't match becomes the new end, so
+ * that a crash only loses the record which was being written. Logs of the
+ * previous version, which have no checksums, get rewritten when opened.
+ * <p>
+ * Records which have been superseded by later ones are garbage, and once
+ * there is enough of it the log gets compacted on a background thread by
+ * writing the current values into a new file which replaces the log.
+ */
+public class LogStoreBackend extends MapStoreBackend implements Closeable {
+    
+    public static final int DEFAULT_COMPACTION_THRESHOLD = 64 * 1024;
+    
+    static final byte[] MAGIC = {'S', 'B', 'L', 'G'};
+    static final byte VERSION = 2;
+    static final int HEADER_SIZE = 8;
+    
+    /**
+     * Version without checksums, which can still be opened.
+     */
+    private static final byte VERSION_UNCHECKED = 1;
+    
+    private static final byte OP_END = 0;
+    private static final byte OP_PUT = 1;
+    private static final byte OP_REMOVE = 2;
+    private static final byte OP_CLEAR = 3;
+    
+    private static final int CHECKSUM_SIZE = 4;
+    private static final int CLEAR_RECORD_SIZE = 1 + CHECKSUM_SIZE;
+    
+    private static final int MIN_CAPACITY = 16 * 1024;
+    
+    private final File file;
+    private final int compactionThreshold;
+    private final Object compactionLock = new Object();
+    private final Crc32c crc = new Crc32c();
+    
+    private RandomAccessFile raf;
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    
+    /**
+     * End of the records, where the next one will be appended.
+     */
+    private int position;
+    /**
+     * Size of the records which have been superseded.
+     */
+    private int garbage;
+    private int nextCompactionGarbage;
+    private boolean compacting;
+    private boolean clearedWhileCompacting;
+    
+    private boolean recovered;
+    private long replayMillis;
+    
+    public LogStoreBackend(File file) throws IOException {
+        this(file, DEFAULT_COMPACTION_THRESHOLD);
+    }
+    
+    /**
+     * @param file - the log file, which will be created if it doesn't exist
+     * @param compactionThreshold - minimum size of garbage in bytes before
+     * the log will be compacted
+     * @throws IOException if the file couldn't be opened, or it isn't a log
+     */
+    public LogStoreBackend(File file, int compactionThreshold)
+            throws IOException {
+        
+        this.file = file;
+        this.compactionThreshold = compactionThreshold;
+        
+        nextCompactionGarbage = compactionThreshold;
+        
+        final File parent = file.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Failed to create directory " + parent);
+        }
+        
+        open();
+        if (!replay()) {
+            // rewrite the log with checksums
+            compact();
+        }
+    }
+    
+    public File getFile() {
+        return file;
+    }
+    
+    /**
+     * @return size of the header and records in bytes, which is less than
+     * the size of the file as it gets grown ahead of appending
+     */
+    public synchronized int getLogSize() {
+        return position;
+    }
+    
+    /**
+     * @return whether a record at the end of the log didn't get written
+     * completely, or didn't match its checksum, and got dropped when the log
+     * was opened
+     */
+    public boolean isRecovered() {
+        return recovered;
+    }
+    
+    /**
+     * @return time in milliseconds which it took to replay the log when it
+     * was opened
+     */
+    public long getReplayMillis() {
+        return replayMillis;
+    }
+    
+    /**
+     * Compacts the log on the calling thread, which normally happens on a
+     * background thread once there is enough garbage.
+     * 
+     * @throws IOException if the compacted log couldn't be written, in which
+     * case the current log remains in use
+     */
+    public void compact() throws IOException {
+        synchronized (compactionLock) {
+            compactLocked();
+        }
+    }
+    
+    @Override
+    public synchronized void close() throws IOException {
+        if (buffer != null) {
+            buffer.force();
+            buffer = null;
+        }
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+        if (raf != null) {
+            raf.close();
+            raf = null;
+        }
+    }
+    
+    @Override
+    protected void persistChanges(
+            boolean clear,
+            Map<String, Object> changes) {
+        
+        int size = clear ? CLEAR_RECORD_SIZE : 0;
+        for (final Map.Entry<String, Object> entry : changes.entrySet()) {
+            size += getRecordSize(entry.getKey(), entry.getValue());
+        }
+        
+        try {
+            // leave space for the end marker
+            ensureCapacity(position + size + 1);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to grow " + file, e);
+        }
+        
+        buffer.position(position);
+        
+        if (clear) {
+            buffer.put(OP_CLEAR);
+            putChecksum(crc, buffer, position);
+            garbage = position - HEADER_SIZE + CLEAR_RECORD_SIZE;
+            clearedWhileCompacting = compacting;
+        }
+        for (final Map.Entry<String, Object> entry : changes.entrySet()) {
+            final String key = entry.getKey();
+            final Object value = entry.getValue();
+            
+            final Object previous = clear ? null : getValue(key);
+            if (previous != null) {
+                garbage += getRecordSize(key, previous);
+            }
+            
+            final int start = buffer.position();
+            if (value == null) {
+                buffer.put(OP_REMOVE);
+                ValueCodec.writeString(buffer, key);
+                
+                // removes are only needed until the log gets compacted
+                garbage += getRecordSize(key, null);
+            } else {
+                buffer.put(OP_PUT);
+                ValueCodec.writeString(buffer, key);
+                ValueCodec.write(buffer, value);
+            }
+            putChecksum(crc, buffer, start);
+        }
+        
+        position = buffer.position();
+        buffer.put(position, OP_END);
+        
+        if (!compacting
+                && garbage >= nextCompactionGarbage
+                && garbage > position / 2) {
+            
+            compacting = true;
+            runInBackground(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        compact();
+                    } catch (IOException e) {
+                        // try again once there's more garbage
+                        synchronized (LogStoreBackend.this) {
+                            nextCompactionGarbage = garbage * 2;
+                        }
+                    }
+                }
+            });
+        }
+    }
+    
+    @Override
+    protected boolean sync() {
+        final MappedByteBuffer buffer;
+        synchronized (this) {
+            buffer = this.buffer;
+        }
+        
+        if (buffer == null) {
+            return false;
+        }
+        
+        buffer.force();
+        return true;
+    }
+    
+    private void compactLocked() throws IOException {
+        final Map<String, Object> snapshot;
+        final int snapshotPosition;
+        final int snapshotGarbage;
+        synchronized (this) {
+            snapshot = new HashMap<>(getValues());
+            snapshotPosition = position;
+            snapshotGarbage = garbage;
+            
+            compacting = true;
+            clearedWhileCompacting = false;
+        }
+        
+        final File temp = new File(file.getPath() + ".tmp");
+        try {
+            final RandomAccessFile tempRaf = new RandomAccessFile(temp, "rw");
+            try {
+                final FileChannel tempChannel = tempRaf.getChannel();
+                tempRaf.setLength(0);
+                
+                final int snapshotEnd = writeSnapshot(tempChannel, snapshot);
+                
+                synchronized (this) {
+                    // copy whatever got appended while writing the snapshot
+                    final ByteBuffer tail = buffer.duplicate();
+                    tail.limit(position);
+                    tail.position(snapshotPosition);
+                    while (tail.hasRemaining()) {
+                        tempChannel.write(tail);
+                    }
+                    tempChannel.force(true);
+                    final int length = (int) tempChannel.size();
+                    tempRaf.close();
+                    
+                    if (!temp.renameTo(file)) {
+                        throw new IOException(
+                                "Failed to replace " + file + " with " + temp);
+                    }
+                    
+                    close();
+                    open();
+                    position = length;
+                    
+                    if (clearedWhileCompacting) {
+                        // the clear made everything before it garbage
+                        garbage -= snapshotPosition - snapshotEnd;
+                    } else {
+                        garbage -= snapshotGarbage;
+                    }
+                    nextCompactionGarbage = compactionThreshold;
+                }
+            } finally {
+                tempRaf.close();
+            }
+        } finally {
+            synchronized (this) {
+                compacting = false;
+            }
+            
+            if (temp.exists()) {
+                temp.delete();
+            }
+        }
+    }
+    
+    private void open() throws IOException {
+        raf = new RandomAccessFile(file, "rw");
+        channel = raf.getChannel();
+        
+        final long size = channel.size();
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException(file + " is too large");
+        }
+        
+        buffer = channel.map(
+                FileChannel.MapMode.READ_WRITE,
+                0,
+                getCapacity((int) size));
+        
+        if (size == 0) {
+            buffer.put(MAGIC);
+            buffer.put(VERSION);
+        }
+    }
+    
+    /**
+     * @return whether the log has checksums, or otherwise needs to be
+     * rewritten
+     */
+    private boolean replay() throws IOException {
+        final long started = System.nanoTime();
+        
+        final byte[] magic = new byte[MAGIC.length];
+        buffer.position(0);
+        buffer.get(magic);
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (magic[i] != MAGIC[i]) {
+                throw new IOException(file + " is not a StoreBox log");
+            }
+        }
+        
+        final byte version = buffer.get();
+        if (version != VERSION && version != VERSION_UNCHECKED) {
+            throw new IOException(String.format(
+                    Locale.ENGLISH,
+                    "%1$s has unsupported version %2$d",
+                    file,
+                    version));
+        }
+        final boolean checked = (version == VERSION);
+        
+        buffer.position(HEADER_SIZE);
+        while (buffer.hasRemaining()) {
+            final int start = buffer.position();
+            
+            try {
+                final byte op = buffer.get();
+                if (op == OP_END) {
+                    buffer.position(start);
+                    break;
+                }
+                
+                replayRecord(op, start, checked);
+            } catch (IllegalArgumentException | BufferUnderflowException e) {
+                // torn record, drop it and anything which follows
+                buffer.position(start);
+                buffer.put(start, OP_END);
+                recovered = true;
+                break;
+            }
+        }
+        
+        position = buffer.position();
+        replayMillis = (System.nanoTime() - started) / 1000000;
+        
+        return checked;
+    }
+    
+    private void replayRecord(byte op, int start, boolean checked) {
+        final String key;
+        final Object value;
+        switch (op) {
+            case OP_PUT:
+                key = ValueCodec.readString(buffer);
+                value = ValueCodec.read(buffer);
+                break;
+            
+            case OP_REMOVE:
+                key = ValueCodec.readString(buffer);
+                value = null;
+                break;
+            
+            case OP_CLEAR:
+                key = null;
+                value = null;
+                break;
+            
+            default:
+                throw new IllegalArgumentException(String.format(
+                        Locale.ENGLISH,
+                        "Unknown operation %1$d",
+                        op));
+        }
+        
+        if (checked) {
+            crc.reset();
+            crc.update(buffer, start, buffer.position() - start);
+            if (buffer.getInt() != (int) crc.getValue()) {
+                throw new IllegalArgumentException(String.format(
+                        Locale.ENGLISH,
+                        "Checksum mismatch for record at %1$d",
+                        start));
+            }
+        }
+        
+        if (op == OP_CLEAR) {
+            garbage = buffer.position() - HEADER_SIZE;
+            clearValues();
+            return;
+        }
+        
+        final Object previous = getValue(key);
+        if (previous != null) {
+            garbage += getRecordSize(key, previous);
+        }
+        if (value == null) {
+            garbage += getRecordSize(key, null);
+        }
+        loadValue(key, value);
+    }
+    
+    /**
+     * @return size of the written log
+     */
+    private static int writeSnapshot(
+            FileChannel channel,
+            Map<String, Object> snapshot) throws IOException {
+        
+        final Crc32c crc = new Crc32c();
+        int size = HEADER_SIZE;
+        
+        ByteBuffer out = ByteBuffer.allocate(MIN_CAPACITY);
+        out.put(MAGIC);
+        out.put(VERSION);
+        out.position(HEADER_SIZE);
+        
+        for (final Map.Entry<String, Object> entry : snapshot.entrySet()) {
+            final int recordSize =
+                    getRecordSize(entry.getKey(), entry.getValue());
+            if (out.remaining() < recordSize) {
+                out.flip();
+                while (out.hasRemaining()) {
+                    channel.write(out);
+                }
+                
+                if (out.capacity() < recordSize) {
+                    out = ByteBuffer.allocate(recordSize);
+                } else {
+                    out.clear();
+                }
+            }
+            
+            final int start = out.position();
+            out.put(OP_PUT);
+            ValueCodec.writeString(out, entry.getKey());
+            ValueCodec.write(out, entry.getValue());
+            putChecksum(crc, out, start);
+            size += recordSize;
+        }
+        
+        out.flip();
+        while (out.hasRemaining()) {
+            channel.write(out);
+        }
+        
+        return size;
+    }
+    
+    private void ensureCapacity(int required) throws IOException {
+        if (required > buffer.capacity()) {
+            buffer = channel.map(
+                    FileChannel.MapMode.READ_WRITE,
+                    0,
+                    getCapacity(Math.max(required, buffer.capacity() * 2)));
+        }
+    }
+    
+    /**
+     * @return size of a put record for a value, or of a remove record if
+     * {@code value} is {@code null}
+     */
+    private static int getRecordSize(String key, Object value) {
+        final int size = 1 + ValueCodec.getSize(key) + CHECKSUM_SIZE;
+        if (value == null) {
+            return size;
+        } else {
+            return size + ValueCodec.getSize(value);
+        }
+    }
+    
+    /**
+     * Appends the checksum of the record from {@code start} up to the
+     * position of {@code buffer}.
+     */
+    private static void putChecksum(Crc32c crc, ByteBuffer buffer, int start) {
+        crc.reset();
+        crc.update(buffer, start, buffer.position() - start);
+        buffer.putInt((int) crc.getValue());
+    }
+    
+    /**
+     * Rounds up to whole pages, leaving some space to append to.
+     */
+    private static int getCapacity(int size) {
+        final int capacity = Math.max(MIN_CAPACITY, size + size / 2);
+        return (capacity + 4095) & ~4095;
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2015 Martin Bella
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.orange_box.storebox.backends;
+
+import android.support.annotation.Nullable;
+
+import java.util.Map;
+
+/**
+ * {@link StoreBackend} keeping all of its values in memory.
+ * <p>
+ * The values are held in an immutable map, and the changes saved by an
+ * editor replace it with a new version all at once. Readers therefore never
+ * see only some of the changes, and taking a snapshot only needs to hold
+ * onto the current version.
+ * <p>
+ * Can be extended by backends which also persist the values, by overriding
+ * {@link #persistChanges(boolean, Map)} and {@link #sync()}.
+ */
+public class MapStoreBackend extends BaseStoreBackend
+        implements VersionedStoreBackend {
+    
+    private volatile PersistentMap<Object> values = PersistentMap.empty();
+    
+    @Override
+    public boolean contains(String key) {
+        return values.containsKey(key);
+    }
+    
+    @Override
+    public Map<String, ?> getAll() {
+        // can't be modified, and won't change along with the backend
+        return values;
+    }
+    
+    @Override
+    public StoreBackend snapshot() {
+        return new ReadOnlyStoreBackend(values);
+    }
+    
+    @Nullable
+    @Override
+    protected Object getValue(String key) {
+        return values.get(key);
+    }
+    
+    @Override
+    protected final void writeChanges(
+            boolean clear,
+            Map<String, Object> changes) {
+        
+        persistChanges(clear, changes);
+        
+        PersistentMap<Object> next =
+                clear ? PersistentMap.empty() : values;
+        for (final Map.Entry<String, Object> entry : changes.entrySet()) {
+            if (entry.getValue() == null) {
+                next = next.minus(entry.getKey());
+            } else {
+                next = next.plus(entry.getKey(), entry.getValue());
+            }
+        }
+        values = next;
+    }
+    
+    @Override
+    protected boolean sync() {
+        return true;
+    }
+    
+    /**
+     * Called before the changes get applied to the values in memory, so
+     * the previous values can still be read through
+     * {@link #getValue(String)}.
+     * 
+     * @see #writeChanges(boolean, Map)
+     */
+    protected void persistChanges(
+            boolean clear,
+            Map<String, Object> changes) {
+        
+        // NOP
+    }
+    
+    /**
+     * Replaces a value without persisting it, for loading values when the
+     * backend gets opened.
+     */
+    protected final synchronized void loadValue(
+            String key,
+            @Nullable Object value) {
+        
+        values = (value == null)
+                ? values.minus(key)
+                : values.plus(key, value);
+    }
+    
+    /**
+     * Removes all values without persisting the change, for loading values
+     * when the backend gets opened.
+     */
+    protected final synchronized void clearValues() {
+        values = PersistentMap.empty();
+    }
+    
+    /**
+     * @return current version of the values, which can't be modified
+     */
+    protected final Map<String, Object> getValues() {
+        return values;
+    }
+}
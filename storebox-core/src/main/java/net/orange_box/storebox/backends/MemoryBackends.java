@@ -0,0 +1,58 @@
+/*
+ * Copyright 2015 Martin Bella
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.orange_box.storebox.backends;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Opens backends which only keep their values in memory, sharing them
+ * between all callers asking for the same name within the process.
+ * <p>
+ * Values are held by a {@link MapStoreBackend}, so they can be read without
+ * taking any locks, and saving them never touches the disk.
+ */
+public final class MemoryBackends {
+    
+    private static final ConcurrentMap<String, StoreBackend> BACKENDS =
+            new ConcurrentHashMap<>();
+    
+    /**
+     * @param name - name of the values, or an empty name for values which
+     * shouldn't be shared
+     * @return backend for the values, which is shared between all callers
+     * asking for the same non-empty name
+     */
+    public static StoreBackend open(String name) {
+        if (name.isEmpty()) {
+            return new MapStoreBackend();
+        }
+        
+        StoreBackend backend = BACKENDS.get(name);
+        if (backend == null) {
+            final StoreBackend created = new MapStoreBackend();
+            backend = BACKENDS.putIfAbsent(name, created);
+            if (backend == null) {
+                backend = created;
+            }
+        }
+        
+        return backend;
+    }
+    
+    private MemoryBackends() {}
+}
@@ -0,0 +1,631 @@
+/*
+ * Copyright 2015 Martin Bella
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.orange_box.storebox.backends;
+
+import android.support.annotation.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * {@link StoreBackend} which moves the values of a source backend over to a
+ * target backend while both remain in use, such as when preferences change
+ * to a different engine, so that opening them doesn't need to wait for all
+ * of the values to be copied.
+ * <p>
+ * Until the migration completes values are read from the source, and
+ * changes are saved to both backends. The values which existed beforehand
+ * get copied into the target on a background thread, in batches ordered by
+ * their keys, and after each batch the last key copied is saved into a
+ * checkpoint file. Once all of them have been copied, and the checkpoint
+ * saying so has been synced, reads switch over to the target at once, and
+ * from then on changes only get saved to the target.
+ * <p>
+ * When the backend is opened again after the process died part of the way
+ * through, copying resumes after the key in the checkpoint. The values
+ * copied before it only get copied again if they differ from the source,
+ * such as when the process died between saving a change to the source and
+ * to the target. If saving a change into the target fails copying stops,
+ * and starts over the next time the backend is opened.
+ */
+public class MigratingStoreBackend implements VersionedStoreBackend {
+    
+    public static final int DEFAULT_BATCH_SIZE = 256;
+    
+    private static final byte STATE_COPYING = 1;
+    private static final byte STATE_MIGRATED = 2;
+    
+    private static final String TEMP_SUFFIX = ".tmp";
+    
+    private final StoreBackend source;
+    private final StoreBackend target;
+    private final File checkpoint;
+    private final int batchSize;
+    /**
+     * Last key copied when the backend was last opened, or {@code null} if
+     * copying hasn't started before.
+     */
+    @Nullable
+    private final String resumeKey;
+    
+    private final Object copyLock = new Object();
+    private final Map<Listener, MigrationListener> listeners;
+    
+    /**
+     * Keys changed through an editor since copying started, for which the
+     * target already has the current values.
+     */
+    private final Set<String> written = new HashSet<>();
+    /**
+     * Values of the source as they were when copying started, and their
+     * keys which need to be copied in order.
+     */
+    private Map<String, ?> values;
+    private final List<String> pending = new ArrayList<>();
+    private int next;
+    /**
+     * Keys which the target has from an earlier attempt, but the source
+     * doesn't.
+     */
+    private final List<String> stale = new ArrayList<>();
+    private boolean prepared;
+    private boolean cleared;
+    private boolean abandoned;
+    private int copied;
+    
+    private volatile boolean migrated;
+    
+    public MigratingStoreBackend(
+            StoreBackend source,
+            StoreBackend target,
+            File checkpoint) throws IOException {
+        
+        this(source, target, checkpoint, DEFAULT_BATCH_SIZE);
+    }
+    
+    /**
+     * @param source - backend whose values should be migrated
+     * @param target - backend which the values should be migrated into
+     * @param checkpoint - file keeping track of the progress, which will be
+     * created if it doesn't exist
+     * @param batchSize - number of values copied at a time
+     * @throws IOException if the checkpoint couldn't be read, or the target
+     * couldn't be prepared for copying
+     */
+    public MigratingStoreBackend(
+            StoreBackend source,
+            StoreBackend target,
+            File checkpoint,
+            int batchSize) throws IOException {
+        
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException(String.format(
+                    Locale.ENGLISH,
+                    "Batch size %1$d needs to be positive",
+                    batchSize));
+        }
+        
+        this.source = source;
+        this.target = target;
+        this.checkpoint = checkpoint;
+        this.batchSize = batchSize;
+        
+        listeners = new WeakHashMap<>();
+        
+        if (checkpoint.exists()) {
+            final DataInputStream stream =
+                    new DataInputStream(new FileInputStream(checkpoint));
+            try {
+                migrated = (stream.readByte() == STATE_MIGRATED);
+                resumeKey = stream.readUTF();
+            } finally {
+                stream.close();
+            }
+        } else {
+            // left-overs of an abandoned attempt would otherwise stay around
+            if (!target.edit().clear().commit()) {
+                throw new IOException("Failed to clear the target");
+            }
+            resumeKey = null;
+        }
+        
+        if (!migrated) {
+            scheduleCopying();
+        }
+    }
+    
+    /**
+     * @param checkpoint - checkpoint file of a migration
+     * @return whether the migration has completed, in which case the target
+     * can be used on its own
+     */
+    public static boolean isMigrated(File checkpoint) {
+        if (!checkpoint.exists()) {
+            return false;
+        }
+        
+        try {
+            final FileInputStream stream = new FileInputStream(checkpoint);
+            try {
+                return stream.read() == STATE_MIGRATED;
+            } finally {
+                stream.close();
+            }
+        } catch (IOException e) {
+            return false;
+        }
+    }
+    
+    public StoreBackend getSource() {
+        return source;
+    }
+    
+    public StoreBackend getTarget() {
+        return target;
+    }
+    
+    /**
+     * @return whether all values have been copied, and reads have switched
+     * over to the target
+     */
+    public boolean isMigrated() {
+        return migrated;
+    }
+    
+    /**
+     * @return number of values copied into the target since the backend was
+     * opened
+     */
+    public synchronized int getCopiedCount() {
+        return copied;
+    }
+    
+    /**
+     * Copies the remaining values on the calling thread, which normally
+     * happens on a background thread.
+     * 
+     * @throws IOException if the values couldn't be copied, in which case
+     * reads remain with the source
+     */
+    public void finish() throws IOException {
+        while (copyBatch()) {
+            // NOP
+        }
+        
+        if (!migrated) {
+            throw new IOException("Migration into the target was abandoned");
+        }
+    }
+    
+    @Override
+    public boolean contains(String key) {
+        return current().contains(key);
+    }
+    
+    @Override
+    public Map<String, ?> getAll() {
+        return current().getAll();
+    }
+    
+    @Override
+    public boolean getBoolean(String key, boolean defValue) {
+        return current().getBoolean(key, defValue);
+    }
+    
+    @Override
+    public float getFloat(String key, float defValue) {
+        return current().getFloat(key, defValue);
+    }
+    
+    @Override
+    public int getInt(String key, int defValue) {
+        return current().getInt(key, defValue);
+    }
+    
+    @Override
+    public long getLong(String key, long defValue) {
+        return current().getLong(key, defValue);
+    }
+    
+    @Nullable
+    @Override
+    public String getString(String key, @Nullable String defValue) {
+        return current().getString(key, defValue);
+    }
+    
+    @Nullable
+    @Override
+    public Set<String> getStringSet(
+            String key,
+            @Nullable Set<String> defValues) {
+        
+        return current().getStringSet(key, defValues);
+    }
+    
+    @Override
+    public Editor edit() {
+        return new MigratingEditor();
+    }
+    
+    @Override
+    public StoreBackend snapshot() {
+        return ReadOnlyStoreBackend.snapshot(current());
+    }
+    
+    @Override
+    public void registerListener(Listener listener) {
+        final MigrationListener adapter;
+        synchronized (listeners) {
+            if (listeners.containsKey(listener)) {
+                return;
+            }
+            
+            adapter = new MigrationListener(this, listener);
+            listeners.put(listener, adapter);
+        }
+        
+        source.registerListener(adapter);
+        target.registerListener(adapter);
+    }
+    
+    @Override
+    public void unregisterListener(Listener listener) {
+        final MigrationListener adapter;
+        synchronized (listeners) {
+            adapter = listeners.remove(listener);
+        }
+        
+        if (adapter != null) {
+            source.unregisterListener(adapter);
+            target.unregisterListener(adapter);
+        }
+    }
+    
+    private StoreBackend current() {
+        return migrated ? target : source;
+    }
+    
+    private void scheduleCopying() {
+        BaseStoreBackend.runInBackground(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (copyBatch()) {
+                        // other background work gets a turn in between
+                        scheduleCopying();
+                    }
+                } catch (IOException e) {
+                    // resumes from the checkpoint when opened next time
+                }
+            }
+        });
+    }
+    
+    /**
+     * @return whether there are more values left to copy
+     */
+    private boolean copyBatch() throws IOException {
+        synchronized (copyLock) {
+            if (!prepared) {
+                prepare();
+            }
+            
+            final String last;
+            synchronized (this) {
+                if (migrated || abandoned) {
+                    return false;
+                }
+                if (cleared) {
+                    // the target got cleared along with the source
+                    pending.clear();
+                    stale.clear();
+                    next = 0;
+                }
+                
+                final int start = next;
+                final List<String> removed = new ArrayList<>();
+                final Editor editor = target.edit();
+                int count = 0;
+                while (count < batchSize && !stale.isEmpty()) {
+                    final String key = stale.remove(stale.size() - 1);
+                    if (!written.contains(key)) {
+                        editor.remove(key);
+                    }
+                    removed.add(key);
+                    count++;
+                }
+                String key = null;
+                while (count < batchSize && next < pending.size()) {
+                    key = pending.get(next++);
+                    if (!written.contains(key)) {
+                        FileBackends.putValue(editor, key, values.get(key));
+                    }
+                    count++;
+                }
+                
+                if (count > 0 && !editor.commit()) {
+                    next = start;
+                    stale.addAll(removed);
+                    throw new IOException("Failed to copy into the target");
+                }
+                copied += count;
+                
+                last = (key != null) ? key : resumeKey;
+                if (next == pending.size() && stale.isEmpty()) {
+                    /*
+                     * Reads only switch over once the checkpoint says so, as
+                     * changes wouldn't be saved to the source from then on.
+                     * Saving changes waits for it, so the target can't get
+                     * abandoned in between either.
+                     */
+                    writeCheckpoint(
+                            STATE_MIGRATED,
+                            (last != null) ? last : "");
+                    migrated = true;
+                    
+                    values = null;
+                    pending.clear();
+                    written.clear();
+                    return false;
+                }
+            }
+            
+            writeCheckpoint(STATE_COPYING, (last != null) ? last : "");
+            return true;
+        }
+    }
+    
+    /**
+     * Works out which values need to be copied, which happens on the first
+     * batch so that opening the backend doesn't need to read all of them.
+     */
+    private void prepare() {
+        final Map<String, ?> sourceValues = source.getAll();
+        final Map<String, ?> targetValues = (resumeKey != null)
+                ? target.getAll()
+                : Collections.<String, Object>emptyMap();
+        
+        final List<String> keys = new ArrayList<>(sourceValues.keySet());
+        Collections.sort(keys);
+        
+        synchronized (this) {
+            values = sourceValues;
+            for (final String key : keys) {
+                if (resumeKey == null
+                        || key.compareTo(resumeKey) > 0
+                        || !sourceValues.get(key).equals(
+                                targetValues.get(key))) {
+                    
+                    pending.add(key);
+                }
+            }
+            for (final String key : targetValues.keySet()) {
+                if (!sourceValues.containsKey(key)) {
+                    stale.add(key);
+                }
+            }
+            prepared = true;
+        }
+    }
+    
+    /**
+     * Writes the checkpoint into a temporary file which then gets renamed,
+     * so that a partially written checkpoint never gets read.
+     */
+    private void writeCheckpoint(byte state, String lastKey)
+            throws IOException {
+        
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream data = new DataOutputStream(bytes);
+        data.writeByte(state);
+        data.writeUTF(lastKey);
+        data.close();
+        
+        final File temp = new File(checkpoint.getPath() + TEMP_SUFFIX);
+        final FileOutputStream stream = new FileOutputStream(temp);
+        try {
+            bytes.writeTo(stream);
+            stream.getFD().sync();
+        } finally {
+            stream.close();
+        }
+        
+        if (!temp.renameTo(checkpoint)) {
+            temp.delete();
+            throw new IOException(
+                    "Failed to rename " + temp + " to " + checkpoint);
+        }
+    }
+    
+    /**
+     * @return whether the changes were saved successfully
+     */
+    private static boolean save(
+            StoreBackend backend,
+            boolean clear,
+            Map<String, Object> changes,
+            boolean commit) {
+        
+        final Editor editor = backend.edit();
+        if (clear) {
+            editor.clear();
+        }
+        for (final Map.Entry<String, Object> entry : changes.entrySet()) {
+            if (entry.getValue() == null) {
+                editor.remove(entry.getKey());
+            } else {
+                FileBackends.putValue(
+                        editor, entry.getKey(), entry.getValue());
+            }
+        }
+        
+        if (commit) {
+            return editor.commit();
+        } else {
+            editor.apply();
+            return true;
+        }
+    }
+    
+    private final class MigratingEditor implements Editor {
+        
+        private Map<String, Object> changes = new HashMap<>();
+        private boolean clear;
+        
+        @Override
+        public synchronized Editor putBoolean(String key, boolean value) {
+            changes.put(key, value);
+            return this;
+        }
+        
+        @Override
+        public synchronized Editor putFloat(String key, float value) {
+            changes.put(key, value);
+            return this;
+        }
+        
+        @Override
+        public synchronized Editor putInt(String key, int value) {
+            changes.put(key, value);
+            return this;
+        }
+        
+        @Override
+        public synchronized Editor putLong(String key, long value) {
+            changes.put(key, value);
+            return this;
+        }
+        
+        @Override
+        public synchronized Editor putString(
+                String key,
+                @Nullable String value) {
+            
+            changes.put(key, value);
+            return this;
+        }
+        
+        @Override
+        public synchronized Editor putStringSet(
+                String key,
+                @Nullable Set<String> values) {
+            
+            changes.put(
+                    key,
+                    (values == null) ? null : new HashSet<>(values));
+            return this;
+        }
+        
+        @Override
+        public synchronized Editor remove(String key) {
+            changes.put(key, null);
+            return this;
+        }
+        
+        @Override
+        public synchronized Editor clear() {
+            clear = true;
+            return this;
+        }
+        
+        @Override
+        public boolean commit() {
+            return save(true);
+        }
+        
+        @Override
+        public void apply() {
+            save(false);
+        }
+        
+        private boolean save(boolean commit) {
+            final Map<String, Object> changes;
+            final boolean clear;
+            synchronized (this) {
+                changes = this.changes;
+                clear = this.clear;
+                
+                this.changes = new HashMap<>();
+                this.clear = false;
+            }
+            
+            final MigratingStoreBackend backend = MigratingStoreBackend.this;
+            synchronized (backend) {
+                if (migrated) {
+                    return MigratingStoreBackend.save(
+                            target, clear, changes, commit);
+                }
+                
+                written.addAll(changes.keySet());
+                cleared |= clear;
+                
+                final boolean saved = MigratingStoreBackend.save(
+                        source, clear, changes, commit);
+                if (!abandoned && !MigratingStoreBackend.save(
+                        target, clear, changes, commit)) {
+                    
+                    // the target is missing changes, so it starts over
+                    abandoned = true;
+                    checkpoint.delete();
+                }
+                
+                return saved;
+            }
+        }
+    }
+    
+    /**
+     * Forwards the changes of whichever backend the values are being read
+     * from, without keeping the listener from being collected.
+     */
+    private static final class MigrationListener implements Listener {
+        
+        private final MigratingStoreBackend backend;
+        private final WeakReference<Listener> listener;
+        
+        public MigrationListener(
+                MigratingStoreBackend backend,
+                Listener listener) {
+            
+            this.backend = backend;
+            this.listener = new WeakReference<>(listener);
+        }
+        
+        @Override
+        public void onValueChanged(StoreBackend source, String key) {
+            final Listener target = listener.get();
+            if (target != null && source == backend.current()) {
+                target.onValueChanged(backend, key);
+            }
+        }
+    }
+}
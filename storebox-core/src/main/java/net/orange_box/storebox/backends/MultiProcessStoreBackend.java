@@ -0,0 +1,408 @@
+/*
+ * Copyright 2015 Martin Bella
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.orange_box.storebox.backends;
+
+import android.support.annotation.Nullable;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.ref.WeakReference;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link StoreBackend} which can be shared by several processes, saving its
+ * values into a file using the {@link SnapshotFormat}.
+ * <p>
+ * Writers take an exclusive {@link FileLock} on a small sequence file next
+ * to the values, reload the values if another process has changed them,
+ * write the values and then increment the sequence number. The sequence
+ * file is memory-mapped, so checking whether the values need to be reloaded
+ * only costs comparing the number with the one last seen, which is done
+ * before each read.
+ * <p>
+ * While any listeners are registered the sequence number also gets polled
+ * in the background, so that listeners get notified of changes made by
+ * other processes on the polling thread.
+ */
+public class MultiProcessStoreBackend extends MapStoreBackend
+        implements Closeable {
+    
+    static final String SEQUENCE_SUFFIX = ".seq";
+    
+    private static final int SEQUENCE_SIZE = 8;
+    private static final long POLL_INTERVAL = 500;
+    
+    private static final ScheduledExecutorService WATCHER =
+            Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    final Thread thread =
+                            new Thread(runnable, "StoreBox watcher");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+    
+    private static final ConcurrentMap<String, Object> FILE_LOCKS =
+            new ConcurrentHashMap<>();
+    
+    private final File file;
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private final MappedByteBuffer sequenceBuffer;
+    
+    /**
+     * Held while reloading or writing the values, as the {@link FileLock}s
+     * of a process can't overlap. Shared by all backends for the same file.
+     */
+    private final Object fileLock;
+    /**
+     * Changes which haven't been written yet, which need to be applied
+     * again on top of values reloaded in the meantime.
+     */
+    private final List<Batch> pending = new ArrayList<>();
+    
+    private volatile long sequence;
+    private boolean loaded;
+    private long reloads;
+    @Nullable
+    private ScheduledFuture<?> watch;
+    
+    /**
+     * @param file - the file for the values, which will be created when
+     * saving if it doesn't exist
+     * @throws IOException if the files exist but couldn't be read
+     */
+    public MultiProcessStoreBackend(File file) throws IOException {
+        this.file = file;
+        
+        final String path = file.getCanonicalPath();
+        FILE_LOCKS.putIfAbsent(path, new Object());
+        fileLock = FILE_LOCKS.get(path);
+        
+        final File parent = file.getParentFile();
+        if (parent != null && !parent.exists()) {
+            parent.mkdirs();
+        }
+        
+        raf = new RandomAccessFile(
+                new File(file.getPath() + SEQUENCE_SUFFIX), "rw");
+        try {
+            channel = raf.getChannel();
+            sequenceBuffer = channel.map(
+                    FileChannel.MapMode.READ_WRITE, 0, SEQUENCE_SIZE);
+            
+            synchronized (fileLock) {
+                reload();
+            }
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+    }
+    
+    public File getFile() {
+        return file;
+    }
+    
+    /**
+     * @return sequence number of the values last loaded or written
+     */
+    public long getSequence() {
+        return sequence;
+    }
+    
+    /**
+     * @return how many times the values have been reloaded due to changes
+     * by other processes
+     */
+    public synchronized long getReloadCount() {
+        return reloads;
+    }
+    
+    /**
+     * Reloads the values if another process has changed them since they
+     * were last loaded, notifying the listeners of any changed values.
+     */
+    public void refresh() {
+        if (sequenceBuffer.getLong(0) == sequence) {
+            return;
+        }
+        
+        final Set<String> keys;
+        synchronized (fileLock) {
+            try {
+                keys = reload();
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to reload " + file, e);
+            }
+        }
+        
+        if (!keys.isEmpty()) {
+            notifyListeners(keys);
+        }
+    }
+    
+    @Override
+    public boolean contains(String key) {
+        refresh();
+        return super.contains(key);
+    }
+    
+    @Override
+    public Map<String, ?> getAll() {
+        refresh();
+        return super.getAll();
+    }
+    
+    @Override
+    public StoreBackend snapshot() {
+        refresh();
+        return super.snapshot();
+    }
+    
+    @Override
+    public void registerListener(Listener listener) {
+        super.registerListener(listener);
+        
+        synchronized (this) {
+            if (watch == null) {
+                watch = WATCHER.scheduleWithFixedDelay(
+                        new Watcher(this),
+                        POLL_INTERVAL,
+                        POLL_INTERVAL,
+                        TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+    
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (watch != null) {
+                watch.cancel(false);
+                watch = null;
+            }
+        }
+        
+        synchronized (fileLock) {
+            raf.close();
+        }
+    }
+    
+    @Nullable
+    @Override
+    protected Object getValue(String key) {
+        // the previous values get read while the changes are being written
+        if (!Thread.holdsLock(this)) {
+            refresh();
+        }
+        
+        return super.getValue(key);
+    }
+    
+    @Override
+    protected void persistChanges(
+            boolean clear,
+            Map<String, Object> changes) {
+        
+        synchronized (pending) {
+            pending.add(new Batch(clear, changes));
+        }
+    }
+    
+    @Override
+    protected boolean sync() {
+        final Set<String> keys;
+        synchronized (fileLock) {
+            final FileLock lock;
+            try {
+                lock = channel.lock();
+            } catch (IOException e) {
+                return false;
+            }
+            
+            try {
+                keys = reload();
+                write();
+            } catch (IOException e) {
+                return false;
+            } finally {
+                try {
+                    lock.release();
+                } catch (IOException e) {
+                    // NOP, released when the channel gets closed
+                }
+            }
+        }
+        
+        // outside of the lock, as listeners may save changes themselves
+        if (!keys.isEmpty()) {
+            notifyListeners(keys);
+        }
+        return true;
+    }
+    
+    /**
+     * Writes the values if there are any pending changes, and moves the
+     * sequence number on. Needs to be called while holding the lock of the
+     * sequence file.
+     */
+    private void write() throws IOException {
+        final Map<String, Object> snapshot;
+        final int written;
+        synchronized (this) {
+            synchronized (pending) {
+                if (pending.isEmpty()) {
+                    // already written by an earlier sync
+                    return;
+                }
+                
+                snapshot = new HashMap<>(getValues());
+                written = pending.size();
+            }
+        }
+        
+        SnapshotFormat.write(file, snapshot);
+        
+        final long next = sequence + 1;
+        sequenceBuffer.putLong(0, next);
+        sequence = next;
+        synchronized (pending) {
+            pending.subList(0, written).clear();
+        }
+    }
+    
+    /**
+     * Loads the values written by other processes, if the sequence number
+     * has moved, and applies the pending changes on top of them. Needs to be
+     * called while holding {@link #fileLock}.
+     * 
+     * @return keys whose values have changed
+     */
+    private Set<String> reload() throws IOException {
+        // read before the values, so that a newer write can't be missed
+        final long current = sequenceBuffer.getLong(0);
+        if (current == sequence && loaded) {
+            return Collections.emptySet();
+        }
+        
+        final Map<String, Object> values = file.exists()
+                ? SnapshotFormat.read(file)
+                : Collections.<String, Object>emptyMap();
+        
+        synchronized (this) {
+            final Map<String, Object> previous = new HashMap<>(getValues());
+            
+            clearValues();
+            for (final Map.Entry<String, Object> entry : values.entrySet()) {
+                loadValue(entry.getKey(), entry.getValue());
+            }
+            synchronized (pending) {
+                for (final Batch batch : pending) {
+                    batch.load(this);
+                }
+            }
+            
+            sequence = current;
+            if (loaded) {
+                reloads++;
+            }
+            loaded = true;
+            
+            final Set<String> keys = new HashSet<>();
+            for (final Map.Entry<String, Object> entry : previous.entrySet()) {
+                if (!entry.getValue().equals(getValues().get(entry.getKey()))) {
+                    keys.add(entry.getKey());
+                }
+            }
+            for (final String key : getValues().keySet()) {
+                if (!previous.containsKey(key)) {
+                    keys.add(key);
+                }
+            }
+            
+            return keys;
+        }
+    }
+    
+    private static final class Batch {
+        
+        private final boolean clear;
+        private final Map<String, Object> changes;
+        
+        public Batch(boolean clear, Map<String, Object> changes) {
+            this.clear = clear;
+            this.changes = changes;
+        }
+        
+        public void load(MultiProcessStoreBackend backend) {
+            if (clear) {
+                backend.clearValues();
+            }
+            for (final Map.Entry<String, Object> entry : changes.entrySet()) {
+                backend.loadValue(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+    
+    /**
+     * Polls for changes by other processes, without keeping the backend
+     * from being collected.
+     */
+    private static final class Watcher implements Runnable {
+        
+        private final WeakReference<MultiProcessStoreBackend> backend;
+        
+        public Watcher(MultiProcessStoreBackend backend) {
+            this.backend = new WeakReference<>(backend);
+        }
+        
+        @Override
+        public void run() {
+            final MultiProcessStoreBackend target = backend.get();
+            if (target == null) {
+                // stops the polling
+                throw new IllegalStateException("Backend was collected");
+            }
+            
+            try {
+                target.refresh();
+            } catch (RuntimeException e) {
+                // NOP, tried again on the next poll
+            }
+        }
+    }
+}
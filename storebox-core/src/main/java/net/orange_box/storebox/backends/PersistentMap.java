@@ -0,0 +1,419 @@
+/*
+ * Copyright 2015 Martin Bella
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.orange_box.storebox.backends;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Immutable map from keys to values, implemented as a hash array mapped
+ * trie. Adding or removing a value returns a new map which shares all of
+ * the nodes off the path to its key with this one, so changes only copy a
+ * handful of small arrays and holding onto a version of the map never
+ * requires copying it.
+ * <p>
+ * Each node has a bitmap telling which of the 32 slots for the next five
+ * bits of the hash are used, and an array holding only the used slots. A
+ * slot holds either an entry, a node for the next bits, or the entries
+ * whose hashes are equal.
+ * <p>
+ * Values can't be {@code null}, and the map can't be changed through the
+ * {@link Map} methods.
+ */
+final class PersistentMap<V> extends AbstractMap<String, V> {
+    
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+    /**
+     * Most levels a path can have, including a level of colliding entries.
+     */
+    private static final int MAX_DEPTH = 32 / BITS + 2;
+    
+    private static final PersistentMap<Object> EMPTY =
+            new PersistentMap<>(new Node(0, new Object[0]), 0);
+    
+    private final Node root;
+    private final int size;
+    
+    private PersistentMap(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+    
+    @SuppressWarnings("unchecked")
+    static <V> PersistentMap<V> empty() {
+        return (PersistentMap<V>) EMPTY;
+    }
+    
+    @Override
+    public int size() {
+        return size;
+    }
+    
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+    
+    @SuppressWarnings("unchecked")
+    @Override
+    public V get(Object key) {
+        if (!(key instanceof String)) {
+            return null;
+        }
+        
+        final Entry entry = find((String) key, hash((String) key));
+        return (entry == null) ? null : (V) entry.getValue();
+    }
+    
+    /**
+     * @return map with {@code value} stored for {@code key}, which is this
+     * map if it already holds an equal value
+     */
+    PersistentMap<V> plus(String key, V value) {
+        final int hash = hash(key);
+        final Entry existing = find(key, hash);
+        if (existing != null && existing.getValue().equals(value)) {
+            return this;
+        }
+        
+        return new PersistentMap<>(
+                root.put(new Entry(key, value, hash), 0),
+                (existing == null) ? size + 1 : size);
+    }
+    
+    /**
+     * @return map without a value for {@code key}, which is this map if it
+     * didn't hold one
+     */
+    PersistentMap<V> minus(String key) {
+        final int hash = hash(key);
+        if (find(key, hash) == null) {
+            return this;
+        } else if (size == 1) {
+            return empty();
+        }
+        
+        return new PersistentMap<>(root.remove(key, hash, 0), size - 1);
+    }
+    
+    @Override
+    public Set<Map.Entry<String, V>> entrySet() {
+        return new AbstractSet<Map.Entry<String, V>>() {
+            @Override
+            public Iterator<Map.Entry<String, V>> iterator() {
+                return new EntryIterator<>(root);
+            }
+            
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+    
+    private Entry find(String key, int hash) {
+        Node node = root;
+        int shift = 0;
+        while (true) {
+            final Object slot = node.get(hash, shift);
+            if (slot == null) {
+                return null;
+            } else if (slot instanceof Entry) {
+                final Entry entry = (Entry) slot;
+                return (entry.hash == hash && entry.getKey().equals(key))
+                        ? entry
+                        : null;
+            } else if (slot instanceof Collision) {
+                return ((Collision) slot).find(key);
+            }
+            
+            node = (Node) slot;
+            shift += BITS;
+        }
+    }
+    
+    private static int hash(String key) {
+        // spreads the bits, as the slots get picked from the low ones first
+        final int hash = key.hashCode() * 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+    
+    private static int getHash(Object slot) {
+        return (slot instanceof Entry)
+                ? ((Entry) slot).hash
+                : ((Collision) slot).hash;
+    }
+    
+    /**
+     * @return slot holding both {@code existing}, an entry or collision,
+     * and {@code entry}, whose keys differ
+     */
+    private static Object merge(Object existing, Entry entry, int shift) {
+        final int existingHash = getHash(existing);
+        if (existingHash == entry.hash) {
+            return (existing instanceof Entry)
+                    ? new Collision(
+                            entry.hash,
+                            new Entry[] {(Entry) existing, entry})
+                    : ((Collision) existing).put(entry);
+        }
+        
+        final int existingIndex = (existingHash >>> shift) & MASK;
+        final int index = (entry.hash >>> shift) & MASK;
+        if (existingIndex == index) {
+            return new Node(
+                    1 << index,
+                    new Object[] {merge(existing, entry, shift + BITS)});
+        } else if (existingIndex < index) {
+            return new Node(
+                    (1 << existingIndex) | (1 << index),
+                    new Object[] {existing, entry});
+        } else {
+            return new Node(
+                    (1 << existingIndex) | (1 << index),
+                    new Object[] {entry, existing});
+        }
+    }
+    
+    private static final class Entry
+            extends AbstractMap.SimpleImmutableEntry<String, Object> {
+        
+        private static final long serialVersionUID = 1L;
+        
+        final int hash;
+        
+        Entry(String key, Object value, int hash) {
+            super(key, value);
+            
+            this.hash = hash;
+        }
+    }
+    
+    /**
+     * Entries whose keys have the same hash.
+     */
+    private static final class Collision {
+        
+        final int hash;
+        final Entry[] entries;
+        
+        Collision(int hash, Entry[] entries) {
+            this.hash = hash;
+            this.entries = entries;
+        }
+        
+        Entry find(String key) {
+            for (final Entry entry : entries) {
+                if (entry.getKey().equals(key)) {
+                    return entry;
+                }
+            }
+            
+            return null;
+        }
+        
+        Collision put(Entry entry) {
+            for (int i = 0; i < entries.length; i++) {
+                if (entries[i].getKey().equals(entry.getKey())) {
+                    final Entry[] copy = entries.clone();
+                    copy[i] = entry;
+                    return new Collision(hash, copy);
+                }
+            }
+            
+            final Entry[] copy = new Entry[entries.length + 1];
+            System.arraycopy(entries, 0, copy, 0, entries.length);
+            copy[entries.length] = entry;
+            return new Collision(hash, copy);
+        }
+        
+        /**
+         * @return the remaining slot, which is an entry if only one is left
+         */
+        Object remove(String key) {
+            if (entries.length == 2) {
+                return entries[0].getKey().equals(key)
+                        ? entries[1]
+                        : entries[0];
+            }
+            
+            final Entry[] copy = new Entry[entries.length - 1];
+            int j = 0;
+            for (final Entry entry : entries) {
+                if (!entry.getKey().equals(key)) {
+                    copy[j++] = entry;
+                }
+            }
+            return new Collision(hash, copy);
+        }
+    }
+    
+    private static final class Node {
+        
+        final int bitmap;
+        final Object[] slots;
+        
+        Node(int bitmap, Object[] slots) {
+            this.bitmap = bitmap;
+            this.slots = slots;
+        }
+        
+        Object get(int hash, int shift) {
+            final int bit = 1 << ((hash >>> shift) & MASK);
+            if ((bitmap & bit) == 0) {
+                return null;
+            }
+            
+            return slots[Integer.bitCount(bitmap & (bit - 1))];
+        }
+        
+        Node put(Entry entry, int shift) {
+            final int bit = 1 << ((entry.hash >>> shift) & MASK);
+            final int index = Integer.bitCount(bitmap & (bit - 1));
+            
+            if ((bitmap & bit) == 0) {
+                final Object[] copy = new Object[slots.length + 1];
+                System.arraycopy(slots, 0, copy, 0, index);
+                copy[index] = entry;
+                System.arraycopy(
+                        slots, index, copy, index + 1, slots.length - index);
+                return new Node(bitmap | bit, copy);
+            }
+            
+            final Object slot = slots[index];
+            final Object replacement;
+            if (slot instanceof Node) {
+                replacement = ((Node) slot).put(entry, shift + BITS);
+            } else if (slot instanceof Entry
+                    && ((Entry) slot).getKey().equals(entry.getKey())) {
+                replacement = entry;
+            } else {
+                replacement = merge(slot, entry, shift + BITS);
+            }
+            
+            final Object[] copy = slots.clone();
+            copy[index] = replacement;
+            return new Node(bitmap, copy);
+        }
+        
+        /**
+         * @return node without the entry for {@code key}, which needs to be
+         * present, or {@code null} if the node would be left empty
+         */
+        Node remove(String key, int hash, int shift) {
+            final int bit = 1 << ((hash >>> shift) & MASK);
+            final int index = Integer.bitCount(bitmap & (bit - 1));
+            
+            final Object slot = slots[index];
+            final Object replacement;
+            if (slot instanceof Node) {
+                final Node node = ((Node) slot).remove(key, hash, shift + BITS);
+                // a single entry moves up instead of keeping its own node
+                replacement = (node != null
+                        && node.slots.length == 1
+                        && !(node.slots[0] instanceof Node))
+                        ? node.slots[0]
+                        : node;
+            } else if (slot instanceof Collision) {
+                replacement = ((Collision) slot).remove(key);
+            } else {
+                replacement = null;
+            }
+            
+            if (replacement != null) {
+                final Object[] copy = slots.clone();
+                copy[index] = replacement;
+                return new Node(bitmap, copy);
+            } else if (slots.length == 1) {
+                return null;
+            }
+            
+            final Object[] copy = new Object[slots.length - 1];
+            System.arraycopy(slots, 0, copy, 0, index);
+            System.arraycopy(
+                    slots, index + 1, copy, index, slots.length - index - 1);
+            return new Node(bitmap & ~bit, copy);
+        }
+    }
+    
+    /**
+     * Walks the trie depth-first, keeping the path to the current slot.
+     */
+    private static final class EntryIterator<V>
+            implements Iterator<Map.Entry<String, V>> {
+        
+        private final Object[][] path = new Object[MAX_DEPTH][];
+        private final int[] indices = new int[MAX_DEPTH];
+        private int depth;
+        private Entry next;
+        
+        EntryIterator(Node root) {
+            path[0] = root.slots;
+            advance();
+        }
+        
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+        
+        @SuppressWarnings("unchecked")
+        @Override
+        public Map.Entry<String, V> next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            
+            final Entry entry = next;
+            advance();
+            return (Map.Entry<String, V>) (Map.Entry<String, ?>) entry;
+        }
+        
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+        
+        private void advance() {
+            while (depth >= 0) {
+                if (indices[depth] == path[depth].length) {
+                    depth--;
+                    continue;
+                }
+                
+                final Object slot = path[depth][indices[depth]++];
+                if (slot instanceof Entry) {
+                    next = (Entry) slot;
+                    return;
+                }
+                
+                depth++;
+                path[depth] = (slot instanceof Node)
+                        ? ((Node) slot).slots
+                        : ((Collision) slot).entries;
+                indices[depth] = 0;
+            }
+            
+            next = null;
+        }
+    }
+}
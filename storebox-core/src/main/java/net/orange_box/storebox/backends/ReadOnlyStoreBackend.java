@@ -0,0 +1,162 @@
+/*
+ * Copyright 2015 Martin Bella
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.orange_box.storebox.backends;
+
+import android.support.annotation.Nullable;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * {@link StoreBackend} holding values which never change, such as a
+ * snapshot of another backend. Editing the values throws an
+ * {@link UnsupportedOperationException}.
+ */
+public class ReadOnlyStoreBackend extends BaseStoreBackend
+        implements VersionedStoreBackend {
+    
+    private static final Editor EDITOR = new ReadOnlyEditor();
+    
+    private final Map<String, ?> values;
+    
+    /**
+     * @param values - the values, which mustn't be modified afterwards
+     */
+    public ReadOnlyStoreBackend(Map<String, ?> values) {
+        this.values = values;
+    }
+    
+    /**
+     * Snapshots of a {@link VersionedStoreBackend} are taken without
+     * copying any values, whereas the values of any other backend get copied
+     * out of {@link StoreBackend#getAll()}, so they are only consistent if
+     * {@code getAll()} is.
+     * 
+     * @param backend - the backend which should be snapshotted
+     * @return read-only backend holding the values of {@code backend} as
+     * they are now
+     */
+    public static StoreBackend snapshot(StoreBackend backend) {
+        if (backend instanceof VersionedStoreBackend) {
+            return ((VersionedStoreBackend) backend).snapshot();
+        }
+        
+        return new ReadOnlyStoreBackend(
+                Collections.unmodifiableMap(
+                        new HashMap<String, Object>(backend.getAll())));
+    }
+    
+    @Override
+    public boolean contains(String key) {
+        return values.containsKey(key);
+    }
+    
+    @Override
+    public Map<String, ?> getAll() {
+        return values;
+    }
+    
+    @Override
+    public StoreBackend snapshot() {
+        return this;
+    }
+    
+    /**
+     * @return editor which throws an {@link UnsupportedOperationException}
+     * for any change
+     */
+    @Override
+    public Editor edit() {
+        return EDITOR;
+    }
+    
+    @Nullable
+    @Override
+    protected Object getValue(String key) {
+        return values.get(key);
+    }
+    
+    @Override
+    protected void writeChanges(boolean clear, Map<String, Object> changes) {
+        throw new UnsupportedOperationException();
+    }
+    
+    @Override
+    protected boolean sync() {
+        return true;
+    }
+    
+    private static final class ReadOnlyEditor implements Editor {
+        
+        @Override
+        public Editor putBoolean(String key, boolean value) {
+            throw readOnly();
+        }
+        
+        @Override
+        public Editor putFloat(String key, float value) {
+            throw readOnly();
+        }
+        
+        @Override
+        public Editor putInt(String key, int value) {
+            throw readOnly();
+        }
+        
+        @Override
+        public Editor putLong(String key, long value) {
+            throw readOnly();
+        }
+        
+        @Override
+        public Editor putString(String key, @Nullable String value) {
+            throw readOnly();
+        }
+        
+        @Override
+        public Editor putStringSet(String key, @Nullable Set<String> values) {
+            throw readOnly();
+        }
+        
+        @Override
+        public Editor remove(String key) {
+            throw readOnly();
+        }
+        
+        @Override
+        public Editor clear() {
+            throw readOnly();
+        }
+        
+        @Override
+        public boolean commit() {
+            throw readOnly();
+        }
+        
+        @Override
+        public void apply() {
+            throw readOnly();
+        }
+        
+        private static UnsupportedOperationException readOnly() {
+            return new UnsupportedOperationException(
+                    "Values of a snapshot can't be changed");
+        }
+    }
+}
@@ -0,0 +1,497 @@
+/*
+ * Copyright 2015 Martin Bella
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.orange_box.storebox.backends;
+
+import net.orange_box.storebox.ValueResolver;
+import net.orange_box.storebox.annotations.method.KeyByResource;
+import net.orange_box.storebox.annotations.method.KeyByString;
+import net.orange_box.storebox.annotations.option.Shard;
+import net.orange_box.storebox.annotations.option.ShardOption;
+
+import android.support.annotation.Nullable;
+
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * {@link StoreBackend} which spreads its keys across a number of shards,
+ * each of which is a separate backend that only gets opened once one of its
+ * keys is first used.
+ * <p>
+ * Keys are assigned to a shard through {@link Shard}, whereas any others
+ * are hashed into the number of shards given by {@link ShardOption}, or
+ * kept in the {@link #MAIN_SHARD}. Changes are saved by each of the shards
+ * they touch independently, so a batch spanning several shards isn't
+ * saved atomically.
+ * <p>
+ * Values left in the {@link #MAIN_SHARD} for keys which now belong to a
+ * different shard, such as from before the keys were sharded, get moved
+ * into their shard when it's first opened.
+ */
+public class ShardedStoreBackend implements StoreBackend {
+    
+    /**
+     * Shard of the keys which haven't been assigned to any other shard.
+     */
+    public static final String MAIN_SHARD = "";
+    
+    /**
+     * Interface definition for opening the backend of a shard.
+     */
+    public interface Opener {
+        
+        StoreBackend open(String shard);
+    }
+    
+    private final Map<String, String> keys;
+    private final int hashed;
+    private final Opener opener;
+    
+    private final Set<String> shards;
+    private final ConcurrentMap<String, StoreBackend> backends;
+    private final Map<Listener, ShardListener> listeners;
+    
+    // only used for moving values out of it when keys get hashed
+    private StoreBackend main;
+    
+    /**
+     * @param keys - shards of the keys which have been assigned one
+     * @param hashed - number of shards the other keys get hashed into, where
+     * {@code 1} keeps them in the {@link #MAIN_SHARD}
+     * @param opener - opener for the backends of the shards
+     */
+    public ShardedStoreBackend(
+            Map<String, String> keys,
+            int hashed,
+            Opener opener) {
+        
+        if (hashed < 1) {
+            throw new IllegalArgumentException(String.format(
+                    Locale.ENGLISH,
+                    "Number of hashed shards %1$d needs to be positive",
+                    hashed));
+        }
+        
+        this.keys = new HashMap<>(keys);
+        this.hashed = hashed;
+        this.opener = opener;
+        
+        final Set<String> names = new LinkedHashSet<>();
+        if (hashed == 1) {
+            names.add(MAIN_SHARD);
+        } else {
+            for (int i = 0; i < hashed; i++) {
+                names.add(String.valueOf(i));
+            }
+        }
+        names.addAll(keys.values());
+        shards = Collections.unmodifiableSet(names);
+        
+        backends = new ConcurrentHashMap<>();
+        listeners = new WeakHashMap<>();
+    }
+    
+    /**
+     * @return whether {@code cls} declares any {@link Shard} or
+     * {@link ShardOption} annotations
+     */
+    public static boolean isSharded(Class<?> cls) {
+        if (cls.isAnnotationPresent(Shard.class)
+                || cls.isAnnotationPresent(ShardOption.class)) {
+            
+            return true;
+        }
+        
+        for (final Method method : cls.getMethods()) {
+            if (method.isAnnotationPresent(Shard.class)) {
+                return true;
+            }
+        }
+        
+        return false;
+    }
+    
+    /**
+     * @param cls - interface whose annotations decide the shards
+     * @param resolver - resolver for keys declared through
+     * {@link KeyByResource}
+     * @param opener - opener for the backends of the shards
+     * @return backend spreading the keys of {@code cls} across the shards
+     * declared by its annotations
+     */
+    public static ShardedStoreBackend of(
+            Class<?> cls,
+            ValueResolver resolver,
+            Opener opener) {
+        
+        final String defaultShard = cls.isAnnotationPresent(Shard.class)
+                ? cls.getAnnotation(Shard.class).value()
+                : null;
+        
+        final Map<String, String> keys = new HashMap<>();
+        for (final Method method : cls.getMethods()) {
+            final String shard = method.isAnnotationPresent(Shard.class)
+                    ? method.getAnnotation(Shard.class).value()
+                    : defaultShard;
+            if (shard == null) {
+                continue;
+            }
+            
+            final String key;
+            if (method.isAnnotationPresent(KeyByString.class)) {
+                key = method.getAnnotation(KeyByString.class).value();
+            } else if (method.isAnnotationPresent(KeyByResource.class)) {
+                key = resolver.getString(
+                        method.getAnnotation(KeyByResource.class).value());
+            } else {
+                continue;
+            }
+            
+            final String existing = keys.put(key, shard);
+            if (existing != null && !existing.equals(shard)) {
+                throw new IllegalArgumentException(String.format(
+                        Locale.ENGLISH,
+                        "Key %1$s cannot be in both shard %2$s and %3$s",
+                        key,
+                        existing,
+                        shard));
+            }
+        }
+        
+        return new ShardedStoreBackend(
+                keys,
+                cls.isAnnotationPresent(ShardOption.class)
+                        ? cls.getAnnotation(ShardOption.class).hashed()
+                        : 1,
+                opener);
+    }
+    
+    /**
+     * @return names of all the shards, including the ones not opened yet
+     */
+    public Set<String> getShards() {
+        return shards;
+    }
+    
+    /**
+     * @return name of the shard which {@code key} gets stored in
+     */
+    public String getShard(String key) {
+        final String shard = keys.get(key);
+        if (shard != null) {
+            return shard;
+        } else if (hashed == 1) {
+            return MAIN_SHARD;
+        } else {
+            // String.hashCode() is specified, so it's stable across runs
+            return String.valueOf((key.hashCode() & 0x7fffffff) % hashed);
+        }
+    }
+    
+    /**
+     * @return whether the backend of {@code shard} has been opened
+     */
+    public boolean isOpen(String shard) {
+        return backends.containsKey(shard);
+    }
+    
+    /**
+     * @return backend of {@code shard}, which gets opened if it hasn't been
+     * used yet
+     */
+    public StoreBackend getBackend(String shard) {
+        StoreBackend backend = backends.get(shard);
+        if (backend == null) {
+            synchronized (listeners) {
+                backend = backends.get(shard);
+                if (backend == null) {
+                    backend = opener.open(shard);
+                    if (!shard.equals(MAIN_SHARD)) {
+                        moveFromMain(shard, backend);
+                    }
+                    for (final ShardListener listener : listeners.values()) {
+                        backend.registerListener(listener);
+                    }
+                    backends.put(shard, backend);
+                }
+            }
+        }
+        
+        return backend;
+    }
+    
+    @Override
+    public boolean contains(String key) {
+        return getBackendFor(key).contains(key);
+    }
+    
+    @Override
+    public Map<String, ?> getAll() {
+        final Map<String, Object> result = new HashMap<>();
+        for (final String shard : shards) {
+            result.putAll(getBackend(shard).getAll());
+        }
+        
+        return result;
+    }
+    
+    @Override
+    public boolean getBoolean(String key, boolean defValue) {
+        return getBackendFor(key).getBoolean(key, defValue);
+    }
+    
+    @Override
+    public float getFloat(String key, float defValue) {
+        return getBackendFor(key).getFloat(key, defValue);
+    }
+    
+    @Override
+    public int getInt(String key, int defValue) {
+        return getBackendFor(key).getInt(key, defValue);
+    }
+    
+    @Override
+    public long getLong(String key, long defValue) {
+        return getBackendFor(key).getLong(key, defValue);
+    }
+    
+    @Nullable
+    @Override
+    public String getString(String key, @Nullable String defValue) {
+        return getBackendFor(key).getString(key, defValue);
+    }
+    
+    @Nullable
+    @Override
+    public Set<String> getStringSet(
+            String key,
+            @Nullable Set<String> defValues) {
+        
+        return getBackendFor(key).getStringSet(key, defValues);
+    }
+    
+    @Override
+    public Editor edit() {
+        return new ShardedEditor();
+    }
+    
+    @Override
+    public void registerListener(Listener listener) {
+        synchronized (listeners) {
+            if (listeners.containsKey(listener)) {
+                return;
+            }
+            
+            final ShardListener adapter = new ShardListener(this, listener);
+            listeners.put(listener, adapter);
+            for (final StoreBackend backend : backends.values()) {
+                backend.registerListener(adapter);
+            }
+        }
+    }
+    
+    @Override
+    public void unregisterListener(Listener listener) {
+        synchronized (listeners) {
+            final ShardListener adapter = listeners.remove(listener);
+            if (adapter != null) {
+                for (final StoreBackend backend : backends.values()) {
+                    backend.unregisterListener(adapter);
+                }
+            }
+        }
+    }
+    
+    private StoreBackend getBackendFor(String key) {
+        return getBackend(getShard(key));
+    }
+    
+    private void moveFromMain(String shard, StoreBackend backend) {
+        final StoreBackend source;
+        if (hashed == 1) {
+            source = getBackend(MAIN_SHARD);
+        } else {
+            if (main == null) {
+                main = opener.open(MAIN_SHARD);
+            }
+            source = main;
+        }
+        
+        final Editor target = backend.edit();
+        final Editor editor = source.edit();
+        boolean moved = false;
+        for (final Map.Entry<String, ?> entry : source.getAll().entrySet()) {
+            final String key = entry.getKey();
+            if (!getShard(key).equals(shard)) {
+                continue;
+            }
+            
+            // values saved into the shard since take precedence
+            if (!backend.contains(key)) {
+                FileBackends.putValue(target, key, entry.getValue());
+            }
+            editor.remove(key);
+            moved = true;
+        }
+        
+        // saved in this order so they're never lost, only left in both
+        if (moved && target.commit()) {
+            editor.commit();
+        }
+    }
+    
+    private final class ShardedEditor implements Editor {
+        
+        private final Map<String, Editor> editors = new HashMap<>();
+        private final Set<String> changed = new LinkedHashSet<>();
+        
+        @Override
+        public synchronized Editor putBoolean(String key, boolean value) {
+            getEditorFor(key).putBoolean(key, value);
+            return this;
+        }
+        
+        @Override
+        public synchronized Editor putFloat(String key, float value) {
+            getEditorFor(key).putFloat(key, value);
+            return this;
+        }
+        
+        @Override
+        public synchronized Editor putInt(String key, int value) {
+            getEditorFor(key).putInt(key, value);
+            return this;
+        }
+        
+        @Override
+        public synchronized Editor putLong(String key, long value) {
+            getEditorFor(key).putLong(key, value);
+            return this;
+        }
+        
+        @Override
+        public synchronized Editor putString(
+                String key,
+                @Nullable String value) {
+            
+            getEditorFor(key).putString(key, value);
+            return this;
+        }
+        
+        @Override
+        public synchronized Editor putStringSet(
+                String key,
+                @Nullable Set<String> values) {
+            
+
+            getEditorFor(key).putStringSet(key, values);
+            return this;
+        }
+        
+        @Override
+        public synchronized Editor remove(String key) {
+            getEditorFor(key).remove(key);
+            return this;
+        }
+        
+        @Override
+        public synchronized Editor clear() {
+            for (final String shard : shards) {
+                getEditor(shard).clear();
+            }
+            return this;
+        }
+        
+        @Override
+        public boolean commit() {
+            boolean result = true;
+            for (final Editor editor : takeChanged()) {
+                result &= editor.commit();
+            }
+            
+            return result;
+        }
+        
+        @Override
+        public void apply() {
+            for (final Editor editor : takeChanged()) {
+                editor.apply();
+            }
+        }
+        
+        private synchronized List<Editor> takeChanged() {
+            final List<Editor> result = new ArrayList<>(changed.size());
+            for (final String shard : changed) {
+                result.add(editors.get(shard));
+            }
+            changed.clear();
+            
+            return result;
+        }
+        
+        private Editor getEditorFor(String key) {
+            return getEditor(getShard(key));
+        }
+        
+        private Editor getEditor(String shard) {
+            Editor editor = editors.get(shard);
+            if (editor == null) {
+                editor = getBackend(shard).edit();
+                editors.put(shard, editor);
+            }
+            
+            // only the shards which have been changed get saved
+            changed.add(shard);
+            return editor;
+        }
+    }
+    
+    /**
+     * Forwards the changes of the shards as changes of the sharded backend,
+     * while only holding onto the listener weakly in the same way as the
+     * shards would.
+     */
+    private static final class ShardListener implements Listener {
+        
+        private final ShardedStoreBackend backend;
+        private final WeakReference<Listener> listener;
+        
+        public ShardListener(ShardedStoreBackend backend, Listener listener) {
+            this.backend = backend;
+            this.listener = new WeakReference<>(listener);
+        }
+        
+        @Override
+        public void onValueChanged(StoreBackend shard, String key) {
+            final Listener target = listener.get();
+            if (target != null) {
+                target.onValueChanged(backend, key);
+            }
+        }
+    }
+}
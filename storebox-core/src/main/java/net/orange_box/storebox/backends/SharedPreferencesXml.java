@@ -0,0 +1,287 @@
+/*
+ * Copyright 2015 Martin Bella
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.orange_box.storebox.backends;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.WritableByteChannel;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reads and writes the XML files of {@link android.content.SharedPreferences},
+ * for converting existing preferences to a different
+ * {@link net.orange_box.storebox.enums.StoreEngine}, as well as for using
+ * them outside of a device.
+ * <p>
+ * Files are streamed through a fixed buffer in both directions, without
+ * going through a DOM or an XML library, so this can be used on a plain JVM
+ * and the size of a file only affects memory use through the values it
+ * holds.
+ */
+public final class SharedPreferencesXml {
+    
+    private static final String PROLOG =
+            "<?xml version='1.0' encoding='utf-8' standalone='yes' ?>\n";
+    private static final String INDENT = "    ";
+    
+    /**
+     * @return values read from {@code file}
+     * @throws IOException if the file couldn't be read or parsed
+     */
+    public static Map<String, Object> read(File file) throws IOException {
+        final InputStream stream = new FileInputStream(file);
+        try {
+            return read(stream);
+        } finally {
+            stream.close();
+        }
+    }
+    
+    /**
+     * @return values read from {@code stream}, which doesn't get closed
+     * @throws IOException if the stream couldn't be read or parsed
+     */
+    public static Map<String, Object> read(InputStream stream)
+            throws IOException {
+        
+        final XmlPullReader reader = new XmlPullReader(stream);
+        final Map<String, Object> values = new HashMap<>();
+        final StringBuilder text = new StringBuilder();
+        
+        String name = null;
+        Set<String> set = null;
+        boolean inString = false;
+        int event;
+        while ((event = reader.next()) != XmlPullReader.END_DOCUMENT) {
+            switch (event) {
+                case XmlPullReader.START_TAG:
+                    final String tag = reader.getName();
+                    final String value = reader.getAttribute("value");
+                    switch (tag) {
+                        case "map":
+                        case "null":
+                            // NOP
+                            break;
+                        
+                        case "boolean":
+                            values.put(
+                                    getName(reader),
+                                    Boolean.valueOf(value));
+                            break;
+                        
+                        case "float":
+                            values.put(getName(reader), parseFloat(value));
+                            break;
+                        
+                        case "int":
+                            values.put(getName(reader), parseInt(value));
+                            break;
+                        
+                        case "long":
+                            values.put(getName(reader), parseLong(value));
+                            break;
+                        
+                        case "string":
+                            if (set == null) {
+                                name = getName(reader);
+                            }
+                            inString = true;
+                            text.setLength(0);
+                            break;
+                        
+                        case "set":
+                            name = getName(reader);
+                            set = new HashSet<>();
+                            break;
+                        
+                        default:
+                            throw new IOException(String.format(
+                                    Locale.ENGLISH,
+                                    "Unknown element %1$s",
+                                    tag));
+                    }
+                    break;
+                
+                case XmlPullReader.TEXT:
+                    if (inString) {
+                        text.append(reader.getText());
+                    }
+                    break;
+                
+                case XmlPullReader.END_TAG:
+                    switch (reader.getName()) {
+                        case "string":
+                            if (set == null) {
+                                values.put(name, text.toString());
+                            } else {
+                                set.add(text.toString());
+                            }
+                            inString = false;
+                            break;
+                        
+                        case "set":
+                            values.put(name, Collections.unmodifiableSet(set));
+                            set = null;
+                            break;
+                        
+                        default:
+                            // NOP
+                    }
+                    break;
+            }
+        }
+        
+        return values;
+    }
+    
+    /**
+     * Writes {@code values} into a temporary file which then replaces
+     * {@code file}, so that readers never see a partially written file.
+     * 
+     * @throws IOException if the file couldn't be written
+     */
+    public static void write(File file, Map<String, ?> values)
+            throws IOException {
+        
+        final File temp = new File(file.getPath() + ".tmp");
+        final FileOutputStream stream = new FileOutputStream(temp);
+        try {
+            write(stream.getChannel(), values);
+            stream.getFD().sync();
+        } finally {
+            stream.close();
+        }
+        
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException(
+                    "Failed to replace " + file + " with " + temp);
+        }
+    }
+    
+    /**
+     * Writes {@code values} in the same layout as
+     * {@link android.content.SharedPreferences} into {@code channel}, which
+     * doesn't get closed.
+     * 
+     * @throws IOException if the values couldn't be written
+     * @throws IllegalArgumentException if one of the values isn't of a type
+     * supported by {@link android.content.SharedPreferences}
+     */
+    public static void write(
+            WritableByteChannel channel,
+            Map<String, ?> values) throws IOException {
+        
+        final XmlWriter writer = new XmlWriter(channel);
+        writer.raw(PROLOG).raw("<map>\n");
+        for (final Map.Entry<String, ?> entry : values.entrySet()) {
+            final Object value = entry.getValue();
+            
+            writer.raw(INDENT);
+            if (value == null) {
+                writeStart(writer, "null", entry.getKey()).raw(" />\n");
+            } else if (value instanceof String) {
+                writeStart(writer, "string", entry.getKey()).raw(">");
+                writer.escaped((String) value).raw("</string>\n");
+            } else if (value instanceof Set) {
+                writeStart(writer, "set", entry.getKey()).raw(">\n");
+                for (final Object item : (Set<?>) value) {
+                    writer.raw(INDENT).raw(INDENT).raw("<string>");
+                    writer.escaped((String) item).raw("</string>\n");
+                }
+                writer.raw(INDENT).raw("</set>\n");
+            } else if (value instanceof Boolean) {
+                writeValue(writer, "boolean", entry.getKey(), value);
+            } else if (value instanceof Float) {
+                writeValue(writer, "float", entry.getKey(), value);
+            } else if (value instanceof Integer) {
+                writeValue(writer, "int", entry.getKey(), value);
+            } else if (value instanceof Long) {
+                writeValue(writer, "long", entry.getKey(), value);
+            } else {
+                throw new IllegalArgumentException(String.format(
+                        Locale.ENGLISH,
+                        "Cannot write %1$s values",
+                        value.getClass().getName()));
+            }
+        }
+        writer.raw("</map>\n");
+        writer.flush();
+    }
+    
+    private static XmlWriter writeStart(
+            XmlWriter writer,
+            String tag,
+            String name) throws IOException {
+        
+        return writer.raw("<").raw(tag).raw(" name=\"")
+                .escaped(name).raw("\"");
+    }
+    
+    private static void writeValue(
+            XmlWriter writer,
+            String tag,
+            String name,
+            Object value) throws IOException {
+        
+        writeStart(writer, tag, name)
+                .raw(" value=\"").raw(value.toString()).raw("\" />\n");
+    }
+    
+    private static String getName(XmlPullReader reader) throws IOException {
+        final String name = reader.getAttribute("name");
+        if (name == null) {
+            throw new IOException("Value without a name");
+        }
+        
+        return name;
+    }
+    
+    private static Float parseFloat(String value) throws IOException {
+        try {
+            return Float.valueOf(value);
+        } catch (NumberFormatException | NullPointerException e) {
+            throw new IOException("Invalid float " + value);
+        }
+    }
+    
+    private static Integer parseInt(String value) throws IOException {
+        try {
+            return Integer.valueOf(value);
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid int " + value);
+        }
+    }
+    
+    private static Long parseLong(String value) throws IOException {
+        try {
+            return Long.valueOf(value);
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid long " + value);
+        }
+    }
+    
+    private SharedPreferencesXml() {}
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright 2015 Martin Bella
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.orange_box.storebox.backends;
+
+import net.orange_box.storebox.adapters.StoreType;
+import net.orange_box.storebox.annotations.method.KeyByString;
+import net.orange_box.storebox.annotations.method.RegisterChangeListenerMethod;
+import net.orange_box.storebox.annotations.method.RemoveMethod;
+import net.orange_box.storebox.annotations.method.TypeAdapter;
+import net.orange_box.storebox.annotations.method.UnregisterChangeListenerMethod;
+import net.orange_box.storebox.utils.MethodUtils;
+import net.orange_box.storebox.utils.TypeUtils;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Keys and types of the fixed-size values which a
+ * {@link SlottedStoreBackend} keeps at fixed offsets.
+ * <p>
+ * Keys are kept sorted, so that the same interface always results in the
+ * same layout.
+ */
+public final class SlotLayout {
+    
+    public static final SlotLayout EMPTY =
+            new SlotLayout(new String[0], new StoreType[0]);
+    
+    private final String[] keys;
+    private final StoreType[] types;
+    
+    SlotLayout(String[] keys, StoreType[] types) {
+        this.keys = keys;
+        this.types = types;
+    }
+    
+    /**
+     * @return layout with a slot for each key declared through
+     * {@link KeyByString} by a get or set method of {@code cls} with a
+     * boolean, float, int or long value, which isn't adapted by a
+     * {@link TypeAdapter}
+     */
+    public static SlotLayout of(Class<?> cls) {
+        final Map<String, StoreType> slots = new TreeMap<>();
+        final Set<String> conflicts = new HashSet<>();
+        
+        for (final Method method : cls.getMethods()) {
+            if (!method.isAnnotationPresent(KeyByString.class)
+                    || MethodUtils.areAnyAnnotationsPresent(
+                            method,
+                            TypeAdapter.class,
+                            RemoveMethod.class,
+                            RegisterChangeListenerMethod.class,
+                            UnregisterChangeListenerMethod.class)) {
+                
+                continue;
+            }
+            
+            final StoreType type = getFixedSizeType(getValueType(method));
+            if (type == null) {
+                continue;
+            }
+            
+            final String key = method.getAnnotation(KeyByString.class).value();
+            final StoreType existing = slots.put(key, type);
+            if (existing != null && existing != type) {
+                conflicts.add(key);
+            }
+        }
+        
+        // keys used with different types can't be given a slot
+        slots.keySet().removeAll(conflicts);
+        
+        return new SlotLayout(
+                slots.keySet().toArray(new String[slots.size()]),
+                slots.values().toArray(new StoreType[slots.size()]));
+    }
+    
+    public int size() {
+        return keys.length;
+    }
+    
+    public String getKey(int slot) {
+        return keys[slot];
+    }
+    
+    public StoreType getType(int slot) {
+        return types[slot];
+    }
+    
+    /**
+     * @return number of bytes taken up by a value of the type, or {@code 0}
+     * if the type doesn't have a fixed size
+     */
+    static int getWidth(StoreType type) {
+        switch (type) {
+            case BOOLEAN:
+                return 1;
+            
+            case FLOAT:
+            case INTEGER:
+                return 4;
+            
+            case LONG:
+                return 8;
+            
+            default:
+                return 0;
+        }
+    }
+    
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        
+        final SlotLayout other = (SlotLayout) o;
+        return Arrays.equals(keys, other.keys)
+                && Arrays.equals(types, other.types);
+    }
+    
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(keys) + Arrays.hashCode(types);
+    }
+    
+    /**
+     * @return type returned by a get method, or passed into a set method
+     */
+    private static Class<?> getValueType(Method method) {
+        final Class<?> returnType = method.getReturnType();
+        if (returnType == Void.TYPE
+                || returnType == method.getDeclaringClass()) {
+            
+            return (method.getParameterTypes().length == 1)
+                    ? MethodUtils.getValueParameterType(method)
+                    : null;
+        } else {
+            return returnType;
+        }
+    }
+    
+    private static StoreType getFixedSizeType(Class<?> type) {
+        if (type == null) {
+            return null;
+        }
+        
+        final Class<?> boxed = TypeUtils.wrapToBoxedType(type);
+        if (boxed == Boolean.class) {
+            return StoreType.BOOLEAN;
+        } else if (boxed == Float.class) {
+            return StoreType.FLOAT;
+        } else if (boxed == Integer.class) {
+            return StoreType.INTEGER;
+        } else if (boxed == Long.class) {
+            return StoreType.LONG;
+        } else {
+            return null;
+        }
+    }
+}
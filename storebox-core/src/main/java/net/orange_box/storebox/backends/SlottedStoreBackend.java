@@ -0,0 +1,567 @@
+/*
+ * Copyright 2015 Martin Bella
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.orange_box.storebox.backends;
+
+import android.support.annotation.Nullable;
+
+import net.orange_box.storebox.adapters.StoreType;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * {@link StoreBackend} which gives each key of a {@link SlotLayout} a fixed
+ * offset in a memory-mapped file, so that getting a value through its slot
+ * is a single read from the mapped buffer without any lookups or boxing.
+ * Values for all other keys, or of a different type than their slot, are
+ * kept in an overflow {@link LogStoreBackend}.
+ * <p>
+ * The file starts with a header holding the layout, which is followed by a
+ * presence flag for each slot and then by the values. Values are aligned to
+ * their size, so that each of them gets written with a single store. If the
+ * layout of an existing file differs its values get moved over into the new
+ * layout when opening it.
+ */
+public class SlottedStoreBackend extends BaseStoreBackend implements Closeable {
+    
+    public static final int NO_SLOT = -1;
+    
+    static final byte[] MAGIC = {'S', 'B', 'S', 'L'};
+    static final byte VERSION = 1;
+    
+    private final File file;
+    private final SlotLayout layout;
+    private final Map<String, Integer> slots;
+    private final int[] offsets;
+    private final int presenceOffset;
+    private final LogStoreBackend overflow;
+    
+    private RandomAccessFile raf;
+    private FileChannel channel;
+    /**
+     * Gets assigned again after every change, so that reading it makes the
+     * changes visible to readers on other threads.
+     */
+    private volatile MappedByteBuffer buffer;
+    private boolean dirty;
+    
+    /**
+     * @param file - the slots file, which will be created if it doesn't
+     * exist, with the overflow log kept next to it
+     * @param layout - slots which should be given fixed offsets
+     * @throws IOException if the files couldn't be opened
+     */
+    public SlottedStoreBackend(File file, SlotLayout layout)
+            throws IOException {
+        
+        this.file = file;
+        this.layout = layout;
+        
+        slots = new HashMap<>(layout.size() * 2);
+        for (int i = 0; i < layout.size(); i++) {
+            slots.put(layout.getKey(i), i);
+        }
+        
+        presenceOffset = getHeaderSize(layout);
+        offsets = new int[layout.size()];
+        final int size = getOffsets(layout, offsets);
+        
+        overflow = new LogStoreBackend(new File(file.getPath() + ".overflow"));
+        open(size);
+    }
+    
+    public File getFile() {
+        return file;
+    }
+    
+    public SlotLayout getLayout() {
+        return layout;
+    }
+    
+    /**
+     * @return slot of {@code key} if {@code backend} is a
+     * {@link SlottedStoreBackend} which has one for the type, or
+     * {@link #NO_SLOT} otherwise
+     */
+    public static int getSlot(
+            StoreBackend backend,
+            String key,
+            StoreType type) {
+        
+        if (backend instanceof SlottedStoreBackend) {
+            return ((SlottedStoreBackend) backend).getSlot(key, type);
+        } else {
+            return NO_SLOT;
+        }
+    }
+    
+    /**
+     * @return slot of {@code key} if it has one for the type, or
+     * {@link #NO_SLOT} otherwise
+     */
+    public int getSlot(String key, StoreType type) {
+        final Integer slot = slots.get(key);
+        if (slot != null && layout.getType(slot) == type) {
+            return slot;
+        } else {
+            return NO_SLOT;
+        }
+    }
+    
+    public boolean getBoolean(int slot, boolean defValue) {
+        final ByteBuffer buffer = this.buffer;
+        if (buffer.get(presenceOffset + slot) != 0) {
+            return buffer.get(offsets[slot]) != 0;
+        } else {
+            return getOverflowBoolean(slot, defValue);
+        }
+    }
+    
+    public float getFloat(int slot, float defValue) {
+        final ByteBuffer buffer = this.buffer;
+        if (buffer.get(presenceOffset + slot) != 0) {
+            return buffer.getFloat(offsets[slot]);
+        } else {
+            return getOverflowFloat(slot, defValue);
+        }
+    }
+    
+    public int getInt(int slot, int defValue) {
+        final ByteBuffer buffer = this.buffer;
+        if (buffer.get(presenceOffset + slot) != 0) {
+            return buffer.getInt(offsets[slot]);
+        } else {
+            return getOverflowInt(slot, defValue);
+        }
+    }
+    
+    public long getLong(int slot, long defValue) {
+        final ByteBuffer buffer = this.buffer;
+        if (buffer.get(presenceOffset + slot) != 0) {
+            return buffer.getLong(offsets[slot]);
+        } else {
+            return getOverflowLong(slot, defValue);
+        }
+    }
+    
+    /**
+     * @return value of the slot, or {@code defValue} if there isn't one
+     */
+    @Nullable
+    public Object getSlotValue(int slot, @Nullable Object defValue) {
+        Object value = readSlot(
+                this.buffer, layout, presenceOffset, offsets, slot);
+        if (value == null) {
+            value = overflow.getValue(layout.getKey(slot));
+        }
+        
+        return (value == null) ? defValue : value;
+    }
+    
+    @Override
+    public boolean contains(String key) {
+        return getValue(key) != null;
+    }
+    
+    @Override
+    public Map<String, ?> getAll() {
+        final ByteBuffer buffer = this.buffer;
+        
+        final Map<String, Object> result = new HashMap<>(overflow.getAll());
+        for (int i = 0; i < layout.size(); i++) {
+            final Object value =
+                    readSlot(buffer, layout, presenceOffset, offsets, i);
+            if (value != null) {
+                result.put(layout.getKey(i), value);
+            }
+        }
+        
+        return Collections.unmodifiableMap(result);
+    }
+    
+    @Override
+    public synchronized void close() throws IOException {
+        if (raf != null) {
+            buffer.force();
+            raf.close();
+            raf = null;
+        }
+        overflow.close();
+    }
+    
+    @Nullable
+    @Override
+    protected Object getValue(String key) {
+        final Integer slot = slots.get(key);
+        if (slot != null) {
+            final Object value = readSlot(
+                    this.buffer, layout, presenceOffset, offsets, slot);
+            if (value != null) {
+                return value;
+            }
+        }
+        
+        return overflow.getValue(key);
+    }
+    
+    @Override
+    protected void writeChanges(
+            boolean clear,
+            Map<String, Object> changes) {
+        
+        final MappedByteBuffer buffer = this.buffer;
+        final Map<String, Object> overflowChanges = new HashMap<>();
+        
+        if (clear) {
+            for (int i = 0; i < layout.size(); i++) {
+                buffer.put(presenceOffset + i, (byte) 0);
+            }
+        }
+        for (final Map.Entry<String, Object> entry : changes.entrySet()) {
+            final String key = entry.getKey();
+            final Object value = entry.getValue();
+            
+            final Integer slot = slots.get(key);
+            if (slot != null && value != null && fits(slot, value)) {
+                writeSlot(buffer, slot, value);
+                
+                if (!clear && overflow.contains(key)) {
+                    overflowChanges.put(key, null);
+                }
+            } else {
+                if (slot != null) {
+                    buffer.put(presenceOffset + slot, (byte) 0);
+                }
+                
+                if (value != null || (!clear && overflow.contains(key))) {
+                    overflowChanges.put(key, value);
+                }
+            }
+        }
+        
+        if (clear || !overflowChanges.isEmpty()) {
+            synchronized (overflow) {
+                overflow.writeChanges(clear, overflowChanges);
+            }
+        }
+        
+        dirty = true;
+        this.buffer = buffer;
+    }
+    
+    /**
+     * Nothing needs to get written out unless a slot has been changed, in
+     * which case only the pages which were modified get written by the
+     * system.
+     */
+    @Override
+    protected synchronized boolean sync() {
+        if (dirty) {
+            dirty = false;
+            buffer.force();
+        }
+        
+        return overflow.sync();
+    }
+    
+    private void open(int size) throws IOException {
+        final File parent = file.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Failed to create directory " + parent);
+        }
+        
+        // the previous file is kept until its values have been moved over
+        final File backup = new File(file.getPath() + ".old");
+        if (backup.exists()) {
+            if ((file.exists() && !file.delete()) || !backup.renameTo(file)) {
+                throw new IOException("Failed to restore " + backup);
+            }
+        }
+        
+        Map<String, Object> previous = null;
+        if (file.exists() && file.length() > 0) {
+            final ByteBuffer data = readFile();
+            final SlotLayout existing = readLayout(data);
+            if (!existing.equals(layout)) {
+                previous = readValues(data, existing);
+                if (!file.renameTo(backup)) {
+                    throw new IOException("Failed to replace " + file);
+                }
+            }
+        }
+        
+        raf = new RandomAccessFile(file, "rw");
+        channel = raf.getChannel();
+        
+        final boolean created = channel.size() == 0;
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        if (created) {
+            writeHeader(buffer, layout);
+        }
+        
+        // move values over which used to be elsewhere
+        final Map<String, Object> moved = new HashMap<>();
+        if (previous != null) {
+            moved.putAll(previous);
+        }
+        for (int i = 0; i < layout.size(); i++) {
+            final Object value = overflow.getValue(layout.getKey(i));
+            if (value != null && fits(i, value)) {
+                moved.put(layout.getKey(i), value);
+            }
+        }
+        if (!moved.isEmpty()) {
+            synchronized (this) {
+                writeChanges(false, moved);
+            }
+            if (!sync()) {
+                throw new IOException("Failed to write " + file);
+            }
+        }
+        
+        if (backup.exists()) {
+            backup.delete();
+        }
+    }
+    
+    private SlotLayout readLayout(ByteBuffer data) throws IOException {
+        final ByteBuffer header = data.duplicate();
+        try {
+            for (final byte b : MAGIC) {
+                if (header.get() != b) {
+                    throw new IOException(file + " is not a StoreBox slots file");
+                }
+            }
+            final byte version = header.get();
+            if (version != VERSION) {
+                throw new IOException(String.format(
+                        Locale.ENGLISH,
+                        "%1$s has unsupported version %2$d",
+                        file,
+                        version));
+            }
+            header.position(8);
+            
+            final int count = header.getInt();
+            if (count < 0 || count > header.remaining()) {
+                throw new IOException(file + " has an invalid header");
+            }
+            
+            final String[] keys = new String[count];
+            final StoreType[] types = new StoreType[count];
+            for (int i = 0; i < count; i++) {
+                final int type = header.get();
+                if (type < 0 || type >= StoreType.values().length) {
+                    throw new IOException(file + " has an invalid header");
+                }
+                
+                types[i] = StoreType.values()[type];
+                keys[i] = ValueCodec.readString(header);
+            }
+            
+            return new SlotLayout(keys, types);
+        } catch (IllegalArgumentException | BufferUnderflowException e) {
+            throw new IOException(file + " has an invalid header", e);
+        }
+    }
+    
+    private ByteBuffer readFile() throws IOException {
+        final RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            final byte[] data = new byte[(int) input.length()];
+            input.readFully(data);
+            
+            return ByteBuffer.wrap(data);
+        } finally {
+            input.close();
+        }
+    }
+    
+    /**
+     * @return values of the slots in {@code data}, laid out like
+     * {@code existing} describes
+     */
+    private Map<String, Object> readValues(ByteBuffer data, SlotLayout existing)
+            throws IOException {
+        
+        final int[] offsets = new int[existing.size()];
+        if (getOffsets(existing, offsets) > data.capacity()) {
+            throw new IOException(file + " is truncated");
+        }
+        
+        final Map<String, Object> result = new HashMap<>();
+        for (int i = 0; i < existing.size(); i++) {
+            final Object value = readSlot(
+                    data, existing, getHeaderSize(existing), offsets, i);
+            if (value != null) {
+                result.put(existing.getKey(i), value);
+            }
+        }
+        
+        return result;
+    }
+    
+    @Nullable
+    private static Object readSlot(
+            ByteBuffer buffer,
+            SlotLayout layout,
+            int presenceOffset,
+            int[] offsets,
+            int slot) {
+        
+        if (buffer.get(presenceOffset + slot) == 0) {
+            return null;
+        }
+        
+        final int offset = offsets[slot];
+        switch (layout.getType(slot)) {
+            case BOOLEAN:
+                return buffer.get(offset) != 0;
+            
+            case FLOAT:
+                return buffer.getFloat(offset);
+            
+            case INTEGER:
+                return buffer.getInt(offset);
+            
+            case LONG:
+            default:
+                return buffer.getLong(offset);
+        }
+    }
+    
+    /**
+     * Writes the value before marking it as present, so that readers which
+     * see it as present also see the value.
+     */
+    private void writeSlot(ByteBuffer buffer, int slot, Object value) {
+        final int offset = offsets[slot];
+        switch (layout.getType(slot)) {
+            case BOOLEAN:
+                buffer.put(offset, (byte) (((Boolean) value) ? 1 : 0));
+                break;
+            
+            case FLOAT:
+                buffer.putFloat(offset, (Float) value);
+                break;
+            
+            case INTEGER:
+                buffer.putInt(offset, (Integer) value);
+                break;
+            
+            case LONG:
+            default:
+                buffer.putLong(offset, (Long) value);
+        }
+        buffer.put(presenceOffset + slot, (byte) 1);
+    }
+    
+    private boolean fits(int slot, Object value) {
+        switch (layout.getType(slot)) {
+            case BOOLEAN:
+                return value instanceof Boolean;
+            
+            case FLOAT:
+                return value instanceof Float;
+            
+            case INTEGER:
+                return value instanceof Integer;
+            
+            case LONG:
+            default:
+                return value instanceof Long;
+        }
+    }
+    
+    /*
+     * A value of a different type may have been saved for the key of an
+     * empty slot, in which case it will be in the overflow and getting it
+     * fails like it would with any other backend.
+     */
+    
+    private boolean getOverflowBoolean(int slot, boolean defValue) {
+        return overflow.getBoolean(layout.getKey(slot), defValue);
+    }
+    
+    private float getOverflowFloat(int slot, float defValue) {
+        return overflow.getFloat(layout.getKey(slot), defValue);
+    }
+    
+    private int getOverflowInt(int slot, int defValue) {
+        return overflow.getInt(layout.getKey(slot), defValue);
+    }
+    
+    private long getOverflowLong(int slot, long defValue) {
+        return overflow.getLong(layout.getKey(slot), defValue);
+    }
+    
+    private static void writeHeader(ByteBuffer buffer, SlotLayout layout) {
+        buffer.position(0);
+        buffer.put(MAGIC);
+        buffer.put(VERSION);
+        buffer.position(8);
+        buffer.putInt(layout.size());
+        for (int i = 0; i < layout.size(); i++) {
+            buffer.put((byte) layout.getType(i).ordinal());
+            ValueCodec.writeString(buffer, layout.getKey(i));
+        }
+    }
+    
+    private static int getHeaderSize(SlotLayout layout) {
+        int size = 12;
+        for (int i = 0; i < layout.size(); i++) {
+            size += 1 + ValueCodec.getSize(layout.getKey(i));
+        }
+        
+        return size;
+    }
+    
+    /**
+     * Works out where the values go, widest first so that all of them end up
+     * aligned to their size.
+     * 
+     * @return size of the file
+     */
+    private static int getOffsets(SlotLayout layout, int[] offsets) {
+        int offset = align(getHeaderSize(layout) + layout.size(), 8);
+        for (int width = 8; width > 0; width /= 2) {
+            for (int i = 0; i < layout.size(); i++) {
+                if (SlotLayout.getWidth(layout.getType(i)) == width) {
+                    offsets[i] = offset;
+                    offset += width;
+                }
+            }
+        }
+        
+        return offset;
+    }
+    
+    private static int align(int value, int alignment) {
+        return (value + alignment - 1) & -alignment;
+    }
+}
@@ -0,0 +1,378 @@
+/*
+ * Copyright 2015 Martin Bella
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.orange_box.storebox.backends;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Binary file format holding all values of a {@link StoreBackend}, which
+ * can be loaded with a single sequential read.
+ * <p>
+ * The file starts with a header:
+ * <ul>
+ * <li>magic number and version</li>
+ * <li>flags, telling whether the keys use a dictionary</li>
+ * <li>number of records</li>
+ * <li>length and CRC-32 of the body which follows</li>
+ * <li>CRC-32 of the header itself</li>
+ * </ul>
+ * The body starts with the dictionary, if there is one, which holds the
+ * prefixes shared by the keys. It's followed by the records, each of which
+ * is prefixed by its length and holds a key and a value encoded by
+ * {@link ValueCodec}. With a dictionary keys are written as the index of
+ * their prefix followed by the rest of the key.
+ */
+public final class SnapshotFormat {
+    
+    static final byte[] MAGIC = {'S', 'B', 'S', 'N'};
+    static final byte VERSION = 1;
+    static final int HEADER_SIZE = 24;
+    
+    private static final byte FLAG_DICTIONARY = 1;
+    
+    private static final short NO_PREFIX = -1;
+    private static final int MAX_PREFIXES = Short.MAX_VALUE;
+    private static final String PREFIX_SEPARATORS = "_.-:/";
+    
+    /**
+     * @return values read from {@code file}
+     * @throws IOException if the file couldn't be read or is corrupt
+     */
+    public static Map<String, Object> read(File file) throws IOException {
+        final FileInputStream stream = new FileInputStream(file);
+        try {
+            final FileChannel channel = stream.getChannel();
+            final long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException(file + " is too large");
+            }
+            
+            final ByteBuffer buffer = ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    throw new IOException("Unexpected end of " + file);
+                }
+            }
+            buffer.flip();
+            
+            return decode(buffer);
+        } finally {
+            stream.close();
+        }
+    }
+    
+    /**
+     * Writes {@code values} into a temporary file which then replaces
+     * {@code file}, so that readers never see a partially written file.
+     * 
+     * @throws IOException if the file couldn't be written
+     */
+    public static void write(File file, Map<String, ?> values)
+            throws IOException {
+        
+        final ByteBuffer buffer = encode(values, true);
+        
+        final File temp = new File(file.getPath() + ".tmp");
+        final FileOutputStream stream = new FileOutputStream(temp);
+        try {
+            final FileChannel channel = stream.getChannel();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            stream.getFD().sync();
+        } finally {
+            stream.close();
+        }
+        
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException(
+                    "Failed to replace " + file + " with " + temp);
+        }
+    }
+    
+    /**
+     * @param values - values to encode
+     * @param useDictionary - whether prefixes shared by keys should be
+     * stored only once
+     * @return buffer holding the encoded values, ready for reading
+     */
+    public static ByteBuffer encode(
+            Map<String, ?> values,
+            boolean useDictionary) {
+        
+        final List<String> prefixes = useDictionary
+                ? getSharedPrefixes(values.keySet())
+                : new ArrayList<String>();
+        final Map<String, Short> indices = new HashMap<>(prefixes.size());
+        
+        int bodySize = 0;
+        if (useDictionary) {
+            bodySize += 4;
+            for (short i = 0; i < prefixes.size(); i++) {
+                indices.put(prefixes.get(i), i);
+                bodySize += ValueCodec.getSize(prefixes.get(i));
+            }
+        }
+        for (final Map.Entry<String, ?> entry : values.entrySet()) {
+            bodySize += 4 + getRecordSize(
+                    entry.getKey(),
+                    entry.getValue(),
+                    useDictionary,
+                    indices);
+        }
+        
+        final ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + bodySize);
+        buffer.position(HEADER_SIZE);
+        if (useDictionary) {
+            buffer.putInt(prefixes.size());
+            for (final String prefix : prefixes) {
+                ValueCodec.writeString(buffer, prefix);
+            }
+        }
+        for (final Map.Entry<String, ?> entry : values.entrySet()) {
+            final String key = entry.getKey();
+            buffer.putInt(getRecordSize(
+                    key, entry.getValue(), useDictionary, indices));
+            
+            if (useDictionary) {
+                final String prefix = getPrefix(key);
+                final Short index = (prefix == null)
+                        ? null
+                        : indices.get(prefix);
+                if (index == null) {
+                    buffer.putShort(NO_PREFIX);
+                    ValueCodec.writeString(buffer, key);
+                } else {
+                    buffer.putShort(index);
+                    ValueCodec.writeString(
+                            buffer, key.substring(prefix.length()));
+                }
+            } else {
+                ValueCodec.writeString(buffer, key);
+            }
+            
+            ValueCodec.write(buffer, entry.getValue());
+        }
+        
+        buffer.position(0);
+        buffer.put(MAGIC);
+        buffer.put(VERSION);
+        buffer.put(useDictionary ? FLAG_DICTIONARY : 0);
+        buffer.putShort((short) 0);
+        buffer.putInt(values.size());
+        buffer.putInt(bodySize);
+        buffer.putInt(getChecksum(buffer, HEADER_SIZE, bodySize));
+        buffer.putInt(getChecksum(buffer, 0, HEADER_SIZE - 4));
+        
+        buffer.position(0);
+        return buffer;
+    }
+    
+    /**
+     * @param buffer - buffer holding the encoded values from its position
+     * @return the decoded values
+     * @throws IOException if the buffer doesn't hold valid encoded values
+     */
+    public static Map<String, Object> decode(ByteBuffer buffer)
+            throws IOException {
+        
+        final ByteBuffer data = buffer.hasArray()
+                ? buffer
+                : ByteBuffer.allocate(buffer.remaining()).put(buffer);
+        if (data != buffer) {
+            data.flip();
+        }
+        final int start = data.position();
+        
+        if (data.remaining() < HEADER_SIZE) {
+            throw new IOException("Snapshot is truncated");
+        }
+        for (final byte b : MAGIC) {
+            if (data.get() != b) {
+                throw new IOException("Not a StoreBox snapshot");
+            }
+        }
+        final byte version = data.get();
+        if (version != VERSION) {
+            throw new IOException(String.format(
+                    Locale.ENGLISH,
+                    "Unsupported snapshot version %1$d",
+                    version));
+        }
+        final byte flags = data.get();
+        data.getShort();
+        final int count = data.getInt();
+        final int bodySize = data.getInt();
+        final int bodyChecksum = data.getInt();
+        final int headerChecksum = data.getInt();
+        
+        if (headerChecksum != getChecksum(data, start, HEADER_SIZE - 4)) {
+            throw new IOException("Snapshot header is corrupt");
+        }
+        if (count < 0
+                || bodySize < 0
+                || bodySize > data.remaining()
+                || bodyChecksum != getChecksum(
+                        data, data.position(), bodySize)) {
+            
+            throw new IOException("Snapshot body is corrupt");
+        }
+        data.limit(data.position() + bodySize);
+        
+        try {
+            final String[] prefixes;
+            if ((flags & FLAG_DICTIONARY) != 0) {
+                prefixes = new String[readCount(data, 4)];
+                for (int i = 0; i < prefixes.length; i++) {
+                    prefixes[i] = ValueCodec.readString(data);
+                }
+            } else {
+                prefixes = null;
+            }
+            
+            final Map<String, Object> values =
+                    new HashMap<>(Math.max(16, count * 4 / 3 + 1));
+            for (int i = 0; i < count; i++) {
+                final int length = readCount(data, 1);
+                final int end = data.position() + length;
+                
+                final String key;
+                if (prefixes != null) {
+                    final short index = data.getShort();
+                    final String suffix = ValueCodec.readString(data);
+                    if (index == NO_PREFIX) {
+                        key = suffix;
+                    } else {
+                        key = prefixes[index].concat(suffix);
+                    }
+                } else {
+                    key = ValueCodec.readString(data);
+                }
+                values.put(key, ValueCodec.read(data));
+                
+                if (data.position() != end) {
+                    throw new IOException(String.format(
+                            Locale.ENGLISH,
+                            "Snapshot record for %1$s is corrupt",
+                            key));
+                }
+            }
+            
+            return values;
+        } catch (IllegalArgumentException
+                | IndexOutOfBoundsException
+                | BufferUnderflowException e) {
+            
+            throw new IOException("Snapshot body is corrupt", e);
+        }
+    }
+    
+    private static int getRecordSize(
+            String key,
+            Object value,
+            boolean useDictionary,
+            Map<String, Short> indices) {
+        
+        int size = ValueCodec.getSize(value);
+        if (useDictionary) {
+            final String prefix = getPrefix(key);
+            if (prefix != null && indices.containsKey(prefix)) {
+                size += 2 + ValueCodec.getSize(
+                        key.substring(prefix.length()));
+            } else {
+                size += 2 + ValueCodec.getSize(key);
+            }
+        } else {
+            size += ValueCodec.getSize(key);
+        }
+        
+        return size;
+    }
+    
+    /**
+     * @return prefixes which are shared by more than one key, up to the
+     * maximum number of prefixes which can be indexed
+     */
+    private static List<String> getSharedPrefixes(Iterable<String> keys) {
+        final Map<String, Integer> counts = new HashMap<>();
+        for (final String key : keys) {
+            final String prefix = getPrefix(key);
+            if (prefix != null) {
+                final Integer count = counts.get(prefix);
+                counts.put(prefix, (count == null) ? 1 : count + 1);
+            }
+        }
+        
+        final List<String> result = new ArrayList<>();
+        for (final Map.Entry<String, Integer> entry : counts.entrySet()) {
+            if (entry.getValue() > 1 && result.size() < MAX_PREFIXES) {
+                result.add(entry.getKey());
+            }
+        }
+        
+        return result;
+    }
+    
+    /**
+     * @return part of {@code key} up to and including its last separator, or
+     * {@code null} if it doesn't have one
+     */
+    private static String getPrefix(String key) {
+        for (int i = key.length() - 2; i > 0; i--) {
+            if (PREFIX_SEPARATORS.indexOf(key.charAt(i)) >= 0) {
+                return key.substring(0, i + 1);
+            }
+        }
+        
+        return null;
+    }
+    
+    private static int getChecksum(ByteBuffer buffer, int offset, int length) {
+        final CRC32 crc = new CRC32();
+        crc.update(buffer.array(), buffer.arrayOffset() + offset, length);
+        
+        return (int) crc.getValue();
+    }
+    
+    private static int readCount(ByteBuffer buffer, int minSize) {
+        final int count = buffer.getInt();
+        if (count < 0 || (long) count * minSize > buffer.remaining()) {
+            throw new IllegalArgumentException(String.format(
+                    Locale.ENGLISH,
+                    "Invalid count %1$d",
+                    count));
+        }
+        
+        return count;
+    }
+    
+    private SnapshotFormat() {}
+}
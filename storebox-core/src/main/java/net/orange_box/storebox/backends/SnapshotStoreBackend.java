@@ -0,0 +1,101 @@
+/*
+ * Copyright 2015 Martin Bella
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.orange_box.storebox.backends;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * {@link StoreBackend} which keeps its values in memory and saves all of
+ * them into a file using the {@link SnapshotFormat}, which is much quicker
+ * to load than the XML used by {@link android.content.SharedPreferences}.
+ * <p>
+ * Like with {@link android.content.SharedPreferences} the whole file gets
+ * rewritten when saving, but changes saved while a write is in progress are
+ * batched into the next one.
+ */
+public class SnapshotStoreBackend extends MapStoreBackend {
+    
+    private final File file;
+    private final Object writeLock = new Object();
+    
+    private long changes;
+    private long writtenChanges;
+    
+    /**
+     * @param file - the snapshot file, which will be created when saving if
+     * it doesn't exist
+     * @throws IOException if the file exists but couldn't be read
+     */
+    public SnapshotStoreBackend(File file) throws IOException {
+        this.file = file;
+        
+        if (file.exists()) {
+            for (final Map.Entry<String, Object> entry :
+                    SnapshotFormat.read(file).entrySet()) {
+                
+                loadValue(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+    
+    public File getFile() {
+        return file;
+    }
+    
+    @Override
+    protected void persistChanges(
+            boolean clear,
+            Map<String, Object> changes) {
+        
+        this.changes++;
+    }
+    
+    @Override
+    protected boolean sync() {
+        synchronized (writeLock) {
+            final Map<String, Object> snapshot;
+            final long changes;
+            synchronized (this) {
+                if (this.changes == writtenChanges) {
+                    // already written by an earlier sync
+                    return true;
+                }
+                
+                snapshot = new HashMap<>(getValues());
+                changes = this.changes;
+            }
+            
+            try {
+                final File parent = file.getParentFile();
+                if (parent != null && !parent.exists()) {
+                    parent.mkdirs();
+                }
+                
+                SnapshotFormat.write(file, snapshot);
+            } catch (IOException e) {
+                return false;
+            }
+            
+            writtenChanges = changes;
+            return true;
+        }
+    }
+}
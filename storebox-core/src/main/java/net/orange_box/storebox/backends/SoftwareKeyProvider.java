@@ -0,0 +1,150 @@
+/*
+ * Copyright 2015 Martin Bella
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.orange_box.storebox.backends;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * {@link EncryptedStoreBackend.KeyProvider} which generates a key for each
+ * alias using the JCE, and keeps it in a file inside of a directory.
+ * Keys are cached by their file once read, so that they're shared by all
+ * providers using the same directory.
+ * <p>
+ * As the key is stored next to the values, this only protects them against
+ * being read from a copy of the preferences on their own, such as one made
+ * by a backup which excludes the directory. A provider backed by a hardware
+ * key store should be used where that isn't enough.
+ */
+public class SoftwareKeyProvider implements EncryptedStoreBackend.KeyProvider {
+    
+    private static final String ALGORITHM = "AES";
+    private static final int KEY_SIZE = 256;
+    private static final String KEY_SUFFIX = ".key";
+    private static final String TEMP_SUFFIX = ".tmp";
+    
+    private static final ConcurrentMap<File, SecretKey> KEYS =
+            new ConcurrentHashMap<>();
+    
+    private final File directory;
+    
+    /**
+     * @param directory - directory which the keys should be kept in
+     */
+    public SoftwareKeyProvider(File directory) {
+        this.directory = directory;
+    }
+    
+    @Override
+    public SecretKey getKey(String alias) throws GeneralSecurityException {
+        final File file = new File(directory, alias + KEY_SUFFIX);
+        
+        SecretKey key = KEYS.get(file);
+        if (key != null) {
+            return key;
+        }
+        
+        synchronized (KEYS) {
+            key = KEYS.get(file);
+            if (key == null) {
+                key = readOrGenerate(file);
+                KEYS.put(file, key);
+            }
+        }
+        
+        return key;
+    }
+    
+    private static SecretKey readOrGenerate(File file)
+            throws GeneralSecurityException {
+        
+        try {
+            if (file.exists()) {
+                return new SecretKeySpec(read(file), ALGORITHM);
+            }
+            
+            final KeyGenerator generator = KeyGenerator.getInstance(ALGORITHM);
+            generator.init(KEY_SIZE);
+            final SecretKey key = generator.generateKey();
+            write(file, key.getEncoded());
+            
+            return key;
+        } catch (IOException e) {
+            throw new GeneralSecurityException(String.format(
+                    Locale.ENGLISH,
+                    "Failed to keep key in %1$s",
+                    file), e);
+        }
+    }
+    
+    private static byte[] read(File file) throws IOException {
+        final byte[] bytes = new byte[KEY_SIZE / 8];
+        final FileInputStream stream = new FileInputStream(file);
+        try {
+            int read = 0;
+            while (read < bytes.length) {
+                final int count =
+                        stream.read(bytes, read, bytes.length - read);
+                if (count < 0) {
+                    throw new IOException("Unexpected end of " + file);
+                }
+                read += count;
+            }
+        } finally {
+            stream.close();
+        }
+        
+        return bytes;
+    }
+    
+    /**
+     * Writes {@code bytes} into a temporary file which then gets renamed, so
+     * that a partially written key never gets read.
+     */
+    private static void write(File file, byte[] bytes) throws IOException {
+        if (!file.getParentFile().isDirectory()
+                && !file.getParentFile().mkdirs()) {
+            
+            throw new IOException("Failed to create " + file.getParent());
+        }
+        
+        final File temp = new File(file.getPath() + TEMP_SUFFIX);
+        final FileOutputStream stream = new FileOutputStream(temp);
+        try {
+            stream.write(bytes);
+            stream.getFD().sync();
+        } finally {
+            stream.close();
+        }
+        
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException(
+                    "Failed to rename " + temp + " to " + file);
+        }
+    }
+}
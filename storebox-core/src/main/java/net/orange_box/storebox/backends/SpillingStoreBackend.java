@@ -0,0 +1,794 @@
+/*
+ * Copyright 2015 Martin Bella
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.orange_box.storebox.backends;
+
+import net.orange_box.storebox.adapters.StoreType;
+import net.orange_box.storebox.annotations.method.KeyByResource;
+import net.orange_box.storebox.annotations.method.KeyByString;
+import net.orange_box.storebox.utils.TypeUtils;
+
+import android.support.annotation.Nullable;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * {@link StoreBackend} which stores String values longer than a threshold
+ * in separate files inside of a directory, keeping only a short reference
+ * to the file in the backend it decorates.
+ * <p>
+ * Each spilled value gets written into a new file when it's put into an
+ * editor, so saving it doesn't need to rewrite any other values, and is
+ * only read when it's first retrieved. Files which are no longer referenced
+ * get deleted once a commit replacing them succeeds, or otherwise the next
+ * time the directory gets opened.
+ * <p>
+ * Values of type {@link StoreType#BLOB} are kept in separate files in the
+ * same way regardless of their size, but get streamed to and from their
+ * files rather than being read into memory.
+ */
+public class SpillingStoreBackend implements StoreBackend {
+    
+    static final String REFERENCE_PREFIX = "@storebox-spill:";
+    static final String BLOB_PREFIX = "@storebox-blob:";
+    
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final int COPY_BUFFER_SIZE = 8 * 1024;
+    /**
+     * Files younger than this may belong to a change which hasn't been
+     * saved yet, so they're not swept.
+     */
+    private static final long SWEEP_MARGIN = 2000;
+    
+    private static final Set<File> SWEPT = Collections.newSetFromMap(
+            new ConcurrentHashMap<File, Boolean>());
+    
+    private final StoreBackend backend;
+    private final File directory;
+    private final int threshold;
+    
+    private final ConcurrentMap<String, SoftReference<String>> cache;
+    private final Set<String> blobs;
+    private final Map<Listener, SpillListener> listeners;
+    
+    /**
+     * Interface definition for a callback to be invoked once a blob has been
+     * written.
+     */
+    public interface BlobCallback {
+        
+        /**
+         * @param reference - reference to the blob, which should be put for
+         * its key through an editor of the backend
+         */
+        void onBlobWritten(String reference);
+    }
+    
+    /**
+     * @param backend - backend which the values, or the references to the
+     * spilled values, should be stored in
+     * @param directory - directory which the spilled values should be
+     * stored in, which mustn't be used by any other backend
+     * @param threshold - number of characters above which a value gets
+     * spilled
+     */
+    public SpillingStoreBackend(
+            StoreBackend backend,
+            File directory,
+            int threshold) {
+        
+        if (threshold < 0) {
+            throw new IllegalArgumentException(String.format(
+                    Locale.ENGLISH,
+                    "Spill threshold %1$d cannot be negative",
+                    threshold));
+        }
+        
+        this.backend = backend;
+        this.directory = directory;
+        this.threshold = threshold;
+        
+        cache = new ConcurrentHashMap<>();
+        blobs = Collections.newSetFromMap(
+                new ConcurrentHashMap<String, Boolean>());
+        listeners = new WeakHashMap<>();
+        
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new RuntimeException(
+                    "Failed to create " + directory);
+        }
+        
+        // left-overs get swept once per process, when nothing is pending yet
+        if (SWEPT.add(directory)) {
+            final long before = System.currentTimeMillis() - SWEEP_MARGIN;
+            BaseStoreBackend.runInBackground(new Runnable() {
+                @Override
+                public void run() {
+                    sweep(before);
+                }
+            });
+        }
+    }
+    
+    /**
+     * @return whether {@code cls} declares any get or set methods for values
+     * stored as a {@link StoreType#BLOB}
+     */
+    public static boolean hasBlobs(Class<?> cls) {
+        for (final Method method : cls.getMethods()) {
+            if (!method.isAnnotationPresent(KeyByString.class)
+                    && !method.isAnnotationPresent(KeyByResource.class)) {
+                
+                continue;
+            }
+            
+            if (TypeUtils.isStoredAs(method.getReturnType(), StoreType.BLOB)) {
+                return true;
+            }
+            for (final Class<?> type : method.getParameterTypes()) {
+                if (TypeUtils.isStoredAs(type, StoreType.BLOB)) {
+                    return true;
+                }
+            }
+        }
+        
+        return false;
+    }
+    
+    public StoreBackend getBackend() {
+        return backend;
+    }
+    
+    public int getThreshold() {
+        return threshold;
+    }
+    
+    /**
+     * @return whether the value of {@code key} is stored in a separate file
+     */
+    public boolean isSpilled(String key) {
+        return isReference(getRawString(key));
+    }
+    
+    /**
+     * @return channel for reading the blob of {@code key}, which the caller
+     * needs to close, or null if there isn't one
+     */
+    @Nullable
+    public FileChannel openBlob(String key) {
+        final String value = getRawString(key);
+        if (value == null || !value.startsWith(BLOB_PREFIX)) {
+            return null;
+        }
+        
+        try {
+            return new FileInputStream(
+                    new File(directory, getFileName(value))).getChannel();
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+    }
+    
+    /**
+     * @param callback - callback to be invoked with the reference to the
+     * blob once the stream gets closed
+     * @return stream for writing a new blob
+     */
+    public OutputStream newBlob(@Nullable BlobCallback callback) {
+        try {
+            return new BlobOutputStream(callback);
+        } catch (IOException e) {
+            throw new RuntimeException(
+                    "Failed to create blob in " + directory, e);
+        }
+    }
+    
+    /**
+     * Copies what's left to be read from {@code source} into a new blob,
+     * without closing {@code source}.
+     * 
+     * @return reference to the blob, which should be put for its key through
+     * an editor of the backend
+     */
+    public String writeBlob(ReadableByteChannel source) {
+        final BlobOutputStream stream = (BlobOutputStream) newBlob(null);
+        try {
+            final ByteBuffer buffer = ByteBuffer.allocate(COPY_BUFFER_SIZE);
+            while (source.read(buffer) >= 0) {
+                buffer.flip();
+                stream.write(buffer);
+                buffer.clear();
+            }
+            stream.close();
+        } catch (IOException e) {
+            stream.discard();
+            throw new RuntimeException(
+                    "Failed to write blob into " + directory, e);
+        }
+        
+        return stream.getReference();
+    }
+    
+    /**
+     * Copies the remaining bytes of {@code source} into a new blob, without
+     * changing its position.
+     * 
+     * @return reference to the blob, which should be put for its key through
+     * an editor of the backend
+     */
+    public String writeBlob(ByteBuffer source) {
+        final BlobOutputStream stream = (BlobOutputStream) newBlob(null);
+        try {
+            stream.write(source.duplicate());
+            stream.close();
+        } catch (IOException e) {
+            stream.discard();
+            throw new RuntimeException(
+                    "Failed to write blob into " + directory, e);
+        }
+        
+        return stream.getReference();
+    }
+    
+    @Override
+    public boolean contains(String key) {
+        return backend.contains(key);
+    }
+    
+    @Override
+    public Map<String, ?> getAll() {
+        final Map<String, Object> values = new HashMap<>(backend.getAll());
+        for (final Map.Entry<String, Object> entry : values.entrySet()) {
+            if (entry.getValue() instanceof String) {
+                entry.setValue(resolve((String) entry.getValue()));
+            }
+        }
+        // values whose files went missing are treated as removed
+        values.values().removeAll(Collections.singleton(null));
+        
+        return values;
+    }
+    
+    @Override
+    public boolean getBoolean(String key, boolean defValue) {
+        return backend.getBoolean(key, defValue);
+    }
+    
+    @Override
+    public float getFloat(String key, float defValue) {
+        return backend.getFloat(key, defValue);
+    }
+    
+    @Override
+    public int getInt(String key, int defValue) {
+        return backend.getInt(key, defValue);
+    }
+    
+    @Override
+    public long getLong(String key, long defValue) {
+        return backend.getLong(key, defValue);
+    }
+    
+    @Nullable
+    @Override
+    public String getString(String key, @Nullable String defValue) {
+        final String value = backend.getString(key, null);
+        if (value == null) {
+            return defValue;
+        }
+        
+        final String resolved = resolve(value);
+        return (resolved == null) ? defValue : resolved;
+    }
+    
+    @Nullable
+    @Override
+    public Set<String> getStringSet(
+            String key,
+            @Nullable Set<String> defValues) {
+        
+        return backend.getStringSet(key, defValues);
+    }
+    
+    @Override
+    public Editor edit() {
+        return new SpillingEditor(backend.edit());
+    }
+    
+    @Override
+    public void registerListener(Listener listener) {
+        final SpillListener adapter;
+        synchronized (listeners) {
+            if (listeners.containsKey(listener)) {
+                return;
+            }
+            
+            adapter = new SpillListener(this, listener);
+            listeners.put(listener, adapter);
+        }
+        
+        backend.registerListener(adapter);
+    }
+    
+    @Override
+    public void unregisterListener(Listener listener) {
+        final SpillListener adapter;
+        synchronized (listeners) {
+            adapter = listeners.remove(listener);
+        }
+        
+        if (adapter != null) {
+            backend.unregisterListener(adapter);
+        }
+    }
+    
+    /**
+     * @return whether {@code value} references a spilled value or a blob
+     */
+    private static boolean isReference(@Nullable String value) {
+        return value != null
+                && (value.startsWith(REFERENCE_PREFIX)
+                        || value.startsWith(BLOB_PREFIX));
+    }
+    
+    private static String getFileName(String reference) {
+        return reference.startsWith(REFERENCE_PREFIX)
+                ? reference.substring(REFERENCE_PREFIX.length())
+                : reference.substring(BLOB_PREFIX.length());
+    }
+    
+    /**
+     * @return value stored by the decorated backend for {@code key}, if it's
+     * a String
+     */
+    @Nullable
+    private String getRawString(String key) {
+        try {
+            return backend.getString(key, null);
+        } catch (ClassCastException e) {
+            // NOP, not a String
+            return null;
+        }
+    }
+    
+    /**
+     * @return value which {@code value} references, or {@code value} itself
+     * if it isn't a reference to a spilled value, or null if the referenced
+     * file is missing
+     */
+    @Nullable
+    private String resolve(String value) {
+        // blobs aren't read into memory, so their references are kept as-is
+        if (!value.startsWith(REFERENCE_PREFIX)) {
+            return value;
+        }
+        
+        final String name = getFileName(value);
+        final SoftReference<String> cached = cache.get(name);
+        String result = (cached == null) ? null : cached.get();
+        if (result == null) {
+            try {
+                result = read(new File(directory, name));
+            } catch (FileNotFoundException e) {
+                return null;
+            } catch (IOException e) {
+                throw new RuntimeException(String.format(
+                        Locale.ENGLISH,
+                        "Failed to read spilled value %1$s",
+                        name), e);
+            }
+            cache.put(name, new SoftReference<>(result));
+        }
+        
+        return result;
+    }
+    
+    /**
+     * @return name of the file which {@code value} got written into, or
+     * null if it's short enough to be stored inline
+     */
+    @Nullable
+    private String spill(@Nullable String value) {
+        // values which look like a reference get spilled regardless
+        if (value == null
+                || (value.length() <= threshold && !isReference(value))) {
+            
+            return null;
+        }
+        
+        final String name = UUID.randomUUID().toString();
+        final File file = new File(directory, name);
+        try {
+            write(file, value);
+        } catch (IOException e) {
+            throw new RuntimeException(String.format(
+                    Locale.ENGLISH,
+                    "Failed to spill value into %1$s",
+                    file), e);
+        }
+        cache.put(name, new SoftReference<>(value));
+        
+        return name;
+    }
+    
+    private void delete(List<String> references) {
+        for (final String reference : references) {
+            final String name = getFileName(reference);
+            cache.remove(name);
+            new File(directory, name).delete();
+        }
+    }
+    
+    /**
+     * Deletes the files older than {@code before} which aren't referenced.
+     */
+    private void sweep(long before) {
+        final File[] files = directory.listFiles();
+        if (files == null || files.length == 0) {
+            return;
+        }
+        
+        final Set<String> referenced = new HashSet<>();
+        for (final Object value : backend.getAll().values()) {
+            if (value instanceof String && isReference((String) value)) {
+                referenced.add(getFileName((String) value));
+            }
+        }
+        
+        for (final File file : files) {
+            if (!referenced.contains(file.getName())
+                    && file.lastModified() < before) {
+                
+                file.delete();
+            }
+        }
+    }
+    
+    private static String read(File file) throws IOException {
+        final FileInputStream stream = new FileInputStream(file);
+        try {
+            final FileChannel channel = stream.getChannel();
+            final long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException(file + " is too large");
+            }
+            
+            final ByteBuffer buffer = ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    throw new IOException("Unexpected end of " + file);
+                }
+            }
+            
+            return new String(
+                    buffer.array(), 0, buffer.position(), ValueCodec.UTF_8);
+        } finally {
+            stream.close();
+        }
+    }
+    
+    /**
+     * Writes {@code value} into a temporary file which then gets renamed,
+     * so that a reference never points to a partially written file.
+     */
+    private static void write(File file, String value) throws IOException {
+        final ByteBuffer buffer = ValueCodec.UTF_8.encode(value);
+        
+        final File temp = new File(file.getPath() + TEMP_SUFFIX);
+        final FileOutputStream stream = new FileOutputStream(temp);
+        try {
+            final FileChannel channel = stream.getChannel();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            stream.getFD().sync();
+        } finally {
+            stream.close();
+        }
+        
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException(
+                    "Failed to rename " + temp + " to " + file);
+        }
+    }
+    
+    private final class SpillingEditor implements Editor {
+        
+        private final Editor editor;
+        
+        /**
+         * References of the saved values which get replaced by the changes.
+         */
+        private final List<String> replaced = new ArrayList<>();
+        /**
+         * Files written for the changes, by their key.
+         */
+        private final Map<String, File> pending = new HashMap<>();
+        
+        public SpillingEditor(Editor editor) {
+            this.editor = editor;
+        }
+        
+        @Override
+        public synchronized Editor putBoolean(String key, boolean value) {
+            replace(key);
+            editor.putBoolean(key, value);
+            return this;
+        }
+        
+        @Override
+        public synchronized Editor putFloat(String key, float value) {
+            replace(key);
+            editor.putFloat(key, value);
+            return this;
+        }
+        
+        @Override
+        public synchronized Editor putInt(String key, int value) {
+            replace(key);
+            editor.putInt(key, value);
+            return this;
+        }
+        
+        @Override
+        public synchronized Editor putLong(String key, long value) {
+            replace(key);
+            editor.putLong(key, value);
+            return this;
+        }
+        
+        @Override
+        public Editor putString(String key, @Nullable String value) {
+            // blobs which have just been written get stored as references
+            if (value != null
+                    && value.startsWith(BLOB_PREFIX)
+                    && blobs.remove(getFileName(value))) {
+                
+                synchronized (this) {
+                    replace(key);
+                    pending.put(key, new File(directory, getFileName(value)));
+                    editor.putString(key, value);
+                }
+                return this;
+            }
+            
+            // written outside of the lock, as other threads share the editor
+            final String name = spill(value);
+            synchronized (this) {
+                replace(key);
+                if (name != null) {
+                    pending.put(key, new File(directory, name));
+                    editor.putString(key, REFERENCE_PREFIX + name);
+                } else {
+                    editor.putString(key, value);
+                }
+            }
+            return this;
+        }
+        
+        @Override
+        public synchronized Editor putStringSet(
+                String key,
+                @Nullable Set<String> values) {
+            
+            replace(key);
+            editor.putStringSet(key, values);
+            return this;
+        }
+        
+        @Override
+        public synchronized Editor remove(String key) {
+            replace(key);
+            editor.remove(key);
+            return this;
+        }
+        
+        @Override
+        public synchronized Editor clear() {
+            for (final Object value : backend.getAll().values()) {
+                if (value instanceof String && isReference((String) value)) {
+                    replaced.add((String) value);
+                }
+            }
+            
+            editor.clear();
+            return this;
+        }
+        
+        @Override
+        public boolean commit() {
+            final List<String> references = reset();
+            final boolean result = editor.commit();
+            if (result) {
+                delete(references);
+            }
+            
+            return result;
+        }
+        
+        @Override
+        public void apply() {
+            /*
+             * The changes may not have reached the disk by the time this
+             * returns, so the replaced files get left for the next sweep.
+             */
+            reset();
+            editor.apply();
+        }
+        
+        private void replace(String key) {
+            // a value spilled earlier in the same batch is no longer needed
+            final File file = pending.remove(key);
+            if (file != null) {
+                cache.remove(file.getName());
+                file.delete();
+            }
+            
+            final String value = getRawString(key);
+            if (isReference(value)) {
+                replaced.add(value);
+            }
+        }
+        
+        /**
+         * @return references replaced by the changes made until now, which
+         * all get saved by the next commit
+         */
+        private synchronized List<String> reset() {
+            final List<String> result = new ArrayList<>(replaced);
+            replaced.clear();
+            pending.clear();
+            
+            return result;
+        }
+    }
+    
+    /**
+     * Writes a blob into a temporary file, which gets renamed once the
+     * stream is closed so that a reference never points to a partially
+     * written blob.
+     */
+    private final class BlobOutputStream extends OutputStream {
+        
+        private final String name;
+        private final File temp;
+        private final FileOutputStream stream;
+        @Nullable
+        private final BlobCallback callback;
+        
+        private boolean closed;
+        
+        public BlobOutputStream(@Nullable BlobCallback callback)
+                throws IOException {
+            
+            this.callback = callback;
+            
+            name = UUID.randomUUID().toString();
+            temp = new File(directory, name + TEMP_SUFFIX);
+            stream = new FileOutputStream(temp);
+        }
+        
+        public String getReference() {
+            return BLOB_PREFIX + name;
+        }
+        
+        @Override
+        public void write(int b) throws IOException {
+            stream.write(b);
+        }
+        
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            stream.write(b, off, len);
+        }
+        
+        public void write(ByteBuffer buffer) throws IOException {
+            final FileChannel channel = stream.getChannel();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+        
+        @Override
+        public void flush() throws IOException {
+            stream.flush();
+        }
+        
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            
+            try {
+                stream.getFD().sync();
+            } finally {
+                stream.close();
+            }
+            
+            final File file = new File(directory, name);
+            if (!temp.renameTo(file)) {
+                temp.delete();
+                throw new IOException(
+                        "Failed to rename " + temp + " to " + file);
+            }
+            
+            blobs.add(name);
+            if (callback != null) {
+                callback.onBlobWritten(getReference());
+            }
+        }
+        
+        public void discard() {
+            closed = true;
+            
+            try {
+                stream.close();
+            } catch (IOException e) {
+                // NOP
+            }
+            temp.delete();
+        }
+    }
+    
+    /**
+     * Forwards the changes of the decorated backend as changes of the
+     * spilling backend, while only holding onto the listener weakly.
+     */
+    private static final class SpillListener implements Listener {
+        
+        private final SpillingStoreBackend backend;
+        private final WeakReference<Listener> listener;
+        
+        public SpillListener(SpillingStoreBackend backend, Listener listener) {
+            this.backend = backend;
+            this.listener = new WeakReference<>(listener);
+        }
+        
+        @Override
+        public void onValueChanged(StoreBackend source, String key) {
+            final Listener target = listener.get();
+            if (target != null) {
+                target.onValueChanged(backend, key);
+            }
+        }
+    }
+}
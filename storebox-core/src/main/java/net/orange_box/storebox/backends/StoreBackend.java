@@ -0,0 +1,126 @@
+/*
+ * Copyright 2015 Martin Bella
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.orange_box.storebox.backends;
+
+import android.support.annotation.Nullable;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Storage which values get read from and written to, modelled after
+ * Android's {@code SharedPreferences} but without depending on any Android
+ * APIs.
+ * <p>
+ * Implementations need to be thread-safe.
+ */
+public interface StoreBackend {
+    
+    boolean contains(String key);
+    
+    Map<String, ?> getAll();
+    
+    boolean getBoolean(String key, boolean defValue);
+    
+    float getFloat(String key, float defValue);
+    
+    int getInt(String key, int defValue);
+    
+    long getLong(String key, long defValue);
+    
+    @Nullable
+    String getString(String key, @Nullable String defValue);
+    
+    /**
+     * @throws UnsupportedOperationException if the backend can't store sets
+     */
+    @Nullable
+    Set<String> getStringSet(String key, @Nullable Set<String> defValues);
+    
+    /**
+     * @return new editor for making changes to the values
+     */
+    Editor edit();
+    
+    /**
+     * Backends may only hold onto the listener weakly, as is the case with
+     * {@code SharedPreferences}, so the caller needs to keep a reference to
+     * it for as long as it should be notified.
+     */
+    void registerListener(Listener listener);
+    
+    void unregisterListener(Listener listener);
+    
+    /**
+     * Batches changes until either {@link #commit()} or {@link #apply()} get
+     * called. An editor can keep on being used after its changes have been
+     * saved.
+     * <p>
+     * Implementations need to be thread-safe, like the editors of
+     * {@code SharedPreferences}, as instances share a single editor between
+     * all of the threads calling them. Saving takes all of the changes made
+     * until then, including ones made by other threads.
+     */
+    interface Editor {
+        
+        Editor putBoolean(String key, boolean value);
+        
+        Editor putFloat(String key, float value);
+        
+        Editor putInt(String key, int value);
+        
+        Editor putLong(String key, long value);
+        
+        Editor putString(String key, @Nullable String value);
+        
+        /**
+         * @throws UnsupportedOperationException if the backend can't store
+         * sets
+         */
+        Editor putStringSet(String key, @Nullable Set<String> values);
+        
+        Editor remove(String key);
+        
+        /**
+         * Removes all values, before any other changes made in the same batch
+         * get applied.
+         */
+        Editor clear();
+        
+        /**
+         * Saves the changes synchronously.
+         * 
+         * @return whether the changes were saved successfully
+         */
+        boolean commit();
+        
+        /**
+         * Saves the changes, possibly asynchronously.
+         */
+        void apply();
+    }
+    
+    /**
+     * Interface definition for a callback to be invoked when a value gets
+     * changed or removed.
+     */
+    interface Listener {
+        
+        void onValueChanged(StoreBackend backend, String key);
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2015 Martin Bella
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.orange_box.storebox.backends;
+
+import net.orange_box.storebox.annotations.option.TierOption;
+import net.orange_box.storebox.enums.EvictionPolicy;
+
+import android.support.annotation.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * {@link BTreeStoreBackend} which keeps the values retrieved most recently,
+ * or most often, decoded in memory within a budget of entries and bytes.
+ * Values evicted from memory stay on disk, and are read from the tree again
+ * the next time they're retrieved.
+ * <p>
+ * Hit rates and how many values have been evicted can be inspected, for
+ * tuning the budget.
+ * 
+ * @see HotTier
+ */
+public class TieredStoreBackend extends BTreeStoreBackend {
+    
+    public static final int DEFAULT_MAX_ENTRIES = 1024;
+    public static final long DEFAULT_MAX_BYTES = 256 * 1024;
+    
+    private final HotTier tier;
+    
+    public TieredStoreBackend(File file) throws IOException {
+        this(
+                file,
+                DEFAULT_MAX_ENTRIES,
+                DEFAULT_MAX_BYTES,
+                EvictionPolicy.W_TINY_LFU);
+    }
+    
+    /**
+     * @param file - the tree file, which will be created if it doesn't exist
+     * @param option - budget and policy for the values kept in memory
+     * @throws IOException if the file couldn't be opened, or it isn't a tree
+     */
+    public TieredStoreBackend(File file, TierOption option)
+            throws IOException {
+        
+        this(file, option.maxEntries(), option.maxBytes(), option.policy());
+    }
+    
+    /**
+     * @param file - the tree file, which will be created if it doesn't exist
+     * @param maxEntries - maximum number of values kept in memory
+     * @param maxBytes - maximum estimated size of the values kept in memory
+     * @param policy - policy deciding which values get evicted from memory
+     * @throws IOException if the file couldn't be opened, or it isn't a tree
+     */
+    public TieredStoreBackend(
+            File file,
+            int maxEntries,
+            long maxBytes,
+            EvictionPolicy policy) throws IOException {
+        
+        super(file);
+        
+        if (maxEntries < 1 || maxBytes < 1) {
+            throw new IllegalArgumentException(String.format(
+                    Locale.ENGLISH,
+                    "Budget of %1$d entries and %2$d bytes is invalid",
+                    maxEntries,
+                    maxBytes));
+        }
+        
+        tier = new HotTier(policy, maxEntries, maxBytes);
+    }
+    
+    /**
+     * @return number of values kept in memory
+     */
+    public synchronized int getHotSize() {
+        return tier.size();
+    }
+    
+    /**
+     * @return estimated size of the values kept in memory, in bytes
+     */
+    public synchronized long getHotBytes() {
+        return tier.getBytes();
+    }
+    
+    public synchronized long getHitCount() {
+        return tier.getHitCount();
+    }
+    
+    public synchronized long getMissCount() {
+        return tier.getMissCount();
+    }
+    
+    /**
+     * @return fraction of retrievals which were served from memory, or
+     * {@code 0} if nothing has been retrieved yet
+     */
+    public synchronized double getHitRate() {
+        final long total = tier.getHitCount() + tier.getMissCount();
+        return (total == 0) ? 0 : (double) tier.getHitCount() / total;
+    }
+    
+    /**
+     * @return number of values which have been evicted from memory
+     */
+    public synchronized long getEvictionCount() {
+        return tier.getEvictionCount();
+    }
+    
+    @Nullable
+    @Override
+    protected synchronized Object getValue(String key) {
+        Object value = tier.get(key);
+        if (value == null) {
+            value = super.getValue(key);
+            if (value != null) {
+                tier.put(key, value);
+            }
+        }
+        
+        return value;
+    }
+    
+    @Override
+    protected synchronized void writeChanges(
+            boolean clear,
+            Map<String, Object> changes) {
+        
+        super.writeChanges(clear, changes);
+        
+        if (clear) {
+            tier.clear();
+        }
+        for (final Map.Entry<String, Object> entry : changes.entrySet()) {
+            // written values are likely to be retrieved soon
+            if (entry.getValue() == null) {
+                tier.remove(entry.getKey());
+            } else {
+                tier.put(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+}
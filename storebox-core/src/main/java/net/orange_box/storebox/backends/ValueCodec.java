@@ -0,0 +1,350 @@
+/*
+ * Copyright 2015 Martin Bella
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.orange_box.storebox.backends;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Encodes the values which can be stored in a {@link StoreBackend} into a
+ * compact binary form, as a type tag followed by the value.
+ * <p>
+ * Numbers are written big-endian using their fixed size, and strings as
+ * their length in bytes followed by their UTF-8 encoding.
+ * <p>
+ * Binary data which decorating backends keep in String values, such as
+ * encrypted or compressed values, gets encoded as Base64.
+ */
+public final class ValueCodec {
+    
+    public static final byte TYPE_BOOLEAN = 1;
+    public static final byte TYPE_FLOAT = 2;
+    public static final byte TYPE_INTEGER = 3;
+    public static final byte TYPE_LONG = 4;
+    public static final byte TYPE_STRING = 5;
+    public static final byte TYPE_STRING_SET = 6;
+    
+    public static final Charset UTF_8 = Charset.forName("UTF-8");
+    
+    private static final char[] BASE64 =
+            ("ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz"
+                    + "0123456789+/").toCharArray();
+    
+    /**
+     * @return number of bytes {@link #write(ByteBuffer, Object)} will use for
+     * {@code value}, including the type tag
+     */
+    public static int getSize(Object value) {
+        final int size;
+        switch (getType(value)) {
+            case TYPE_BOOLEAN:
+                size = 1;
+                break;
+            
+            case TYPE_FLOAT:
+            case TYPE_INTEGER:
+                size = 4;
+                break;
+            
+            case TYPE_LONG:
+                size = 8;
+                break;
+            
+            case TYPE_STRING:
+                size = getSize((String) value);
+                break;
+            
+            case TYPE_STRING_SET:
+            default:
+                int setSize = 4;
+                for (final Object item : (Set<?>) value) {
+                    setSize += getSize((String) item);
+                }
+                size = setSize;
+        }
+        
+        return 1 + size;
+    }
+    
+    /**
+     * @return number of bytes {@link #writeString(ByteBuffer, String)} will
+     * use for {@code value}
+     */
+    public static int getSize(String value) {
+        return 4 + getUtf8Length(value);
+    }
+    
+    public static void write(ByteBuffer buffer, Object value) {
+        final byte type = getType(value);
+        buffer.put(type);
+        
+        switch (type) {
+            case TYPE_BOOLEAN:
+                buffer.put((byte) (((Boolean) value) ? 1 : 0));
+                break;
+            
+            case TYPE_FLOAT:
+                buffer.putFloat((Float) value);
+                break;
+            
+            case TYPE_INTEGER:
+                buffer.putInt((Integer) value);
+                break;
+            
+            case TYPE_LONG:
+                buffer.putLong((Long) value);
+                break;
+            
+            case TYPE_STRING:
+                writeString(buffer, (String) value);
+                break;
+            
+            case TYPE_STRING_SET:
+            default:
+                final Set<?> set = (Set<?>) value;
+                buffer.putInt(set.size());
+                for (final Object item : set) {
+                    writeString(buffer, (String) item);
+                }
+        }
+    }
+    
+    /**
+     * @throws IllegalArgumentException if the buffer doesn't hold a valid
+     * value at its position
+     */
+    public static Object read(ByteBuffer buffer) {
+        final byte type = buffer.get();
+        switch (type) {
+            case TYPE_BOOLEAN:
+                return buffer.get() != 0;
+            
+            case TYPE_FLOAT:
+                return buffer.getFloat();
+            
+            case TYPE_INTEGER:
+                return buffer.getInt();
+            
+            case TYPE_LONG:
+                return buffer.getLong();
+            
+            case TYPE_STRING:
+                return readString(buffer);
+            
+            case TYPE_STRING_SET:
+                final int count = readLength(buffer, 4);
+                final Set<String> set = new HashSet<>(count);
+                for (int i = 0; i < count; i++) {
+                    set.add(readString(buffer));
+                }
+                return Collections.unmodifiableSet(set);
+            
+            default:
+                throw new IllegalArgumentException(String.format(
+                        Locale.ENGLISH,
+                        "Unknown value type %1$d",
+                        type));
+        }
+    }
+    
+    public static void writeString(ByteBuffer buffer, String value) {
+        final byte[] bytes = value.getBytes(UTF_8);
+        buffer.putInt(bytes.length);
+        buffer.put(bytes);
+    }
+    
+    /**
+     * @throws IllegalArgumentException if the buffer doesn't hold a valid
+     * string at its position
+     */
+    public static String readString(ByteBuffer buffer) {
+        final int length = readLength(buffer, 1);
+        
+        if (buffer.hasArray()) {
+            final String result = new String(
+                    buffer.array(),
+                    buffer.arrayOffset() + buffer.position(),
+                    length,
+                    UTF_8);
+            buffer.position(buffer.position() + length);
+            
+            return result;
+        } else {
+            final byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            
+            return new String(bytes, UTF_8);
+        }
+    }
+    
+    /**
+     * @return type tag for {@code value}
+     * @throws IllegalArgumentException if the value can't be stored
+     */
+    public static byte getType(Object value) {
+        if (value instanceof Boolean) {
+            return TYPE_BOOLEAN;
+        } else if (value instanceof Float) {
+            return TYPE_FLOAT;
+        } else if (value instanceof Integer) {
+            return TYPE_INTEGER;
+        } else if (value instanceof Long) {
+            return TYPE_LONG;
+        } else if (value instanceof String) {
+            return TYPE_STRING;
+        } else if (value instanceof Set) {
+            return TYPE_STRING_SET;
+        } else {
+            throw new IllegalArgumentException(String.format(
+                    Locale.ENGLISH,
+                    "Values of type %1$s can't be stored",
+                    (value == null) ? null : value.getClass().getName()));
+        }
+    }
+    
+    /**
+     * Copies a set before it gets stored, so that later changes to it by the
+     * caller can't affect the stored value.
+     */
+    public static Object copy(Object value) {
+        if (value instanceof Set) {
+            @SuppressWarnings("unchecked")
+            final Set<String> set = (Set<String>) value;
+            return Collections.unmodifiableSet(new HashSet<>(set));
+        } else {
+            return value;
+        }
+    }
+    
+    /**
+     * @return first {@code length} bytes of {@code bytes} encoded as Base64,
+     * for storing binary data in String values
+     */
+    public static String toBase64(byte[] bytes, int length) {
+        final StringBuilder builder =
+                new StringBuilder((length + 2) / 3 * 4);
+        for (int i = 0; i < length; i += 3) {
+            final int b0 = bytes[i] & 0xff;
+            final int b1 = (i + 1 < length) ? bytes[i + 1] & 0xff : 0;
+            final int b2 = (i + 2 < length) ? bytes[i + 2] & 0xff : 0;
+            
+            builder.append(BASE64[b0 >> 2]);
+            builder.append(BASE64[((b0 & 0x03) << 4) | (b1 >> 4)]);
+            builder.append((i + 1 < length)
+                    ? BASE64[((b1 & 0x0f) << 2) | (b2 >> 6)]
+                    : '=');
+            builder.append((i + 2 < length) ? BASE64[b2 & 0x3f] : '=');
+        }
+        
+        return builder.toString();
+    }
+    
+    /**
+     * @throws IllegalArgumentException if {@code value} isn't valid Base64
+     */
+    public static byte[] fromBase64(String value) {
+        int length = value.length();
+        if (length % 4 != 0) {
+            throw new IllegalArgumentException("Invalid length");
+        }
+        while (length > 0 && value.charAt(length - 1) == '=') {
+            length--;
+        }
+        
+        final byte[] bytes = new byte[length * 3 / 4];
+        int bits = 0;
+        int count = 0;
+        int position = 0;
+        for (int i = 0; i < length; i++) {
+            bits = (bits << 6) | getBase64Value(value.charAt(i));
+            count += 6;
+            if (count >= 8) {
+                count -= 8;
+                bytes[position++] = (byte) (bits >> count);
+            }
+        }
+        
+        return bytes;
+    }
+    
+    /**
+     * Reads a length, checking that at least {@code length * minItemSize}
+     * bytes remain so that a corrupt length can't cause a huge allocation.
+     */
+    private static int readLength(ByteBuffer buffer, int minItemSize) {
+        final int length = buffer.getInt();
+        if (length < 0 || (long) length * minItemSize > buffer.remaining()) {
+            throw new IllegalArgumentException(String.format(
+                    Locale.ENGLISH,
+                    "Invalid length %1$d",
+                    length));
+        }
+        
+        return length;
+    }
+    
+    private static int getBase64Value(char c) {
+        if (c >= 'A' && c <= 'Z') {
+            return c - 'A';
+        } else if (c >= 'a' && c <= 'z') {
+            return c - 'a' + 26;
+        } else if (c >= '0' && c <= '9') {
+            return c - '0' + 52;
+        } else if (c == '+') {
+            return 62;
+        } else if (c == '/') {
+            return 63;
+        } else {
+            throw new IllegalArgumentException("Invalid character " + c);
+        }
+    }
+    
+    private static int getUtf8Length(String value) {
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c)
+                    && i + 1 < value.length()
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                
+                length += 4;
+                i++;
+            } else if (c >= Character.MIN_SURROGATE
+                    && c <= Character.MAX_SURROGATE) {
+                
+                // unpaired surrogates get encoded as '?', not using
+                // Character.isSurrogate() as it only exists from API 19
+                length += 1;
+            } else {
+                length += 3;
+            }
+        }
+        
+        return length;
+    }
+    
+    private ValueCodec() {}
+}
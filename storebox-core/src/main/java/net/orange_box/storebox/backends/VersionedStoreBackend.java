@@ -0,0 +1,32 @@
+/*
+ * Copyright 2015 Martin Bella
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.orange_box.storebox.backends;
+
+/**
+ * {@link StoreBackend} which can take a consistent snapshot of its values
+ * cheaply, without blocking any changes being saved at the same time.
+ * 
+ * @see ReadOnlyStoreBackend#snapshot(StoreBackend)
+ */
+public interface VersionedStoreBackend extends StoreBackend {
+    
+    /**
+     * @return read-only backend holding the values as they are now, which
+     * doesn't change along with this backend
+     */
+    StoreBackend snapshot();
+}
@@ -0,0 +1,423 @@
+/*
+ * Copyright 2015 Martin Bella
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.orange_box.storebox.backends;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Pull parser for the subset of XML used by the files of
+ * {@link android.content.SharedPreferences}, which reads the UTF-8 encoded
+ * bytes of a stream through a fixed buffer without building a tree.
+ * <p>
+ * The prolog, comments, and processing instructions are skipped, character
+ * and predefined entity references are resolved, and an empty element is
+ * reported as a start tag followed by an end tag. Namespaces and DTDs
+ * aren't supported.
+ */
+final class XmlPullReader {
+    
+    static final int START_TAG = 1;
+    static final int END_TAG = 2;
+    static final int TEXT = 3;
+    static final int END_DOCUMENT = 4;
+    
+    private static final int BUFFER_SIZE = 8 * 1024;
+    
+    private final InputStream stream;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int position;
+    private int limit;
+    
+    private final StringBuilder chars = new StringBuilder();
+    
+    private String name;
+    private String text;
+    private String[] attributes = new String[8];
+    private int attributeCount;
+    /**
+     * Whether the start tag just read was for an empty element, so an end
+     * tag should be reported next.
+     */
+    private boolean empty;
+    
+    XmlPullReader(InputStream stream) {
+        this.stream = stream;
+    }
+    
+    /**
+     * @return type of the next event
+     * @throws IOException if the stream couldn't be read, or isn't
+     * well-formed
+     */
+    int next() throws IOException {
+        if (empty) {
+            empty = false;
+            attributeCount = 0;
+            return END_TAG;
+        }
+        
+        while (true) {
+            final int b = read();
+            if (b == -1) {
+                return END_DOCUMENT;
+            } else if (b != '<') {
+                text = readText(b);
+                return TEXT;
+            }
+            
+            final int c = read();
+            switch (c) {
+                case '?':
+                    skipPast("?>");
+                    break;
+                
+                case '!':
+                    if (skipMarkup()) {
+                        return TEXT;
+                    }
+                    break;
+                
+                case '/':
+                    name = readName(read());
+                    if (skipWhitespace() != '>') {
+                        throw error("Unterminated end tag " + name);
+                    }
+                    attributeCount = 0;
+                    return END_TAG;
+                
+                default:
+                    name = readName(c);
+                    readAttributes();
+                    return START_TAG;
+            }
+        }
+    }
+    
+    /**
+     * @return name of the current start or end tag
+     */
+    String getName() {
+        return name;
+    }
+    
+    /**
+     * @return content of the current text event
+     */
+    String getText() {
+        return text;
+    }
+    
+    /**
+     * @return value of the attribute of the current start tag, or
+     * {@code null} if it doesn't have one with {@code name}
+     */
+    String getAttribute(String name) {
+        for (int i = 0; i < attributeCount; i += 2) {
+            if (attributes[i].equals(name)) {
+                return attributes[i + 1];
+            }
+        }
+        
+        return null;
+    }
+    
+    private void readAttributes() throws IOException {
+        attributeCount = 0;
+        while (true) {
+            final int b = skipWhitespace();
+            if (b == '>') {
+                return;
+            } else if (b == '/') {
+                if (read() != '>') {
+                    throw error("Unterminated start tag " + name);
+                }
+                empty = true;
+                return;
+            }
+            
+            final String key = readName(b);
+            if (skipWhitespace() != '=') {
+                throw error("Attribute " + key + " without a value");
+            }
+            final int quote = skipWhitespace();
+            if (quote != '"' && quote != '\'') {
+                throw error("Unquoted value of attribute " + key);
+            }
+            
+            if (attributeCount == attributes.length) {
+                attributes = Arrays.copyOf(attributes, attributeCount * 2);
+            }
+            attributes[attributeCount++] = key;
+            attributes[attributeCount++] = readValue(quote);
+        }
+    }
+    
+    /**
+     * Skips a comment or DOCTYPE declaration, or reads a CDATA section.
+     * 
+     * @return whether a CDATA section was read into {@link #text}
+     */
+    private boolean skipMarkup() throws IOException {
+        final int b = read();
+        if (b == '-') {
+            if (read() != '-') {
+                throw error("Malformed comment");
+            }
+            skipPast("-->");
+            return false;
+        } else if (b == '[') {
+            for (int i = 0; i < "CDATA[".length(); i++) {
+                if (read() != "CDATA[".charAt(i)) {
+                    throw error("Malformed CDATA section");
+                }
+            }
+            
+            chars.setLength(0);
+            int matched = 0;
+            while (matched < 3) {
+                final int c = read();
+                if (c == -1) {
+                    throw error("Unterminated CDATA section");
+                }
+                
+                if (c == ']' && matched < 2) {
+                    matched++;
+                } else if (c == '>' && matched == 2) {
+                    matched++;
+                } else {
+                    for (; matched > 0; matched--) {
+                        chars.append(']');
+                    }
+                    if (c == ']') {
+                        matched = 1;
+                    } else {
+                        appendDecoded(c);
+                    }
+                }
+            }
+            text = chars.toString();
+            return true;
+        } else {
+            skipPast(">");
+            return false;
+        }
+    }
+    
+    private String readName(int b) throws IOException {
+        chars.setLength(0);
+        while (b != -1
+                && b != '>'
+                && b != '/'
+                && b != '='
+                && !isWhitespace(b)) {
+            
+            appendDecoded(b);
+            b = read();
+        }
+        if (chars.length() == 0) {
+            throw error("Missing name");
+        }
+        
+        if (b != -1) {
+            // the delimiter still needs to be seen by the caller
+            position--;
+        }
+        return chars.toString();
+    }
+    
+    private String readValue(int quote) throws IOException {
+        chars.setLength(0);
+        while (true) {
+            final int b = read();
+            if (b == quote) {
+                return chars.toString();
+            } else if (b == -1 || b == '<') {
+                throw error("Unterminated attribute value");
+            } else if (b == '&') {
+                readReference();
+            } else {
+                appendDecoded(b);
+            }
+        }
+    }
+    
+    private String readText(int b) throws IOException {
+        chars.setLength(0);
+        while (b != -1 && b != '<') {
+            if (b == '&') {
+                readReference();
+            } else {
+                appendDecoded(b);
+            }
+            b = read();
+        }
+        if (b == '<') {
+            position--;
+        }
+        
+        return chars.toString();
+    }
+    
+    private void readReference() throws IOException {
+        final int start = chars.length();
+        int b;
+        while ((b = read()) != ';') {
+            if (b == -1 || chars.length() - start > 10) {
+                throw error("Unterminated reference");
+            }
+            chars.append((char) b);
+        }
+        final String reference = chars.substring(start);
+        chars.setLength(start);
+        
+        switch (reference) {
+            case "lt":
+                chars.append('<');
+                break;
+            
+            case "gt":
+                chars.append('>');
+                break;
+            
+            case "amp":
+                chars.append('&');
+                break;
+            
+            case "quot":
+                chars.append('"');
+                break;
+            
+            case "apos":
+                chars.append('\'');
+                break;
+            
+            default:
+                if (!reference.startsWith("#")) {
+                    throw error("Unknown entity " + reference);
+                }
+                
+                try {
+                    chars.appendCodePoint(reference.startsWith("#x")
+                            ? Integer.parseInt(reference.substring(2), 16)
+                            : Integer.parseInt(reference.substring(1)));
+                } catch (IllegalArgumentException e) {
+                    throw error("Invalid character reference " + reference);
+                }
+        }
+    }
+    
+    /**
+     * Appends the character starting with byte {@code b}, reading any
+     * further bytes of its UTF-8 encoding.
+     */
+    private void appendDecoded(int b) throws IOException {
+        if (b < 0x80) {
+            chars.append((char) b);
+            return;
+        }
+        
+        final int count;
+        int codePoint;
+        if ((b & 0xE0) == 0xC0) {
+            count = 1;
+            codePoint = b & 0x1F;
+        } else if ((b & 0xF0) == 0xE0) {
+            count = 2;
+            codePoint = b & 0x0F;
+        } else if ((b & 0xF8) == 0xF0) {
+            count = 3;
+            codePoint = b & 0x07;
+        } else {
+            throw error("Malformed UTF-8");
+        }
+        
+        for (int i = 0; i < count; i++) {
+            final int c = read();
+            if ((c & 0xC0) != 0x80) {
+                throw error("Malformed UTF-8");
+            }
+            codePoint = (codePoint << 6) | (c & 0x3F);
+        }
+        
+        if (codePoint > Character.MAX_CODE_POINT) {
+            throw error("Malformed UTF-8");
+        }
+        chars.appendCodePoint(codePoint);
+    }
+    
+    private void skipPast(String terminator) throws IOException {
+        int matched = 0;
+        while (matched < terminator.length()) {
+            final int b = read();
+            if (b == -1) {
+                throw error("Expected " + terminator);
+            }
+            
+            if (b == terminator.charAt(matched)) {
+                matched++;
+            } else {
+                matched = (b == terminator.charAt(0)) ? 1 : 0;
+            }
+        }
+    }
+    
+    /**
+     * @return first byte which isn't whitespace
+     */
+    private int skipWhitespace() throws IOException {
+        int b;
+        do {
+            b = read();
+        } while (isWhitespace(b));
+        
+        return b;
+    }
+    
+    private int read() throws IOException {
+        if (position == limit) {
+            // keeps the last byte so that it can be read again
+            if (limit > 0) {
+                buffer[0] = buffer[limit - 1];
+                position = limit = 1;
+            }
+            
+            final int count =
+                    stream.read(buffer, limit, buffer.length - limit);
+            if (count <= 0) {
+                return -1;
+            }
+            limit += count;
+        }
+        
+        return buffer[position++] & 0xFF;
+    }
+    
+    private IOException error(String message) {
+        return new IOException(String.format(
+                Locale.ENGLISH,
+                "%1$s in %2$s",
+                message,
+                (name == null) ? "prolog" : "<" + name + ">"));
+    }
+    
+    private static boolean isWhitespace(int b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == '\r';
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2015 Martin Bella
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.orange_box.storebox.backends;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Writes XML to a channel, encoding the characters as UTF-8 straight into a
+ * fixed buffer which gets written out whenever it fills up.
+ */
+final class XmlWriter {
+    
+    private static final int BUFFER_SIZE = 8 * 1024;
+    /**
+     * Longest UTF-8 encoding of a character, or of a surrogate pair.
+     */
+    private static final int MAX_ENCODED_SIZE = 4;
+    
+    private final WritableByteChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    
+    XmlWriter(WritableByteChannel channel) {
+        this.channel = channel;
+    }
+    
+    /**
+     * Writes {@code markup} as it is, which needs to be ASCII.
+     */
+    XmlWriter raw(String markup) throws IOException {
+        for (int i = 0; i < markup.length(); i++) {
+            if (!buffer.hasRemaining()) {
+                drain();
+            }
+            buffer.put((byte) markup.charAt(i));
+        }
+        
+        return this;
+    }
+    
+    /**
+     * Writes {@code value} escaped so that it can be used in text as well
+     * as in a quoted attribute value.
+     */
+    XmlWriter escaped(String value) throws IOException {
+        final int length = value.length();
+        for (int i = 0; i < length; i++) {
+            if (buffer.remaining() < MAX_ENCODED_SIZE) {
+                drain();
+            }
+            
+            final char c = value.charAt(i);
+            if (c < 0x80) {
+                switch (c) {
+                    case '<':
+                        raw("&lt;");
+                        break;
+                    
+                    case '>':
+                        raw("&gt;");
+                        break;
+                    
+                    case '&':
+                        raw("&amp;");
+                        break;
+                    
+                    case '"':
+                        raw("&quot;");
+                        break;
+                    
+                    default:
+                        if (c < 0x20) {
+                            // as written by Android, so line breaks survive
+                            raw("&#").raw(Integer.toString(c)).raw(";");
+                        } else {
+                            buffer.put((byte) c);
+                        }
+                }
+            } else if (c < 0x800) {
+                buffer.put((byte) (0xC0 | (c >> 6)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c)
+                    && i + 1 < length
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                
+                final int codePoint =
+                        Character.toCodePoint(c, value.charAt(++i));
+                buffer.put((byte) (0xF0 | (codePoint >> 18)));
+                buffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+                buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (codePoint & 0x3F)));
+            } else {
+                buffer.put((byte) (0xE0 | (c >> 12)));
+                buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+        
+        return this;
+    }
+    
+    /**
+     * Writes out whatever is left in the buffer.
+     */
+    void flush() throws IOException {
+        drain();
+    }
+    
+    private void drain() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
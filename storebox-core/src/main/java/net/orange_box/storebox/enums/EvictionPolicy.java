@@ -0,0 +1,39 @@
+/*
+ * Copyright 2015 Martin Bella
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.orange_box.storebox.enums;
+
+/**
+ * Decides which values get evicted from memory by the
+ * {@link StoreEngine#TIERED} engine once its budget is exceeded.
+ * 
+ * @see net.orange_box.storebox.annotations.option.TierOption
+ */
+public enum EvictionPolicy {
+
+    /**
+     * Evicts the least recently used values.
+     */
+    LRU,
+
+    /**
+     * Default. Admits values into the bulk of the budget based on how often
+     * they've been used recently, so that a scan over many values used only
+     * once doesn't evict the frequently used ones. Recently added values get
+     * a small window of the budget, in which they're kept regardless.
+     */
+    W_TINY_LFU
+}
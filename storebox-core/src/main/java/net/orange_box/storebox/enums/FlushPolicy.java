@@ -0,0 +1,46 @@
+/*
+ * Copyright 2015 Martin Bella
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.orange_box.storebox.enums;
+
+/**
+ * Decides when changes saved to a file-based backend get synced to disk.
+ * 
+ * @see net.orange_box.storebox.backends.FlushScheduler
+ */
+public enum FlushPolicy {
+
+    /**
+     * Default. Committing syncs straight away, whereas applying syncs on a
+     * background thread.
+     */
+    PER_WRITE,
+
+    /**
+     * Changes get synced together with the changes to any other backends
+     * saved within the same interval, in a single flush cycle. Committing
+     * waits for the cycle to complete.
+     */
+    GROUPED,
+
+    /**
+     * Changes only get synced once
+     * {@link net.orange_box.storebox.backends.FlushScheduler#barrier()} is
+     * called, or a grouped flush cycle runs. Committing doesn't wait for the
+     * changes to be synced.
+     */
+    BARRIER
+}
@@ -16,8 +16,10 @@
 
 package net.orange_box.storebox.enums;
 
-import android.content.Context;
-
+/**
+ * The values match the {@code android.content.Context} constants, which are
+ * duplicated here so that the enum doesn't depend on the Android APIs.
+ */
 public enum PreferencesMode {
 
     /**
@@ -25,24 +27,27 @@ public enum PreferencesMode {
      * 
      * @see android.content.Context#MODE_PRIVATE
      */
-    MODE_PRIVATE(Context.MODE_PRIVATE),
+    MODE_PRIVATE(0x0000),
     
     /**
+     * Deprecated by the framework, so
+     * {@link StoreEngine#MULTI_PROCESS} should be preferred.
+     * 
      * @see android.content.Context#MODE_MULTI_PROCESS
      */
-    MODE_MULTI_PROCESS(Context.MODE_MULTI_PROCESS),
+    MODE_MULTI_PROCESS(0x0004),
     
     /**
      * @see android.content.Context#MODE_WORLD_READABLE
      */
     @Deprecated
-    MODE_WORLD_READABLE(Context.MODE_WORLD_READABLE),
+    MODE_WORLD_READABLE(0x0001),
     
     /**
      * @see android.content.Context#MODE_WORLD_WRITEABLE
      */
     @Deprecated
-    MODE_WORLD_WRITEABLE(Context.MODE_WORLD_WRITEABLE);
+    MODE_WORLD_WRITEABLE(0x0002);
     
     private final int value;
     
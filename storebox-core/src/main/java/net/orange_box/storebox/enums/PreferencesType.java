@@ -37,5 +37,14 @@ public enum PreferencesType {
      * @see net.orange_box.storebox.annotations.type.FilePreferences
      * @see android.content.Context#getSharedPreferences(String, int)
      */
-    FILE
+    FILE,
+
+    /**
+     * Keeps the values in memory for as long as the process lives, without
+     * ever reading or writing a file.
+     * 
+     * @see net.orange_box.storebox.annotations.type.MemoryPreferences
+     * @see net.orange_box.storebox.backends.MemoryBackends
+     */
+    MEMORY
 }
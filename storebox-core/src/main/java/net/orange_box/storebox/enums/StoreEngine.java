@@ -0,0 +1,79 @@
+/*
+ * Copyright 2015 Martin Bella
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.orange_box.storebox.enums;
+
+public enum StoreEngine {
+
+    /**
+     * Default.
+     * 
+     * @see android.content.SharedPreferences
+     */
+    SHARED_PREFERENCES,
+
+    /**
+     * Stores values in a memory-mapped append-only log, which only needs to
+     * write the changed values when saving.
+     * 
+     * @see net.orange_box.storebox.backends.LogStoreBackend
+     */
+    LOG,
+
+    /**
+     * Stores values in a compact binary file which can be loaded with a
+     * single read, and gets rewritten as a whole when saving.
+     * 
+     * @see net.orange_box.storebox.backends.SnapshotStoreBackend
+     */
+    SNAPSHOT,
+
+    /**
+     * Keeps values on disk in a B+tree, reading only the pages needed by
+     * each get, for preferences with too many values to be kept in memory.
+     * 
+     * @see net.orange_box.storebox.backends.BTreeStoreBackend
+     */
+    BTREE,
+
+    /**
+     * Gives each boolean, float, int and long key declared through
+     * {@link net.orange_box.storebox.annotations.method.KeyByString} a fixed
+     * offset in a memory-mapped file, keeping any other values in a log.
+     * 
+     * @see net.orange_box.storebox.backends.SlottedStoreBackend
+     */
+    SLOTTED,
+
+    /**
+     * Stores values in a compact binary file which can be written to by
+     * several processes, with each process picking up the changes made by
+     * the others when the file's sequence number moves.
+     * 
+     * @see net.orange_box.storebox.backends.MultiProcessStoreBackend
+     */
+    MULTI_PROCESS,
+
+    /**
+     * Keeps values on disk in the same way as {@link #BTREE}, but also keeps
+     * the ones used most within a budget decoded in memory.
+     * 
+     * @see net.orange_box.storebox.backends.TieredStoreBackend
+     * @see net.orange_box.storebox.annotations.option.TierOption
+     */
+    TIERED
+}
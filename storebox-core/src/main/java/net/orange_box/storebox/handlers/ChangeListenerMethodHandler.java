@@ -16,7 +16,6 @@
 
 package net.orange_box.storebox.handlers;
 
-import android.content.SharedPreferences;
 import android.support.annotation.Nullable;
 
 import net.jodah.typetools.TypeResolver;
@@ -24,6 +23,7 @@ import net.orange_box.storebox.adapters.StoreBoxTypeAdapter;
 import net.orange_box.storebox.annotations.method.RegisterChangeListenerMethod;
 import net.orange_box.storebox.annotations.method.UnregisterChangeListenerMethod;
 import net.orange_box.storebox.annotations.method.TypeAdapter;
+import net.orange_box.storebox.backends.StoreBackend;
 import net.orange_box.storebox.listeners.OnPreferenceValueChangedListener;
 import net.orange_box.storebox.utils.PreferenceUtils;
 import net.orange_box.storebox.utils.TypeUtils;
@@ -43,17 +43,17 @@ import java.util.concurrent.ConcurrentHashMap;
  */
 public class ChangeListenerMethodHandler implements
         MethodHandler,
-        SharedPreferences.OnSharedPreferenceChangeListener {
+        StoreBackend.Listener {
     
-    private final SharedPreferences prefs;
+    private final StoreBackend backend;
     private final Map<String, Set<ListenerInfo>> listeners;
     
-    public ChangeListenerMethodHandler(SharedPreferences prefs) {
-        this.prefs = prefs;
+    public ChangeListenerMethodHandler(StoreBackend backend) {
+        this.backend = backend;
 
         listeners = new ConcurrentHashMap<>();
         
-        prefs.registerOnSharedPreferenceChangeListener(this);
+        backend.registerListener(this);
     }
 
     @Override
@@ -109,9 +109,7 @@ public class ChangeListenerMethodHandler implements
     }
 
     @Override
-    public void onSharedPreferenceChanged(
-            SharedPreferences sharedPreferences, 
-            String key) {
+    public void onValueChanged(StoreBackend backend, String key) {
         
         final Set<ListenerInfo> listeners = this.listeners.get(key);
         if (listeners != null) {
@@ -121,7 +119,7 @@ public class ChangeListenerMethodHandler implements
                 final StoreBoxTypeAdapter adapter = listenerInfo.getAdapter();
 
                 final Object newValue = PreferenceUtils.getValue(
-                        prefs,
+                        backend,
                         key,
                         adapter.getStoreType(),
                         adapter.getDefaultValue());
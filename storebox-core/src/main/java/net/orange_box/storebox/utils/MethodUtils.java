@@ -16,10 +16,11 @@
 
 package net.orange_box.storebox.utils;
 
-import android.content.res.Resources;
+import net.orange_box.storebox.ValueResolver;
 
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Method;
+import java.util.Arrays;
 
 public final class MethodUtils {
     
@@ -35,7 +36,9 @@ public final class MethodUtils {
         return false;
     }
     
-    public static String getKeyForRemove(Resources res, Object... args) {
+    public static String getKeyForRemove(
+            ValueResolver resolver, Object... args) {
+        
         if (args != null && args.length > 0) {
             final Object value = args[0];
             final Class<?> type = TypeUtils.wrapToBoxedType(value.getClass());
@@ -43,7 +46,7 @@ public final class MethodUtils {
             if (type == String.class) {
                 return (String) value;
             } else if (type == Integer.class) {
-                return res.getString((int) value);
+                return resolver.getString((int) value);
             } else {
                 throw new UnsupportedOperationException(
                         "Only String or int supported for remove method");
@@ -81,5 +84,31 @@ public final class MethodUtils {
         }
     }
     
+    /**
+     * Looks for a public method on {@code cls}, including inherited ones,
+     * with the same name and parameter types as {@code method}.
+     * 
+     * @return the matching method made accessible, or {@code null} if one
+     * couldn't be found
+     */
+    public static Method findMatchingMethod(Class<?> cls, Method method) {
+        final Class<?>[] types = method.getParameterTypes();
+        for (final Method candidate : cls.getMethods()) {
+            if (candidate.getName().equals(method.getName())
+                    && Arrays.equals(candidate.getParameterTypes(), types)) {
+                
+                /*
+                 * Implementations are often not public classes, in which case
+                 * the method couldn't be invoked through reflection even when
+                 * it's public itself.
+                 */
+                candidate.setAccessible(true);
+                return candidate;
+            }
+        }
+        
+        return null;
+    }
+    
     private MethodUtils() {}
 }
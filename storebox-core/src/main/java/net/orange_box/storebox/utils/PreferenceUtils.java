@@ -0,0 +1,227 @@
+/*
+ * Copyright 2015 Martin Bella
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.orange_box.storebox.utils;
+
+import net.orange_box.storebox.StartupProfiler;
+import net.orange_box.storebox.adapters.StoreBoxTypeAdapter;
+import net.orange_box.storebox.adapters.StoreType;
+import net.orange_box.storebox.backends.SpillingStoreBackend;
+import net.orange_box.storebox.backends.StoreBackend;
+import net.orange_box.storebox.enums.SaveMode;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Locale;
+import java.util.Set;
+
+public final class PreferenceUtils {
+    
+    public static Object getValue(
+            StoreBackend backend,
+            String key,
+            StoreType type,
+            Object defValue) {
+        
+        switch (type) {
+            case BOOLEAN:
+                return backend.getBoolean(key, (Boolean) defValue);
+            
+            case FLOAT:
+                return backend.getFloat(key, (Float) defValue);
+            
+            case INTEGER:
+                return backend.getInt(key, (Integer) defValue);
+            
+            case LONG:
+                return backend.getLong(key, (Long) defValue);
+            
+            case STRING:
+                return backend.getString(key, (String) defValue);
+            
+            case STRING_SET:
+                return backend.getStringSet(key, (Set<String>) defValue);
+
+            default:
+                throw new UnsupportedOperationException(String.format(
+                        Locale.ENGLISH,
+                        "Retrieving type %1$s from the preferences is not supported",
+                        type.name()));
+        }
+    }
+    
+    /**
+     * @return value stored for {@code key} adapted through {@code adapter},
+     * which may have been decoded ahead of time by the
+     * {@link StartupProfiler}
+     */
+    @SuppressWarnings("unchecked")
+    public static Object getAdaptedValue(
+            StoreBackend backend,
+            String key,
+            StoreBoxTypeAdapter adapter,
+            Object defValue) {
+        
+        final Object value =
+                getValue(backend, key, adapter.getStoreType(), defValue);
+        final Object decoded = StartupProfiler.takeDecoded(adapter, value);
+        return (decoded != null)
+                ? decoded
+                : adapter.adaptFromPreferences(value);
+    }
+    
+    public static void putValue(
+            StoreBackend.Editor editor,
+            String key,
+            StoreType type,
+            Object value) {
+        
+        switch (type) {
+            case BOOLEAN:
+                editor.putBoolean(key, (Boolean) value);
+                break;
+            
+            case FLOAT:
+                editor.putFloat(key, (Float) value);
+                break;
+            
+            case INTEGER:
+                editor.putInt(key, (Integer) value);
+                break;
+            
+            case LONG:
+                editor.putLong(key, (Long) value);
+                break;
+            
+            case STRING:
+                editor.putString(key, (String) value);
+                break;
+            
+            case STRING_SET:
+                editor.putStringSet(key, (Set<String>) value);
+                break;
+            
+            default:
+                throw new UnsupportedOperationException(String.format(
+                        Locale.ENGLISH,
+                        "Saving type %1$s into the preferences is not supported",
+                        type.name()));
+        }
+    }
+    
+    /**
+     * @param type - {@link InputStream}, {@link ReadableByteChannel}, or
+     * {@link ByteBuffer}, the latter of which gets memory-mapped
+     * @return blob of {@code key} as {@code type}, or null if there isn't one
+     */
+    public static Object getBlob(
+            SpillingStoreBackend backend,
+            String key,
+            Class<?> type) {
+        
+        final FileChannel channel = backend.openBlob(key);
+        if (channel == null) {
+            return null;
+        }
+        
+        if (type == InputStream.class) {
+            return Channels.newInputStream(channel);
+        } else if (type == ReadableByteChannel.class) {
+            return channel;
+        } else if (type == ByteBuffer.class) {
+            try {
+                try {
+                    return channel.map(
+                            FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                } finally {
+                    // the mapping stays valid after the channel gets closed
+                    channel.close();
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(String.format(
+                        Locale.ENGLISH,
+                        "Failed to map blob %1$s",
+                        key), e);
+            }
+        } else {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // NOP
+            }
+            
+            throw new UnsupportedOperationException(String.format(
+                    Locale.ENGLISH,
+                    "Retrieving blob %1$s as %2$s is not supported",
+                    key,
+                    type.getName()));
+        }
+    }
+    
+    /**
+     * @param value - {@link InputStream}, {@link ReadableByteChannel}, or
+     * {@link ByteBuffer} whose remaining bytes should be stored, or null to
+     * remove the blob
+     */
+    public static void putBlob(
+            SpillingStoreBackend backend,
+            StoreBackend.Editor editor,
+            String key,
+            Object value) {
+        
+        if (value == null) {
+            editor.remove(key);
+        } else if (value instanceof InputStream) {
+            editor.putString(key, backend.writeBlob(
+                    Channels.newChannel((InputStream) value)));
+        } else if (value instanceof ReadableByteChannel) {
+            editor.putString(
+                    key, backend.writeBlob((ReadableByteChannel) value));
+        } else if (value instanceof ByteBuffer) {
+            editor.putString(key, backend.writeBlob((ByteBuffer) value));
+        } else {
+            throw new UnsupportedOperationException(String.format(
+                    Locale.ENGLISH,
+                    "Saving %1$s as a blob is not supported",
+                    value.getClass().getName()));
+        }
+    }
+    
+    public static void saveChanges(
+            StoreBackend.Editor editor,
+            SaveMode mode) {
+        
+        switch (mode) {
+            case APPLY:
+                editor.apply();
+                break;
+
+            case COMMIT:
+                editor.commit();
+                break;
+
+            case NOME:
+            default:
+                // NOP
+        }
+    }
+    
+    private PreferenceUtils() {}
+}
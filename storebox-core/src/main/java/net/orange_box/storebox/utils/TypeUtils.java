@@ -0,0 +1,232 @@
+/*
+ * Copyright 2015 Martin Bella
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.orange_box.storebox.utils;
+
+import net.orange_box.storebox.adapters.extra.DateTypeAdapter;
+import net.orange_box.storebox.adapters.extra.DoubleTypeAdapter;
+import net.orange_box.storebox.adapters.extra.EnumTypeAdapter;
+import net.orange_box.storebox.adapters.StoreBoxTypeAdapter;
+import net.orange_box.storebox.adapters.StoreType;
+import net.orange_box.storebox.adapters.standard.BlobTypeAdapter;
+import net.orange_box.storebox.adapters.standard.BooleanTypeAdapter;
+import net.orange_box.storebox.adapters.standard.FloatTypeAdapter;
+import net.orange_box.storebox.adapters.standard.IntegerTypeAdapter;
+import net.orange_box.storebox.adapters.standard.LongTypeAdapter;
+import net.orange_box.storebox.adapters.standard.StringSetTypeAdapter;
+import net.orange_box.storebox.adapters.standard.StringTypeAdapter;
+import net.orange_box.storebox.annotations.method.TypeAdapter;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+public final class TypeUtils {
+    
+    private static final Map<Class<?>, Class<?>> PRIMITIVE_TO_BOXED_MAP;
+    static {
+        final Map<Class<?>, Class<?>> map = new HashMap<>(5);
+        // standard
+        map.put(boolean.class, Boolean.class);
+        map.put(float.class, Float.class);
+        map.put(int.class, Integer.class);
+        map.put(long.class, Long.class);
+        // extra
+        map.put(double.class, Double.class);
+        
+        PRIMITIVE_TO_BOXED_MAP = map;
+    }
+    
+    private static final Map<Class<?>, StoreBoxTypeAdapter> ADAPTERS_MAP;
+    static {
+        final Map<Class<?>, StoreBoxTypeAdapter> map =
+                new ConcurrentHashMap<>(13);
+        
+        // standard
+        map.put(Boolean.class, new BooleanTypeAdapter());
+        map.put(Float.class, new FloatTypeAdapter());
+        map.put(Integer.class, new IntegerTypeAdapter());
+        map.put(Long.class, new LongTypeAdapter());
+        map.put(String.class, new StringTypeAdapter());
+        map.put(Set.class, new StringSetTypeAdapter());
+        
+        // streaming
+        final BlobTypeAdapter blobs = new BlobTypeAdapter();
+        map.put(InputStream.class, blobs);
+        map.put(OutputStream.class, blobs);
+        map.put(ReadableByteChannel.class, blobs);
+        map.put(ByteBuffer.class, blobs);
+        
+        // extra
+        map.put(Date.class, new DateTypeAdapter());
+        map.put(Double.class, new DoubleTypeAdapter());
+        // Uri gets registered by the Android library
+        
+        ADAPTERS_MAP = map;
+    }
+    
+    private static final ConcurrentMap<
+            Class<? extends StoreBoxTypeAdapter>, StoreBoxTypeAdapter>
+            INSTANCES_MAP = new ConcurrentHashMap<>();
+    
+    public static Class<?> wrapToBoxedType(Class<?> type) {
+        if (type.isPrimitive() && PRIMITIVE_TO_BOXED_MAP.containsKey(type)) {
+            return PRIMITIVE_TO_BOXED_MAP.get(type);
+        } else {
+            return type;
+        }
+    }
+    
+    public static StoreBoxTypeAdapter getTypeAdapter(
+            Class<?> type,
+            TypeAdapter annotation) {
+        
+        if (annotation == null) {
+            return getTypeAdapter(type);
+        } else {
+            return getTypeAdapter(
+                    type, annotation.value(), annotation.shared());
+        }
+    }
+    
+    public static StoreBoxTypeAdapter getTypeAdapter(
+            Class<?> type,
+            Class<? extends StoreBoxTypeAdapter> adapterClass) {
+        
+        return getTypeAdapter(type, adapterClass, true);
+    }
+    
+    public static StoreBoxTypeAdapter getTypeAdapter(
+            Class<?> type,
+            Class<? extends StoreBoxTypeAdapter> adapterClass,
+            boolean shared) {
+        
+        if (adapterClass == null) {
+            return getTypeAdapter(type);
+        } else if (!shared) {
+            return newTypeAdapter(adapterClass);
+        }
+        
+        StoreBoxTypeAdapter adapter = INSTANCES_MAP.get(adapterClass);
+        if (adapter == null) {
+            adapter = newTypeAdapter(adapterClass);
+            
+            final StoreBoxTypeAdapter existing =
+                    INSTANCES_MAP.putIfAbsent(adapterClass, adapter);
+            if (existing != null) {
+                adapter = existing;
+            }
+        }
+        
+        return adapter;
+    }
+    
+    /**
+     * Registers an adapter to be used for {@code type} when methods don't
+     * declare one through {@link TypeAdapter}, replacing any adapter which
+     * may have been registered previously for the type.
+     */
+    public static void registerTypeAdapter(
+            Class<?> type,
+            StoreBoxTypeAdapter adapter) {
+        
+        ADAPTERS_MAP.put(type, adapter);
+    }
+    
+    /**
+     * Registers an instance to be used by all methods declaring its class
+     * through {@link TypeAdapter}, unless they opt out of sharing it.
+     * Replaces any instance which may have been registered or created
+     * previously, although methods which have already been invoked will keep
+     * on using the previous instance.
+     */
+    public static void registerTypeAdapter(StoreBoxTypeAdapter adapter) {
+        INSTANCES_MAP.put(adapter.getClass(), adapter);
+    }
+    
+    private static StoreBoxTypeAdapter newTypeAdapter(
+            Class<? extends StoreBoxTypeAdapter> adapterClass) {
+        
+        try {
+            return adapterClass.newInstance();
+        } catch (InstantiationException e) {
+            throw new RuntimeException(String.format(
+                    Locale.ENGLISH,
+                    "Failed to instantiate %1$s, perhaps the no-arguments " +
+                            "constructor is missing?",
+                    adapterClass.getSimpleName()),
+                    e);
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException(String.format(
+                    Locale.ENGLISH,
+                    "Failed to instantiate %1$s, perhaps the no-arguments " +
+                            "constructor is not public?",
+                    adapterClass.getSimpleName()),
+                    e);
+        }
+    }
+    
+    @SuppressWarnings("unchecked")
+    public static StoreBoxTypeAdapter getTypeAdapter(Class<?> type) {
+        StoreBoxTypeAdapter adapter = ADAPTERS_MAP.get(type);
+        
+        if (adapter == null && type.isEnum()) {
+            // enums have a special type adapter
+            adapter = new EnumTypeAdapter((Class<Enum>) type);
+            ADAPTERS_MAP.put(type, adapter);
+        }
+        
+        if (adapter != null) {
+            return adapter;
+        }
+
+        throw new RuntimeException(String.format(
+                Locale.ENGLISH,
+                "Failed to find type adapter for %1$s",
+                type.getName()));
+    }
+    
+    /**
+     * @return whether values of {@code type} get stored as
+     * {@code storeType} when methods don't declare an adapter
+     */
+    public static boolean isStoredAs(Class<?> type, StoreType storeType) {
+        final StoreBoxTypeAdapter adapter =
+                ADAPTERS_MAP.get(wrapToBoxedType(type));
+        
+        return adapter != null && adapter.getStoreType() == storeType;
+    }
+    
+    public static void checkDefaultValueType(Class<?> type, Object value) {
+        if (!type.isAssignableFrom(value.getClass())) {
+            throw new UnsupportedOperationException(String.format(
+                    Locale.ENGLISH,
+                    "Return type %1$s and default value type %2$s not the same",
+                    value.getClass().getName(),
+                    type.getName()));
+        }
+    }
+    
+    private TypeUtils() {}
+}
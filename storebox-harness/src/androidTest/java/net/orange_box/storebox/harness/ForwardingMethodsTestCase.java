@@ -30,6 +30,7 @@ import net.orange_box.storebox.harness.interfaces.ForwardingMethodsInterface;
 
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -88,6 +89,37 @@ public class ForwardingMethodsTestCase extends ActivityUnitTestCase<TestActivity
         verify(editor).putString(eq("key"), eq("value"));
         verify(editor).apply();
     }
+    
+    @SmallTest
+    public void testMethodsForwardedRepeatedly() {
+        uut.getString("key", "default");
+        uut.getString("key", "default");
+        uut.putString("key", "value");
+        uut.putString("key", "value");
+        
+        verify(prefs, times(2)).getString(eq("key"), eq("default"));
+        verify(editor, times(2)).putString(eq("key"), eq("value"));
+    }
+    
+    @SmallTest
+    public void testUnknownMethodsFailRepeatedly() {
+        final UnknownMethodInterface unknown =
+                StoreBox.create(getActivity(), UnknownMethodInterface.class);
+        
+        for (int i = 0; i < 2; i++) {
+            try {
+                unknown.unknown();
+                fail();
+            } catch (UnsupportedOperationException e) {
+                // NOP
+            }
+        }
+    }
+    
+    private interface UnknownMethodInterface {
+        
+        void unknown();
+    }
 
     private static class InjectedContext extends ContextWrapper {
 
@@ -35,6 +35,7 @@ import net.orange_box.storebox.harness.interfaces.PreferencesModeWorldReadableIn
 import net.orange_box.storebox.harness.interfaces.PreferencesTypeActivityInterface;
 import net.orange_box.storebox.harness.interfaces.PreferencesTypeDefaultSharedInterface;
 import net.orange_box.storebox.harness.interfaces.PreferencesTypeFileInterface;
+import net.orange_box.storebox.harness.interfaces.PreferencesTypeMemoryInterface;
 
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -87,6 +88,24 @@ public class PreferencesTypeAndModeTestCase extends ActivityUnitTestCase<TestAct
         assertEquals(0, count.get());
     }
     
+    @SmallTest
+    public void testTypeMemory() {
+        final AtomicInteger count = new AtomicInteger(0);
+        setActivityContext(new InjectedContext(
+                getInstrumentation(), null, null, count));
+        startActivity();
+        
+        final PreferencesTypeMemoryInterface first = StoreBox.create(
+                getActivity(), PreferencesTypeMemoryInterface.class);
+        final PreferencesTypeMemoryInterface second = StoreBox.create(
+                getActivity(), PreferencesTypeMemoryInterface.class);
+        first.setInt(1);
+        
+        // shared by name, and never opened from a file
+        assertEquals(1, second.getInt());
+        assertEquals(0, count.get());
+    }
+    
     @SmallTest
     public void testModePrivate() {
         final AtomicInteger count = new AtomicInteger(1);
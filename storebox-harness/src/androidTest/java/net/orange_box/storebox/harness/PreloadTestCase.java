@@ -0,0 +1,102 @@
+/*
+ * Copyright 2015 Martin Bella
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.orange_box.storebox.harness;
+
+import android.content.Context;
+import android.test.InstrumentationTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import net.orange_box.storebox.Preload;
+import net.orange_box.storebox.StoreBox;
+import net.orange_box.storebox.harness.interfaces.PreferencesTypeFileInterface;
+import net.orange_box.storebox.harness.interfaces.PreferencesTypeMemoryInterface;
+import net.orange_box.storebox.harness.interfaces.engines.JournaledInterface;
+import net.orange_box.storebox.harness.interfaces.engines.LogEngineInterface;
+import net.orange_box.storebox.harness.interfaces.engines.ShardedInterface;
+
+import java.util.concurrent.TimeUnit;
+
+public class PreloadTestCase extends InstrumentationTestCase {
+    
+    private Context context;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        
+        context = getInstrumentation().getTargetContext();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        context = null;
+        
+        super.tearDown();
+    }
+    
+    @SmallTest
+    public void testPreload() throws Exception {
+        final Preload preload = StoreBox.preload(
+                context,
+                PreferencesTypeFileInterface.class,
+                PreferencesTypeMemoryInterface.class,
+                JournaledInterface.class,
+                LogEngineInterface.class,
+                ShardedInterface.class);
+        
+        assertTrue(preload.await(10, TimeUnit.SECONDS));
+        assertTrue(preload.isDone());
+    }
+    
+    @SmallTest
+    public void testPreloadedBackendReused() throws Exception {
+        StoreBox.preload(context, LogEngineInterface.class).await();
+        
+        final LogEngineInterface first =
+                StoreBox.create(context, LogEngineInterface.class);
+        final LogEngineInterface second =
+                StoreBox.create(context, LogEngineInterface.class);
+        try {
+            first.setInt(1);
+            
+            assertSame(
+                    StoreBox.getBackend(first),
+                    StoreBox.getBackend(second));
+            assertEquals(1, second.getInt());
+        } finally {
+            first.clear();
+        }
+    }
+    
+    @SmallTest
+    public void testInvalidClassRejected() {
+        try {
+            StoreBox.preload(context, Object.class);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // NOP
+        }
+    }
+    
+    @SmallTest
+    public void testNothingToPreload() throws Exception {
+        final Preload preload = StoreBox.preload(context);
+        
+        assertTrue(preload.isDone());
+        preload.await();
+    }
+}
@@ -27,8 +27,11 @@ import android.test.suitebuilder.annotation.SmallTest;
 import net.orange_box.storebox.StoreBox;
 import net.orange_box.storebox.harness.activities.TestActivity;
 import net.orange_box.storebox.harness.interfaces.SaveModeApplyInterface;
+import net.orange_box.storebox.harness.interfaces.SaveModeBlobInterface;
 import net.orange_box.storebox.harness.interfaces.SaveModeCommitInterface;
 
+import java.io.OutputStream;
+
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
@@ -142,6 +145,40 @@ public class SaveModeTestCase extends ActivityUnitTestCase<TestActivity> {
         verify(editor, never()).apply();
     }
     
+    @SmallTest
+    public void testCommitForStreams() throws Exception {
+        final SaveModeBlobInterface uut = StoreBox.create(
+                getActivity(),
+                SaveModeBlobInterface.class);
+        
+        final OutputStream stream = uut.openOutputStream();
+        try {
+            stream.write(1);
+        } finally {
+            stream.close();
+        }
+        
+        verify(editor).commit();
+        verify(editor, never()).apply();
+    }
+    
+    @SmallTest
+    public void testApplyUsingMethodPrecedenceForStreams() throws Exception {
+        final SaveModeBlobInterface uut = StoreBox.create(
+                getActivity(),
+                SaveModeBlobInterface.class);
+        
+        final OutputStream stream = uut.openOutputStreamWithMethodAnnotation();
+        try {
+            stream.write(1);
+        } finally {
+            stream.close();
+        }
+        
+        verify(editor).apply();
+        verify(editor, never()).commit();
+    }
+    
     private static class InjectedContext extends ContextWrapper {
         
         private final SharedPreferences prefs;
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2015 Martin Bella
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.orange_box.storebox.harness;
+
+import android.test.InstrumentationTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import net.orange_box.storebox.StoreBox;
+import net.orange_box.storebox.backends.MapStoreBackend;
+import net.orange_box.storebox.backends.ReadOnlyStoreBackend;
+import net.orange_box.storebox.backends.StoreBackend;
+import net.orange_box.storebox.harness.interfaces.SnapshotInterface;
+import net.orange_box.storebox.harness.interfaces.engines.LogEngineInterface;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class SnapshotTestCase extends InstrumentationTestCase {
+    
+    private LogEngineInterface uut;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        
+        uut = StoreBox.create(
+                getInstrumentation().getTargetContext(),
+                LogEngineInterface.class);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        uut.clear();
+        uut = null;
+        
+        super.tearDown();
+    }
+    
+    @SmallTest
+    public void testValuesAtPointInTime() {
+        uut.setInt(1);
+        uut.setString("one");
+        
+        final LogEngineInterface snapshot = StoreBox.snapshot(uut);
+        uut.setInt(2);
+        uut.setString("two");
+        uut.clear();
+        
+        assertEquals(1, snapshot.getInt());
+        assertEquals("one", snapshot.getString());
+        assertEquals(2, snapshot.getAll().size());
+        assertEquals(0, uut.getAll().size());
+    }
+    
+    @SmallTest
+    public void testReadOnly() {
+        final LogEngineInterface snapshot = StoreBox.snapshot(uut);
+        
+        try {
+            snapshot.setInt(1);
+            fail();
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+        try {
+            snapshot.clear();
+            fail();
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+        assertFalse(uut.getAll().containsKey("key_int"));
+    }
+    
+    @SmallTest
+    public void testSharedPreferences() {
+        final SnapshotInterface prefs = StoreBox.create(
+                getInstrumentation().getTargetContext(),
+                SnapshotInterface.class);
+        try {
+            prefs.setInt(1);
+            
+            final SnapshotInterface snapshot = StoreBox.snapshot(prefs);
+            prefs.setInt(2);
+            prefs.setString("two");
+            
+            assertEquals(1, snapshot.getInt());
+            assertNull(snapshot.getString());
+        } finally {
+            prefs.clear();
+        }
+    }
+    
+    @SmallTest
+    public void testNotTorn() throws Exception {
+        final StoreBackend backend = StoreBox.getBackend(uut);
+        final AtomicBoolean done = new AtomicBoolean();
+        final Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; !done.get(); i++) {
+                    backend.edit()
+                            .putInt("key_int", i)
+                            .putString("key_string", String.valueOf(i))
+                            .apply();
+                }
+            }
+        });
+        writer.start();
+        
+        try {
+            for (int i = 0; i < 10000; i++) {
+                final LogEngineInterface snapshot = StoreBox.snapshot(uut);
+                final String value = snapshot.getString();
+                if (value != null) {
+                    assertEquals(value, String.valueOf(snapshot.getInt()));
+                }
+            }
+        } finally {
+            done.set(true);
+            writer.join();
+        }
+    }
+    
+    @SmallTest
+    public void testManyValues() {
+        final MapStoreBackend backend = new MapStoreBackend();
+        final Map<String, Object> expected = new HashMap<>();
+        
+        StoreBackend.Editor editor = backend.edit();
+        for (int i = 0; i < 10000; i++) {
+            editor.putInt("key_" + i, i);
+            expected.put("key_" + i, i);
+        }
+        editor.commit();
+        final StoreBackend snapshot = ReadOnlyStoreBackend.snapshot(backend);
+        
+        editor = backend.edit();
+        for (int i = 0; i < 10000; i += 2) {
+            editor.remove("key_" + i);
+        }
+        editor.commit();
+        
+        assertEquals(expected, snapshot.getAll());
+        for (int i = 0; i < 10000; i += 2) {
+            expected.remove("key_" + i);
+        }
+        assertEquals(expected, backend.getAll());
+        assertEquals(expected.hashCode(), backend.getAll().hashCode());
+    }
+}
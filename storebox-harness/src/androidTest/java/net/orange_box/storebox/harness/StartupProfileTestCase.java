@@ -0,0 +1,175 @@
+/*
+ * Copyright 2015 Martin Bella
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.orange_box.storebox.harness;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.test.InstrumentationTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import net.orange_box.storebox.Preload;
+import net.orange_box.storebox.StartupProfile;
+import net.orange_box.storebox.StartupProfiler;
+import net.orange_box.storebox.StoreBox;
+import net.orange_box.storebox.harness.interfaces.engines.LogEngineInterface;
+import net.orange_box.storebox.harness.interfaces.engines.LogEngineSharedInterface;
+import net.orange_box.storebox.harness.interfaces.types.CustomTypesInterface;
+import net.orange_box.storebox.harness.types.CustomClass;
+import net.orange_box.storebox.harness.types.adapters.PrefixedStringTypeAdapter;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+public class StartupProfileTestCase extends InstrumentationTestCase {
+    
+    private Context context;
+    private File file;
+    
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        
+        context = getInstrumentation().getTargetContext();
+        file = new File(
+                context.getDir("storebox", Context.MODE_PRIVATE),
+                "startup.profile");
+        file.delete();
+        
+        StoreBox.registerTypeAdapter(new PrefixedStringTypeAdapter("prefix:"));
+    }
+    
+    @SuppressLint("CommitPrefEdits")
+    @Override
+    protected void tearDown() throws Exception {
+        StartupProfiler.stop();
+        file.delete();
+        file = null;
+        
+        PreferenceManager.getDefaultSharedPreferences(context)
+                .edit().clear().commit();
+        context = null;
+        
+        super.tearDown();
+    }
+    
+    @SmallTest
+    public void testRecorded() throws Exception {
+        StoreBox.profileStartup(context, TimeUnit.MINUTES.toMillis(1)).await();
+        
+        final CustomTypesInterface uut =
+                StoreBox.create(context, CustomTypesInterface.class);
+        uut.getCustomClass();
+        uut.getDate();
+        
+        final StartupProfile profile = StartupProfiler.stop();
+        final String name = CustomTypesInterface.class.getName();
+        assertEquals(Collections.singleton(name), profile.getInterfaces());
+        assertEquals(2, profile.getKeys(name).size());
+        assertTrue(profile.contains(name, "key_custom_class"));
+        assertTrue(profile.contains(name, "key_date"));
+        assertEquals(0f, StartupProfiler.getHitRate());
+        
+        assertEquals(2, StartupProfile.read(file).getKeys(name).size());
+    }
+    
+    @SmallTest
+    public void testSharedFileRecordedByInterface() throws Exception {
+        StoreBox.profileStartup(context, TimeUnit.MINUTES.toMillis(1)).await();
+        
+        final LogEngineInterface first =
+                StoreBox.create(context, LogEngineInterface.class);
+        final LogEngineSharedInterface second =
+                StoreBox.create(context, LogEngineSharedInterface.class);
+        assertSame(StoreBox.getBackend(first), StoreBox.getBackend(second));
+        first.getInt();
+        second.getString();
+        
+        final StartupProfile profile = StartupProfiler.stop();
+        final String firstName = LogEngineInterface.class.getName();
+        final String secondName = LogEngineSharedInterface.class.getName();
+        assertEquals(
+                Collections.singleton("key_int"),
+                profile.getKeys(firstName));
+        assertEquals(
+                Collections.singleton("key_string"),
+                profile.getKeys(secondName));
+    }
+    
+    @SmallTest
+    public void testPrefetched() throws Exception {
+        final CustomClass value = new CustomClass("one", "two");
+        StoreBox.create(context, CustomTypesInterface.class)
+                .setCustomClass(value);
+        
+        StoreBox.profileStartup(context, TimeUnit.MINUTES.toMillis(1)).await();
+        StoreBox.create(context, CustomTypesInterface.class).getCustomClass();
+        StartupProfiler.stop();
+        
+        final Preload preload =
+                StoreBox.profileStartup(context, TimeUnit.MINUTES.toMillis(1));
+        assertTrue(preload.await(10, TimeUnit.SECONDS));
+        assertEquals(1, StartupProfiler.getPrefetchedCount());
+        
+        final CustomTypesInterface uut =
+                StoreBox.create(context, CustomTypesInterface.class);
+        final CustomClass first = uut.getCustomClass();
+        final CustomClass second = uut.getCustomClass();
+        assertEquals(value, first);
+        assertEquals(value, second);
+        assertNotSame(first, second);
+        assertEquals(1, StartupProfiler.getPrefetchHitCount());
+        
+        uut.getDate();
+        assertEquals(0.5f, StartupProfiler.getHitRate());
+    }
+    
+    @SmallTest
+    public void testDamagedProfileIgnored() throws Exception {
+        StoreBox.profileStartup(context, TimeUnit.MINUTES.toMillis(1)).await();
+        StoreBox.create(context, CustomTypesInterface.class).getDate();
+        StartupProfiler.stop();
+        
+        final FileOutputStream stream = new FileOutputStream(file, true);
+        try {
+            stream.write(0);
+        } finally {
+            stream.close();
+        }
+        
+        final Preload preload =
+                StoreBox.profileStartup(context, TimeUnit.MINUTES.toMillis(1));
+        assertTrue(preload.isDone());
+        StoreBox.create(context, CustomTypesInterface.class).getDate();
+        StartupProfiler.stop();
+        
+        assertEquals(1, StartupProfile.read(file).size());
+    }
+    
+    @SmallTest
+    public void testInvalidWindowRejected() {
+        try {
+            StoreBox.profileStartup(context, 0);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // NOP
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2015 Martin Bella
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.orange_box.storebox.harness.benchmarks;
+
+import android.test.InstrumentationTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
+
+import net.orange_box.storebox.backends.LogStoreBackend;
+import net.orange_box.storebox.backends.StoreBackend;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Locale;
+
+/**
+ * Measures how long it takes to open a {@link LogStoreBackend} whose last
+ * record got torn by a crash, which includes verifying the checksums of all
+ * records and dropping the torn one. Results get logged under the
+ * {@link #TAG} tag.
+ */
+public class RecoveryBenchmarkTestCase extends InstrumentationTestCase {
+    
+    private static final String TAG = "StoreBoxBenchmark";
+    private static final int RUNS = 5;
+    private static final int BATCH_SIZE = 100;
+    
+    private File file;
+    private LogStoreBackend backend;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        
+        file = new File(
+                getInstrumentation().getTargetContext().getCacheDir(),
+                "benchmark.log");
+        file.delete();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (backend != null) {
+            backend.close();
+            backend = null;
+        }
+        file.delete();
+        file = null;
+        
+        super.tearDown();
+    }
+    
+    @LargeTest
+    public void testRecover1000Keys() throws Exception {
+        benchmark(1000);
+    }
+    
+    @LargeTest
+    public void testRecover10000Keys() throws Exception {
+        benchmark(10000);
+    }
+    
+    @LargeTest
+    public void testRecover100000Keys() throws Exception {
+        benchmark(100000);
+    }
+    
+    private void benchmark(int keys) throws Exception {
+        // never compacted, so that every record gets replayed
+        backend = new LogStoreBackend(file, Integer.MAX_VALUE);
+        
+        StoreBackend.Editor editor = backend.edit();
+        for (int i = 0; i < keys; i++) {
+            editor.putString("key_string_" + i, "value " + i);
+            if ((i + 1) % BATCH_SIZE == 0) {
+                assertTrue(editor.commit());
+                editor = backend.edit();
+            }
+        }
+        assertTrue(editor.commit());
+        backend.close();
+        
+        long recoveryTime = Long.MAX_VALUE;
+        long replayMillis = 0;
+        int size = 0;
+        for (int i = 0; i < RUNS; i++) {
+            // rewrite the last record every time, as recovering drops it
+            backend = new LogStoreBackend(file, Integer.MAX_VALUE);
+            backend.edit()
+                    .putString("key_torn", "value")
+                    .commit();
+            size = backend.getLogSize();
+            backend.close();
+            tear(size - 1);
+            
+            final long start = System.nanoTime();
+            backend = new LogStoreBackend(file, Integer.MAX_VALUE);
+            recoveryTime = Math.min(recoveryTime, System.nanoTime() - start);
+            replayMillis = backend.getReplayMillis();
+            
+            assertTrue(backend.isRecovered());
+            assertEquals(keys, backend.getAll().size());
+            assertFalse(backend.contains("key_torn"));
+            backend.close();
+        }
+        backend = null;
+        
+        Log.i(TAG, String.format(
+                Locale.ENGLISH,
+                "%1$d keys: recovered %2$d bytes in %3$.2fms " +
+                        "(replay %4$dms)",
+                keys,
+                size,
+                recoveryTime / 1e6,
+                replayMillis));
+    }
+    
+    private void tear(int position) throws Exception {
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.seek(position);
+            final int b = raf.read();
+            raf.seek(position);
+            raf.write(~b);
+        } finally {
+            raf.close();
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2015 Martin Bella
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.orange_box.storebox.harness.benchmarks;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.test.InstrumentationTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
+
+import net.orange_box.storebox.backends.SharedPreferencesXml;
+import net.orange_box.storebox.backends.SnapshotFormat;
+
+import java.io.File;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Compares how long it takes to load preferences from the XML written by
+ * {@link SharedPreferences} and from a {@link SnapshotFormat} file. Results
+ * get logged under the {@link #TAG} tag.
+ */
+public class SnapshotLoadBenchmarkTestCase extends InstrumentationTestCase {
+    
+    private static final String TAG = "StoreBoxBenchmark";
+    private static final int RUNS = 5;
+    
+    private Context context;
+    private SharedPreferences prefs;
+    private File snapshot;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        
+        context = getInstrumentation().getTargetContext();
+    }
+
+    @SuppressLint("CommitPrefEdits")
+    @Override
+    protected void tearDown() throws Exception {
+        if (prefs != null) {
+            prefs.edit().clear().commit();
+            prefs = null;
+        }
+        if (snapshot != null) {
+            snapshot.delete();
+            snapshot = null;
+        }
+        context = null;
+        
+        super.tearDown();
+    }
+    
+    @LargeTest
+    public void testLoad100Keys() throws Exception {
+        benchmark(100);
+    }
+    
+    @LargeTest
+    public void testLoad1000Keys() throws Exception {
+        benchmark(1000);
+    }
+    
+    @LargeTest
+    public void testLoad10000Keys() throws Exception {
+        benchmark(10000);
+    }
+    
+    @LargeTest
+    public void testLoad100000Keys() throws Exception {
+        benchmark(100000);
+    }
+    
+    @SuppressLint("CommitPrefEdits")
+    private void benchmark(int keys) throws Exception {
+        final String name = "benchmark_" + keys;
+        prefs = context.getSharedPreferences(name, Context.MODE_PRIVATE);
+        
+        final SharedPreferences.Editor editor = prefs.edit();
+        for (int i = 0; i < keys; i++) {
+            switch (i % 4) {
+                case 0:
+                    editor.putBoolean("key_boolean_" + i, true);
+                    break;
+                
+                case 1:
+                    editor.putInt("key_int_" + i, i);
+                    break;
+                
+                case 2:
+                    editor.putLong("key_long_" + i, i);
+                    break;
+                
+                default:
+                    editor.putString("key_string_" + i, "value " + i);
+            }
+        }
+        assertTrue(editor.commit());
+        
+        final File xml = new File(
+                new File(context.getApplicationInfo().dataDir, "shared_prefs"),
+                name + ".xml");
+        snapshot = new File(context.getCacheDir(), name + ".snapshot");
+        SnapshotFormat.write(snapshot, prefs.getAll());
+        
+        long xmlTime = Long.MAX_VALUE;
+        long snapshotTime = Long.MAX_VALUE;
+        for (int i = 0; i < RUNS; i++) {
+            long start = System.nanoTime();
+            final Map<String, Object> fromXml = SharedPreferencesXml.read(xml);
+            xmlTime = Math.min(
+                    xmlTime, System.nanoTime() - start);
+            
+            start = System.nanoTime();
+            final Map<String, Object> fromSnapshot =
+                    SnapshotFormat.read(snapshot);
+            snapshotTime = Math.min(
+                    snapshotTime, System.nanoTime() - start);
+            
+            assertEquals(keys, fromXml.size());
+            assertEquals(fromXml, fromSnapshot);
+        }
+        
+        Log.i(TAG, String.format(
+                Locale.ENGLISH,
+                "%1$d keys: XML %2$d bytes in %3$.2fms, " +
+                        "snapshot %4$d bytes in %5$.2fms",
+                keys,
+                xml.length(),
+                xmlTime / 1e6,
+                snapshot.length(),
+                snapshotTime / 1e6));
+    }
+}
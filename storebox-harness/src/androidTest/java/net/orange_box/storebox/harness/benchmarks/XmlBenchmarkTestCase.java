@@ -0,0 +1,223 @@
+/*
+ * Copyright 2015 Martin Bella
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.orange_box.storebox.harness.benchmarks;
+
+import android.test.InstrumentationTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
+
+import net.orange_box.storebox.backends.SharedPreferencesXml;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+/**
+ * Compares how long it takes to read and write preferences XML with
+ * {@link SharedPreferencesXml}, which streams the file, and by going through
+ * a DOM. Results get logged under the {@link #TAG} tag.
+ */
+public class XmlBenchmarkTestCase extends InstrumentationTestCase {
+    
+    private static final String TAG = "StoreBoxBenchmark";
+    private static final int RUNS = 3;
+    
+    private static final int MEGABYTE = 1024 * 1024;
+    
+    private File file;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        
+        file = new File(
+                getInstrumentation().getTargetContext().getCacheDir(),
+                "benchmark.xml");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        file.delete();
+        file = null;
+        
+        super.tearDown();
+    }
+    
+    @LargeTest
+    public void test10000Keys() throws Exception {
+        benchmark(10000, 0);
+    }
+    
+    @LargeTest
+    public void test100000Keys() throws Exception {
+        benchmark(100000, 0);
+    }
+    
+    @LargeTest
+    public void test10Megabytes() throws Exception {
+        // strings padded so that the file ends up just over 10MB
+        final long size = benchmark(100000, 110);
+        
+        assertTrue(size >= 10 * MEGABYTE);
+        assertTrue(size < 11 * MEGABYTE);
+    }
+    
+    /**
+     * @param padding - minimum length which string values get padded to
+     * @return size of the file written by {@link SharedPreferencesXml}
+     */
+    private long benchmark(int keys, int padding) throws Exception {
+        final Map<String, Object> values = new HashMap<>();
+        for (int i = 0; i < keys; i++) {
+            switch (i % 4) {
+                case 0:
+                    values.put("key_int_" + i, i);
+                    break;
+                
+                case 1:
+                    values.put("key_long_" + i, (long) i);
+                    break;
+                
+                default:
+                    final StringBuilder value = new StringBuilder(
+                            String.format(
+                                    Locale.ENGLISH,
+                                    "value %1$d with enough <text> & more "
+                                            + "to make the file %1$d large",
+                                    i));
+                    while (value.length() < padding) {
+                        value.append(' ');
+                    }
+                    values.put("key_string_" + i, value.toString());
+            }
+        }
+        
+        long size = 0;
+        long streamWrite = Long.MAX_VALUE;
+        long streamRead = Long.MAX_VALUE;
+        long domWrite = Long.MAX_VALUE;
+        long domRead = Long.MAX_VALUE;
+        for (int i = 0; i < RUNS; i++) {
+            long start = System.nanoTime();
+            SharedPreferencesXml.write(file, values);
+            streamWrite = Math.min(streamWrite, System.nanoTime() - start);
+            size = file.length();
+            
+            start = System.nanoTime();
+            assertEquals(values, SharedPreferencesXml.read(file));
+            streamRead = Math.min(streamRead, System.nanoTime() - start);
+            
+            start = System.nanoTime();
+            writeDom(file, values);
+            domWrite = Math.min(domWrite, System.nanoTime() - start);
+            
+            start = System.nanoTime();
+            assertEquals(values, readDom(file));
+            domRead = Math.min(domRead, System.nanoTime() - start);
+        }
+        
+        Log.i(TAG, String.format(
+                Locale.ENGLISH,
+                "%1$d keys in %2$d bytes: streaming write %3$.2fms, " +
+                        "read %4$.2fms, DOM write %5$.2fms, read %6$.2fms",
+                keys,
+                size,
+                streamWrite / 1e6,
+                streamRead / 1e6,
+                domWrite / 1e6,
+                domRead / 1e6));
+        
+        return size;
+    }
+    
+    private static void writeDom(File file, Map<String, Object> values)
+            throws Exception {
+        
+        final Document document = DocumentBuilderFactory.newInstance()
+                .newDocumentBuilder().newDocument();
+        final Element map = document.createElement("map");
+        document.appendChild(map);
+        for (final Map.Entry<String, Object> entry : values.entrySet()) {
+            final Object value = entry.getValue();
+            final Element element;
+            if (value instanceof String) {
+                element = document.createElement("string");
+                element.setTextContent((String) value);
+            } else {
+                element = document.createElement(
+                        (value instanceof Integer) ? "int" : "long");
+                element.setAttribute("value", value.toString());
+            }
+            element.setAttribute("name", entry.getKey());
+            map.appendChild(element);
+        }
+        
+        final Transformer transformer =
+                TransformerFactory.newInstance().newTransformer();
+        transformer.setOutputProperty(OutputKeys.ENCODING, "utf-8");
+        transformer.transform(
+                new DOMSource(document), new StreamResult(file));
+    }
+    
+    private static Map<String, Object> readDom(File file) throws Exception {
+        final NodeList nodes = DocumentBuilderFactory.newInstance()
+                .newDocumentBuilder().parse(file)
+                .getDocumentElement().getChildNodes();
+        
+        final Map<String, Object> values = new HashMap<>();
+        for (int i = 0; i < nodes.getLength(); i++) {
+            final Node node = nodes.item(i);
+            if (node.getNodeType() != Node.ELEMENT_NODE) {
+                continue;
+            }
+            
+            final Element element = (Element) node;
+            final String name = element.getAttribute("name");
+            switch (element.getTagName()) {
+                case "int":
+                    values.put(
+                            name,
+                            Integer.valueOf(element.getAttribute("value")));
+                    break;
+                
+                case "long":
+                    values.put(
+                            name,
+                            Long.valueOf(element.getAttribute("value")));
+                    break;
+                
+                default:
+                    values.put(name, element.getTextContent());
+            }
+        }
+        
+        return values;
+    }
+}
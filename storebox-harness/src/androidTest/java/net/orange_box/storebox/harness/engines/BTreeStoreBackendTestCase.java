@@ -0,0 +1,183 @@
+/*
+ * Copyright 2015 Martin Bella
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.orange_box.storebox.harness.engines;
+
+import android.test.InstrumentationTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import net.orange_box.storebox.backends.BTreeStoreBackend;
+import net.orange_box.storebox.backends.StoreBackend;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+public class BTreeStoreBackendTestCase extends InstrumentationTestCase {
+    
+    private File file;
+    private BTreeStoreBackend uut;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        
+        file = new File(
+                getInstrumentation().getTargetContext().getCacheDir(),
+                "test.btree");
+        file.delete();
+        
+        uut = new BTreeStoreBackend(file, 8);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        uut.close();
+        uut = null;
+        
+        file.delete();
+        file = null;
+        
+        super.tearDown();
+    }
+    
+    @SmallTest
+    public void testValuesPersisted() throws Exception {
+        uut.edit()
+                .putBoolean("key_boolean", true)
+                .putFloat("key_float", 1.0F)
+                .putInt("key_int", 1)
+                .putLong("key_long", 1L)
+                .putString("key_string", "value")
+                .putStringSet(
+                        "key_string_set",
+                        new HashSet<>(Arrays.asList("one", "two")))
+                .commit();
+        uut.edit().remove("key_boolean").commit();
+        reopen();
+        
+        assertFalse(uut.contains("key_boolean"));
+        assertEquals(1.0F, uut.getFloat("key_float", 0F));
+        assertEquals(1, uut.getInt("key_int", 0));
+        assertEquals(1L, uut.getLong("key_long", 0L));
+        assertEquals("value", uut.getString("key_string", null));
+        assertEquals(
+                new HashSet<>(Arrays.asList("one", "two")),
+                uut.getStringSet("key_string_set", null));
+    }
+    
+    @SmallTest
+    public void testManyValuesAcrossPages() throws Exception {
+        final Map<String, Object> expected = new HashMap<>();
+        final StoreBackend.Editor editor = uut.edit();
+        for (int i = 0; i < 5000; i++) {
+            editor.putInt("key_" + i, i);
+            expected.put("key_" + i, i);
+        }
+        editor.commit();
+        reopen();
+        
+        assertEquals(1234, uut.getInt("key_1234", 0));
+        assertEquals(expected, uut.getAll());
+    }
+    
+    @SmallTest
+    public void testLargeValues() throws Exception {
+        final StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            builder.append(i % 10);
+        }
+        final String value = builder.toString();
+        
+        uut.edit().putString("key_string", value).commit();
+        reopen();
+        assertEquals(value, uut.getString("key_string", null));
+        
+        // the freed pages get reused
+        final long length = file.length();
+        uut.edit().putString("key_string", value + "!").commit();
+        assertEquals(length, file.length());
+    }
+    
+    @SmallTest
+    public void testClear() throws Exception {
+        final StoreBackend.Editor editor = uut.edit();
+        for (int i = 0; i < 1000; i++) {
+            editor.putInt("key_" + i, i);
+        }
+        editor.commit();
+        uut.edit().clear().putInt("key_int", 1).commit();
+        reopen();
+        
+        assertEquals(1, uut.getAll().size());
+        assertEquals(1, uut.getInt("key_int", 0));
+    }
+    
+    @SmallTest
+    public void testCorruptPageDetected() throws Exception {
+        final StoreBackend.Editor editor = uut.edit();
+        for (int i = 0; i < 1000; i++) {
+            editor.putInt("key_" + i, i);
+        }
+        editor.commit();
+        uut.close();
+        
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.seek(file.length() - 100);
+            raf.write(~raf.read());
+        } finally {
+            raf.close();
+        }
+        
+        uut = new BTreeStoreBackend(file, 8);
+        try {
+            uut.getAll();
+            fail();
+        } catch (RuntimeException e) {
+            // NOP
+        }
+    }
+    
+    @SmallTest
+    public void testUnsyncedJournalIgnored() throws Exception {
+        uut.edit().putInt("key_int", 1).commit();
+        uut.close();
+        
+        // a journal whose header never reached the disk
+        final File journal = new File(file.getPath() + ".rollback");
+        final FileOutputStream stream = new FileOutputStream(journal);
+        try {
+            stream.write(new byte[100]);
+        } finally {
+            stream.close();
+        }
+        
+        uut = new BTreeStoreBackend(file, 8);
+        assertEquals(1, uut.getInt("key_int", 0));
+        assertEquals(0, journal.length());
+    }
+    
+    private void reopen() throws Exception {
+        uut.close();
+        uut = new BTreeStoreBackend(file, 8);
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2015 Martin Bella
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.orange_box.storebox.harness.engines;
+
+import android.test.InstrumentationTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import net.orange_box.storebox.StoreBox;
+import net.orange_box.storebox.backends.CompressingStoreBackend;
+import net.orange_box.storebox.backends.MapStoreBackend;
+import net.orange_box.storebox.harness.interfaces.engines.CompressingInterface;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+public class CompressingStoreBackendTestCase extends InstrumentationTestCase {
+    
+    private static final String SHORT = "short";
+    
+    private String json;
+    private MapStoreBackend backend;
+    private CompressingStoreBackend uut;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        
+        final StringBuilder builder = new StringBuilder("[");
+        for (int i = 0; i < 100; i++) {
+            builder.append("{\"name\":\"value\",\"index\":")
+                    .append(i % 10)
+                    .append("},");
+        }
+        json = builder.append("]").toString();
+        
+        backend = new MapStoreBackend();
+        uut = new CompressingStoreBackend(backend, 64);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        uut = null;
+        backend = null;
+        json = null;
+        
+        super.tearDown();
+    }
+    
+    @SmallTest
+    public void testShortValueStoredAsIs() {
+        uut.edit().putString("key", SHORT).commit();
+        
+        assertFalse(uut.isCompressed("key"));
+        assertEquals(SHORT, backend.getString("key", null));
+        assertEquals(SHORT, uut.getString("key", null));
+    }
+    
+    @SmallTest
+    public void testLongValueCompressed() {
+        uut.edit().putString("key", json).commit();
+        
+        assertTrue(uut.isCompressed("key"));
+        assertTrue(backend.getString("key", "").length() < json.length());
+        assertEquals(json, uut.getString("key", null));
+        assertEquals(json, uut.getAll().get("key"));
+        
+        // read by a backend which doesn't compress any values
+        final CompressingStoreBackend other =
+                new CompressingStoreBackend(backend, -1);
+        assertEquals(json, other.getString("key", null));
+    }
+    
+    @SmallTest
+    public void testStringSetItemsCompressed() {
+        final Set<String> values = new HashSet<>(Arrays.asList(SHORT, json));
+        uut.edit().putStringSet("key", values).commit();
+        
+        assertFalse(backend.getStringSet("key", null).contains(json));
+        assertTrue(backend.getStringSet("key", null).contains(SHORT));
+        assertEquals(values, uut.getStringSet("key", null));
+    }
+    
+    @SmallTest
+    public void testValueLookingCompressedEscaped() {
+        final String value = "@storebox-deflate:value";
+        uut.edit().putString("key", value).commit();
+        
+        assertTrue(uut.isCompressed("key"));
+        assertEquals(value, uut.getString("key", null));
+    }
+    
+    @SmallTest
+    public void testCompressingPreferences() {
+        final CompressingInterface prefs = StoreBox.create(
+                getInstrumentation().getTargetContext(),
+                CompressingInterface.class);
+        try {
+            prefs.setCompressed(json);
+            prefs.setString(json);
+            assertEquals(json, prefs.getCompressed());
+            assertEquals(json, prefs.getString());
+            
+            final CompressingStoreBackend backend =
+                    (CompressingStoreBackend) StoreBox.getBackend(prefs);
+            assertTrue(backend.isCompressed("key_compressed"));
+            assertFalse(backend.isCompressed("key_string"));
+        } finally {
+            prefs.clear();
+        }
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2015 Martin Bella
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.orange_box.storebox.harness.engines;
+
+import android.content.Context;
+import android.test.InstrumentationTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import net.orange_box.storebox.StoreBox;
+import net.orange_box.storebox.backends.EncryptedStoreBackend;
+import net.orange_box.storebox.backends.MapStoreBackend;
+import net.orange_box.storebox.backends.StoreBackend;
+import net.orange_box.storebox.harness.interfaces.engines.EncryptedInterface;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+public class EncryptedStoreBackendTestCase extends InstrumentationTestCase {
+    
+    private static final String VALUE = "secret";
+    
+    private MapStoreBackend backend;
+    private EncryptedStoreBackend uut;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        
+        backend = new MapStoreBackend();
+        uut = new EncryptedStoreBackend(
+                backend, new FixedKeyProvider((byte) 1), "test");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        uut = null;
+        backend = null;
+        
+        super.tearDown();
+    }
+    
+    @SmallTest
+    public void testValuesEncrypted() {
+        final Set<String> set = new HashSet<>(Arrays.asList("a", "b"));
+        uut.edit()
+                .putString("key_string", VALUE)
+                .putInt("key_int", 1)
+                .putStringSet("key_set", set)
+                .commit();
+        
+        assertTrue(uut.isEncrypted("key_string"));
+        assertFalse(backend.getString("key_string", "").contains(VALUE));
+        assertEquals(VALUE, uut.getString("key_string", null));
+        assertEquals(1, uut.getInt("key_int", 0));
+        assertEquals(set, uut.getStringSet("key_set", null));
+        assertEquals(VALUE, uut.getAll().get("key_string"));
+        
+        // decrypted by a new instance
+        final EncryptedStoreBackend other = new EncryptedStoreBackend(
+                backend, new FixedKeyProvider((byte) 1), "test");
+        assertEquals(VALUE, other.getString("key_string", null));
+        assertEquals(1, other.getInt("key_int", 0));
+    }
+    
+    @SmallTest
+    public void testWrongKeyFails() {
+        uut.edit().putString("key_string", VALUE).commit();
+        
+        final EncryptedStoreBackend other = new EncryptedStoreBackend(
+                backend, new FixedKeyProvider((byte) 2), "test");
+        try {
+            other.getString("key_string", null);
+            fail();
+        } catch (RuntimeException e) {
+            // NOP
+        }
+    }
+    
+    @SmallTest
+    public void testValuesBoundToKeys() {
+        uut.edit()
+                .putString("key_first", "first")
+                .putString("key_second", "second")
+                .commit();
+        backend.edit()
+                .putString("key_first", backend.getString("key_second", null))
+                .commit();
+        
+        try {
+            uut.getString("key_first", null);
+            fail();
+        } catch (RuntimeException e) {
+            // NOP
+        }
+    }
+    
+    @SmallTest
+    public void testUnencryptedValuesRead() {
+        backend.edit().putInt("key_int", 1).putString("key_string", VALUE)
+                .commit();
+        
+        assertEquals(1, uut.getInt("key_int", 0));
+        assertEquals(VALUE, uut.getString("key_string", null));
+        assertFalse(uut.isEncrypted("key_string"));
+        
+        uut.edit().putString("key_string", VALUE).commit();
+        assertTrue(uut.isEncrypted("key_string"));
+    }
+    
+    @SmallTest
+    public void testEditorSharedBetweenThreads() throws Exception {
+        final StoreBackend.Editor editor = uut.edit();
+        final Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            final int offset = i * 250;
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 250; j++) {
+                        editor.putInt("key_" + (offset + j), j);
+                        if (j % 25 == 0) {
+                            editor.commit();
+                        }
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        editor.commit();
+        
+        assertEquals(1000, uut.getAll().size());
+        assertEquals(249, uut.getInt("key_999", 0));
+    }
+    
+    @SmallTest
+    public void testEncryptedPreferences() {
+        final Context context = getInstrumentation().getTargetContext();
+        final EncryptedInterface prefs =
+                StoreBox.create(context, EncryptedInterface.class);
+        try {
+            prefs.setString(VALUE);
+            prefs.setInt(1);
+            assertEquals(VALUE, prefs.getString());
+            assertEquals(1, prefs.getInt());
+            
+            final StoreBackend backend = StoreBox.getBackend(prefs);
+            assertTrue(backend instanceof EncryptedStoreBackend);
+            assertFalse(context
+                    .getSharedPreferences(
+                            "test_encrypted", Context.MODE_PRIVATE)
+                    .getString("key_string", "")
+                    .contains(VALUE));
+        } finally {
+            prefs.clear();
+        }
+    }
+    
+    private static class FixedKeyProvider
+            implements EncryptedStoreBackend.KeyProvider {
+        
+        private final byte fill;
+        
+        public FixedKeyProvider(byte fill) {
+            this.fill = fill;
+        }
+        
+        @Override
+        public SecretKey getKey(String alias) {
+            final byte[] bytes = new byte[16];
+            Arrays.fill(bytes, fill);
+            
+            return new SecretKeySpec(bytes, "AES");
+        }
+    }
+}
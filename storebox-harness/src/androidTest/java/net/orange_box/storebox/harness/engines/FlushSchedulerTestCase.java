@@ -0,0 +1,166 @@
+/*
+ * Copyright 2015 Martin Bella
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.orange_box.storebox.harness.engines;
+
+import android.test.InstrumentationTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import net.orange_box.storebox.backends.FlushScheduler;
+import net.orange_box.storebox.backends.MapStoreBackend;
+import net.orange_box.storebox.enums.FlushPolicy;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class FlushSchedulerTestCase extends InstrumentationTestCase {
+    
+    private CountingBackend first;
+    private CountingBackend second;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        
+        first = new CountingBackend();
+        second = new CountingBackend();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        FlushScheduler.barrier();
+        
+        first = null;
+        second = null;
+        
+        super.tearDown();
+    }
+    
+    @SmallTest
+    public void testPerWrite() {
+        first.edit().putInt("key_int", 1).commit();
+        first.edit().putInt("key_int", 2).commit();
+        
+        assertEquals(2, first.syncs.get());
+    }
+    
+    @SmallTest
+    public void testGroupedCommitsShareCycle() throws Exception {
+        first.setFlushPolicy(FlushPolicy.GROUPED, 200);
+        second.setFlushPolicy(FlushPolicy.GROUPED, 200);
+        
+        final CountDownLatch latch = new CountDownLatch(1);
+        final Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                second.edit().putInt("key_int", 1).commit();
+                latch.countDown();
+            }
+        });
+        thread.start();
+        first.edit().putInt("key_int", 1).apply();
+        first.edit().putInt("key_int", 2).commit();
+        
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(1, first.syncs.get());
+        assertEquals(1, second.syncs.get());
+    }
+    
+    @SmallTest
+    public void testGroupedCallback() throws Exception {
+        first.setFlushPolicy(FlushPolicy.GROUPED, 50);
+        first.edit().putInt("key_int", 1).apply();
+        
+        final AtomicBoolean success = new AtomicBoolean();
+        final CountDownLatch latch = new CountDownLatch(1);
+        FlushScheduler.whenFlushed(new FlushScheduler.Callback() {
+            @Override
+            public void onFlushed(boolean result) {
+                success.set(result);
+                latch.countDown();
+            }
+        });
+        
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertTrue(success.get());
+        assertEquals(1, first.syncs.get());
+    }
+    
+    @SmallTest
+    public void testCallbackWaitsForRunningCycle() throws Exception {
+        final CountDownLatch syncing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountingBackend blocking = new CountingBackend() {
+            @Override
+            protected boolean sync() {
+                syncing.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    return false;
+                }
+                return super.sync();
+            }
+        };
+        blocking.setFlushPolicy(FlushPolicy.GROUPED, 0);
+        blocking.edit().putInt("key_int", 1).apply();
+        assertTrue(syncing.await(5, TimeUnit.SECONDS));
+        
+        final CountDownLatch latch = new CountDownLatch(1);
+        FlushScheduler.whenFlushed(new FlushScheduler.Callback() {
+            @Override
+            public void onFlushed(boolean result) {
+                latch.countDown();
+            }
+        });
+        
+        assertEquals(1, latch.getCount());
+        release.countDown();
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(1, blocking.syncs.get());
+    }
+    
+    @SmallTest
+    public void testBarrier() {
+        first.setFlushPolicy(FlushPolicy.BARRIER, 0);
+        second.setFlushPolicy(FlushPolicy.BARRIER, 0);
+        
+        assertTrue(first.edit().putInt("key_int", 1).commit());
+        first.edit().putInt("key_int", 2).apply();
+        second.edit().putInt("key_int", 1).commit();
+        
+        assertEquals(2, first.getInt("key_int", 0));
+        assertEquals(0, first.syncs.get());
+        assertEquals(0, second.syncs.get());
+        
+        assertTrue(FlushScheduler.barrier());
+        assertEquals(1, first.syncs.get());
+        assertEquals(1, second.syncs.get());
+    }
+    
+    private static class CountingBackend extends MapStoreBackend {
+        
+        final AtomicInteger syncs = new AtomicInteger();
+        
+        @Override
+        protected boolean sync() {
+            syncs.incrementAndGet();
+            return super.sync();
+        }
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2015 Martin Bella
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.orange_box.storebox.harness.engines;
+
+import android.test.InstrumentationTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import net.orange_box.storebox.StoreBox;
+import net.orange_box.storebox.backends.JournaledStoreBackend;
+import net.orange_box.storebox.backends.MapStoreBackend;
+import net.orange_box.storebox.harness.interfaces.engines.JournaledInterface;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+public class JournaledStoreBackendTestCase extends InstrumentationTestCase {
+    
+    private File file;
+    private MapStoreBackend primary;
+    private JournaledStoreBackend uut;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        
+        file = new File(
+                getInstrumentation().getTargetContext().getCacheDir(),
+                "test.journal");
+        file.delete();
+        
+        primary = new MapStoreBackend();
+        primary.edit().putInt("key_primary", 1).commit();
+        
+        uut = new JournaledStoreBackend(primary, file, 1024 * 1024);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        uut.close();
+        uut = null;
+        primary = null;
+        
+        file.delete();
+        file = null;
+        
+        super.tearDown();
+    }
+    
+    @SmallTest
+    public void testChangesJournaled() throws Exception {
+        assertEquals(1, uut.getInt("key_primary", 0));
+        
+        final long size = uut.getJournalSize();
+        uut.edit().putInt("key_int", 2).remove("key_primary").commit();
+        
+        assertTrue(uut.getJournalSize() > size);
+        assertEquals(2, uut.getInt("key_int", 0));
+        assertFalse(uut.contains("key_primary"));
+        // not folded in yet
+        assertFalse(primary.contains("key_int"));
+        assertTrue(primary.contains("key_primary"));
+        
+        reopen();
+        assertEquals(2, uut.getInt("key_int", 0));
+        assertFalse(uut.contains("key_primary"));
+    }
+    
+    @SmallTest
+    public void testCompaction() throws Exception {
+        final long empty = uut.getJournalSize();
+        
+        uut.edit().putInt("key_int", 2).putString("key_string", "a").commit();
+        uut.edit().clear().putString("key_string", "b").commit();
+        uut.compact();
+        
+        assertEquals(1, uut.getCompactionCount());
+        assertEquals(empty, uut.getJournalSize());
+        assertEquals(1, primary.getAll().size());
+        assertEquals("b", primary.getString("key_string", null));
+        
+        reopen();
+        assertEquals("b", uut.getString("key_string", null));
+    }
+    
+    @SmallTest
+    public void testNothingWrittenAfterClose() throws Exception {
+        uut.edit().putInt("key_int", 2).commit();
+        final long length = file.length();
+        uut.close();
+        
+        assertFalse(uut.edit().putInt("key_int", 3).commit());
+        uut.compact();
+        
+        assertEquals(length, file.length());
+        assertFalse(primary.contains("key_int"));
+    }
+    
+    @SmallTest
+    public void testIncompleteBatchDropped() throws Exception {
+        uut.edit().putInt("key_int", 2).commit();
+        final long size = uut.getJournalSize();
+        uut.close();
+        
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.seek(size);
+            raf.writeInt(100);
+            raf.write(new byte[] {1, 2, 3});
+        } finally {
+            raf.close();
+        }
+        
+        uut = new JournaledStoreBackend(primary, file, 1024 * 1024);
+        assertEquals(size, file.length());
+        assertEquals(2, uut.getInt("key_int", 0));
+    }
+    
+    @SmallTest
+    public void testCorruptBatchDropped() throws Exception {
+        uut.edit().putInt("key_int", 2).commit();
+        final long size = uut.getJournalSize();
+        uut.edit().putString("key_string", "b").commit();
+        final long end = uut.getJournalSize();
+        uut.close();
+        
+        // the last batch was written in full, but a byte of it got lost
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.seek(end - 1);
+            final int b = raf.read();
+            raf.seek(end - 1);
+            raf.write(~b);
+        } finally {
+            raf.close();
+        }
+        
+        uut = new JournaledStoreBackend(primary, file, 1024 * 1024);
+        assertTrue(uut.isRecovered());
+        assertEquals(size, file.length());
+        assertEquals(2, uut.getInt("key_int", 0));
+        assertFalse(uut.contains("key_string"));
+    }
+    
+    @SmallTest
+    public void testJournaledPreferences() {
+        final JournaledInterface prefs = StoreBox.create(
+                getInstrumentation().getTargetContext(),
+                JournaledInterface.class);
+        try {
+            prefs.setInt(1);
+            prefs.setString("value");
+            
+            assertEquals(1, prefs.getInt());
+            assertEquals("value", prefs.getString());
+            assertTrue(StoreBox.getBackend(prefs)
+                    instanceof JournaledStoreBackend);
+        } finally {
+            prefs.clear();
+        }
+    }
+    
+    private void reopen() throws Exception {
+        uut.close();
+        uut = new JournaledStoreBackend(primary, file, 1024 * 1024);
+    }
+}
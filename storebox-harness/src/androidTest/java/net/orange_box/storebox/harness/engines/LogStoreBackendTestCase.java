@@ -0,0 +1,189 @@
+/*
+ * Copyright 2015 Martin Bella
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.orange_box.storebox.harness.engines;
+
+import android.content.Context;
+import android.test.InstrumentationTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import net.orange_box.storebox.StoreBox;
+import net.orange_box.storebox.backends.LogStoreBackend;
+import net.orange_box.storebox.harness.interfaces.engines.LogEngineInterface;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.HashSet;
+
+public class LogStoreBackendTestCase extends InstrumentationTestCase {
+    
+    private File file;
+    private LogStoreBackend uut;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        
+        file = new File(
+                getInstrumentation().getTargetContext().getCacheDir(),
+                "test.log");
+        file.delete();
+        
+        uut = new LogStoreBackend(file, 1024);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        uut.close();
+        uut = null;
+        
+        file.delete();
+        file = null;
+        
+        super.tearDown();
+    }
+    
+    @SmallTest
+    public void testValuesReplayed() throws Exception {
+        uut.edit()
+                .putBoolean("key_boolean", true)
+                .putFloat("key_float", 1.0F)
+                .putInt("key_int", 1)
+                .putLong("key_long", 1L)
+                .putString("key_string", "value")
+                .putStringSet(
+                        "key_string_set",
+                        new HashSet<>(Arrays.asList("one", "two")))
+                .commit();
+        uut.edit().remove("key_boolean").commit();
+        reopen();
+        
+        assertFalse(uut.contains("key_boolean"));
+        assertEquals(1.0F, uut.getFloat("key_float", 0F));
+        assertEquals(1, uut.getInt("key_int", 0));
+        assertEquals(1L, uut.getLong("key_long", 0L));
+        assertEquals("value", uut.getString("key_string", null));
+        assertEquals(
+                new HashSet<>(Arrays.asList("one", "two")),
+                uut.getStringSet("key_string_set", null));
+    }
+    
+    @SmallTest
+    public void testClearReplayed() throws Exception {
+        uut.edit().putInt("key_int", 1).commit();
+        uut.edit().clear().putString("key_string", "value").commit();
+        reopen();
+        
+        assertEquals(1, uut.getAll().size());
+        assertEquals("value", uut.getString("key_string", null));
+    }
+    
+    @SmallTest
+    public void testCompaction() throws Exception {
+        for (int i = 0; i < 1000; i++) {
+            uut.edit().putInt("key_int", i).commit();
+        }
+        uut.compact();
+        reopen();
+        
+        assertEquals(1, uut.getAll().size());
+        assertEquals(999, uut.getInt("key_int", 0));
+    }
+    
+    @SmallTest
+    public void testIncompleteRecordDropped() throws Exception {
+        uut.edit().putInt("key_int", 1).commit();
+        final int size = uut.getLogSize();
+        uut.close();
+        
+        // a put record for a key of 16 bytes which only got half written
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.seek(size);
+            raf.write(new byte[] {1, 0, 0, 0, 16, 'k', 'e', 'y'});
+        } finally {
+            raf.close();
+        }
+        
+        uut = new LogStoreBackend(file, 1024);
+        assertTrue(uut.isRecovered());
+        assertEquals(size, uut.getLogSize());
+        assertEquals(1, uut.getAll().size());
+        
+        uut.edit().putString("key_string", "value").commit();
+        reopen();
+        
+        assertEquals(1, uut.getInt("key_int", 0));
+        assertEquals("value", uut.getString("key_string", null));
+    }
+    
+    @SmallTest
+    public void testCorruptRecordDropped() throws Exception {
+        uut.edit().putInt("key_int", 1).commit();
+        final int size = uut.getLogSize();
+        uut.edit().putString("key_string", "value").commit();
+        final int end = uut.getLogSize();
+        uut.close();
+        
+        // the last record was written in full, but a byte of it got lost
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.seek(end - 6);
+            final int b = raf.read();
+            raf.seek(end - 6);
+            raf.write(~b);
+        } finally {
+            raf.close();
+        }
+        
+        uut = new LogStoreBackend(file, 1024);
+        assertTrue(uut.isRecovered());
+        assertEquals(size, uut.getLogSize());
+        assertEquals(1, uut.getInt("key_int", 0));
+        assertFalse(uut.contains("key_string"));
+        
+        reopen();
+        assertFalse(uut.isRecovered());
+        assertEquals(1, uut.getAll().size());
+    }
+    
+    @SmallTest
+    public void testLogEngine() {
+        final Context context = getInstrumentation().getTargetContext();
+        final LogEngineInterface prefs =
+                StoreBox.create(context, LogEngineInterface.class);
+        try {
+            prefs.setInt(1);
+            prefs.setString("value");
+            
+            assertEquals(1, prefs.getInt());
+            assertEquals("value", prefs.getString());
+            assertEquals(2, prefs.getAll().size());
+            assertTrue(new File(
+                    context.getDir("storebox", Context.MODE_PRIVATE),
+                    "test_log.log").exists());
+        } finally {
+            prefs.clear();
+        }
+    }
+    
+    private void reopen() throws Exception {
+        uut.close();
+        uut = new LogStoreBackend(file, 1024);
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2015 Martin Bella
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.orange_box.storebox.harness.engines;
+
+import android.test.InstrumentationTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import net.orange_box.storebox.StoreBox;
+import net.orange_box.storebox.backends.MapStoreBackend;
+import net.orange_box.storebox.backends.MigratingStoreBackend;
+import net.orange_box.storebox.backends.StoreBackend;
+import net.orange_box.storebox.harness.interfaces.engines.MigratingInterface;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+public class MigratingStoreBackendTestCase extends InstrumentationTestCase {
+    
+    private File checkpoint;
+    private MapStoreBackend source;
+    private MapStoreBackend target;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        
+        checkpoint = new File(
+                getInstrumentation().getTargetContext().getCacheDir(),
+                "test.migration");
+        checkpoint.delete();
+        
+        source = new MapStoreBackend();
+        final StoreBackend.Editor editor = source.edit();
+        for (int i = 0; i < 10; i++) {
+            editor.putInt("key_" + i, i);
+        }
+        editor.commit();
+        
+        target = new MapStoreBackend();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        source = null;
+        target = null;
+        
+        checkpoint.delete();
+        checkpoint = null;
+        
+        super.tearDown();
+    }
+    
+    @SmallTest
+    public void testValuesMigrated() throws Exception {
+        final MigratingStoreBackend uut =
+                new MigratingStoreBackend(source, target, checkpoint, 3);
+        uut.finish();
+        
+        assertTrue(uut.isMigrated());
+        assertTrue(MigratingStoreBackend.isMigrated(checkpoint));
+        assertEquals(source.getAll(), target.getAll());
+        assertEquals(9, uut.getInt("key_9", 0));
+    }
+    
+    @SmallTest
+    public void testChangesWrittenToBoth() throws Exception {
+        final MigratingStoreBackend uut =
+                new MigratingStoreBackend(source, target, checkpoint, 3);
+        uut.edit().putString("key_string", "value").remove("key_0").commit();
+        
+        assertEquals("value", source.getString("key_string", null));
+        assertEquals("value", target.getString("key_string", null));
+        assertFalse(source.contains("key_0"));
+        
+        uut.finish();
+        assertEquals(source.getAll(), target.getAll());
+        
+        // only the target once migrated
+        uut.edit().putInt("key_int", 1).commit();
+        assertFalse(source.contains("key_int"));
+        assertEquals(1, uut.getInt("key_int", 0));
+    }
+    
+    @SmallTest
+    public void testClearedWhileCopying() throws Exception {
+        final MigratingStoreBackend uut =
+                new MigratingStoreBackend(source, target, checkpoint, 1);
+        uut.edit().clear().putInt("key_int", 1).commit();
+        uut.finish();
+        
+        assertEquals(1, target.getAll().size());
+        assertEquals(1, target.getInt("key_int", 0));
+    }
+    
+    @SmallTest
+    public void testResumedFromCheckpoint() throws Exception {
+        // as if the process died after copying up to key_4
+        final StoreBackend.Editor editor = target.edit();
+        for (int i = 0; i < 5; i++) {
+            editor.putInt("key_" + i, i);
+        }
+        editor.putInt("key_1", -1).putInt("key_stale", -1).commit();
+        
+        final DataOutputStream stream =
+                new DataOutputStream(new FileOutputStream(checkpoint));
+        try {
+            stream.writeByte(1);
+            stream.writeUTF("key_4");
+        } finally {
+            stream.close();
+        }
+        
+        final MigratingStoreBackend uut =
+                new MigratingStoreBackend(source, target, checkpoint, 3);
+        uut.finish();
+        
+        assertEquals(source.getAll(), target.getAll());
+        // key_1, key_stale, and key_5 to key_9
+        assertEquals(7, uut.getCopiedCount());
+    }
+    
+    @SmallTest
+    public void testNotMigratedUntilCheckpointSaved() throws Exception {
+        // the checkpoint can't be written while this is in the way
+        final File temp = new File(checkpoint.getPath() + ".tmp");
+        assertTrue(temp.mkdir());
+        try {
+            final MigratingStoreBackend uut =
+                    new MigratingStoreBackend(source, target, checkpoint, 100);
+            try {
+                uut.finish();
+                fail();
+            } catch (IOException e) {
+                // NOP
+            }
+            
+            assertFalse(uut.isMigrated());
+            assertFalse(MigratingStoreBackend.isMigrated(checkpoint));
+            
+            uut.edit().putInt("key_0", 10).commit();
+            assertEquals(10, source.getInt("key_0", 0));
+            assertEquals(10, target.getInt("key_0", 0));
+            
+            assertTrue(temp.delete());
+            uut.finish();
+            
+            assertTrue(uut.isMigrated());
+            assertTrue(MigratingStoreBackend.isMigrated(checkpoint));
+            assertEquals(source.getAll(), target.getAll());
+        } finally {
+            temp.delete();
+        }
+    }
+    
+    @SmallTest
+    public void testBuilder() throws Exception {
+        final MigratingInterface prefs = StoreBox.create(
+                getInstrumentation().getTargetContext(),
+                MigratingInterface.class);
+        try {
+            prefs.setInt(1);
+            prefs.setString("value");
+            
+            final StoreBackend backend = StoreBox.getBackend(prefs);
+            if (backend instanceof MigratingStoreBackend) {
+                ((MigratingStoreBackend) backend).finish();
+            }
+            
+            assertEquals(1, prefs.getInt());
+            assertEquals("value", prefs.getString());
+        } finally {
+            prefs.clear();
+        }
+    }
+}
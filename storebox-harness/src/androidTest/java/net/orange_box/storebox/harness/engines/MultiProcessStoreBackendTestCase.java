@@ -0,0 +1,124 @@
+/*
+ * Copyright 2015 Martin Bella
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.orange_box.storebox.harness.engines;
+
+import android.test.InstrumentationTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import net.orange_box.storebox.backends.MultiProcessStoreBackend;
+import net.orange_box.storebox.backends.StoreBackend;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Uses a second backend for the same file in place of another process.
+ */
+public class MultiProcessStoreBackendTestCase extends InstrumentationTestCase {
+    
+    private File file;
+    private MultiProcessStoreBackend uut;
+    private MultiProcessStoreBackend other;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        
+        file = new File(
+                getInstrumentation().getTargetContext().getCacheDir(),
+                "test.shared");
+        delete();
+        
+        uut = new MultiProcessStoreBackend(file);
+        other = new MultiProcessStoreBackend(file);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        uut.close();
+        uut = null;
+        other.close();
+        other = null;
+        
+        delete();
+        file = null;
+        
+        super.tearDown();
+    }
+    
+    @SmallTest
+    public void testChangesPickedUp() {
+        other.edit().putInt("key_int", 1).putString("key_string", "value")
+                .commit();
+        
+        assertEquals(1, uut.getInt("key_int", 0));
+        assertEquals("value", uut.getString("key_string", null));
+        assertEquals(other.getSequence(), uut.getSequence());
+        assertEquals(1, uut.getReloadCount());
+        
+        // nothing to reload when the sequence hasn't moved
+        uut.getInt("key_int", 0);
+        assertEquals(1, uut.getReloadCount());
+    }
+    
+    @SmallTest
+    public void testChangesMerged() {
+        uut.edit().putInt("key_first", 1).commit();
+        other.edit().putInt("key_second", 2).commit();
+        uut.edit().putInt("key_third", 3).commit();
+        
+        assertEquals(1, other.getInt("key_first", 0));
+        assertEquals(2, other.getInt("key_second", 0));
+        assertEquals(3, other.getInt("key_third", 0));
+    }
+    
+    @SmallTest
+    public void testPendingChangesKept() {
+        uut.edit().putInt("key_first", 1).apply();
+        other.edit().putInt("key_second", 2).commit();
+        
+        // reloading mustn't lose a change which may not be written yet
+        assertEquals(2, uut.getInt("key_second", 0));
+        assertEquals(1, uut.getInt("key_first", 0));
+    }
+    
+    @SmallTest
+    public void testListenersNotified() {
+        final List<String> keys = new ArrayList<>();
+        final StoreBackend.Listener listener = new StoreBackend.Listener() {
+            @Override
+            public void onValueChanged(StoreBackend backend, String key) {
+                keys.add(key);
+            }
+        };
+        uut.registerListener(listener);
+        
+        other.edit().putInt("key_int", 1).commit();
+        uut.refresh();
+        
+        assertEquals(1, keys.size());
+        assertEquals("key_int", keys.get(0));
+        
+        uut.unregisterListener(listener);
+    }
+    
+    private void delete() {
+        file.delete();
+        new File(file.getPath() + ".seq").delete();
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright 2015 Martin Bella
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.orange_box.storebox.harness.engines;
+
+import android.test.InstrumentationTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import net.orange_box.storebox.StoreBox;
+import net.orange_box.storebox.ValueResolver;
+import net.orange_box.storebox.backends.MapStoreBackend;
+import net.orange_box.storebox.backends.ShardedStoreBackend;
+import net.orange_box.storebox.backends.StoreBackend;
+import net.orange_box.storebox.harness.interfaces.engines.ShardedInterface;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+public class ShardedStoreBackendTestCase extends InstrumentationTestCase {
+    
+    private Map<String, MapStoreBackend> opened;
+    private ShardedStoreBackend uut;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        
+        opened = new HashMap<>();
+        uut = ShardedStoreBackend.of(
+                ShardedInterface.class,
+                ValueResolver.NONE,
+                new ShardedStoreBackend.Opener() {
+                    @Override
+                    public StoreBackend open(String shard) {
+                        final MapStoreBackend backend = new MapStoreBackend();
+                        opened.put(shard, backend);
+                        return backend;
+                    }
+                });
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        uut = null;
+        opened = null;
+        
+        super.tearDown();
+    }
+    
+    @SmallTest
+    public void testShards() {
+        assertEquals(3, uut.getShards().size());
+        assertEquals("hot", uut.getShard("key_hot"));
+        assertFalse("hot".equals(uut.getShard("key_cold_int")));
+        assertEquals(
+                uut.getShard("key_cold_int"),
+                uut.getShard("key_cold_int"));
+    }
+    
+    @SmallTest
+    public void testShardsOpenedLazily() {
+        assertTrue(opened.isEmpty());
+        
+        uut.edit().putInt("key_hot", 1).commit();
+        
+        assertEquals(1, opened.size());
+        assertTrue(uut.isOpen("hot"));
+        assertEquals(1, uut.getInt("key_hot", 0));
+        assertEquals(1, opened.get("hot").getInt("key_hot", 0));
+    }
+    
+    @SmallTest
+    public void testShardsWrittenIndependently() {
+        final StoreBackend.Editor editor = uut.edit();
+        editor.putInt("key_hot", 1).putInt("key_cold_int", 2).commit();
+        
+        final String cold = uut.getShard("key_cold_int");
+        editor.putInt("key_hot", 3).commit();
+        
+        assertEquals(3, uut.getInt("key_hot", 0));
+        assertEquals(2, uut.getInt("key_cold_int", 0));
+        assertFalse(opened.get(cold).contains("key_hot"));
+        assertEquals(2, uut.getAll().size());
+        
+        editor.clear().commit();
+        assertTrue(uut.getAll().isEmpty());
+    }
+    
+    @SmallTest
+    public void testValuesMovedFromMain() {
+        final MapStoreBackend main = new MapStoreBackend();
+        main.edit()
+                .putInt("key_hot", 1)
+                .putInt("key_cold_int", 2)
+                .putString("key_cold_string", "value")
+                .commit();
+        
+        final ShardedStoreBackend hashed = new ShardedStoreBackend(
+                Collections.singletonMap("key_hot", "hot"),
+                4,
+                new ShardedStoreBackend.Opener() {
+                    @Override
+                    public StoreBackend open(String shard) {
+                        return shard.equals(ShardedStoreBackend.MAIN_SHARD)
+                                ? main
+                                : new MapStoreBackend();
+                    }
+                });
+        
+        assertEquals(1, hashed.getInt("key_hot", 0));
+        assertFalse(main.contains("key_hot"));
+        assertTrue(main.contains("key_cold_int"));
+        
+        assertEquals(2, hashed.getInt("key_cold_int", 0));
+        assertEquals("value", hashed.getString("key_cold_string", null));
+        assertEquals(3, hashed.getAll().size());
+        assertTrue(main.getAll().isEmpty());
+    }
+    
+    @SmallTest
+    public void testEditorSharedBetweenThreads() throws Exception {
+        final StoreBackend.Editor editor = uut.edit();
+        final Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            final int offset = i * 1000;
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 1000; j++) {
+                        editor.putInt("key_" + (offset + j), j);
+                        if (j % 100 == 0) {
+                            editor.apply();
+                        }
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        editor.commit();
+        
+        assertEquals(4000, uut.getAll().size());
+    }
+    
+    @SmallTest
+    public void testShardedPreferences() {
+        final ShardedInterface prefs = StoreBox.create(
+                getInstrumentation().getTargetContext(),
+                ShardedInterface.class);
+        try {
+            prefs.setHot(1);
+            prefs.setColdInt(2);
+            prefs.setColdString("value");
+            
+            assertEquals(1, prefs.getHot());
+            assertEquals(2, prefs.getColdInt());
+            assertEquals("value", prefs.getColdString());
+            
+            final ShardedInterface other = StoreBox.create(
+                    getInstrumentation().getTargetContext(),
+                    ShardedInterface.class);
+            assertEquals(1, other.getHot());
+            assertEquals("value", other.getColdString());
+        } finally {
+            prefs.clear();
+        }
+    }
+}
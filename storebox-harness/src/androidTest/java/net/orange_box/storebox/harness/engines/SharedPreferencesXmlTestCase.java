@@ -0,0 +1,143 @@
+/*
+ * Copyright 2015 Martin Bella
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.orange_box.storebox.harness.engines;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.test.InstrumentationTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import net.orange_box.storebox.backends.SharedPreferencesXml;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+public class SharedPreferencesXmlTestCase extends InstrumentationTestCase {
+    
+    private Context context;
+    private String name;
+    private File file;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        
+        context = getInstrumentation().getTargetContext();
+        // a new name each time, as Android caches loaded preferences
+        name = "test_xml_" + System.nanoTime();
+        file = new File(
+                new File(context.getApplicationInfo().dataDir, "shared_prefs"),
+                name + ".xml");
+    }
+
+    @SuppressLint("CommitPrefEdits")
+    @Override
+    protected void tearDown() throws Exception {
+        context.getSharedPreferences(name, Context.MODE_PRIVATE)
+                .edit().clear().commit();
+        file.delete();
+        file = null;
+        name = null;
+        context = null;
+        
+        super.tearDown();
+    }
+    
+    @SuppressLint("CommitPrefEdits")
+    @SmallTest
+    public void testReadsAndroidFile() throws Exception {
+        final SharedPreferences prefs =
+                context.getSharedPreferences(name, Context.MODE_PRIVATE);
+        prefs.edit()
+                .putBoolean("key_boolean", true)
+                .putFloat("key_float", 1.5f)
+                .putInt("key_int", -1)
+                .putLong("key_long", Long.MAX_VALUE)
+                .putString("key_string", "<a & \"b\">\n\u00e9\ud83d\ude00")
+                .putStringSet(
+                        "key_string_set",
+                        new HashSet<>(Arrays.asList("a", "")))
+                .commit();
+        
+        assertEquals(prefs.getAll(), SharedPreferencesXml.read(file));
+    }
+    
+    @SmallTest
+    public void testWrittenFileReadByAndroid() throws Exception {
+        final Map<String, Object> values = new HashMap<>();
+        values.put("key_boolean", false);
+        values.put("key_float", -0.25f);
+        values.put("key_int", Integer.MIN_VALUE);
+        values.put("key_long", 1L);
+        values.put("key_string", "line\nbreak\t&amp;");
+        values.put("key_string_set", new HashSet<>(Arrays.asList("x", "y")));
+        
+        file.getParentFile().mkdirs();
+        SharedPreferencesXml.write(file, values);
+        
+        assertEquals(
+                values,
+                context.getSharedPreferences(name, Context.MODE_PRIVATE)
+                        .getAll());
+        assertEquals(values, SharedPreferencesXml.read(file));
+    }
+    
+    @SmallTest
+    public void testReferencesAndComments() throws Exception {
+        final Map<String, Object> values = read(
+                "<?xml version='1.0' encoding='utf-8' standalone='yes' ?>\n"
+                        + "<!-- comment -->\n"
+                        + "<map>\n"
+                        + "    <string name='a'>&lt;&#65;&#x42;</string>\n"
+                        + "    <string name=\"b\"><![CDATA[<c>]]></string>\n"
+                        + "    <string name=\"c\" />\n"
+                        + "    <null name=\"d\" />\n"
+                        + "</map>\n");
+        
+        assertEquals(3, values.size());
+        assertEquals("<AB", values.get("a"));
+        assertEquals("<c>", values.get("b"));
+        assertEquals("", values.get("c"));
+    }
+    
+    @SmallTest
+    public void testMalformedRejected() throws Exception {
+        try {
+            read("<map><int name=\"a\" value=\"1\"</map>");
+            fail();
+        } catch (IOException e) {
+            // NOP
+        }
+        try {
+            read("<map><int value=\"1\" /></map>");
+            fail();
+        } catch (IOException e) {
+            // NOP
+        }
+    }
+    
+    private static Map<String, Object> read(String xml) throws IOException {
+        return SharedPreferencesXml.read(
+                new ByteArrayInputStream(xml.getBytes("UTF-8")));
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2015 Martin Bella
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.orange_box.storebox.harness.engines;
+
+import android.test.InstrumentationTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import net.orange_box.storebox.StoreBox;
+import net.orange_box.storebox.adapters.StoreType;
+import net.orange_box.storebox.backends.SlotLayout;
+import net.orange_box.storebox.backends.SlottedStoreBackend;
+import net.orange_box.storebox.harness.interfaces.engines.SlottedEngineInterface;
+
+import java.io.File;
+
+public class SlottedStoreBackendTestCase extends InstrumentationTestCase {
+    
+    private File file;
+    private SlottedStoreBackend uut;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        
+        file = new File(
+                getInstrumentation().getTargetContext().getCacheDir(),
+                "test.slots");
+        delete();
+        
+        uut = new SlottedStoreBackend(
+                file, SlotLayout.of(SlottedEngineInterface.class));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        uut.close();
+        uut = null;
+        
+        delete();
+        file = null;
+        
+        super.tearDown();
+    }
+    
+    @SmallTest
+    public void testLayout() {
+        final SlotLayout layout = uut.getLayout();
+        
+        assertEquals(3, layout.size());
+        assertTrue(uut.getSlot("key_boolean", StoreType.BOOLEAN)
+                != SlottedStoreBackend.NO_SLOT);
+        assertTrue(uut.getSlot("key_int", StoreType.INTEGER)
+                != SlottedStoreBackend.NO_SLOT);
+        assertTrue(uut.getSlot("key_long", StoreType.LONG)
+                != SlottedStoreBackend.NO_SLOT);
+        assertEquals(
+                SlottedStoreBackend.NO_SLOT,
+                uut.getSlot("key_int", StoreType.LONG));
+        assertEquals(
+                SlottedStoreBackend.NO_SLOT,
+                uut.getSlot("key_string", StoreType.STRING));
+    }
+    
+    @SmallTest
+    public void testSlotsAndOverflow() throws Exception {
+        uut.edit()
+                .putInt("key_int", 1)
+                .putString("key_string", "value")
+                .commit();
+        
+        final int slot = uut.getSlot("key_int", StoreType.INTEGER);
+        assertEquals(1, uut.getInt(slot, 0));
+        assertEquals("value", uut.getString("key_string", null));
+        
+        // a value of a different type moves out of the slot
+        uut.edit().putString("key_int", "value").commit();
+        assertEquals("value", uut.getString("key_int", null));
+        
+        uut.edit().putInt("key_int", 2).commit();
+        reopen();
+        
+        assertEquals(2, uut.getInt(slot, 0));
+        assertEquals(2, uut.getAll().size());
+    }
+    
+    @SmallTest
+    public void testLayoutChanged() throws Exception {
+        uut.edit()
+                .putInt("key_int", 1)
+                .putLong("key_long", 2L)
+                .commit();
+        uut.close();
+        
+        uut = new SlottedStoreBackend(file, SlotLayout.EMPTY);
+        assertEquals(1, uut.getInt("key_int", 0));
+        assertEquals(2L, uut.getLong("key_long", 0L));
+        
+        reopen();
+        assertEquals(1, uut.getInt(
+                uut.getSlot("key_int", StoreType.INTEGER), 0));
+    }
+    
+    @SmallTest
+    public void testSlottedEngine() {
+        final SlottedEngineInterface prefs = StoreBox.create(
+                getInstrumentation().getTargetContext(),
+                SlottedEngineInterface.class);
+        try {
+            assertEquals(5, prefs.getInt(5));
+            
+            prefs.setBoolean(true);
+            prefs.setInt(1);
+            prefs.setLong(2L);
+            prefs.setString("value");
+            
+            assertTrue(prefs.getBoolean());
+            assertEquals(1, prefs.getInt());
+            assertEquals(1, prefs.getInt(5));
+            assertEquals(2L, prefs.getLong());
+            assertEquals("value", prefs.getString());
+        } finally {
+            prefs.clear();
+        }
+    }
+    
+    private void reopen() throws Exception {
+        uut.close();
+        uut = new SlottedStoreBackend(
+                file, SlotLayout.of(SlottedEngineInterface.class));
+    }
+    
+    private void delete() {
+        file.delete();
+        new File(file.getPath() + ".overflow").delete();
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2015 Martin Bella
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.orange_box.storebox.harness.engines;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.test.InstrumentationTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import net.orange_box.storebox.backends.FileBackends;
+import net.orange_box.storebox.backends.SnapshotStoreBackend;
+import net.orange_box.storebox.backends.StoreBackend;
+import net.orange_box.storebox.enums.StoreEngine;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.HashSet;
+
+public class SnapshotStoreBackendTestCase extends InstrumentationTestCase {
+    
+    private File file;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        
+        file = new File(
+                getInstrumentation().getTargetContext().getCacheDir(),
+                "test.snapshot");
+        file.delete();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        file.delete();
+        file = null;
+        
+        super.tearDown();
+    }
+    
+    @SmallTest
+    public void testValuesLoaded() throws Exception {
+        new SnapshotStoreBackend(file).edit()
+                .putBoolean("key_boolean", true)
+                .putFloat("key_float", 1.0F)
+                .putInt("key_int", 1)
+                .putLong("key_long", 1L)
+                .putString("key_string", "value")
+                .putStringSet(
+                        "key_string_set",
+                        new HashSet<>(Arrays.asList("one", "two")))
+                .commit();
+        
+        final StoreBackend uut = new SnapshotStoreBackend(file);
+        assertTrue(uut.getBoolean("key_boolean", false));
+        assertEquals(1.0F, uut.getFloat("key_float", 0F));
+        assertEquals(1, uut.getInt("key_int", 0));
+        assertEquals(1L, uut.getLong("key_long", 0L));
+        assertEquals("value", uut.getString("key_string", null));
+        assertEquals(
+                new HashSet<>(Arrays.asList("one", "two")),
+                uut.getStringSet("key_string_set", null));
+    }
+    
+    @SmallTest
+    public void testCorruptionDetected() throws Exception {
+        new SnapshotStoreBackend(file).edit()
+                .putString("key_string", "value")
+                .commit();
+        
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.seek(raf.length() - 1);
+            raf.write('x');
+        } finally {
+            raf.close();
+        }
+        
+        try {
+            new SnapshotStoreBackend(file);
+            fail();
+        } catch (IOException e) {
+            // NOP
+        }
+    }
+    
+    @SuppressLint("CommitPrefEdits")
+    @SmallTest
+    public void testImportedFromSharedPreferences() {
+        final Context context = getInstrumentation().getTargetContext();
+        final SharedPreferences prefs = context.getSharedPreferences(
+                "test_import", Context.MODE_PRIVATE);
+        prefs.edit()
+                .putInt("key_int", 1)
+                .putString("key_string", "value")
+                .commit();
+        
+        final File directory = new File(context.getCacheDir(), "import");
+        final File imported = new File(directory, "test_import.snapshot");
+        imported.delete();
+        try {
+            final StoreBackend uut = FileBackends.open(
+                    StoreEngine.SNAPSHOT,
+                    directory,
+                    "test_import",
+                    new File(
+                            new File(
+                                    context.getApplicationInfo().dataDir,
+                                    "shared_prefs"),
+                            "test_import.xml"));
+            
+            assertEquals(1, uut.getInt("key_int", 0));
+            assertEquals("value", uut.getString("key_string", null));
+            assertTrue(imported.exists());
+        } finally {
+            prefs.edit().clear().commit();
+            imported.delete();
+        }
+    }
+}
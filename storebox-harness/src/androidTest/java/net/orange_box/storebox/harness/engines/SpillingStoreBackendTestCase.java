@@ -0,0 +1,129 @@
+/*
+ * Copyright 2015 Martin Bella
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.orange_box.storebox.harness.engines;
+
+import android.test.InstrumentationTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import net.orange_box.storebox.StoreBox;
+import net.orange_box.storebox.backends.MapStoreBackend;
+import net.orange_box.storebox.backends.SpillingStoreBackend;
+import net.orange_box.storebox.harness.interfaces.engines.SpillingInterface;
+
+import java.io.File;
+
+public class SpillingStoreBackendTestCase extends InstrumentationTestCase {
+    
+    private static final String SHORT = "short";
+    private static final String LONG = "a value which is longer than 16";
+    
+    private File directory;
+    private MapStoreBackend backend;
+    private SpillingStoreBackend uut;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        
+        directory = new File(
+                getInstrumentation().getTargetContext().getCacheDir(),
+                "test.spill");
+        delete();
+        
+        backend = new MapStoreBackend();
+        uut = new SpillingStoreBackend(backend, directory, 16);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        uut = null;
+        backend = null;
+        
+        delete();
+        directory = null;
+        
+        super.tearDown();
+    }
+    
+    @SmallTest
+    public void testShortValueStoredInline() {
+        uut.edit().putString("key", SHORT).commit();
+        
+        assertFalse(uut.isSpilled("key"));
+        assertEquals(SHORT, backend.getString("key", null));
+        assertEquals(SHORT, uut.getString("key", null));
+    }
+    
+    @SmallTest
+    public void testLongValueSpilled() {
+        uut.edit().putString("key", LONG).commit();
+        
+        assertTrue(uut.isSpilled("key"));
+        assertFalse(LONG.equals(backend.getString("key", null)));
+        assertEquals(1, directory.list().length);
+        assertEquals(LONG, uut.getString("key", null));
+        assertEquals(LONG, uut.getAll().get("key"));
+        
+        // read from the file by a new instance
+        final SpillingStoreBackend other =
+                new SpillingStoreBackend(backend, directory, 16);
+        assertEquals(LONG, other.getString("key", null));
+    }
+    
+    @SmallTest
+    public void testReplacedFilesDeleted() {
+        uut.edit().putString("key", LONG).commit();
+        uut.edit().putString("key", LONG + LONG).commit();
+        
+        assertEquals(1, directory.list().length);
+        assertEquals(LONG + LONG, uut.getString("key", null));
+        
+        uut.edit().putString("key", SHORT).commit();
+        assertEquals(0, directory.list().length);
+        
+        uut.edit().putString("key", LONG).commit();
+        uut.edit().clear().commit();
+        assertEquals(0, directory.list().length);
+        assertNull(uut.getString("key", null));
+    }
+    
+    @SmallTest
+    public void testSpillingPreferences() {
+        final SpillingInterface prefs = StoreBox.create(
+                getInstrumentation().getTargetContext(),
+                SpillingInterface.class);
+        try {
+            prefs.setString(LONG);
+            assertEquals(LONG, prefs.getString());
+            
+            prefs.setString(SHORT);
+            assertEquals(SHORT, prefs.getString());
+        } finally {
+            prefs.clear();
+        }
+    }
+    
+    private void delete() {
+        final File[] files = directory.listFiles();
+        if (files != null) {
+            for (final File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+}
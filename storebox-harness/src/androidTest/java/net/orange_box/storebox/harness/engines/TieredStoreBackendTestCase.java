@@ -0,0 +1,132 @@
+/*
+ * Copyright 2015 Martin Bella
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.orange_box.storebox.harness.engines;
+
+import android.test.InstrumentationTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import net.orange_box.storebox.StoreBox;
+import net.orange_box.storebox.backends.TieredStoreBackend;
+import net.orange_box.storebox.enums.EvictionPolicy;
+import net.orange_box.storebox.harness.interfaces.engines.TieredEngineInterface;
+
+import java.io.File;
+
+public class TieredStoreBackendTestCase extends InstrumentationTestCase {
+    
+    private File file;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        
+        file = new File(
+                getInstrumentation().getTargetContext().getCacheDir(),
+                "test.tiered");
+        file.delete();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        file.delete();
+        file = null;
+        
+        super.tearDown();
+    }
+    
+    @SmallTest
+    public void testColdValuesReadFromDisk() throws Exception {
+        final TieredStoreBackend uut = new TieredStoreBackend(
+                file, 4, Long.MAX_VALUE, EvictionPolicy.LRU);
+        try {
+            for (int i = 0; i < 10; i++) {
+                uut.edit().putInt("key_" + i, i).commit();
+            }
+            
+            assertEquals(4, uut.getHotSize());
+            assertEquals(6, uut.getEvictionCount());
+            
+            // evicted
+            assertEquals(0, uut.getInt("key_0", -1));
+            assertEquals(0, uut.getHitCount());
+            // kept in memory
+            assertEquals(9, uut.getInt("key_9", -1));
+            assertEquals(1, uut.getHitCount());
+            assertEquals(0.5, uut.getHitRate());
+        } finally {
+            uut.close();
+        }
+    }
+    
+    @SmallTest
+    public void testFrequentValuesSurviveScan() throws Exception {
+        final TieredStoreBackend uut = new TieredStoreBackend(
+                file, 100, Long.MAX_VALUE, EvictionPolicy.W_TINY_LFU);
+        try {
+            for (int i = 0; i < 1000; i++) {
+                uut.edit().putInt("key_" + i, i).commit();
+            }
+            for (int i = 0; i < 10; i++) {
+                for (int j = 0; j < 10; j++) {
+                    uut.getInt("key_" + j, -1);
+                }
+            }
+            
+            // a scan over values used only once
+            for (int i = 100; i < 1000; i++) {
+                uut.getInt("key_" + i, -1);
+            }
+            
+            final long hits = uut.getHitCount();
+            for (int j = 0; j < 10; j++) {
+                assertEquals(j, uut.getInt("key_" + j, -1));
+            }
+            assertEquals(hits + 10, uut.getHitCount());
+        } finally {
+            uut.close();
+        }
+    }
+    
+    @SmallTest
+    public void testRemovedValuesDropped() throws Exception {
+        final TieredStoreBackend uut = new TieredStoreBackend(file);
+        try {
+            uut.edit().putString("key", "value").commit();
+            uut.edit().remove("key").commit();
+            
+            assertNull(uut.getString("key", null));
+            assertEquals(0, uut.getHotSize());
+        } finally {
+            uut.close();
+        }
+    }
+    
+    @SmallTest
+    public void testTieredPreferences() {
+        final TieredEngineInterface prefs = StoreBox.create(
+                getInstrumentation().getTargetContext(),
+                TieredEngineInterface.class);
+        try {
+            prefs.setString("value");
+            assertEquals("value", prefs.getString());
+            assertTrue(StoreBox.getBackend(prefs)
+                    instanceof TieredStoreBackend);
+        } finally {
+            prefs.clear();
+        }
+    }
+}
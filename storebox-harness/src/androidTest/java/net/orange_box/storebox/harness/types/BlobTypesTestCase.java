@@ -0,0 +1,125 @@
+/*
+ * Copyright 2015 Martin Bella
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.orange_box.storebox.harness.types;
+
+import android.test.InstrumentationTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import net.orange_box.storebox.StoreBox;
+import net.orange_box.storebox.harness.interfaces.types.BlobTypesInterface;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+
+public class BlobTypesTestCase extends InstrumentationTestCase {
+    
+    private static final byte[] BLOB = new byte[] {1, 2, 3, 4, 5};
+    
+    private BlobTypesInterface uut;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        
+        uut = StoreBox.create(
+                getInstrumentation().getTargetContext(),
+                BlobTypesInterface.class);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        uut.clear();
+        uut = null;
+        
+        super.tearDown();
+    }
+    
+    @SmallTest
+    public void testMissing() {
+        assertNull(uut.getInputStream());
+        assertNull(uut.getChannel());
+        assertNull(uut.getBuffer());
+    }
+    
+    @SmallTest
+    public void testInputStream() throws IOException {
+        uut.setInputStream(new ByteArrayInputStream(BLOB));
+        
+        assertBlob(uut.getInputStream());
+    }
+    
+    @SmallTest
+    public void testOutputStream() throws IOException {
+        final OutputStream stream = uut.openOutputStream();
+        try {
+            stream.write(BLOB);
+        } finally {
+            stream.close();
+        }
+        
+        assertBlob(uut.getInputStream());
+    }
+    
+    @SmallTest
+    public void testByteBuffer() {
+        uut.setBuffer(ByteBuffer.wrap(BLOB));
+        
+        final ByteBuffer buffer = uut.getBuffer();
+        final byte[] read = new byte[buffer.remaining()];
+        buffer.get(read);
+        assertTrue(Arrays.equals(BLOB, read));
+    }
+    
+    @SmallTest
+    public void testChannel() throws IOException {
+        uut.setBuffer(ByteBuffer.wrap(BLOB));
+        
+        final ReadableByteChannel channel = uut.getChannel();
+        try {
+            final ByteBuffer buffer = ByteBuffer.allocate(BLOB.length);
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // NOP
+            }
+            assertTrue(Arrays.equals(BLOB, buffer.array()));
+        } finally {
+            channel.close();
+        }
+    }
+    
+    private static void assertBlob(InputStream stream) throws IOException {
+        try {
+            final byte[] read = new byte[BLOB.length];
+            int offset = 0;
+            while (offset < read.length) {
+                final int count = stream.read(
+                        read, offset, read.length - offset);
+                assertTrue(count > 0);
+                offset += count;
+            }
+            
+            assertTrue(Arrays.equals(BLOB, read));
+            assertEquals(-1, stream.read());
+        } finally {
+            stream.close();
+        }
+    }
+}
@@ -25,6 +25,7 @@ import android.test.suitebuilder.annotation.SmallTest;
 
 import net.orange_box.storebox.StoreBox;
 import net.orange_box.storebox.harness.interfaces.types.CustomTypesInterface;
+import net.orange_box.storebox.harness.types.adapters.PrefixedStringTypeAdapter;
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -40,6 +41,8 @@ public class CustomTypesTestCase extends InstrumentationTestCase {
     @Override
     protected void setUp() throws Exception {
         super.setUp();
+        
+        StoreBox.registerTypeAdapter(new PrefixedStringTypeAdapter("prefix:"));
 
         uut = StoreBox.create(
                 getInstrumentation().getTargetContext(),
@@ -203,4 +206,14 @@ public class CustomTypesTestCase extends InstrumentationTestCase {
         
         assertNull(uut.getCustomClassList());
     }
+    
+    @SmallTest
+    public void testRegisteredTypeAdapter() {
+        uut.setPrefixedString("value");
+        
+        assertEquals("value", uut.getPrefixedString());
+        assertEquals(
+                "prefix:value",
+                prefs.getString("key_prefixed_string", null));
+    }
 }
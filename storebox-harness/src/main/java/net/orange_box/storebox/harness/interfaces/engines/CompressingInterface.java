@@ -0,0 +1,45 @@
+/*
+ * Copyright 2015 Martin Bella
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.orange_box.storebox.harness.interfaces.engines;
+
+import net.orange_box.storebox.annotations.method.ClearMethod;
+import net.orange_box.storebox.annotations.method.KeyByString;
+import net.orange_box.storebox.annotations.option.CompressOption;
+import net.orange_box.storebox.annotations.option.SaveOption;
+import net.orange_box.storebox.annotations.type.FilePreferences;
+import net.orange_box.storebox.enums.SaveMode;
+
+@FilePreferences("test_compressing")
+@SaveOption(SaveMode.COMMIT)
+public interface CompressingInterface {
+    
+    @KeyByString("key_compressed")
+    @CompressOption(threshold = 64)
+    String getCompressed();
+    
+    @KeyByString("key_compressed")
+    void setCompressed(String value);
+    
+    @KeyByString("key_string")
+    String getString();
+    
+    @KeyByString("key_string")
+    void setString(String value);
+    
+    @ClearMethod
+    void clear();
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright 2015 Martin Bella
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.orange_box.storebox.harness.interfaces.engines;
+
+import net.orange_box.storebox.annotations.method.KeyByString;
+import net.orange_box.storebox.annotations.type.FilePreferences;
+import net.orange_box.storebox.enums.StoreEngine;
+
+/**
+ * Shares the file of {@link LogEngineInterface}.
+ */
+@FilePreferences(value = "test_log", engine = StoreEngine.LOG)
+public interface LogEngineSharedInterface {
+    
+    @KeyByString("key_string")
+    String getString();
+}
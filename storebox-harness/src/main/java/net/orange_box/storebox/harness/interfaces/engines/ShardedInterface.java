@@ -0,0 +1,54 @@
+/*
+ * Copyright 2015 Martin Bella
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.orange_box.storebox.harness.interfaces.engines;
+
+import net.orange_box.storebox.annotations.method.ClearMethod;
+import net.orange_box.storebox.annotations.method.KeyByString;
+import net.orange_box.storebox.annotations.option.SaveOption;
+import net.orange_box.storebox.annotations.option.Shard;
+import net.orange_box.storebox.annotations.option.ShardOption;
+import net.orange_box.storebox.annotations.type.FilePreferences;
+import net.orange_box.storebox.enums.SaveMode;
+
+@FilePreferences("test_sharded")
+@SaveOption(SaveMode.COMMIT)
+@ShardOption(hashed = 2)
+public interface ShardedInterface {
+    
+    @KeyByString("key_hot")
+    @Shard("hot")
+    int getHot();
+    
+    @KeyByString("key_hot")
+    @Shard("hot")
+    void setHot(int value);
+    
+    @KeyByString("key_cold_int")
+    int getColdInt();
+    
+    @KeyByString("key_cold_int")
+    void setColdInt(int value);
+    
+    @KeyByString("key_cold_string")
+    String getColdString();
+    
+    @KeyByString("key_cold_string")
+    void setColdString(String value);
+    
+    @ClearMethod
+    void clear();
+}
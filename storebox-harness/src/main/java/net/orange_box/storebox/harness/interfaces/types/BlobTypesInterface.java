@@ -0,0 +1,54 @@
+/*
+ * Copyright 2015 Martin Bella
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.orange_box.storebox.harness.interfaces.types;
+
+import net.orange_box.storebox.annotations.method.ClearMethod;
+import net.orange_box.storebox.annotations.method.KeyByString;
+import net.orange_box.storebox.annotations.option.SaveOption;
+import net.orange_box.storebox.annotations.type.FilePreferences;
+import net.orange_box.storebox.enums.SaveMode;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+@FilePreferences("test_blobs")
+@SaveOption(SaveMode.COMMIT)
+public interface BlobTypesInterface {
+    
+    @KeyByString("key_blob")
+    InputStream getInputStream();
+    
+    @KeyByString("key_blob")
+    ReadableByteChannel getChannel();
+    
+    @KeyByString("key_blob")
+    ByteBuffer getBuffer();
+    
+    @KeyByString("key_blob")
+    OutputStream openOutputStream();
+    
+    @KeyByString("key_blob")
+    void setInputStream(InputStream value);
+    
+    @KeyByString("key_blob")
+    void setBuffer(ByteBuffer value);
+    
+    @ClearMethod
+    void clear();
+}
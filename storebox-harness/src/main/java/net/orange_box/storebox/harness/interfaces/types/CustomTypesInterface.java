@@ -24,6 +24,7 @@ import net.orange_box.storebox.harness.types.CustomClass;
 import net.orange_box.storebox.harness.types.CustomEnum;
 import net.orange_box.storebox.harness.types.adapters.CustomClassListTypeAdapter;
 import net.orange_box.storebox.harness.types.adapters.CustomClassTypeAdapter;
+import net.orange_box.storebox.harness.types.adapters.PrefixedStringTypeAdapter;
 
 import java.util.Date;
 import java.util.List;
@@ -94,4 +95,13 @@ public interface CustomTypesInterface {
     @TypeAdapter(CustomClassListTypeAdapter.class)
     @KeyByString("key_custom_class_list")
     void setCustomClassList(List<CustomClass> value);
+    
+    
+    @TypeAdapter(PrefixedStringTypeAdapter.class)
+    @KeyByString("key_prefixed_string")
+    String getPrefixedString();
+    
+    @TypeAdapter(PrefixedStringTypeAdapter.class)
+    @KeyByString("key_prefixed_string")
+    void setPrefixedString(String value);
 }
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2015 Martin Bella
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.orange_box.storebox.harness.types.adapters;
+
+import android.support.annotation.Nullable;
+
+import net.orange_box.storebox.adapters.base.BaseStringTypeAdapter;
+
+/**
+ * Has no no-arguments constructor, so it can only be used after an instance
+ * has been registered.
+ */
+public class PrefixedStringTypeAdapter extends BaseStringTypeAdapter<String> {
+    
+    private final String prefix;
+    
+    public PrefixedStringTypeAdapter(String prefix) {
+        this.prefix = prefix;
+    }
+
+    @Nullable
+    @Override
+    public String adaptForPreferences(@Nullable String value) {
+        if (value == null) {
+            return null;
+        }
+        
+        return prefix + value;
+    }
+
+    @Nullable
+    @Override
+    public String adaptFromPreferences(@Nullable String value) {
+        if (value == null) {
+            return null;
+        }
+        
+        return value.substring(prefix.length());
+    }
+}
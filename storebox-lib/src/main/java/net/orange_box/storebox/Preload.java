@@ -0,0 +1,133 @@
+/*
+ * Copyright 2015 Martin Bella
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.orange_box.storebox;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Handle for preferences being loaded in the background, as returned by
+ * {@link StoreBox#preload(android.content.Context, Class[])}.
+ * <p>
+ * Preferences get loaded on a small pool of threads shared by all
+ * preloads, so that loading many of them doesn't compete with the app's own
+ * threads for more than a few cores.
+ */
+public final class Preload {
+    
+    private static final int THREADS = Math.max(
+            2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    private static final long KEEP_ALIVE_SECONDS = 5;
+    
+    private static final ThreadPoolExecutor EXECUTOR = new ThreadPoolExecutor(
+            THREADS,
+            THREADS,
+            KEEP_ALIVE_SECONDS,
+            TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(),
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    final Thread thread =
+                            new Thread(runnable, "StoreBox preload");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+    
+    static {
+        // no threads are kept around once everything has been loaded
+        EXECUTOR.allowCoreThreadTimeOut(true);
+    }
+    
+    private final CountDownLatch remaining;
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    
+    private Preload(int count) {
+        remaining = new CountDownLatch(count);
+    }
+    
+    static Preload start(List<Runnable> tasks) {
+        final Preload preload = new Preload(tasks.size());
+        for (final Runnable task : tasks) {
+            EXECUTOR.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        task.run();
+                    } catch (Throwable e) {
+                        preload.failure.compareAndSet(null, e);
+                    } finally {
+                        preload.remaining.countDown();
+                    }
+                }
+            });
+        }
+        
+        return preload;
+    }
+    
+    /**
+     * @return whether all of the preferences have been loaded, or failed to
+     * load
+     */
+    public boolean isDone() {
+        return remaining.getCount() == 0;
+    }
+    
+    /**
+     * Waits until all of the preferences have been loaded.
+     * 
+     * @throws RuntimeException if any of the preferences failed to load
+     */
+    public void await() throws InterruptedException {
+        remaining.await();
+        checkFailure();
+    }
+    
+    /**
+     * Waits until all of the preferences have been loaded, or until the
+     * timeout elapses.
+     * 
+     * @return whether all of the preferences have been loaded
+     * @throws RuntimeException if any of the preferences failed to load
+     */
+    public boolean await(long timeout, TimeUnit unit)
+            throws InterruptedException {
+        
+        if (!remaining.await(timeout, unit)) {
+            return false;
+        }
+        
+        checkFailure();
+        return true;
+    }
+    
+    private void checkFailure() {
+        final Throwable e = failure.get();
+        if (e instanceof RuntimeException) {
+            throw (RuntimeException) e;
+        } else if (e != null) {
+            throw new RuntimeException("Failed to preload preferences", e);
+        }
+    }
+}
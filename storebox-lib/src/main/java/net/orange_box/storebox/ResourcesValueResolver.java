@@ -0,0 +1,44 @@
+/*
+ * Copyright 2015 Martin Bella
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.orange_box.storebox;
+
+import android.content.res.Resources;
+
+import net.orange_box.storebox.utils.ResourceUtils;
+
+/**
+ * Resolves keys and defaults declared through resource identifiers.
+ */
+final class ResourcesValueResolver implements ValueResolver {
+    
+    private final Resources res;
+    
+    public ResourcesValueResolver(Resources res) {
+        this.res = res;
+    }
+    
+    @Override
+    public String getString(int id) {
+        return res.getString(id);
+    }
+    
+    @Override
+    public Object getValue(int id, Class<?> type) {
+        return ResourceUtils.getDefaultValue(res, id, type);
+    }
+}
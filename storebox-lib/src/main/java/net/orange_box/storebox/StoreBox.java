@@ -16,20 +16,57 @@
 
 package net.orange_box.storebox;
 
+import android.annotation.SuppressLint;
 import android.app.Activity;
 import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.Uri;
+import android.preference.PreferenceManager;
 import android.text.TextUtils;
 
+import net.orange_box.storebox.adapters.StoreBoxTypeAdapter;
+import net.orange_box.storebox.adapters.StoreType;
+import net.orange_box.storebox.adapters.extra.UriTypeAdapter;
+import net.orange_box.storebox.annotations.option.CompressOption;
+import net.orange_box.storebox.annotations.option.DurabilityOption;
+import net.orange_box.storebox.annotations.option.EncryptionOption;
+import net.orange_box.storebox.annotations.option.JournalOption;
+import net.orange_box.storebox.annotations.option.MigrationOption;
 import net.orange_box.storebox.annotations.option.SaveOption;
+import net.orange_box.storebox.annotations.option.Shard;
+import net.orange_box.storebox.annotations.option.SpillOption;
 import net.orange_box.storebox.annotations.type.ActivityPreferences;
 import net.orange_box.storebox.annotations.type.DefaultSharedPreferences;
 import net.orange_box.storebox.annotations.type.FilePreferences;
+import net.orange_box.storebox.annotations.type.MemoryPreferences;
+import net.orange_box.storebox.backends.BackendSharedPreferences;
+import net.orange_box.storebox.backends.BaseStoreBackend;
+import net.orange_box.storebox.backends.CompressingStoreBackend;
+import net.orange_box.storebox.backends.EncryptedStoreBackend;
+import net.orange_box.storebox.backends.FileBackends;
+import net.orange_box.storebox.backends.JournaledStoreBackend;
+import net.orange_box.storebox.backends.MemoryBackends;
+import net.orange_box.storebox.backends.MigratingStoreBackend;
+import net.orange_box.storebox.backends.ReadOnlyStoreBackend;
+import net.orange_box.storebox.backends.ShardedStoreBackend;
+import net.orange_box.storebox.backends.SharedPreferencesBackend;
+import net.orange_box.storebox.backends.SoftwareKeyProvider;
+import net.orange_box.storebox.backends.SpillingStoreBackend;
+import net.orange_box.storebox.backends.StoreBackend;
+import net.orange_box.storebox.enums.FlushPolicy;
 import net.orange_box.storebox.enums.PreferencesMode;
 import net.orange_box.storebox.enums.PreferencesType;
 import net.orange_box.storebox.enums.SaveMode;
+import net.orange_box.storebox.enums.StoreEngine;
+import net.orange_box.storebox.utils.TypeUtils;
 
-import java.lang.reflect.Proxy;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Locale;
+import java.util.Set;
 
 /**
  * Creates a no-thrills instance of the supplied interface, by reading any
@@ -39,6 +76,13 @@ import java.util.Locale;
  * {@link Builder}.
  */
 public final class StoreBox {
+    
+    private static final String STARTUP_PROFILE = "startup.profile";
+    
+    static {
+        // needs the Android APIs, so it can't be registered by the core
+        TypeUtils.registerTypeAdapter(Uri.class, new UriTypeAdapter());
+    }
 
     /**
      * @param context - the context under which the
@@ -50,6 +94,149 @@ public final class StoreBox {
         return new Builder<>(context, cls).build();
     }
 
+    /**
+     * Starts loading the preferences used by each of {@code classes} in
+     * parallel on background threads, so that instances created once the
+     * returned {@link Preload} completes don't need to wait for the disk
+     * when getting their first value. Preferences which have been loaded
+     * get reused by all instances using them.
+     * 
+     * @param context - the context under which the preferences should be
+     * opened
+     * @param classes - interface classes whose preferences should be loaded,
+     * using the options of their annotations
+     * @return handle for waiting until all of the preferences are loaded
+     * @throws IllegalArgumentException if the options of one of the
+     * classes aren't valid
+     */
+    public static Preload preload(Context context, Class<?>... classes) {
+        final List<Runnable> tasks = new ArrayList<>(classes.length);
+        for (final Class<?> cls : classes) {
+            tasks.add(new Builder<>(context, cls).preloader());
+        }
+        
+        return Preload.start(tasks);
+    }
+
+    /**
+     * Starts recording which interfaces and keys get accessed during the next
+     * {@code windowMillis}, and prefetches the ones recorded during the
+     * previous start of the process on background threads. The preferences
+     * get loaded like through {@link #preload(Context, Class[])}, and values
+     * read through a custom
+     * {@link net.orange_box.storebox.annotations.method.TypeAdapter} get
+     * decoded ahead of time.
+     * <p>
+     * Should be called as early as possible, such as from
+     * {@link android.app.Application#onCreate()}, as only instances created
+     * afterwards get recorded. How well the previous profile predicted this
+     * start can be found out through {@link StartupProfiler#getHitRate()}
+     * once recording has finished.
+     * 
+     * @param context - the context under which the preferences should be
+     * opened
+     * @param windowMillis - for how long to record for
+     * @return handle for waiting until the recorded preferences are loaded
+     */
+    public static Preload profileStartup(Context context, long windowMillis) {
+        final File file = new File(
+                context.getDir(Builder.ENGINES_DIR, Context.MODE_PRIVATE),
+                STARTUP_PROFILE);
+        StartupProfile previous = null;
+        if (file.exists()) {
+            try {
+                previous = StartupProfile.read(file);
+            } catch (IOException e) {
+                // NOP, gets recorded again
+            }
+        }
+        
+        StartupProfiler.start(
+                previous,
+                windowMillis,
+                new StartupProfiler.Callback() {
+                    @Override
+                    public void onRecorded(StartupProfile profile) {
+                        try {
+                            profile.write(file);
+                        } catch (IOException e) {
+                            // NOP, gets recorded again
+                        }
+                    }
+                });
+        
+        final List<Runnable> tasks = new ArrayList<>();
+        if (previous != null) {
+            for (final String name : previous.getInterfaces()) {
+                try {
+                    tasks.add(new Builder<>(
+                            context,
+                            Class.forName(
+                                    name, false, context.getClassLoader()))
+                            .preloader(previous.getKeys(name)));
+                } catch (ClassNotFoundException | IllegalArgumentException e) {
+                    // NOP, removed or changed since
+                }
+            }
+        }
+        
+        return Preload.start(tasks);
+    }
+
+    /**
+     * Registers a configured instance of a type adapter, which will then be
+     * used by all methods declaring its class through
+     * {@link net.orange_box.storebox.annotations.method.TypeAdapter} instead
+     * of creating a new instance. Should be called before any instances
+     * using the adapter get created.
+     * 
+     * @param adapter - the adapter instance which should be shared
+     */
+    public static void registerTypeAdapter(StoreBoxTypeAdapter adapter) {
+        TypeUtils.registerTypeAdapter(adapter);
+    }
+
+    /**
+     * @param instance - instance created by StoreBox
+     * @return backend which {@code instance} stores its values in, which can
+     * be used for inspecting it, such as the statistics of a
+     * {@link JournaledStoreBackend}
+     * @throws IllegalArgumentException if {@code instance} wasn't created by
+     * StoreBox
+     */
+    public static StoreBackend getBackend(Object instance) {
+        return StoreBoxFactory.getBackend(instance);
+    }
+
+    /**
+     * Takes a snapshot of the values of {@code instance}, so that several
+     * values can be read consistently while changes are being saved on other
+     * threads, without blocking them. Values kept in memory, such as by a
+     * journal or by the {@code LOG} engine, get snapshotted without copying
+     * them, whereas any other values get copied.
+     * 
+     * @param instance - instance created by StoreBox
+     * @return read-only instance of the same interface, holding the values
+     * of {@code instance} as they are now, which throws an
+     * {@link UnsupportedOperationException} when trying to change them
+     * @throws IllegalArgumentException if {@code instance} wasn't created by
+     * StoreBox
+     */
+    public static <T> T snapshot(T instance) {
+        final StoreBackend snapshot =
+                ReadOnlyStoreBackend.snapshot(getBackend(instance));
+        final StoreBackend.Editor editor = snapshot.edit();
+        
+        return StoreBoxFactory.snapshot(
+                instance,
+                snapshot,
+                editor,
+                new ForwardingTargets(
+                        new BackendSharedPreferences(snapshot),
+                        BackendSharedPreferences.wrap(editor),
+                        SharedPreferences.Editor.class));
+    }
+
     private StoreBox() {}
 
     /**
@@ -60,6 +247,15 @@ public final class StoreBox {
      */
     public static final class Builder<T> {
 
+        private static final String ENGINES_DIR = "storebox";
+        private static final String SPILL_DIR_SUFFIX = ".spill";
+        private static final int NO_SPILLING = -1;
+        private static final String JOURNAL_SUFFIX = ".journal";
+        private static final int NO_JOURNAL = -1;
+        private static final String KEYS_DIR = "keys";
+        private static final int NO_COMPRESSION = -1;
+        private static final String MIGRATION_SUFFIX = ".migration";
+
         private final Context context;
         private final Class<T> cls;
 
@@ -67,6 +263,18 @@ public final class StoreBox {
         private String preferencesName = "";
         private PreferencesMode preferencesMode = PreferencesMode.MODE_PRIVATE;
         private SaveMode saveMode = SaveMode.APPLY;
+        private StoreEngine engine = StoreEngine.SHARED_PREFERENCES;
+        private int spillThreshold = NO_SPILLING;
+        private int journalThreshold = NO_JOURNAL;
+        private int compressThreshold = NO_COMPRESSION;
+        private FlushPolicy flushPolicy = FlushPolicy.PER_WRITE;
+        private long groupMillis;
+        private boolean encrypted;
+        private EncryptedStoreBackend.KeyProvider keyProvider;
+        private String keyAlias = "";
+        private StoreEngine migrationSource;
+        private int migrationBatchSize =
+                MigratingStoreBackend.DEFAULT_BATCH_SIZE;
 
         public Builder(Context context, Class<T> cls) {
             this.context = context;
@@ -99,21 +307,403 @@ public final class StoreBox {
         }
 
         /**
+         * Engines other than {@link StoreEngine#SHARED_PREFERENCES} can only
+         * be used with {@link PreferencesType#FILE} and
+         * {@link PreferencesMode#MODE_PRIVATE}.
+         */
+        public Builder engine(StoreEngine value) {
+            engine = value;
+            return this;
+        }
+
+        /**
+         * String values longer than {@code threshold} characters will be
+         * stored in separate files.
+         * 
+         * @see SpillOption
+         */
+        public Builder spillThreshold(int threshold) {
+            spillThreshold = threshold;
+            return this;
+        }
+
+        /**
+         * String values, and items of String set values, whose UTF-8
+         * encoding is longer than {@code threshold} bytes will be
+         * compressed.
+         * 
+         * @see CompressOption
+         */
+        public Builder compressThreshold(int threshold) {
+            compressThreshold = threshold;
+            return this;
+        }
+
+        /**
+         * Changes will be saved by appending them to a journal, which gets
+         * folded into the preferences once it's larger than
+         * {@code threshold} bytes.
+         * 
+         * @see JournalOption
+         */
+        public Builder journalThreshold(int threshold) {
+            journalThreshold = threshold;
+            return this;
+        }
+
+        /**
+         * Only supported by engines other than
+         * {@link StoreEngine#SHARED_PREFERENCES}, or together with a journal.
+         * 
+         * @see DurabilityOption
+         */
+        public Builder durability(FlushPolicy policy, long groupMillis) {
+            flushPolicy = policy;
+            this.groupMillis = groupMillis;
+            return this;
+        }
+
+        /**
+         * Values stored with the {@code from} engine will be migrated to the
+         * engine of the preferences on a background thread, copying
+         * {@code batchSize} values at a time.
+         * 
+         * @see MigrationOption
+         */
+        public Builder migration(StoreEngine from, int batchSize) {
+            migrationSource = from;
+            migrationBatchSize = batchSize;
+            return this;
+        }
+
+        /**
+         * Values will be encrypted with a key obtained from {@code provider}
+         * for the name of the preferences.
+         * 
+         * @see EncryptionOption
+         */
+        public Builder encryption(EncryptedStoreBackend.KeyProvider provider) {
+            return encryption(provider, "");
+        }
+
+        /**
+         * Values will be encrypted with a key obtained from {@code provider}
+         * for {@code alias}.
+         * 
+         * @see EncryptionOption
+         */
+        public Builder encryption(
+                EncryptedStoreBackend.KeyProvider provider, String alias) {
+
+            encrypted = true;
+            keyProvider = provider;
+            keyAlias = alias;
+            return this;
+        }
+
+        /**
+         * If an implementation for {@code cls} has been generated by the
+         * {@code storebox-processor} annotation processor then an instance of
+         * it will be returned, otherwise a dynamic proxy will be created.
+         * 
          * @return new instance of class {@code cls} using {@code context}
          */
-        @SuppressWarnings("unchecked")
+        @SuppressLint("CommitPrefEdits")
         public T build() {
             validate();
             
-            return (T) Proxy.newProxyInstance(
-                    cls.getClassLoader(),
-                    new Class[]{cls},
-                    new StoreBoxInvocationHandler(
-                            context,
-                            preferencesType,
-                            preferencesName,
-                            preferencesMode,
-                            saveMode));
+            final ValueResolver resolver =
+                    new ResourcesValueResolver(context.getResources());
+            final StoreBackend backend = openStore(resolver);
+            StartupProfiler.onOpened(cls, getPreferencesFileName());
+            if (backend == null) {
+                final SharedPreferences prefs = openPreferences();
+                final SharedPreferences.Editor editor = prefs.edit();
+                
+                return StoreBoxFactory.create(
+                        cls,
+                        new SharedPreferencesBackend(prefs),
+                        SharedPreferencesBackend.wrap(editor),
+                        resolver,
+                        saveMode,
+                        new ForwardingTargets(
+                                prefs, editor, SharedPreferences.Editor.class));
+            }
+            
+            final StoreBackend.Editor editor = backend.edit();
+            
+            return StoreBoxFactory.create(
+                    cls,
+                    backend,
+                    editor,
+                    resolver,
+                    saveMode,
+                    new ForwardingTargets(
+                            new BackendSharedPreferences(backend),
+                            BackendSharedPreferences.wrap(editor),
+                            SharedPreferences.Editor.class));
+        }
+        
+        /**
+         * @return backend which instances should use, or {@code null} if they
+         * should use the {@link SharedPreferences} directly
+         */
+        private StoreBackend openStore(ValueResolver resolver) {
+            // blobs are always kept in separate files
+            final boolean spilling = (spillThreshold != NO_SPILLING)
+                    || SpillingStoreBackend.hasBlobs(cls);
+            final boolean compressing = (compressThreshold != NO_COMPRESSION)
+                    || CompressingStoreBackend.isCompressing(cls);
+            StoreBackend backend;
+            if (preferencesType == PreferencesType.MEMORY) {
+                backend = MemoryBackends.open(preferencesName);
+            } else if (ShardedStoreBackend.isSharded(cls)) {
+                backend = openShards(resolver);
+            } else if (engine != StoreEngine.SHARED_PREFERENCES) {
+                backend = openBackend(preferencesName);
+            } else if (spilling
+                    || compressing
+                    || journalThreshold != NO_JOURNAL
+                    || encrypted) {
+                
+                backend = journal(
+                        new SharedPreferencesBackend(openPreferences()),
+                        getPreferencesFileName());
+            } else {
+                return null;
+            }
+            
+            if (spilling) {
+                backend = new SpillingStoreBackend(
+                        backend,
+                        new File(
+                                context.getDir(
+                                        ENGINES_DIR, Context.MODE_PRIVATE),
+                                getPreferencesFileName() + SPILL_DIR_SUFFIX),
+                        (spillThreshold != NO_SPILLING)
+                                ? spillThreshold
+                                : Integer.MAX_VALUE);
+            }
+            // compressed values get spilled only if they're still long enough
+            if (compressing) {
+                backend = CompressingStoreBackend.of(
+                        cls, resolver, backend, compressThreshold);
+            }
+            // spilled values get encrypted too
+            if (encrypted) {
+                backend = new EncryptedStoreBackend(
+                        backend,
+                        (keyProvider != null)
+                                ? keyProvider
+                                : new SoftwareKeyProvider(new File(
+                                        context.getDir(
+                                                ENGINES_DIR,
+                                                Context.MODE_PRIVATE),
+                                        KEYS_DIR)),
+                        TextUtils.isEmpty(keyAlias)
+                                ? getPreferencesFileName()
+                                : keyAlias);
+            }
+            
+            return backend;
+        }
+        
+        /**
+         * Validates the options on the calling thread, so that any problems
+         * get reported straight away.
+         * 
+         * @return task opening the preferences which {@link #build()} would
+         * use, and waiting for their values to be loaded
+         */
+        Runnable preloader() {
+            return preloader(Collections.<String>emptySet());
+        }
+        
+        /**
+         * @param keys - keys whose values should also be decoded ahead of
+         * time, if they're read through a custom
+         * {@link net.orange_box.storebox.annotations.method.TypeAdapter}
+         */
+        Runnable preloader(final Set<String> keys) {
+            validate();
+            
+            return new Runnable() {
+                @Override
+                public void run() {
+                    preload();
+                    if (!keys.isEmpty()) {
+                        prefetch(keys);
+                    }
+                }
+            };
+        }
+        
+        private void preload() {
+            if (preferencesType == PreferencesType.MEMORY) {
+                return;
+            }
+            
+            if (ShardedStoreBackend.isSharded(cls)) {
+                final ShardedStoreBackend backend = openShards(
+                        new ResourcesValueResolver(context.getResources()));
+                for (final String shard : backend.getShards()) {
+                    backend.getBackend(shard);
+                }
+            } else if (engine != StoreEngine.SHARED_PREFERENCES) {
+                openBackend(preferencesName);
+            } else {
+                final SharedPreferences prefs = openPreferences();
+                // blocks until the values have been loaded
+                prefs.contains("");
+                
+                journal(
+                        new SharedPreferencesBackend(prefs),
+                        getPreferencesFileName());
+            }
+        }
+        
+        private void prefetch(Set<String> keys) {
+            final ValueResolver resolver =
+                    new ResourcesValueResolver(context.getResources());
+            StoreBackend backend = openStore(resolver);
+            if (backend == null) {
+                backend = new SharedPreferencesBackend(openPreferences());
+            }
+            
+            StartupProfiler.prefetch(cls, backend, resolver, keys);
+        }
+        
+        private ShardedStoreBackend openShards(ValueResolver resolver) {
+            return ShardedStoreBackend.of(
+                    cls,
+                    resolver,
+                    new ShardedStoreBackend.Opener() {
+                        @Override
+                        public StoreBackend open(String shard) {
+                            return openBackend(getShardName(shard));
+                        }
+                    });
+        }
+        
+        private StoreBackend openBackend(String name) {
+            if (engine == StoreEngine.SHARED_PREFERENCES) {
+                return journal(
+                        new SharedPreferencesBackend(
+                                context.getSharedPreferences(
+                                        name, preferencesMode.value())),
+                        name);
+            }
+            
+            if (migrationSource != null) {
+                return migrate(name);
+            }
+            
+            // existing preferences get imported the first time around
+            return durable(FileBackends.open(
+                    engine,
+                    context.getDir(ENGINES_DIR, Context.MODE_PRIVATE),
+                    name,
+                    new File(
+                            new File(
+                                    context.getApplicationInfo().dataDir,
+                                    "shared_prefs"),
+                            name + ".xml"),
+                    cls));
+        }
+        
+        private StoreBackend migrate(String name) {
+            final File directory =
+                    context.getDir(ENGINES_DIR, Context.MODE_PRIVATE);
+            final File checkpoint =
+                    new File(directory, name + MIGRATION_SUFFIX);
+            
+            final StoreBackend target = durable(FileBackends.open(
+                    engine, directory, name, null, cls));
+            if (MigratingStoreBackend.isMigrated(checkpoint)) {
+                return target;
+            }
+            
+            final StoreBackend source;
+            if (migrationSource == StoreEngine.SHARED_PREFERENCES) {
+                source = new SharedPreferencesBackend(
+                        context.getSharedPreferences(
+                                name, preferencesMode.value()));
+            } else {
+                source = FileBackends.open(
+                        migrationSource,
+                        directory,
+                        name,
+                        new File(
+                                new File(
+                                        context.getApplicationInfo().dataDir,
+                                        "shared_prefs"),
+                                name + ".xml"),
+                        cls);
+            }
+            
+            return FileBackends.migrate(
+                    source, target, checkpoint, migrationBatchSize);
+        }
+        
+        private StoreBackend journal(StoreBackend backend, String name) {
+            if (journalThreshold == NO_JOURNAL) {
+                return backend;
+            }
+            
+            return durable(FileBackends.journal(
+                    backend,
+                    new File(
+                            context.getDir(ENGINES_DIR, Context.MODE_PRIVATE),
+                            name + JOURNAL_SUFFIX),
+                    journalThreshold));
+        }
+        
+        private StoreBackend durable(StoreBackend backend) {
+            if (flushPolicy != FlushPolicy.PER_WRITE) {
+                // backends are shared, so the last policy set wins
+                ((BaseStoreBackend) backend).setFlushPolicy(
+                        flushPolicy, groupMillis);
+            }
+            
+            return backend;
+        }
+        
+        private String getPreferencesFileName() {
+            switch (preferencesType) {
+                case ACTIVITY:
+                    return context.getClass().getName();
+                
+                case FILE:
+                case MEMORY:
+                    return preferencesName;
+                
+                case DEFAULT_SHARED:
+                default:
+                    return context.getPackageName() + "_preferences";
+            }
+        }
+        
+        private String getShardName(String shard) {
+            return shard.equals(ShardedStoreBackend.MAIN_SHARD)
+                    ? preferencesName
+                    : preferencesName + "." + shard;
+        }
+        
+        private SharedPreferences openPreferences() {
+            switch (preferencesType) {
+                case ACTIVITY:
+                    return ((Activity) context).getPreferences(
+                            preferencesMode.value());
+                
+                case FILE:
+                    return context.getSharedPreferences(
+                            preferencesName, preferencesMode.value());
+                
+                case DEFAULT_SHARED:
+                default:
+                    return PreferenceManager.getDefaultSharedPreferences(
+                            context);
+            }
         }
         
         private void readAnnotations() {
@@ -132,11 +722,50 @@ public final class StoreBox {
 
                 preferencesType(PreferencesType.FILE, annotation.value());
                 preferencesMode(annotation.mode());
+                engine(annotation.engine());
+            } else if (cls.isAnnotationPresent(MemoryPreferences.class)) {
+                preferencesType(
+                        PreferencesType.MEMORY,
+                        cls.getAnnotation(MemoryPreferences.class).value());
             }
             // save option 
             if (cls.isAnnotationPresent(SaveOption.class)) {
                 saveMode(cls.getAnnotation(SaveOption.class).value());
             }
+            // journal option
+            if (cls.isAnnotationPresent(JournalOption.class)) {
+                journalThreshold(
+                        cls.getAnnotation(JournalOption.class).threshold());
+            }
+            // durability option
+            if (cls.isAnnotationPresent(DurabilityOption.class)) {
+                final DurabilityOption annotation =
+                        cls.getAnnotation(DurabilityOption.class);
+                
+                durability(annotation.value(), annotation.groupMillis());
+            }
+            // encryption option
+            if (cls.isAnnotationPresent(EncryptionOption.class)) {
+                encrypted = true;
+                keyAlias = cls.getAnnotation(EncryptionOption.class).alias();
+            }
+            // compress option
+            if (cls.isAnnotationPresent(CompressOption.class)) {
+                compressThreshold(
+                        cls.getAnnotation(CompressOption.class).threshold());
+            }
+            // spill option
+            if (cls.isAnnotationPresent(SpillOption.class)) {
+                spillThreshold(
+                        cls.getAnnotation(SpillOption.class).threshold());
+            }
+            // migration option
+            if (cls.isAnnotationPresent(MigrationOption.class)) {
+                final MigrationOption annotation =
+                        cls.getAnnotation(MigrationOption.class);
+                
+                migration(annotation.from(), annotation.batchSize());
+            }
         }
         
         private void validate() {
@@ -166,6 +795,119 @@ public final class StoreBox {
                             "Cannot use %1$s with an empty file name",
                             PreferencesType.FILE.name()));
                 }
+            } else if (preferencesType == PreferencesType.MEMORY) {
+                // nothing should end up in a file
+                final Class<?> option;
+                if (journalThreshold != NO_JOURNAL) {
+                    option = JournalOption.class;
+                } else if (spillThreshold != NO_SPILLING
+                        || SpillingStoreBackend.hasBlobs(cls)) {
+                    
+                    option = SpillOption.class;
+                } else if (encrypted) {
+                    option = EncryptionOption.class;
+                } else {
+                    option = null;
+                }
+                
+                if (option != null) {
+                    throw new IllegalArgumentException(String.format(
+                            Locale.ENGLISH,
+                            "Cannot use %1$s with %2$s",
+                            option.getSimpleName(),
+                            PreferencesType.MEMORY.name()));
+                }
+            }
+            
+            if (ShardedStoreBackend.isSharded(cls)
+                    && preferencesType != PreferencesType.FILE) {
+                
+                throw new IllegalArgumentException(String.format(
+                        Locale.ENGLISH,
+                        "Cannot use %1$s without %2$s",
+                        Shard.class.getSimpleName(),
+                        PreferencesType.FILE.name()));
+            }
+            if (journalThreshold != NO_JOURNAL) {
+                if (engine != StoreEngine.SHARED_PREFERENCES) {
+                    throw new IllegalArgumentException(String.format(
+                            Locale.ENGLISH,
+                            "Cannot use %1$s with %2$s",
+                            JournalOption.class.getSimpleName(),
+                            engine.name()));
+                } else if (preferencesMode
+                        == PreferencesMode.MODE_MULTI_PROCESS) {
+                    
+                    throw new IllegalArgumentException(String.format(
+                            Locale.ENGLISH,
+                            "Cannot use %1$s with %2$s",
+                            JournalOption.class.getSimpleName(),
+                            preferencesMode.name()));
+                }
+            }
+            if (SpillingStoreBackend.hasBlobs(cls)) {
+                // blobs are only accessible through the spilling backend
+                if (encrypted) {
+                    throw new IllegalArgumentException(String.format(
+                            Locale.ENGLISH,
+                            "Cannot use %1$s with %2$s values",
+                            EncryptionOption.class.getSimpleName(),
+                            StoreType.BLOB.name()));
+                } else if (compressThreshold != NO_COMPRESSION
+                        || CompressingStoreBackend.isCompressing(cls)) {
+                    
+                    throw new IllegalArgumentException(String.format(
+                            Locale.ENGLISH,
+                            "Cannot use %1$s with %2$s values",
+                            CompressOption.class.getSimpleName(),
+                            StoreType.BLOB.name()));
+                }
+            }
+            if (flushPolicy != FlushPolicy.PER_WRITE
+                    && engine == StoreEngine.SHARED_PREFERENCES
+                    && journalThreshold == NO_JOURNAL) {
+                
+                throw new IllegalArgumentException(String.format(
+                        Locale.ENGLISH,
+                        "Cannot use %1$s with %2$s without a journal",
+                        flushPolicy.name(),
+                        engine.name()));
+            }
+            if (engine != StoreEngine.SHARED_PREFERENCES) {
+                if (preferencesType != PreferencesType.FILE) {
+                    throw new IllegalArgumentException(String.format(
+                            Locale.ENGLISH,
+                            "Cannot use %1$s without %2$s",
+                            engine.name(),
+                            PreferencesType.FILE.name()));
+                } else if (preferencesMode != PreferencesMode.MODE_PRIVATE) {
+                    throw new IllegalArgumentException(String.format(
+                            Locale.ENGLISH,
+                            "Cannot use %1$s with %2$s",
+                            engine.name(),
+                            preferencesMode.name()));
+                }
+            }
+            if (migrationSource != null) {
+                if (migrationSource == engine) {
+                    throw new IllegalArgumentException(String.format(
+                            Locale.ENGLISH,
+                            "Cannot use %1$s from %2$s to itself",
+                            MigrationOption.class.getSimpleName(),
+                            engine.name()));
+                } else if (engine == StoreEngine.SHARED_PREFERENCES) {
+                    throw new IllegalArgumentException(String.format(
+                            Locale.ENGLISH,
+                            "Cannot use %1$s with %2$s",
+                            MigrationOption.class.getSimpleName(),
+                            engine.name()));
+                } else if (migrationBatchSize <= 0) {
+                    throw new IllegalArgumentException(String.format(
+                            Locale.ENGLISH,
+                            "Cannot use %1$s with a batch size of %2$d",
+                            MigrationOption.class.getSimpleName(),
+                            migrationBatchSize));
+                }
             }
         }
     }
@@ -0,0 +1,243 @@
+/*
+ * Copyright 2015 Martin Bella
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.orange_box.storebox.backends;
+
+import android.content.SharedPreferences;
+import android.support.annotation.Nullable;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * {@link SharedPreferences} view of a {@link StoreBackend}, so that methods
+ * forwarded to the preferences or their editor keep working when the values
+ * are stored by a different {@link net.orange_box.storebox.enums.StoreEngine}.
+ * <p>
+ * Unlike with {@link SharedPreferences} the listeners get notified on the
+ * thread which saved the changes.
+ */
+public class BackendSharedPreferences implements SharedPreferences {
+    
+    private final StoreBackend backend;
+    private final Map<OnSharedPreferenceChangeListener, ListenerAdapter>
+            listeners;
+    
+    public BackendSharedPreferences(StoreBackend backend) {
+        this.backend = backend;
+        
+        listeners = new WeakHashMap<>();
+    }
+    
+    /**
+     * @return editor which makes its changes through {@code editor}, so that
+     * both can be used interchangeably
+     */
+    public static SharedPreferences.Editor wrap(StoreBackend.Editor editor) {
+        return new EditorAdapter(editor);
+    }
+    
+    public StoreBackend getBackend() {
+        return backend;
+    }
+    
+    @Override
+    public Map<String, ?> getAll() {
+        return backend.getAll();
+    }
+    
+    @Nullable
+    @Override
+    public String getString(String key, @Nullable String defValue) {
+        return backend.getString(key, defValue);
+    }
+    
+    @Nullable
+    @Override
+    public Set<String> getStringSet(
+            String key,
+            @Nullable Set<String> defValues) {
+        
+        return backend.getStringSet(key, defValues);
+    }
+    
+    @Override
+    public int getInt(String key, int defValue) {
+        return backend.getInt(key, defValue);
+    }
+    
+    @Override
+    public long getLong(String key, long defValue) {
+        return backend.getLong(key, defValue);
+    }
+    
+    @Override
+    public float getFloat(String key, float defValue) {
+        return backend.getFloat(key, defValue);
+    }
+    
+    @Override
+    public boolean getBoolean(String key, boolean defValue) {
+        return backend.getBoolean(key, defValue);
+    }
+    
+    @Override
+    public boolean contains(String key) {
+        return backend.contains(key);
+    }
+    
+    @Override
+    public SharedPreferences.Editor edit() {
+        return new EditorAdapter(backend.edit());
+    }
+    
+    @Override
+    public void registerOnSharedPreferenceChangeListener(
+            OnSharedPreferenceChangeListener listener) {
+        
+        final ListenerAdapter adapter;
+        synchronized (listeners) {
+            if (listeners.containsKey(listener)) {
+                return;
+            }
+            
+            adapter = new ListenerAdapter(this, listener);
+            listeners.put(listener, adapter);
+        }
+        
+        backend.registerListener(adapter);
+    }
+    
+    @Override
+    public void unregisterOnSharedPreferenceChangeListener(
+            OnSharedPreferenceChangeListener listener) {
+        
+        final ListenerAdapter adapter;
+        synchronized (listeners) {
+            adapter = listeners.remove(listener);
+        }
+        
+        if (adapter != null) {
+            backend.unregisterListener(adapter);
+        }
+    }
+    
+    private static final class EditorAdapter implements
+            SharedPreferences.Editor {
+        
+        private final StoreBackend.Editor editor;
+        
+        public EditorAdapter(StoreBackend.Editor editor) {
+            this.editor = editor;
+        }
+        
+        @Override
+        public SharedPreferences.Editor putString(
+                String key,
+                @Nullable String value) {
+            
+            editor.putString(key, value);
+            return this;
+        }
+        
+        @Override
+        public SharedPreferences.Editor putStringSet(
+                String key,
+                @Nullable Set<String> values) {
+            
+            editor.putStringSet(key, values);
+            return this;
+        }
+        
+        @Override
+        public SharedPreferences.Editor putInt(String key, int value) {
+            editor.putInt(key, value);
+            return this;
+        }
+        
+        @Override
+        public SharedPreferences.Editor putLong(String key, long value) {
+            editor.putLong(key, value);
+            return this;
+        }
+        
+        @Override
+        public SharedPreferences.Editor putFloat(String key, float value) {
+            editor.putFloat(key, value);
+            return this;
+        }
+        
+        @Override
+        public SharedPreferences.Editor putBoolean(String key, boolean value) {
+            editor.putBoolean(key, value);
+            return this;
+        }
+        
+        @Override
+        public SharedPreferences.Editor remove(String key) {
+            editor.remove(key);
+            return this;
+        }
+        
+        @Override
+        public SharedPreferences.Editor clear() {
+            editor.clear();
+            return this;
+        }
+        
+        @Override
+        public boolean commit() {
+            return editor.commit();
+        }
+        
+        @Override
+        public void apply() {
+            editor.apply();
+        }
+    }
+    
+    /**
+     * The backend may only keep a weak reference to the adapter, which is
+     * kept alive through the map of listeners for as long as the listener
+     * itself is.
+     */
+    private static final class ListenerAdapter implements
+            StoreBackend.Listener {
+        
+        private final SharedPreferences prefs;
+        private final WeakReference<OnSharedPreferenceChangeListener> listener;
+        
+        public ListenerAdapter(
+                SharedPreferences prefs,
+                OnSharedPreferenceChangeListener listener) {
+            
+            this.prefs = prefs;
+            this.listener = new WeakReference<>(listener);
+        }
+        
+        @Override
+        public void onValueChanged(StoreBackend backend, String key) {
+            final OnSharedPreferenceChangeListener listener =
+                    this.listener.get();
+            if (listener != null) {
+                listener.onSharedPreferenceChanged(prefs, key);
+            }
+        }
+    }
+}
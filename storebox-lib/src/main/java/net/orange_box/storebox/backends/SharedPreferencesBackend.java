@@ -0,0 +1,260 @@
+/*
+ * Copyright 2015 Martin Bella
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.orange_box.storebox.backends;
+
+import android.annotation.SuppressLint;
+import android.annotation.TargetApi;
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.support.annotation.Nullable;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * {@link StoreBackend} storing values in {@link SharedPreferences}, which is
+ * what gets used by default.
+ */
+@SuppressLint("CommitPrefEdits")
+public class SharedPreferencesBackend implements StoreBackend {
+    
+    private final SharedPreferences prefs;
+    private final Map<Listener, ListenerAdapter> listeners;
+    
+    public SharedPreferencesBackend(SharedPreferences prefs) {
+        this.prefs = prefs;
+        
+        listeners = new WeakHashMap<>();
+    }
+    
+    /**
+     * @return editor which makes its changes through {@code editor}, so that
+     * both can be used interchangeably
+     */
+    public static Editor wrap(SharedPreferences.Editor editor) {
+        return new EditorAdapter(editor);
+    }
+    
+    public SharedPreferences getPreferences() {
+        return prefs;
+    }
+    
+    @Override
+    public boolean contains(String key) {
+        return prefs.contains(key);
+    }
+    
+    @Override
+    public Map<String, ?> getAll() {
+        return prefs.getAll();
+    }
+    
+    @Override
+    public boolean getBoolean(String key, boolean defValue) {
+        return prefs.getBoolean(key, defValue);
+    }
+    
+    @Override
+    public float getFloat(String key, float defValue) {
+        return prefs.getFloat(key, defValue);
+    }
+    
+    @Override
+    public int getInt(String key, int defValue) {
+        return prefs.getInt(key, defValue);
+    }
+    
+    @Override
+    public long getLong(String key, long defValue) {
+        return prefs.getLong(key, defValue);
+    }
+    
+    @Nullable
+    @Override
+    public String getString(String key, @Nullable String defValue) {
+        return prefs.getString(key, defValue);
+    }
+    
+    @Nullable
+    @Override
+    public Set<String> getStringSet(
+            String key,
+            @Nullable Set<String> defValues) {
+        
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            return getStringSetApi11(prefs, key, defValues);
+        } else {
+            throw new UnsupportedOperationException(
+                    "Retrieving type STRING_SET from the preferences is " +
+                            "not supported");
+        }
+    }
+    
+    @Override
+    public Editor edit() {
+        return new EditorAdapter(prefs.edit());
+    }
+    
+    @Override
+    public void registerListener(Listener listener) {
+        final ListenerAdapter adapter;
+        synchronized (listeners) {
+            if (listeners.containsKey(listener)) {
+                return;
+            }
+            
+            adapter = new ListenerAdapter(this, listener);
+            listeners.put(listener, adapter);
+        }
+        
+        prefs.registerOnSharedPreferenceChangeListener(adapter);
+    }
+    
+    @Override
+    public void unregisterListener(Listener listener) {
+        final ListenerAdapter adapter;
+        synchronized (listeners) {
+            adapter = listeners.remove(listener);
+        }
+        
+        if (adapter != null) {
+            prefs.unregisterOnSharedPreferenceChangeListener(adapter);
+        }
+    }
+    
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static Set<String> getStringSetApi11(
+            SharedPreferences prefs,
+            String key,
+            Set<String> defValues) {
+        
+        return prefs.getStringSet(key, defValues);
+    }
+    
+    private static final class EditorAdapter implements Editor {
+        
+        private final SharedPreferences.Editor editor;
+        
+        public EditorAdapter(SharedPreferences.Editor editor) {
+            this.editor = editor;
+        }
+        
+        @Override
+        public Editor putBoolean(String key, boolean value) {
+            editor.putBoolean(key, value);
+            return this;
+        }
+        
+        @Override
+        public Editor putFloat(String key, float value) {
+            editor.putFloat(key, value);
+            return this;
+        }
+        
+        @Override
+        public Editor putInt(String key, int value) {
+            editor.putInt(key, value);
+            return this;
+        }
+        
+        @Override
+        public Editor putLong(String key, long value) {
+            editor.putLong(key, value);
+            return this;
+        }
+        
+        @Override
+        public Editor putString(String key, @Nullable String value) {
+            editor.putString(key, value);
+            return this;
+        }
+        
+        @Override
+        public Editor putStringSet(String key, @Nullable Set<String> values) {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+                putStringSetApi11(editor, key, values);
+                return this;
+            } else {
+                throw new UnsupportedOperationException(
+                        "Saving type STRING_SET into the preferences is " +
+                                "not supported");
+            }
+        }
+        
+        @Override
+        public Editor remove(String key) {
+            editor.remove(key);
+            return this;
+        }
+        
+        @Override
+        public Editor clear() {
+            editor.clear();
+            return this;
+        }
+        
+        @Override
+        public boolean commit() {
+            return editor.commit();
+        }
+        
+        @Override
+        public void apply() {
+            editor.apply();
+        }
+        
+        @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+        private static void putStringSetApi11(
+                SharedPreferences.Editor editor,
+                String key,
+                Set<String> values) {
+            
+            editor.putStringSet(key, values);
+        }
+    }
+    
+    /**
+     * {@link SharedPreferences} only keeps a weak reference to the adapter,
+     * which is kept alive through the map of listeners for as long as the
+     * listener itself is.
+     */
+    private static final class ListenerAdapter implements
+            SharedPreferences.OnSharedPreferenceChangeListener {
+        
+        private final StoreBackend backend;
+        private final WeakReference<Listener> listener;
+        
+        public ListenerAdapter(StoreBackend backend, Listener listener) {
+            this.backend = backend;
+            this.listener = new WeakReference<>(listener);
+        }
+        
+        @Override
+        public void onSharedPreferenceChanged(
+                SharedPreferences sharedPreferences,
+                String key) {
+            
+            final Listener listener = this.listener.get();
+            if (listener != null) {
+                listener.onValueChanged(backend, key);
+            }
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2015 Martin Bella
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.orange_box.storebox.utils;
+
+import android.content.res.Resources;
+import android.util.TypedValue;
+
+public final class ResourceUtils {
+    
+    /**
+     * @param res - resources from which the value should be read
+     * @param id - resource identifier of the default value
+     * @param type - boxed type of the value which should be returned
+     * @return value of resource {@code id} converted to {@code type}
+     * 
+     * @see net.orange_box.storebox.annotations.method.DefaultValue
+     */
+    public static Object getDefaultValue(
+            Resources res, int id, Class<?> type) {
+        
+        final TypedValue value = new TypedValue();
+        res.getValue(id, value, true);
+        
+        final Object result;
+        if (type == Boolean.class) {
+            result = value.data != 0;
+        } else if (type == Float.class) {
+            result = value.getFloat();
+        } else if (type == Integer.class) {
+            result = value.data;
+        } else if (type == Long.class) {
+            result = value.data;
+        } else if (type == String.class) {
+            if (value.string == null) {
+                result = new Object(); // we'll fail below
+            } else {
+                result = value.string;
+            }
+        } else {
+            throw new UnsupportedOperationException(
+                    type.getName() + " not supported as a resource default");
+        }
+        
+        TypeUtils.checkDefaultValueType(type, result);
+        
+        return result;
+    }
+    
+    private ResourceUtils() {}
+}
@@ -0,0 +1,477 @@
+/*
+ * Copyright 2015 Martin Bella
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.orange_box.storebox.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Writes the source of an implementation class for the methods analysed by
+ * the {@link StoreBoxProcessor}.
+ * <p>
+ * All types are written out fully-qualified so that the generated code can't
+ * clash with any names used by the interface, and fields are always accessed
+ * through {@code this} so that they can't be shadowed by parameter names.
+ * <p>
+ * Get methods for fixed-size values with a constant key look up their slot
+ * once, so that they can read straight from a {@code SlottedStoreBackend}.
+ */
+final class ImplementationWriter {
+
+    private static final String BACKEND =
+            "net.orange_box.storebox.backends.StoreBackend";
+    private static final String RESOLVER =
+            "net.orange_box.storebox.ValueResolver";
+    private static final String ADAPTER =
+            "net.orange_box.storebox.adapters.StoreBoxTypeAdapter";
+    private static final String SAVE_MODE =
+            "net.orange_box.storebox.enums.SaveMode";
+    private static final String PREFERENCE_UTILS =
+            "net.orange_box.storebox.utils.PreferenceUtils";
+    private static final String STARTUP_PROFILER =
+            "net.orange_box.storebox.StartupProfiler";
+    private static final String TYPE_UTILS =
+            "net.orange_box.storebox.utils.TypeUtils";
+    private static final String SLOTTED =
+            "net.orange_box.storebox.backends.SlottedStoreBackend";
+    private static final String STORE_TYPE =
+            "net.orange_box.storebox.adapters.StoreType";
+
+    private final Writer writer;
+    private final String packageName;
+    private final String className;
+    private final String interfaceName;
+    private final List<MethodModel> methods;
+
+    ImplementationWriter(
+            Writer writer,
+            String packageName,
+            String className,
+            String interfaceName,
+            List<MethodModel> methods) {
+
+        this.writer = writer;
+        this.packageName = packageName;
+        this.className = className;
+        this.interfaceName = interfaceName;
+        this.methods = methods;
+    }
+
+    void write() throws IOException {
+        line(0, "// Generated by the StoreBox annotation processor, do not edit!");
+        if (!packageName.isEmpty()) {
+            line(0, "package %1$s;", packageName);
+        }
+        line(0, "");
+        line(0, "@SuppressWarnings({\"unchecked\", \"rawtypes\"})");
+        line(0, "final class %1$s implements %2$s {", className, interfaceName);
+        line(0, "");
+
+        // fields
+        line(1, "private final %1$s backend;", BACKEND);
+        line(1, "private final %1$s.Editor editor;", BACKEND);
+        line(1, "private final %1$s resolver;", RESOLVER);
+        line(1, "private final %1$s saveMode;", SAVE_MODE);
+        if (hasSlots()) {
+            line(1, "private final %1$s slotted;", SLOTTED);
+        }
+        for (int i = 0; i < methods.size(); i++) {
+            final MethodModel method = methods.get(i);
+
+            if (method.keyResource != null) {
+                line(1, "private final String key%1$d;", i);
+            }
+            if (getSlotType(method) != null) {
+                line(1, "private final int slot%1$d;", i);
+            }
+            if (needsAdapter(method)) {
+                line(1, "private final %1$s adapter%2$d;", ADAPTER, i);
+            }
+            if (method.defaultResource != null) {
+                line(1, "private Object default%1$d;", i);
+            }
+        }
+        line(0, "");
+
+        // constructor
+        line(1, "%1$s(", className);
+        line(3, "%1$s backend,", BACKEND);
+        line(3, "%1$s resolver,", RESOLVER);
+        line(3, "%1$s saveMode) {", SAVE_MODE);
+        line(0, "");
+        line(2, "this.backend = backend;");
+        line(2, "this.editor = backend.edit();");
+        line(2, "this.resolver = resolver;");
+        line(2, "this.saveMode = saveMode;");
+        if (hasSlots()) {
+            line(2, "this.slotted = (backend instanceof %1$s)", SLOTTED);
+            line(4, "? (%1$s) backend", SLOTTED);
+            line(4, ": null;");
+        }
+        for (int i = 0; i < methods.size(); i++) {
+            final MethodModel method = methods.get(i);
+
+            if (method.keyResource != null) {
+                line(2, "this.key%1$d = this.resolver.getString(%2$d);",
+                        i, method.keyResource);
+            }
+            if (getSlotType(method) != null) {
+                line(2, "this.slot%1$d = %2$s.getSlot(", i, SLOTTED);
+                line(4, "backend,");
+                line(4, "%1$s,", quote(method.key));
+                line(4, "%1$s.%2$s);", STORE_TYPE, getSlotType(method));
+            }
+            if (needsAdapter(method)) {
+                line(2, "this.adapter%1$d = %2$s.getTypeAdapter(",
+                        i, TYPE_UTILS);
+                if (method.adapter == null) {
+                    line(4, "%1$s.class);", method.erasedValueType);
+                } else if (method.adapterShared) {
+                    line(4, "%1$s.class,", method.erasedValueType);
+                    line(4, "%1$s.class);", method.adapter);
+                } else {
+                    line(4, "%1$s.class,", method.erasedValueType);
+                    line(4, "%1$s.class,", method.adapter);
+                    line(4, "false);");
+                }
+            }
+        }
+        line(1, "}");
+
+        // methods
+        for (int i = 0; i < methods.size(); i++) {
+            line(0, "");
+            writeMethod(i, methods.get(i));
+        }
+        for (int i = 0; i < methods.size(); i++) {
+            if (methods.get(i).defaultResource != null) {
+                line(0, "");
+                writeDefaultGetter(i, methods.get(i));
+            }
+        }
+
+        line(0, "}");
+    }
+
+    private void writeMethod(int index, MethodModel method)
+            throws IOException {
+
+        line(1, "@Override");
+        final String name = method.method.getSimpleName().toString();
+        final String returnType = method.method.getReturnType().toString();
+        if (method.method.getParameters().isEmpty()) {
+            line(1, "public %1$s %2$s() {", returnType, name);
+        } else {
+            final StringBuilder params = new StringBuilder();
+            for (int i = 0; i < method.method.getParameters().size(); i++) {
+                if (i > 0) {
+                    params.append(", ");
+                }
+                params.append(
+                        method.method.getParameters().get(i).asType())
+                        .append(' ')
+                        .append(method.method.getParameters().get(i)
+                                .getSimpleName());
+            }
+            line(1, "public %1$s %2$s(%3$s) {", returnType, name, params);
+        }
+
+        final String key = getKeyExpression(index, method);
+        switch (method.kind) {
+            case GET:
+                writeGet(index, method, key);
+                break;
+
+            case SET:
+                if (method.isNative) {
+                    line(2, "this.editor.put%1$s(%2$s, %3$s);",
+                            method.getNativeMethodSuffix(),
+                            key,
+                            method.getParameterName());
+                } else {
+                    line(2, "%1$s.putValue(", PREFERENCE_UTILS);
+                    line(4, "this.editor,");
+                    line(4, "%1$s,", key);
+                    line(4, "this.adapter%1$d.getStoreType(),", index);
+                    line(4, "this.adapter%1$d.adaptForPreferences(%2$s));",
+                            index, method.getParameterName());
+                }
+                break;
+
+            case REMOVE:
+                line(2, "this.editor.remove(%1$s);", key);
+                break;
+
+            case REMOVE_BY_ARGUMENT:
+                if (method.keyArgumentIsResource) {
+                    line(2, "this.editor.remove(");
+                    line(4, "this.resolver.getString(%1$s));",
+                            method.getParameterName());
+                } else {
+                    line(2, "this.editor.remove(%1$s);",
+                            method.getParameterName());
+                }
+                break;
+
+            case CLEAR:
+                line(2, "this.editor.clear();");
+                break;
+        }
+
+        if (method.kind != MethodModel.Kind.GET) {
+            writeSave(method);
+
+            switch (method.chaining) {
+                case THIS:
+                    line(2, "return this;");
+                    break;
+
+                case NONE:
+                default:
+                    // NOP
+            }
+        }
+
+        line(1, "}");
+    }
+
+    private void writeGet(int index, MethodModel method, String key)
+            throws IOException {
+
+        final String fallback;
+        if (method.defaultResource != null) {
+            fallback = String.format(
+                    Locale.ENGLISH,
+                    "(%1$s) this.getDefault%2$d()",
+                    method.isNative ? method.boxedValueType : "Object",
+                    index);
+        } else if (method.isNative) {
+            fallback = method.getNativeDefault();
+        } else {
+            fallback = String.format(
+                    Locale.ENGLISH,
+                    "this.adapter%1$d.getDefaultValue()",
+                    index);
+        }
+
+        // parameter default > method-level default
+        final String defValue;
+        if (!method.hasDefaultParameter()) {
+            defValue = fallback;
+        } else {
+            final String provided = method.isNative
+                    ? method.getParameterName()
+                    : String.format(
+                            Locale.ENGLISH,
+                            "this.adapter%1$d.adaptForPreferences(%2$s)",
+                            index,
+                            method.getParameterName());
+
+            if (method.defaultParameterIsPrimitive) {
+                defValue = provided;
+            } else {
+                defValue = String.format(
+                        Locale.ENGLISH,
+                        "(%1$s != null) ? %2$s : %3$s",
+                        method.getParameterName(),
+                        provided,
+                        fallback);
+            }
+        }
+
+        line(2, "%1$s.onRead(this, %2$s);", STARTUP_PROFILER, key);
+        if (getSlotType(method) != null) {
+            line(2, "if (this.slot%1$d != %2$s.NO_SLOT) {", index, SLOTTED);
+            line(3, "return this.slotted.get%1$s(",
+                    method.getNativeMethodSuffix());
+            line(5, "this.slot%1$d,", index);
+            line(5, "%1$s);", defValue);
+            line(2, "}");
+            line(2, "return this.backend.get%1$s(",
+                    method.getNativeMethodSuffix());
+            line(4, "%1$s,", key);
+            line(4, "%1$s);", defValue);
+        } else if (method.isNative) {
+            line(2, "return this.backend.get%1$s(",
+                    method.getNativeMethodSuffix());
+            line(4, "%1$s,", key);
+            line(4, "%1$s);", defValue);
+        } else {
+            line(2, "return (%1$s) %2$s.getAdaptedValue(",
+                    method.boxedValueType, PREFERENCE_UTILS);
+            line(4, "this.backend,");
+            line(4, "%1$s,", key);
+            line(4, "this.adapter%1$d,", index);
+            line(4, "%1$s);", defValue);
+        }
+    }
+
+    private void writeSave(MethodModel method) throws IOException {
+        if (method.saveMode == null) {
+            line(2, "%1$s.saveChanges(this.editor, this.saveMode);",
+                    PREFERENCE_UTILS);
+        } else if (method.saveMode.equals("APPLY")) {
+            line(2, "this.editor.apply();");
+        } else if (method.saveMode.equals("COMMIT")) {
+            line(2, "this.editor.commit();");
+        }
+    }
+
+    /**
+     * Resolving the resource default is deferred until it's needed, so that
+     * a bad default fails when the method gets called like it would with a
+     * proxy.
+     */
+    private void writeDefaultGetter(int index, MethodModel method)
+            throws IOException {
+
+        line(1, "private Object getDefault%1$d() {", index);
+        line(2, "if (this.default%1$d == null) {", index);
+        final String value = String.format(
+                Locale.ENGLISH,
+                "this.resolver.getValue(%1$d, %2$s.class)",
+                method.defaultResource,
+                method.boxedValueType);
+        if (method.isNative) {
+            line(3, "this.default%1$d = %2$s;", index, value);
+        } else {
+            line(3, "this.default%1$d = this.adapter%1$d.adaptForPreferences(",
+                    index);
+            line(5, "%1$s);", value);
+        }
+        line(2, "}");
+        line(2, "return this.default%1$d;", index);
+        line(1, "}");
+    }
+
+    private boolean hasSlots() {
+        for (final MethodModel method : methods) {
+            if (getSlotType(method) != null) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @return name of the {@code StoreType} for get methods which can read
+     * from a slot, {@code null} otherwise
+     */
+    private static String getSlotType(MethodModel method) {
+        if (method.kind != MethodModel.Kind.GET
+                || !method.isNative
+                || method.key == null) {
+
+            return null;
+        }
+
+        switch (method.getNativeMethodSuffix()) {
+            case "Boolean":
+                return "BOOLEAN";
+            case "Float":
+                return "FLOAT";
+            case "Int":
+                return "INTEGER";
+            case "Long":
+                return "LONG";
+            default:
+                return null;
+        }
+    }
+
+    private static boolean needsAdapter(MethodModel method) {
+        return (method.kind == MethodModel.Kind.GET
+                || method.kind == MethodModel.Kind.SET)
+                && !method.isNative;
+    }
+
+    private static String getKeyExpression(int index, MethodModel method) {
+        if (method.key != null) {
+            return quote(method.key);
+        } else if (method.keyResource != null) {
+            return "this.key" + index;
+        } else {
+            return null;
+        }
+    }
+
+    private static String quote(String value) {
+        final StringBuilder result = new StringBuilder(value.length() + 2);
+        result.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                case '\\':
+                    result.append('\\').append(c);
+                    break;
+
+                case '\b':
+                    result.append("\\b");
+                    break;
+
+                case '\t':
+                    result.append("\\t");
+                    break;
+
+                case '\n':
+                    result.append("\\n");
+                    break;
+
+                case '\f':
+                    result.append("\\f");
+                    break;
+
+                case '\r':
+                    result.append("\\r");
+                    break;
+
+                default:
+                    /*
+                     * Unicode escapes get translated before the source is
+                     * parsed, so they can't be used for line terminators,
+                     * quotes or backslashes, whereas octal escapes can.
+                     */
+                    if (c < 0x20 || c == 0x7f) {
+                        result.append(String.format(
+                                Locale.ENGLISH, "\\%1$03o", (int) c));
+                    } else if (c > 0x7f) {
+                        result.append(String.format(
+                                Locale.ENGLISH, "\\u%1$04x", (int) c));
+                    } else {
+                        result.append(c);
+                    }
+            }
+        }
+        result.append('"');
+
+        return result.toString();
+    }
+
+    private void line(int indent, String format, Object... args)
+            throws IOException {
+
+        for (int i = 0; i < indent; i++) {
+            writer.write("    ");
+        }
+        writer.write(String.format(Locale.ENGLISH, format, args));
+        writer.write('\n');
+    }
+}
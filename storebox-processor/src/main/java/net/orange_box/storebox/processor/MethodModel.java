@@ -0,0 +1,137 @@
+/*
+ * Copyright 2015 Martin Bella
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.orange_box.storebox.processor;
+
+import javax.lang.model.element.ExecutableElement;
+
+/**
+ * What the {@link StoreBoxProcessor} found out about an interface method,
+ * mirroring what the run-time invocation handler would resolve for it.
+ */
+final class MethodModel {
+
+    enum Kind {
+        GET,
+        SET,
+        REMOVE,
+        REMOVE_BY_ARGUMENT,
+        CLEAR
+    }
+
+    enum Chaining {
+        NONE,
+        THIS
+    }
+
+    final ExecutableElement method;
+
+    Kind kind;
+
+    /**
+     * Key declared through {@code KeyByString}.
+     */
+    String key;
+    /**
+     * Key declared through {@code KeyByResource}.
+     */
+    Integer keyResource;
+    /**
+     * Whether the argument of a remove method is a resource rather than a
+     * {@link String}.
+     */
+    boolean keyArgumentIsResource;
+
+    /**
+     * Type which gets returned by a get method, or passed into a set method.
+     */
+    String valueType;
+    boolean valueTypeIsPrimitive;
+    String boxedValueType;
+    String erasedValueType;
+    /**
+     * Whether the value can be stored without going through a type adapter.
+     */
+    boolean isNative;
+    /**
+     * Type adapter declared through {@code TypeAdapter}.
+     */
+    String adapter;
+    boolean adapterShared;
+
+    /**
+     * Default declared through {@code DefaultValue}.
+     */
+    Integer defaultResource;
+    boolean defaultParameterIsPrimitive;
+
+    /**
+     * Save mode declared on the method through {@code SaveOption}.
+     */
+    String saveMode;
+    Chaining chaining;
+
+    MethodModel(ExecutableElement method) {
+        this.method = method;
+    }
+
+    boolean hasDefaultParameter() {
+        return kind == Kind.GET && !method.getParameters().isEmpty();
+    }
+
+    String getParameterName() {
+        return method.getParameters().get(0).getSimpleName().toString();
+    }
+
+    /**
+     * @return suffix of the {@code StoreBackend} get and {@code Editor} put
+     * methods for a native value type
+     */
+    String getNativeMethodSuffix() {
+        switch (boxedValueType) {
+            case "java.lang.Boolean":
+                return "Boolean";
+            case "java.lang.Float":
+                return "Float";
+            case "java.lang.Integer":
+                return "Int";
+            case "java.lang.Long":
+                return "Long";
+            case "java.lang.String":
+            default:
+                return "String";
+        }
+    }
+
+    /**
+     * @return same default as the standard type adapters use
+     */
+    String getNativeDefault() {
+        switch (boxedValueType) {
+            case "java.lang.Boolean":
+                return "false";
+            case "java.lang.Float":
+                return "0f";
+            case "java.lang.Integer":
+                return "0";
+            case "java.lang.Long":
+                return "0L";
+            case "java.lang.String":
+            default:
+                return "null";
+        }
+    }
+}
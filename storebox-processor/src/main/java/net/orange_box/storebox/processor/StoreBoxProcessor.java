@@ -0,0 +1,472 @@
+/*
+ * Copyright 2015 Martin Bella
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.orange_box.storebox.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+/**
+ * Generates a plain implementation class for each StoreBox interface, which
+ * calls the {@code StoreBackend} and {@code StoreBackend.Editor} methods
+ * directly instead of going through a dynamic proxy.
+ * <p>
+ * The annotations are read by name so that the processor doesn't need to
+ * depend on the core module. Interfaces which use features the generated
+ * code doesn't support, such as change listeners or forwarding methods, are
+ * skipped with a note and will continue to be backed by a proxy at run-time.
+ */
+public class StoreBoxProcessor extends AbstractProcessor {
+
+    static final String SUFFIX = "_StoreBox";
+
+    private static final String PACKAGE = "net.orange_box.storebox";
+
+    static final String KEY_BY_STRING =
+            PACKAGE + ".annotations.method.KeyByString";
+    static final String KEY_BY_RESOURCE =
+            PACKAGE + ".annotations.method.KeyByResource";
+    static final String DEFAULT_VALUE =
+            PACKAGE + ".annotations.method.DefaultValue";
+    static final String TYPE_ADAPTER =
+            PACKAGE + ".annotations.method.TypeAdapter";
+    static final String REMOVE_METHOD =
+            PACKAGE + ".annotations.method.RemoveMethod";
+    static final String CLEAR_METHOD =
+            PACKAGE + ".annotations.method.ClearMethod";
+    static final String REGISTER_CHANGE_LISTENER_METHOD =
+            PACKAGE + ".annotations.method.RegisterChangeListenerMethod";
+    static final String UNREGISTER_CHANGE_LISTENER_METHOD =
+            PACKAGE + ".annotations.method.UnregisterChangeListenerMethod";
+    static final String SAVE_OPTION =
+            PACKAGE + ".annotations.option.SaveOption";
+    static final String DEFAULT_SHARED_PREFERENCES =
+            PACKAGE + ".annotations.type.DefaultSharedPreferences";
+    static final String ACTIVITY_PREFERENCES =
+            PACKAGE + ".annotations.type.ActivityPreferences";
+    static final String FILE_PREFERENCES =
+            PACKAGE + ".annotations.type.FilePreferences";
+    static final String MEMORY_PREFERENCES =
+            PACKAGE + ".annotations.type.MemoryPreferences";
+
+    static final String EDITOR = "android.content.SharedPreferences.Editor";
+
+    private static final Set<String> NATIVE_TYPES = new HashSet<>(
+            Arrays.asList(
+                    "java.lang.Boolean",
+                    "java.lang.Float",
+                    "java.lang.Integer",
+                    "java.lang.Long",
+                    "java.lang.String"));
+
+    /**
+     * Types stored as a {@code BLOB}, which need the backend to be able to
+     * stream the values so are left to the proxy.
+     */
+    private static final Set<String> STREAMING_TYPES = new HashSet<>(
+            Arrays.asList(
+                    "java.io.InputStream",
+                    "java.io.OutputStream",
+                    "java.nio.ByteBuffer",
+                    "java.nio.channels.ReadableByteChannel"));
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        return new HashSet<>(Arrays.asList(
+                KEY_BY_STRING,
+                KEY_BY_RESOURCE,
+                DEFAULT_VALUE,
+                TYPE_ADAPTER,
+                REMOVE_METHOD,
+                CLEAR_METHOD,
+                REGISTER_CHANGE_LISTENER_METHOD,
+                UNREGISTER_CHANGE_LISTENER_METHOD,
+                SAVE_OPTION,
+                DEFAULT_SHARED_PREFERENCES,
+                ACTIVITY_PREFERENCES,
+                FILE_PREFERENCES,
+                MEMORY_PREFERENCES));
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(
+            Set<? extends TypeElement> annotations,
+            RoundEnvironment roundEnv) {
+
+        final Set<TypeElement> interfaces = new LinkedHashSet<>();
+        for (final TypeElement annotation : annotations) {
+            for (final Element element :
+                    roundEnv.getElementsAnnotatedWith(annotation)) {
+
+                final Element type = (element.getKind() == ElementKind.METHOD)
+                        ? element.getEnclosingElement()
+                        : element;
+                if (type.getKind() == ElementKind.INTERFACE) {
+                    interfaces.add((TypeElement) type);
+                }
+            }
+        }
+
+        for (final TypeElement type : interfaces) {
+            try {
+                generate(type);
+            } catch (UnsupportedException e) {
+                processingEnv.getMessager().printMessage(
+                        Diagnostic.Kind.NOTE,
+                        String.format(
+                                Locale.ENGLISH,
+                                "StoreBox will use a proxy for %1$s, %2$s",
+                                type.getQualifiedName(),
+                                e.getMessage()),
+                        e.element);
+            } catch (IOException e) {
+                processingEnv.getMessager().printMessage(
+                        Diagnostic.Kind.ERROR,
+                        "Failed to write implementation: " + e.getMessage(),
+                        type);
+            }
+        }
+
+        // other processors may be interested in the same annotations
+        return false;
+    }
+
+    private void generate(TypeElement type)
+            throws UnsupportedException, IOException {
+
+        if (!type.getTypeParameters().isEmpty()) {
+            throw new UnsupportedException(type, "it is generic");
+        }
+        for (Element e = type;
+             e.getKind() != ElementKind.PACKAGE;
+             e = e.getEnclosingElement()) {
+
+            if (e.getModifiers().contains(Modifier.PRIVATE)) {
+                throw new UnsupportedException(type, "it is private");
+            }
+        }
+
+        final List<MethodModel> methods = new ArrayList<>();
+        for (final ExecutableElement method : ElementFilter.methodsIn(
+                processingEnv.getElementUtils().getAllMembers(type))) {
+
+            // skip Object's methods, as well as default and static methods
+            if (!method.getModifiers().contains(Modifier.ABSTRACT)) {
+                continue;
+            }
+
+            methods.add(analyse(method));
+        }
+
+        final String packageName = processingEnv.getElementUtils()
+                .getPackageOf(type).getQualifiedName().toString();
+        final String binaryName = processingEnv.getElementUtils()
+                .getBinaryName(type).toString();
+        final String simpleName = (packageName.isEmpty()
+                ? binaryName
+                : binaryName.substring(packageName.length() + 1)) + SUFFIX;
+
+        final JavaFileObject file = processingEnv.getFiler().createSourceFile(
+                packageName.isEmpty()
+                        ? simpleName
+                        : packageName + '.' + simpleName,
+                type);
+        final Writer writer = file.openWriter();
+        try {
+            new ImplementationWriter(
+                    writer,
+                    packageName,
+                    simpleName,
+                    type.getQualifiedName().toString(),
+                    methods).write();
+        } finally {
+            writer.close();
+        }
+    }
+
+    private MethodModel analyse(ExecutableElement method)
+            throws UnsupportedException {
+
+        if (!method.getTypeParameters().isEmpty()) {
+            throw new UnsupportedException(method, "it has a generic method");
+        }
+
+        final MethodModel model = new MethodModel(method);
+        final List<? extends VariableElement> params = method.getParameters();
+
+        final boolean hasKey;
+        final AnnotationMirror keyByString =
+                getAnnotation(method, KEY_BY_STRING);
+        final AnnotationMirror keyByResource =
+                getAnnotation(method, KEY_BY_RESOURCE);
+        if (keyByString != null) {
+            model.key = (String) getValue(keyByString);
+            hasKey = true;
+        } else if (keyByResource != null) {
+            model.keyResource = (Integer) getValue(keyByResource);
+            hasKey = true;
+        } else {
+            hasKey = false;
+        }
+
+        if (hasKey) {
+            if (getAnnotation(method, REMOVE_METHOD) != null) {
+                model.kind = MethodModel.Kind.REMOVE;
+            } else if (getAnnotation(
+                    method, REGISTER_CHANGE_LISTENER_METHOD) != null
+                    || getAnnotation(
+                    method, UNREGISTER_CHANGE_LISTENER_METHOD) != null) {
+
+                throw new UnsupportedException(
+                        method, "change listener methods are not supported");
+            } else if (isSetReturnType(method)) {
+                model.kind = MethodModel.Kind.SET;
+            } else {
+                model.kind = MethodModel.Kind.GET;
+            }
+        } else if (getAnnotation(method, REMOVE_METHOD) != null) {
+            model.kind = MethodModel.Kind.REMOVE_BY_ARGUMENT;
+        } else if (getAnnotation(method, CLEAR_METHOD) != null) {
+            model.kind = MethodModel.Kind.CLEAR;
+        } else {
+            throw new UnsupportedException(
+                    method,
+                    "method " + method.getSimpleName() +
+                            " has no key and would need to be forwarded");
+        }
+
+        switch (model.kind) {
+            case GET:
+                if (params.size() > 1) {
+                    throw new UnsupportedException(
+                            method, "get methods can have at most one argument");
+                }
+                analyseValueType(model, method.getReturnType());
+
+                if (params.size() == 1) {
+                    final TypeMirror param = params.get(0).asType();
+                    if (!processingEnv.getTypeUtils().isSameType(
+                            box(param), box(method.getReturnType()))) {
+
+                        // fail at run-time like a proxy would
+                        throw new UnsupportedException(
+                                method, "default value type doesn't match");
+                    }
+                    model.defaultParameterIsPrimitive =
+                            param.getKind().isPrimitive();
+                }
+
+                final AnnotationMirror defaultValue =
+                        getAnnotation(method, DEFAULT_VALUE);
+                if (defaultValue != null) {
+                    model.defaultResource = (Integer) getValue(defaultValue);
+                }
+                break;
+
+            case SET:
+                if (params.size() != 1) {
+                    throw new UnsupportedException(
+                            method, "set methods need exactly one argument");
+                }
+                analyseValueType(model, params.get(0).asType());
+                break;
+
+            case REMOVE_BY_ARGUMENT:
+                if (params.size() != 1) {
+                    throw new UnsupportedException(
+                            method, "remove methods need exactly one argument");
+                }
+                final String keyType = box(params.get(0).asType()).toString();
+                if (keyType.equals("java.lang.Integer")) {
+                    model.keyArgumentIsResource = true;
+                } else if (!keyType.equals("java.lang.String")) {
+                    throw new UnsupportedException(
+                            method, "remove key must be a String or an int");
+                }
+                break;
+
+            case REMOVE:
+            case CLEAR:
+            default:
+                // NOP
+        }
+
+        if (model.kind != MethodModel.Kind.GET) {
+            final AnnotationMirror saveOption =
+                    getAnnotation(method, SAVE_OPTION);
+            if (saveOption != null) {
+                model.saveMode = ((VariableElement) getValue(saveOption))
+                        .getSimpleName().toString();
+            }
+
+            final TypeMirror returnType = method.getReturnType();
+            if (returnType.getKind() == TypeKind.VOID) {
+                model.chaining = MethodModel.Chaining.NONE;
+            } else if (isDeclaringType(method, returnType)) {
+                model.chaining = MethodModel.Chaining.THIS;
+            } else if (isEditor(returnType)) {
+                // the editor only exists when going through a proxy
+                throw new UnsupportedException(
+                        method,
+                        "method " + method.getSimpleName() +
+                                " returns an Editor");
+            } else {
+                throw new UnsupportedException(
+                        method,
+                        "method " + method.getSimpleName() +
+                                " has an unsupported return type");
+            }
+        }
+
+        return model;
+    }
+
+    private void analyseValueType(MethodModel model, TypeMirror type)
+            throws UnsupportedException {
+
+        if (STREAMING_TYPES.contains(type.toString())) {
+            throw new UnsupportedException(
+                    model.method,
+                    "method " + model.method.getSimpleName() +
+                            " streams its value");
+        }
+
+        model.valueType = type.toString();
+        model.valueTypeIsPrimitive = type.getKind().isPrimitive();
+        model.boxedValueType = box(type).toString();
+        model.erasedValueType =
+                processingEnv.getTypeUtils().erasure(box(type)).toString();
+
+        final AnnotationMirror typeAdapter =
+                getAnnotation(model.method, TYPE_ADAPTER);
+        if (typeAdapter != null) {
+            model.adapter = processingEnv.getTypeUtils().erasure(
+                    (TypeMirror) getValue(typeAdapter)).toString();
+
+            final Object shared = getValue(typeAdapter, "shared");
+            model.adapterShared = (shared == null) || (Boolean) shared;
+        }
+
+        model.isNative = (typeAdapter == null)
+                && NATIVE_TYPES.contains(model.boxedValueType);
+    }
+
+    private boolean isSetReturnType(ExecutableElement method) {
+        final TypeMirror returnType = method.getReturnType();
+
+        return returnType.getKind() == TypeKind.VOID
+                || isDeclaringType(method, returnType)
+                || isEditor(returnType);
+    }
+
+    private boolean isDeclaringType(
+            ExecutableElement method, TypeMirror type) {
+
+        return processingEnv.getTypeUtils().isSameType(
+                type, method.getEnclosingElement().asType());
+    }
+
+    private static boolean isEditor(TypeMirror type) {
+        return type.getKind() == TypeKind.DECLARED
+                && ((TypeElement) ((DeclaredType) type).asElement())
+                .getQualifiedName().contentEquals(EDITOR);
+    }
+
+    private TypeMirror box(TypeMirror type) {
+        if (type.getKind().isPrimitive()) {
+            return processingEnv.getTypeUtils().boxedClass(
+                    processingEnv.getTypeUtils().getPrimitiveType(
+                            type.getKind())).asType();
+        } else {
+            return type;
+        }
+    }
+
+    private static AnnotationMirror getAnnotation(
+            Element element, String name) {
+
+        for (final AnnotationMirror mirror : element.getAnnotationMirrors()) {
+            final TypeElement type =
+                    (TypeElement) mirror.getAnnotationType().asElement();
+            if (type.getQualifiedName().contentEquals(name)) {
+                return mirror;
+            }
+        }
+
+        return null;
+    }
+
+    private static Object getValue(AnnotationMirror mirror) {
+        return getValue(mirror, "value");
+    }
+
+    private static Object getValue(AnnotationMirror mirror, String name) {
+        for (final ExecutableElement element :
+                mirror.getElementValues().keySet()) {
+
+            if (element.getSimpleName().contentEquals(name)) {
+                final AnnotationValue value =
+                        mirror.getElementValues().get(element);
+                return value.getValue();
+            }
+        }
+
+        return null;
+    }
+
+    private static final class UnsupportedException extends Exception {
+
+        private static final long serialVersionUID = 1L;
+
+        private final transient Element element;
+
+        UnsupportedException(Element element, String message) {
+            super(message);
+
+            this.element = element;
+        }
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright 2015 Martin Bella
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.orange_box.storebox.processor;
+
+import com.google.testing.compile.Compilation;
+import com.google.testing.compile.JavaFileObjects;
+
+import org.junit.Test;
+
+import javax.tools.JavaFileObject;
+
+import static com.google.testing.compile.CompilationSubject.assertThat;
+import static com.google.testing.compile.Compiler.javac;
+
+public class StoreBoxProcessorTest {
+
+    @Test
+    public void generatesGetAndSetMethods() {
+        final Compilation compilation = compile(JavaFileObjects.forSourceLines(
+                "test.Prefs",
+                "package test;",
+                "",
+                "import net.orange_box.storebox.annotations.method.KeyByString;",
+                "import net.orange_box.storebox.annotations.option.SaveOption;",
+                "import net.orange_box.storebox.enums.SaveMode;",
+                "",
+                "import java.util.Date;",
+                "",
+                "public interface Prefs {",
+                "",
+                "    @KeyByString(\"key_int\")",
+                "    int getInt();",
+                "",
+                "    @KeyByString(\"key_int\")",
+                "    int getInt(int defValue);",
+                "",
+                "    @KeyByString(\"key_int\")",
+                "    @SaveOption(SaveMode.COMMIT)",
+                "    void setInt(int value);",
+                "",
+                "    @KeyByString(\"key_date\")",
+                "    Date getDate();",
+                "",
+                "    @KeyByString(\"key_date\")",
+                "    Prefs setDate(Date value);",
+                "}"));
+
+        assertThat(compilation).succeeded();
+        assertGenerated(
+                compilation,
+                "test.Prefs_StoreBox",
+                "final class Prefs_StoreBox implements test.Prefs",
+                "return this.backend.getInt(\n"
+                        + "                \"key_int\",\n"
+                        + "                0);",
+                "return this.backend.getInt(\n"
+                        + "                \"key_int\",\n"
+                        + "                defValue);",
+                "this.editor.putInt(\"key_int\", value);\n"
+                        + "        this.editor.commit();",
+                "PreferenceUtils.getAdaptedValue(",
+                "return this;");
+    }
+
+    @Test
+    public void escapesKeys() {
+        final Compilation compilation = compile(JavaFileObjects.forSourceLines(
+                "test.Prefs",
+                "package test;",
+                "",
+                "import net.orange_box.storebox.annotations.method.KeyByString;",
+                "",
+                "public interface Prefs {",
+                "",
+                "    @KeyByString(\"line\\nbreak\\r\\t\\b\\f\\0\\u0001\\\"\\\\\")",
+                "    String getControl();",
+                "",
+                "    @KeyByString(\"\\u00e9\\u2028\\u007f\")",
+                "    String getUnicode();",
+                "}"));
+
+        // would fail to compile if an escape had turned into a line break
+        assertThat(compilation).succeeded();
+        assertGenerated(
+                compilation,
+                "test.Prefs_StoreBox",
+                "\"line\\nbreak\\r\\t\\b\\f\\000\\001\\\"\\\\\"",
+                "\"\\u00e9\\u2028\\177\"");
+    }
+
+    @Test
+    public void proxyUsedForUnsupportedInterfaces() {
+        final JavaFileObject source = JavaFileObjects.forSourceLines(
+                "test.Prefs",
+                "package test;",
+                "",
+                "import net.orange_box.storebox.annotations.method.KeyByString;",
+                "",
+                "public interface Prefs {",
+                "",
+                "    @KeyByString(\"key_int\")",
+                "    int getInt(int first, int second);",
+                "}");
+        final Compilation compilation = compile(source);
+
+        assertThat(compilation).succeeded();
+        assertThat(compilation)
+                .hadNoteContaining("StoreBox will use a proxy for test.Prefs, "
+                        + "get methods can have at most one argument")
+                .inFile(source)
+                .onLine(8);
+    }
+
+    @Test
+    public void proxyUsedForForwardedMethods() {
+        final JavaFileObject source = JavaFileObjects.forSourceLines(
+                "test.Prefs",
+                "package test;",
+                "",
+                "import net.orange_box.storebox.annotations.method.KeyByString;",
+                "",
+                "public interface Prefs {",
+                "",
+                "    @KeyByString(\"key_int\")",
+                "    int getInt();",
+                "",
+                "    boolean contains(String key);",
+                "}");
+        final Compilation compilation = compile(source);
+
+        assertThat(compilation).succeeded();
+        assertThat(compilation)
+                .hadNoteContaining(
+                        "method contains has no key and would need to be "
+                                + "forwarded")
+                .inFile(source)
+                .onLine(10);
+    }
+
+    @Test
+    public void proxyUsedForStreamedValues() {
+        final JavaFileObject source = JavaFileObjects.forSourceLines(
+                "test.Prefs",
+                "package test;",
+                "",
+                "import net.orange_box.storebox.annotations.method.KeyByString;",
+                "",
+                "import java.io.InputStream;",
+                "",
+                "public interface Prefs {",
+                "",
+                "    @KeyByString(\"key_blob\")",
+                "    InputStream getBlob();",
+                "}");
+        final Compilation compilation = compile(source);
+
+        assertThat(compilation).succeeded();
+        assertThat(compilation)
+                .hadNoteContaining("method getBlob streams its value")
+                .inFile(source)
+                .onLine(10);
+    }
+
+    private static Compilation compile(JavaFileObject source) {
+        return javac().withProcessors(new StoreBoxProcessor()).compile(source);
+    }
+
+    private static void assertGenerated(
+            Compilation compilation,
+            String name,
+            String... expected) {
+
+        for (final String value : expected) {
+            assertThat(compilation)
+                    .generatedSourceFile(name)
+                    .contentsAsUtf8String()
+                    .contains(value);
+        }
+    }
+}